@@ -27,9 +27,13 @@ import org.fiware.cybercaptor.server.database.Database;
 import org.fiware.cybercaptor.server.monitoring.Monitoring;
 import org.fiware.cybercaptor.server.properties.ProjectProperties;
 import org.fiware.cybercaptor.server.remediation.DeployableRemediation;
+import org.fiware.cybercaptor.server.remediation.RemediationSimulation;
+import org.fiware.cybercaptor.server.remediation.RemediationSimulator;
 import org.jdom2.Element;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -141,9 +145,36 @@ public class AttackPathManagement {
             return null;
         List<AttackPath> attackPaths = monitoring.getAttackPathList();
         if (id >= 0 && id < attackPaths.size()) {
-            AttackPath attackPath = attackPaths.get(id);
             try {
-                List<DeployableRemediation> remediations = attackPath.getDeployableRemediations(monitoring.getInformationSystem(), db.getConn(), monitoring.getPathToCostParametersFolder());
+                List<DeployableRemediation> remediations = monitoring.getDeployableRemediations(id, db);
+                Element root = new Element("remediations");
+                for (DeployableRemediation remediation : remediations) {
+                    root.addContent(remediation.toXMLElement());
+                }
+                return root;
+            } catch (Exception e) {
+                System.err.println("Error while computing remediations");
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param monitoring      a monitoring object
+     * @param id              the id of the attack path to remediate
+     * @param db              the remediation database
+     * @param numberOfResults the maximum number of remediations to return
+     * @param expansionLimit  the maximum number of expansions of the search
+     * @return the XML element related to the cheapest remediations to the selected attack path contained in the monitoring ojbect
+     */
+    public static Element getCheapestRemediationsXML(Monitoring monitoring, Integer id, Database db, int numberOfResults, int expansionLimit) {
+        if (monitoring == null)
+            return null;
+        List<AttackPath> attackPaths = monitoring.getAttackPathList();
+        if (id >= 0 && id < attackPaths.size()) {
+            try {
+                List<DeployableRemediation> remediations = monitoring.getCheapestDeployableRemediations(id, db, numberOfResults, expansionLimit);
                 Element root = new Element("remediations");
                 for (DeployableRemediation remediation : remediations) {
                     root.addContent(remediation.toXMLElement());
@@ -156,4 +187,49 @@ public class AttackPathManagement {
         }
         return null;
     }
+
+    /**
+     * Simulate a batch of remediations, possibly of several attack paths, and compute the score of the attack graph
+     * after each of them. The json object must contain an array "remediations" of objects
+     * {"attack_path": id of the attack path, "remediation": id of the remediation of this attack path}.
+     *
+     * @param monitoring the monitoring object
+     * @param db         the remediation database
+     * @param json       the json object containing the remediations to simulate
+     * @return the XML element containing the score and the score delta of each simulated remediation
+     * @throws Exception
+     */
+    public static Element simulateRemediationsXML(Monitoring monitoring, Database db, JSONObject json) throws Exception {
+        JSONArray remediationsArray = json.getJSONArray("remediations");
+        int numberAttackPaths = monitoring.getAttackPathList().size();
+
+        List<RemediationSimulation> simulations = new ArrayList<RemediationSimulation>();
+        for (int i = 0; i < remediationsArray.length(); i++) {
+            JSONObject remediationObject = remediationsArray.getJSONObject(i);
+            int attackPathId = remediationObject.getInt("attack_path");
+            int remediationId = remediationObject.getInt("remediation");
+            if (attackPathId < 0 || attackPathId >= numberAttackPaths)
+                throw new Exception("The attack path " + attackPathId + " does not exist. There are only " +
+                        numberAttackPaths + " attack paths (0 to " + (numberAttackPaths - 1) + ")");
+            List<DeployableRemediation> remediations = monitoring.getDeployableRemediations(attackPathId, db);
+            if (remediationId < 0 || remediationId >= remediations.size())
+                throw new Exception("The remediation " + remediationId + " of the attack path " + attackPathId +
+                        " does not exist. There are only " + remediations.size() + " remediations (0 to " +
+                        (remediations.size() - 1) + ")");
+            simulations.add(new RemediationSimulation(attackPathId, remediationId, remediations.get(remediationId)));
+        }
+
+        RemediationSimulator simulator = new RemediationSimulator(monitoring.getAttackGraphSnapshot(),
+                monitoring.getAttackGraph().getNumberOfVertices());
+        simulator.simulate(simulations);
+
+        Element root = new Element("simulations");
+        Element currentScoreElement = new Element("current_score");
+        currentScoreElement.setText(simulator.getCurrentScore() + "");
+        root.addContent(currentScoreElement);
+        for (RemediationSimulation simulation : simulations) {
+            root.addContent(simulation.toXMLElement());
+        }
+        return root;
+    }
 }
@@ -27,18 +27,23 @@ import org.fiware.cybercaptor.server.attackgraph.SecurityRequirement;
 import org.fiware.cybercaptor.server.database.Database;
 import org.fiware.cybercaptor.server.informationsystem.InformationSystem;
 import org.fiware.cybercaptor.server.informationsystem.InformationSystemHost;
+import org.fiware.cybercaptor.server.informationsystem.InformationSystemOverlay;
+import org.fiware.cybercaptor.server.informationsystem.Service;
 import org.fiware.cybercaptor.server.monitoring.Monitoring;
 import org.fiware.cybercaptor.server.properties.ProjectProperties;
 import org.fiware.cybercaptor.server.remediation.DeployableRemediation;
 import org.fiware.cybercaptor.server.remediation.DeployableRemediationAction;
 import org.fiware.cybercaptor.server.remediation.Patch;
 import org.fiware.cybercaptor.server.remediation.Rule;
+import org.fiware.cybercaptor.server.topology.asset.Host;
 import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
 import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -189,16 +194,18 @@ public class InformationSystemManagement {
     }
 
     /**
+     * Simulate a remediation on an information system. The information system is not cloned nor modified :
+     * the changes are only recorded in an overlay, through which the information system can be read.
+     *
      * @param informationSystem The initial topology
      * @param remediation       the remediation deployment that must be simulated
      * @param db                the vulnerability database
-     * @return a clone of the topology, in which the remediation is applied
+     * @return an overlay of the topology, in which the remediation is applied
      */
-    public static InformationSystem simulateRemediationOnNewInforationSystem(InformationSystem informationSystem, DeployableRemediation remediation, Database db) {
-        InformationSystem simulatedTopology = null;
+    public static InformationSystemOverlay simulateRemediationOnInformationSystem(InformationSystem informationSystem, DeployableRemediation remediation, Database db) {
+        InformationSystemOverlay simulatedTopology = new InformationSystemOverlay(informationSystem);
         try {
-            simulatedTopology = informationSystem.clone();
-
+            VulnerabilityCatalog catalog = db.getVulnerabilityCatalog();
             for (int i = 0; i < remediation.getActions().size(); i++) {
                 DeployableRemediationAction action = remediation.getActions().get(i);
                 Logger.getAnonymousLogger().log(Level.INFO, "Simulate the remediation " + action.getRemediationAction().getActionType() + " on machine " + action.getHost());
@@ -206,24 +213,19 @@ public class InformationSystemManagement {
                     case APPLY_PATCH:
                         for (int j = 0; j < action.getRemediationAction().getRemediationParameters().size(); j++) {
                             Patch patch = (Patch) action.getRemediationAction().getRemediationParameters().get(j);
-                            List<Vulnerability> correctedVulnerabilities = patch.getCorectedVulnerabilities(db.getConn());
-                            simulatedTopology.existingMachineByNameOrIPAddress(action.getHost().getName()).correctVulnerabilities(correctedVulnerabilities);
+                            List<Vulnerability> correctedVulnerabilities = patch.getCorectedVulnerabilities(catalog);
+                            simulatedTopology.correctVulnerabilities(informationSystem.existingMachineByNameOrIPAddress(action.getHost().getName()), correctedVulnerabilities);
                         }
                         break;
                     case DEPLOY_FIREWALL_RULE:
                         FirewallRule rule = (FirewallRule) action.getRemediationAction().getRemediationParameters().get(0);
-                        if (rule.getTable() == FirewallRule.Table.INPUT) {
-                            simulatedTopology.existingMachineByNameOrIPAddress(action.getHost().getName()).getInputFirewallRulesTable().getRuleList().add(0, rule);
-                        } else if (rule.getTable() == FirewallRule.Table.OUTPUT) {
-                            simulatedTopology.existingMachineByNameOrIPAddress(action.getHost().getName()).getOutputFirewallRulesTable().getRuleList().add(0, rule);
-                        }
+                        simulatedTopology.addFirewallRule(informationSystem.existingMachineByNameOrIPAddress(action.getHost().getName()), rule);
                         break;
                     case DEPLOY_SNORT_RULE:
                         for (int j = 0; j < action.getRemediationAction().getRemediationParameters().size(); j++) {
                             Rule snortRule = (Rule) action.getRemediationAction().getRemediationParameters().get(j);
-                            List<Vulnerability> correctedVulnerabilities = snortRule.getCorectedVulnerabilities(db.getConn());
-                            //TODO: In fact, the vulnerability is not really corrected but rather suppressed on the path...
-                            simulatedTopology.existingMachineByNameOrIPAddress(action.getRemediationAction().getRelatedVertex().concernedMachine.getName()).correctVulnerabilities(correctedVulnerabilities);
+                            List<Vulnerability> correctedVulnerabilities = snortRule.getCorectedVulnerabilities(catalog);
+                            simulatedTopology.deploySnortRule(informationSystem.existingMachineByNameOrIPAddress(action.getRemediationAction().getRelatedVertex().concernedMachine.getName()), snortRule, correctedVulnerabilities);
                         }
                         break;
                     default:
@@ -238,6 +240,45 @@ public class InformationSystemManagement {
         return simulatedTopology;
     }
 
+    /**
+     * @param informationSystem The initial topology
+     * @param remediation       the remediation deployment that must be simulated
+     * @param db                the vulnerability database
+     * @return a clone of the topology, in which the remediation is applied
+     * @deprecated use {@link #simulateRemediationOnInformationSystem(InformationSystem, DeployableRemediation, Database)},
+     * which does not clone the information system
+     */
+    @Deprecated
+    public static InformationSystem simulateRemediationOnNewInforationSystem(InformationSystem informationSystem, DeployableRemediation remediation, Database db) {
+        InformationSystemOverlay overlay = simulateRemediationOnInformationSystem(informationSystem, remediation, db);
+        InformationSystem simulatedTopology = null;
+        try {
+            simulatedTopology = informationSystem.clone();
+
+            for (Host host : informationSystem.getTopology().getHosts()) {
+                InformationSystemHost simulatedHost = simulatedTopology.existingMachineByName(host.getName());
+                if (simulatedHost == null)
+                    continue;
+                if (overlay.getInputFirewallRulesTable(host) != host.getInputFirewallRulesTable())
+                    simulatedHost.setInputFirewallRulesTable(overlay.getInputFirewallRulesTable(host).clone());
+                if (overlay.getOutputFirewallRulesTable(host) != host.getOutputFirewallRulesTable())
+                    simulatedHost.setOutputFirewallRulesTable(overlay.getOutputFirewallRulesTable(host).clone());
+                if (host instanceof InformationSystemHost) {
+                    for (Service service : ((InformationSystemHost) host).getServices().values()) {
+                        Service simulatedService = simulatedHost.getExistingService(service.getName());
+                        if (simulatedService != null && overlay.getVulnerabilities(service) != service.getVulnerabilities())
+                            simulatedService.setVulnerabilities(new HashMap<String, Vulnerability>(overlay.getVulnerabilities(service)));
+                    }
+                }
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return simulatedTopology;
+    }
+
     /**
      * Execute the python script that builds MulVAL inputs
      *
@@ -0,0 +1,355 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.attackgraph;
+
+import org.fiware.cybercaptor.server.attackgraph.Vertex.VertexType;
+import org.fiware.cybercaptor.server.scoring.gui.Launch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Immutable index of an attack graph, used to simulate the deletion of vertices without cloning the graph.
+ * The vertices and arcs of the snapshot are shared by all the views created from it : a view only stores
+ * the vertices and arcs it has deleted, and the parents and children lists it had to recompute.
+ * The deletion in a view follows exactly the same propagation rules as {@link AttackGraph#deleteVertex(Vertex)}.
+ * Several views of the same snapshot can be used in parallel, by different threads.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class AttackGraphSnapshot {
+
+    /**
+     * The vertices of the attack graph, indexed by identifier (null if there is no vertex with this identifier)
+     */
+    private final Vertex[] verticesById;
+
+    /**
+     * The identifiers of the vertices of the attack graph, in increasing order
+     */
+    private final int[] vertexIds;
+
+    /**
+     * The identifier of the source vertex of each arc, in the order of the arcs of the attack graph
+     */
+    private final int[] arcSources;
+
+    /**
+     * The identifier of the destination vertex of each arc, in the order of the arcs of the attack graph
+     */
+    private final int[] arcDestinations;
+
+    /**
+     * The indexes of the arcs ending on each vertex, in increasing order
+     */
+    private final int[][] incomingArcs;
+
+    /**
+     * The indexes of the arcs starting from each vertex, in increasing order
+     */
+    private final int[][] outgoingArcs;
+
+    /**
+     * Build the snapshot of an attack graph. The attack graph must not be modified while the snapshot is used.
+     *
+     * @param attackGraph the attack graph
+     */
+    public AttackGraphSnapshot(AttackGraph attackGraph) {
+        int highestVertexId = attackGraph.getHighestVertexId();
+        for (Arc arc : attackGraph.arcs) {
+            highestVertexId = Math.max(highestVertexId, Math.max(arc.source.id, arc.destination.id));
+        }
+        this.verticesById = new Vertex[highestVertexId + 1];
+        this.vertexIds = new int[attackGraph.vertices.size()];
+        int i = 0;
+        for (Vertex vertex : attackGraph.vertices.values()) {
+            this.verticesById[vertex.id] = vertex;
+            this.vertexIds[i++] = vertex.id;
+        }
+        Arrays.sort(this.vertexIds);
+
+        int numberOfArcs = attackGraph.arcs.size();
+        this.arcSources = new int[numberOfArcs];
+        this.arcDestinations = new int[numberOfArcs];
+        int[] numberOfIncomingArcs = new int[highestVertexId + 1];
+        int[] numberOfOutgoingArcs = new int[highestVertexId + 1];
+        for (int j = 0; j < numberOfArcs; j++) {
+            Arc arc = attackGraph.arcs.get(j);
+            arcSources[j] = arc.source.id;
+            arcDestinations[j] = arc.destination.id;
+            numberOfIncomingArcs[arc.destination.id]++;
+            numberOfOutgoingArcs[arc.source.id]++;
+        }
+
+        this.incomingArcs = new int[highestVertexId + 1][];
+        this.outgoingArcs = new int[highestVertexId + 1][];
+        for (int id = 0; id <= highestVertexId; id++) {
+            incomingArcs[id] = new int[numberOfIncomingArcs[id]];
+            outgoingArcs[id] = new int[numberOfOutgoingArcs[id]];
+            numberOfIncomingArcs[id] = 0;
+            numberOfOutgoingArcs[id] = 0;
+        }
+        for (int j = 0; j < numberOfArcs; j++) {
+            incomingArcs[arcDestinations[j]][numberOfIncomingArcs[arcDestinations[j]]++] = j;
+            outgoingArcs[arcSources[j]][numberOfOutgoingArcs[arcSources[j]]++] = j;
+        }
+    }
+
+    /**
+     * @return a new view of the attack graph, in which no vertex has been deleted
+     */
+    public View createView() {
+        return new View();
+    }
+
+    /**
+     * @return the number of vertices of the attack graph
+     */
+    public int getNumberOfVertices() {
+        return vertexIds.length;
+    }
+
+    /**
+     * A copy-on-write view of the attack graph snapshot, in which vertices can be deleted.
+     * A view must be used by only one thread.
+     */
+    public class View {
+
+        /**
+         * The identifiers of the deleted vertices
+         */
+        private final BitSet deletedVertices = new BitSet(verticesById.length);
+
+        /**
+         * The indexes of the deleted arcs
+         */
+        private final BitSet deletedArcs = new BitSet(arcSources.length);
+
+        /**
+         * The parents of the vertices, as last computed in this view (null if never recomputed)
+         */
+        private final int[][] parents = new int[verticesById.length][];
+
+        /**
+         * The children of the vertices, as last computed in this view (null if never recomputed)
+         */
+        private final int[][] children = new int[verticesById.length][];
+
+        /**
+         * Create a view in which no vertex has been deleted
+         */
+        private View() {
+        }
+
+        /**
+         * @param id a vertex identifier
+         * @return true if the vertex is in the view (exists in the snapshot and has not been deleted)
+         */
+        public boolean containsVertex(int id) {
+            return id >= 0 && id < verticesById.length && verticesById[id] != null && !deletedVertices.get(id);
+        }
+
+        /**
+         * @return the number of vertices remaining in the view
+         */
+        public int getNumberOfVertices() {
+            return vertexIds.length - deletedVertices.cardinality();
+        }
+
+        /**
+         * Simulate the deletion of a vertex and propagate this deletion on the whole view
+         * (same rules as {@link AttackGraph#deleteVertex(Vertex)}).
+         * Nothing is done if the vertex has already been deleted.
+         *
+         * @param id the identifier of the vertex to delete
+         * @throws Exception
+         */
+        public void deleteVertex(int id) throws Exception {
+            if (id < 0 || id >= verticesById.length || verticesById[id] == null)
+                throw new Exception("The vertex " + id + " is not in this attack graph");
+            deleteVertexRecursive(id);
+        }
+
+        /**
+         * Compute the score of the attack graph of this view
+         *
+         * @param previousMaxScore the previous max score (used for normalization)
+         * @return the score of the view
+         */
+        public double computeScore(double previousMaxScore) {
+            int numberOfVertices = getNumberOfVertices();
+            double[] vertexIDTable = new double[numberOfVertices];
+            String[] vertexFactTable = new String[numberOfVertices];
+            double[] vertexMulvalMetricTable = new double[numberOfVertices];
+            String[] vertexTypeTable = new String[numberOfVertices];
+            ImpactMetric[][] impactMetrics = new ImpactMetric[numberOfVertices][];
+
+            int i = 0;
+            for (int id : vertexIds) {
+                if (deletedVertices.get(id))
+                    continue;
+                Vertex vertex = verticesById[id];
+                vertexIDTable[i] = vertex.id;
+                vertexFactTable[i] = vertex.fact.factString;
+                vertexMulvalMetricTable[i] = vertex.mulvalMetric;
+                vertexTypeTable[i] = vertex.type.toString().toUpperCase();
+                impactMetrics[i] = vertex.impactMetrics.toArray(new ImpactMetric[vertex.impactMetrics.size()]);
+                i++;
+            }
+
+            int numberOfArcs = arcSources.length - deletedArcs.cardinality();
+            double[] arcSrcTable = new double[numberOfArcs];
+            double[] arcDstTable = new double[numberOfArcs];
+            int j = 0;
+            for (int arc = deletedArcs.nextClearBit(0); arc < arcSources.length; arc = deletedArcs.nextClearBit(arc + 1)) {
+                //Same inversion of the sources and destinations as in AttackGraph.scoreAttackGraphAndGetAttackPaths
+                arcDstTable[j] = arcSources[arc];
+                arcSrcTable[j] = arcDestinations[arc];
+                j++;
+            }
+
+            return Launch.score(vertexIDTable, vertexFactTable, vertexMulvalMetricTable, vertexTypeTable,
+                    arcSrcTable, arcDstTable, impactMetrics, previousMaxScore);
+        }
+
+        private void deleteVertexRecursive(int id) {
+            if (deletedVertices.get(id)) //If the vertex has already been deleted
+                return;
+
+            //In all case (AND, OR and LEAF), we delete the vertex
+            deletedVertices.set(id);
+
+            computeParentsAndChildren(id);
+
+            for (int i = 0; i < children[id].length; i++) {
+                int child = children[id][i];
+
+                deleteArc(id, child); //We delete the arc from this vertex to the child
+                if (verticesById[child].type == VertexType.AND) //If the child is an "AND" he must be remove
+                    deleteVertexRecursive(child);
+                else if (verticesById[child].type == VertexType.OR) { //If the child is an "OR" he must be remove only if it was it last parent
+                    computeParentsAndChildren(child);
+                    if (parents[child].length == 0) { //If it is the last parent
+                        deleteVertexRecursive(child);
+                    }
+                }
+            }
+
+            for (int i = 0; i < parents[id].length; i++) { //We delete all vertices from the parents to the vertex
+                int parent = parents[id][i];
+                computeParentsAndChildren(parent);
+                if (children[parent].length == 1 && children[parent][0] == id && parents[parent].length == 0) {//We delete a parent if he has no child remaining and no parents
+                    deleteVertexRecursive(parent);
+                }
+                deleteArc(parent, id);
+            }
+
+            deleteUnreachableVertices();
+        }
+
+        private void deleteArc(int from, int to) {
+            //As in AttackGraph.deleteArc, the arc following a deleted arc in the list is not checked
+            int skippedArc = -1;
+            for (int arc : outgoingArcs[from]) {
+                if (arc == skippedArc || deletedArcs.get(arc))
+                    continue;
+                if (arcDestinations[arc] == to) {
+                    deletedArcs.set(arc);
+                    skippedArc = deletedArcs.nextClearBit(arc + 1);
+                }
+            }
+        }
+
+        private void computeParentsAndChildren(int id) {
+            List<Integer> vertexParents = new ArrayList<Integer>();
+            List<Integer> vertexChildren = new ArrayList<Integer>();
+            for (int arc : incomingArcs[id]) {
+                if (!deletedArcs.get(arc))
+                    vertexParents.add(arcSources[arc]);
+            }
+            for (int arc : outgoingArcs[id]) {
+                if (!deletedArcs.get(arc) && arcDestinations[arc] != id)
+                    vertexChildren.add(arcDestinations[arc]);
+            }
+            parents[id] = toArray(vertexParents);
+            children[id] = toArray(vertexChildren);
+        }
+
+        private void deleteUnreachableVertices() {
+            List<Integer> toDelete = new ArrayList<Integer>();
+            for (int id : vertexIds) {
+                if (!deletedVertices.get(id) && !hasPrerequisiteLeaves(id, new boolean[verticesById.length]))
+                    toDelete.add(id);
+            }
+            if (toDelete.size() > 0) {
+                for (int id : toDelete) {
+                    deleteVertexRecursive(id);
+                }
+                deleteUnreachableVertices();
+            }
+        }
+
+        /**
+         * Same exploration as {@link AttackGraph#getMinimumPrerequisiteLeavesTo(Vertex)}, but only
+         * checks whether the list of leaves would be empty.
+         *
+         * @param id          the identifier of the current vertex
+         * @param alreadySeen the vertices currently explored
+         * @return true if the vertex has at least one prerequisite leaf
+         */
+        private boolean hasPrerequisiteLeaves(int id, boolean[] alreadySeen) {
+            VertexType type = verticesById[id].type;
+            if (type == VertexType.LEAF)
+                return true;
+            if (type == VertexType.OR && !alreadySeen[id]) {
+                computeParentsAndChildren(id);
+                alreadySeen[id] = true;
+                boolean result = false;
+                for (int i = 0; i < parents[id].length; i++) {
+                    if (hasPrerequisiteLeaves(parents[id][i], alreadySeen))
+                        result = true;
+                }
+                alreadySeen[id] = false;
+                return result;
+            } else if (type == VertexType.AND && !alreadySeen[id]) {
+                computeParentsAndChildren(id);
+                alreadySeen[id] = true;
+                for (int i = 0; i < parents[id].length; i++) {
+                    if (!hasPrerequisiteLeaves(parents[id][i], alreadySeen))
+                        return false;
+                }
+                alreadySeen[id] = false;
+                return parents[id].length > 0;
+            }
+            return false;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+}
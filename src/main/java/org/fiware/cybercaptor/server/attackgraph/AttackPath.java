@@ -36,6 +36,7 @@ import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Proto
 import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Table;
 import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
 import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
@@ -329,6 +330,29 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
      * @return the list of possible remediation actions to remediate this attack path : remediation[1] OR remediation[2] OR remediation[3] ; remediation[1] = remediation[1][1] AND remediation[1][2]... [Withour snort rules]
      */
     public List<List<RemediationAction>> getRemedationActions(InformationSystem topology, Connection conn, String costParametersFolder) throws Exception {
+        return getRemedationActions(topology, conn, null, costParametersFolder, null);
+    }
+
+    /**
+     * @param topology             the network topology
+     * @param catalog              the in-memory catalog of the vulnerability database
+     * @param costParametersFolder the folder where the cost parameters are stored
+     * @param leafRemediationMemo  the memo of the leaf remediations shared between attack paths (may be null)
+     * @return the list of possible remediation actions to remediate this attack path : remediation[1] OR remediation[2] OR remediation[3] ; remediation[1] = remediation[1][1] AND remediation[1][2]... [Withour snort rules]
+     */
+    public List<List<RemediationAction>> getRemedationActions(InformationSystem topology, VulnerabilityCatalog catalog, String costParametersFolder, LeafRemediationMemo leafRemediationMemo) throws Exception {
+        return getRemedationActions(topology, null, catalog, costParametersFolder, leafRemediationMemo);
+    }
+
+    /**
+     * @param topology             the network topology
+     * @param conn                 database connection (used if the catalog is null)
+     * @param catalog              the in-memory catalog of the vulnerability database (may be null)
+     * @param costParametersFolder the folder where the cost parameters are stored
+     * @param leafRemediationMemo  the memo of the leaf remediations shared between attack paths (may be null)
+     * @return the list of possible remediation actions to remediate this attack path : remediation[1] OR remediation[2] OR remediation[3] ; remediation[1] = remediation[1][1] AND remediation[1][2]... [Withour snort rules]
+     */
+    private List<List<RemediationAction>> getRemedationActions(InformationSystem topology, Connection conn, VulnerabilityCatalog catalog, String costParametersFolder, LeafRemediationMemo leafRemediationMemo) throws Exception {
         List<List<RemediationAction>> result = new ArrayList<List<RemediationAction>>();
 
 
@@ -365,7 +389,7 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
         //Create a hashlist of the list of remediation for each leaf (possible_actions[1] OR possible_actions[2] OR possible_actions[3] .... with possible_actions[1] = possible_actions[1][1] AND possible_actions[1][2] AND possible_actions[1][3]
         HashMap<Integer, List<List<RemediationAction>>> howToRemediateLeaves = new HashMap<Integer, List<List<RemediationAction>>>();
         for (Vertex leaf : leaves) {
-            howToRemediateLeaves.put(leaf.id, getRemediationActionForLeaf(leaf, topology, conn, costParametersFolder, true));
+            howToRemediateLeaves.put(leaf.id, getRemediationActionForLeaf(leaf, topology, conn, catalog, costParametersFolder, true, leafRemediationMemo));
         }
 
 
@@ -396,7 +420,28 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
      * @throws Exception
      */
     public List<DeployableRemediation> getDeployableRemediations(InformationSystem topology, Connection conn, String costParametersFolder) throws Exception {
-        List<List<RemediationAction>> remediationActions = this.getRemedationActions(topology, conn, costParametersFolder);
+        return getDeployableRemediations(topology, this.getRemedationActions(topology, conn, costParametersFolder));
+    }
+
+    /**
+     * @param topology             the network topology
+     * @param catalog              the in-memory catalog of the vulnerability database
+     * @param costParametersFolder the folder where the cost parameters are stored
+     * @param leafRemediationMemo  the memo of the leaf remediations shared between attack paths (may be null)
+     * @return the list of deployable remediations without snort rules
+     * @throws Exception
+     */
+    public List<DeployableRemediation> getDeployableRemediations(InformationSystem topology, VulnerabilityCatalog catalog, String costParametersFolder, LeafRemediationMemo leafRemediationMemo) throws Exception {
+        return getDeployableRemediations(topology, this.getRemedationActions(topology, catalog, costParametersFolder, leafRemediationMemo));
+    }
+
+    /**
+     * @param topology           the network topology
+     * @param remediationActions the possible remediation actions of this attack path
+     * @return the list of deployable remediations
+     * @throws Exception
+     */
+    private List<DeployableRemediation> getDeployableRemediations(InformationSystem topology, List<List<RemediationAction>> remediationActions) throws Exception {
         List<DeployableRemediation> result = new ArrayList<DeployableRemediation>();
 
         //For all "OR" remediations
@@ -458,6 +503,25 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
         return result;
     }
 
+    /**
+     * Get the K cheapest deployable remediations of this attack path, with a best-first search that does not
+     * materialize all the combinations of machines.
+     *
+     * @param topology             the network topology
+     * @param catalog              the in-memory catalog of the vulnerability database
+     * @param costParametersFolder the folder where the cost parameters are stored
+     * @param leafRemediationMemo  the memo of the leaf remediations shared between attack paths (may be null)
+     * @param numberOfResults      the maximum number of deployable remediations to return
+     * @param expansionLimit       the maximum number of expansions of the search
+     * @return the cheapest deployable remediations, sorted by increasing cost
+     * @throws Exception
+     */
+    public List<DeployableRemediation> getCheapestDeployableRemediations(InformationSystem topology, VulnerabilityCatalog catalog, String costParametersFolder, LeafRemediationMemo leafRemediationMemo, int numberOfResults, int expansionLimit) throws Exception {
+        List<List<RemediationAction>> remediationActions = this.getRemedationActions(topology, catalog, costParametersFolder, leafRemediationMemo);
+        DeployableRemediationSearch search = new DeployableRemediationSearch(this, topology);
+        return search.search(remediationActions, numberOfResults, expansionLimit);
+    }
+
     /**
      * This function compute the scoring of this attack path (float between 0 and 1 : 1 = will arrive ; 0 = can't arrive
      */
@@ -682,6 +746,61 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
         return getRemediationActionForLeaf(leaf, topology, conn, costParametersFolder, true);
     }
 
+    /**
+     * Get the remediation actions of a leaf, using a memo shared between attack paths.
+     * The remediations of a vulExists leaf with snort rules depend on the attacker routes in this path,
+     * so these routes are part of the key of the leaf.
+     *
+     * @param leaf                An attack path leaf
+     * @param topology            the network topology
+     * @param catalog             the in-memory catalog of the vulnerability database
+     * @param useSnortRule        : if true, use the snort rules else don't use it for remediation
+     * @param leafRemediationMemo the memo of the leaf remediations (may be null)
+     * @return the possible remediation action to remediate this leaf. To remediate the leaf, we can apply remediation[1] OR remadiation[2] OR remediation[3]
+     * the remediation[1] is remediation[1][1] AND remediation[1][2] AND remediation[1][3] etc...
+     * @throws Exception
+     */
+    public List<List<RemediationAction>> getRemediationActionForLeaf(Vertex leaf, InformationSystem topology, VulnerabilityCatalog catalog, String costParametersFolder, boolean useSnortRule, LeafRemediationMemo leafRemediationMemo) throws Exception {
+        return getRemediationActionForLeaf(leaf, topology, null, catalog, costParametersFolder, useSnortRule, leafRemediationMemo);
+    }
+
+    /**
+     * Get the remediation actions of a leaf, using a memo shared between attack paths.
+     *
+     * @param leaf                An attack path leaf
+     * @param topology            the network topology
+     * @param conn                the database connection (used if the catalog is null)
+     * @param catalog             the in-memory catalog of the vulnerability database (may be null)
+     * @param useSnortRule        : if true, use the snort rules else don't use it for remediation
+     * @param leafRemediationMemo the memo of the leaf remediations (may be null)
+     * @return the possible remediation action to remediate this leaf
+     * @throws Exception
+     */
+    private List<List<RemediationAction>> getRemediationActionForLeaf(Vertex leaf, InformationSystem topology, Connection conn, VulnerabilityCatalog catalog, String costParametersFolder, boolean useSnortRule, LeafRemediationMemo leafRemediationMemo) throws Exception {
+        if (leafRemediationMemo == null || leaf.fact == null || leaf.fact.type != FactType.DATALOG_FACT || leaf.fact.datalogCommand == null)
+            return getRemediationActionForLeaf(leaf, topology, conn, catalog, costParametersFolder, useSnortRule);
+
+        String routesKey = null;
+        if (useSnortRule && leaf.fact.datalogCommand.command.equals("vulExists")) {
+            StringBuilder routes = new StringBuilder();
+            for (List<InformationSystemHost> route : getAttackerRouteToAVulnerability(leaf, topology)) {
+                routes.append('[');
+                for (InformationSystemHost host : route) {
+                    routes.append(host.getName()).append(';');
+                }
+                routes.append(']');
+            }
+            routesKey = routes.toString();
+        }
+        String key = LeafRemediationMemo.buildKey(leaf.fact.factString, useSnortRule, routesKey);
+
+        List<List<RemediationAction>> result = leafRemediationMemo.get(key);
+        if (result == null) {
+            result = leafRemediationMemo.put(key, getRemediationActionForLeaf(leaf, topology, conn, catalog, costParametersFolder, useSnortRule));
+        }
+        return result;
+    }
+
     /**
      * @param leaf         An attack path leaf
      * @param topology     the network topology
@@ -692,6 +811,19 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
      * @throws Exception
      */
     public List<List<RemediationAction>> getRemediationActionForLeaf(Vertex leaf, InformationSystem topology, Connection conn, String costParametersFolder, boolean useSnortRule) throws Exception {
+        return getRemediationActionForLeaf(leaf, topology, conn, null, costParametersFolder, useSnortRule);
+    }
+
+    /**
+     * @param leaf         An attack path leaf
+     * @param topology     the network topology
+     * @param conn         the database connection (used if the catalog is null)
+     * @param catalog      the in-memory catalog of the vulnerability database (may be null)
+     * @param useSnortRule : if true, use the snort rules else don't use it for remediation
+     * @return the possible remediation action to remediate this leaf
+     * @throws Exception
+     */
+    private List<List<RemediationAction>> getRemediationActionForLeaf(Vertex leaf, InformationSystem topology, Connection conn, VulnerabilityCatalog catalog, String costParametersFolder, boolean useSnortRule) throws Exception {
         List<List<RemediationAction>> result = new ArrayList<List<RemediationAction>>();
         if (leaf.fact != null && leaf.fact.type == FactType.DATALOG_FACT && leaf.fact.datalogCommand != null) {
             DatalogCommand command = leaf.fact.datalogCommand;
@@ -699,12 +831,19 @@ public class AttackPath extends MulvalAttackGraph implements Cloneable {
             switch (command.command) {
                 case "vulExists": {
                     List<RemediationAction> remediateVulnerability = new ArrayList<RemediationAction>();
-                    Vulnerability vulnerability = new Vulnerability(conn, Vulnerability.getIdVulnerabilityFromCVE(command.params[1], conn));
                     List<List<InformationSystemHost>> attackerPath = getAttackerRouteToAVulnerability(leaf, topology);
+                    List<Patch> patches;
+                    List<Rule> rules;
+                    if (catalog != null) {
+                        patches = catalog.getPatches(command.params[1]); //Get the path of this vulnerability
+                        rules = catalog.getRules(command.params[1]); //Get the snort rules related to this vulnerability
+                    } else {
+                        Vulnerability vulnerability = new Vulnerability(conn, Vulnerability.getIdVulnerabilityFromCVE(command.params[1], conn));
 
-                    List<Patch> patches = vulnerability.getPatchs(conn); //Get the path of this vulnerability
+                        patches = vulnerability.getPatchs(conn); //Get the path of this vulnerability
 
-                    List<Rule> rules = vulnerability.getRules(conn); //Get the snort rules related to this vulnerability
+                        rules = vulnerability.getRules(conn); //Get the snort rules related to this vulnerability
+                    }
 
                     if (patches.size() > 0) {
                         RemediationAction remediation = new RemediationAction(ActionType.APPLY_PATCH, costParametersFolder);
@@ -0,0 +1,131 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.attackgraph;
+
+import org.fiware.cybercaptor.server.remediation.RemediationAction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Memo of the remediation actions computed for attack path leaves.
+ * The same leaf fact (e.g. vulExists(host, CVE, ...) or hacl(...)) appears in many attack paths,
+ * this memo allows to resolve it only once and to share the result between all the paths of a monitoring object.
+ * It must be cleared when the information system, the cost parameters or the database change.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class LeafRemediationMemo {
+
+    /**
+     * The remediation actions of the leaves, indexed by the key of the leaf
+     */
+    private final HashMap<String, List<List<RemediationAction>>> remediationsByLeaf = new HashMap<String, List<List<RemediationAction>>>();
+
+    /**
+     * The number of leaves resolved from the memo
+     */
+    private long hits = 0;
+
+    /**
+     * The number of leaves that had to be resolved
+     */
+    private long misses = 0;
+
+    /**
+     * Build the key of a leaf
+     *
+     * @param factString   the string of the leaf fact
+     * @param useSnortRule true if the snort rules are used to remediate the leaf
+     * @param routesKey    a string representing the attacker routes to the leaf, if the remediations depend on it, else null
+     * @return the key of the leaf in the memo
+     */
+    public static String buildKey(String factString, boolean useSnortRule, String routesKey) {
+        StringBuilder key = new StringBuilder(factString.intern());
+        key.append('|').append(useSnortRule);
+        if (routesKey != null)
+            key.append('|').append(routesKey);
+        return key.toString().intern();
+    }
+
+    /**
+     * @param key the key of the leaf
+     * @return the memoized remediation actions of the leaf, or null if the leaf has not already been resolved
+     */
+    public synchronized List<List<RemediationAction>> get(String key) {
+        List<List<RemediationAction>> result = remediationsByLeaf.get(key);
+        if (result != null)
+            hits++;
+        else
+            misses++;
+        return result;
+    }
+
+    /**
+     * Store the remediation actions of a leaf
+     *
+     * @param key          the key of the leaf
+     * @param remediations the remediation actions of the leaf (remediation[1] OR remediation[2]... with remediation[i] = remediation[i][1] AND remediation[i][2]...)
+     * @return the stored (not modifiable) remediation actions
+     */
+    public synchronized List<List<RemediationAction>> put(String key, List<List<RemediationAction>> remediations) {
+        List<List<RemediationAction>> stored = new ArrayList<List<RemediationAction>>(remediations.size());
+        for (List<RemediationAction> remediation : remediations) {
+            stored.add(Collections.unmodifiableList(new ArrayList<RemediationAction>(remediation)));
+        }
+        stored = Collections.unmodifiableList(stored);
+        remediationsByLeaf.put(key, stored);
+        return stored;
+    }
+
+    /**
+     * Delete all the memoized remediations
+     */
+    public synchronized void clear() {
+        remediationsByLeaf.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the number of memoized leaves
+     */
+    public synchronized int size() {
+        return remediationsByLeaf.size();
+    }
+
+    /**
+     * @return the number of leaves resolved from the memo
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of leaves that had to be resolved
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
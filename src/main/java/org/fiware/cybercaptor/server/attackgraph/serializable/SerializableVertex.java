@@ -31,6 +31,11 @@ import java.io.Serializable;
  * @author Francois -Xavier Aguessy
  */
 public class SerializableVertex implements Serializable {
+    /**
+     * The serialization version, fixed to the implicit one of the class without {@link #getKey()},
+     * as the vertices are stored in the remediation history files
+     */
+    private static final long serialVersionUID = -4391343702163560348L;
 
     /**
      * The related machine (if type of vertex is Machine)
@@ -156,4 +161,13 @@ public class SerializableVertex implements Serializable {
         result &= (this.getMachine().equals(vertex.getMachine()));
         return result;
     }
+
+    /**
+     * Get a canonical key of this vertex: two vertices are equals if and only if they have the same key
+     *
+     * @return the key of the vertex
+     */
+    public String getKey() {
+        return getType() + "|" + getMachine() + "|" + getNetwork() + "|" + isMachineOfAttacker() + "|" + isCompromised() + "|" + isTarget();
+    }
 }
@@ -0,0 +1,458 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.database;
+
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
+import org.json.JSONObject;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of connections to a sqlite database file, shared by all the {@link Database} objects opened on this file.
+ * The pool contains one connection used for writing (the database is switched to the WAL journal mode,
+ * so that the readers are not blocked by the writer), and a bounded number of read-only connections
+ * for the query paths. A read-only connection is bound to the thread that acquired it until it is released,
+ * so nested acquisitions in the same thread get the same connection, with its cache of prepared statements.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class ConnectionPool {
+    /**
+     * The default maximum number of read-only connections of a pool
+     */
+    public static final int DEFAULT_MAXIMUM_READ_CONNECTIONS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The default maximum time to wait for a read-only connection, in milliseconds
+     */
+    public static final long ACQUIRE_TIMEOUT = 30000;
+
+    /**
+     * The time to wait for a lock of the database file, in milliseconds
+     */
+    public static final int BUSY_TIMEOUT = 30000;
+
+    /**
+     * The pools, indexed by the canonical path of the database file
+     */
+    private static final HashMap<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+    /**
+     * The jdbc url of the database file
+     */
+    private final String url;
+
+    /**
+     * The database file
+     */
+    private final File file;
+
+    /**
+     * The write-ahead log file of the database
+     */
+    private final File walFile;
+
+    /**
+     * The lock protecting the vulnerability catalog
+     */
+    private final Object catalogLock = new Object();
+
+    /**
+     * The in-memory catalog of the database, loaded at its first use
+     */
+    private VulnerabilityCatalog vulnerabilityCatalog = null;
+
+    /**
+     * The state of the database files when the catalog was loaded (null if the catalog must be reloaded)
+     */
+    private String vulnerabilityCatalogFileStamp = null;
+
+    /**
+     * The number of loadings of the catalog
+     */
+    private long vulnerabilityCatalogVersion = 0;
+
+    /**
+     * The connection used to write in the database
+     */
+    private final Connection writeConnection;
+
+    /**
+     * True if the database is in WAL journal mode
+     */
+    private final boolean walEnabled;
+
+    /**
+     * The maximum number of read-only connections
+     */
+    private final int maximumReadConnections;
+
+    /**
+     * The maximum time to wait for a read-only connection, in milliseconds
+     */
+    private final long acquireTimeout;
+
+    /**
+     * The read-only connections which are not currently used
+     */
+    private final LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+
+    /**
+     * The read-only connection currently held by each thread
+     */
+    private final ThreadLocal<PooledConnection> connectionOfThread = new ThreadLocal<PooledConnection>();
+
+    /**
+     * True once the pool has been closed
+     */
+    private boolean closed = false;
+
+    /**
+     * The number of read-only connections opened by the pool
+     */
+    private int numberOfReadConnections = 0;
+
+    /**
+     * The number of read-only connections currently used
+     */
+    private int numberOfUsedConnections = 0;
+
+    /**
+     * The number of acquisitions of a read-only connection (nested acquisitions excluded)
+     */
+    private long numberOfAcquisitions = 0;
+
+    /**
+     * The number of acquisitions which had to wait for a connection to be released
+     */
+    private long numberOfWaits = 0;
+
+    /**
+     * The total time spent waiting for a connection, in nanoseconds
+     */
+    private long totalWaitTime = 0;
+
+    /**
+     * The number of acquisitions which failed because no connection was released in time
+     */
+    private long numberOfTimeouts = 0;
+
+    /**
+     * Open a pool of connections on a database file
+     *
+     * @param path                   the path of the sqlite database file
+     * @param maximumReadConnections the maximum number of read-only connections
+     * @param acquireTimeout         the maximum time to wait for a read-only connection, in milliseconds
+     * @throws Exception
+     */
+    ConnectionPool(String path, int maximumReadConnections, long acquireTimeout) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        this.url = "jdbc:sqlite:" + path;
+        this.file = new File(path);
+        this.walFile = new File(path + "-wal");
+        this.maximumReadConnections = maximumReadConnections;
+        this.acquireTimeout = acquireTimeout;
+
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout("" + BUSY_TIMEOUT);
+        this.writeConnection = DriverManager.getConnection(url, config.toProperties());
+        this.walEnabled = enableWAL(writeConnection);
+    }
+
+    /**
+     * Get the connection pool of a database file, opening it if needed
+     *
+     * @param path the path of the sqlite database file
+     * @return the connection pool shared by all the users of this file
+     * @throws Exception
+     */
+    public static ConnectionPool getConnectionPool(String path) throws Exception {
+        String key = new File(path).getCanonicalPath();
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(path, DEFAULT_MAXIMUM_READ_CONNECTIONS, ACQUIRE_TIMEOUT);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * @return the connection used to write in the database (shared by all the users of the pool)
+     */
+    public Connection getWriteConnection() {
+        return writeConnection;
+    }
+
+    /**
+     * Acquire a read-only connection. If the current thread already holds a connection, the same one is returned.
+     * Each acquisition must be followed by a call to {@link PooledConnection#release()}.
+     *
+     * @return a read-only connection, bound to the current thread until it is released
+     * @throws SQLException if no connection could be opened or released in time
+     */
+    public PooledConnection acquireReadConnection() throws SQLException {
+        PooledConnection connection = connectionOfThread.get();
+        if (connection != null) {
+            connection.hold();
+            return connection;
+        }
+
+        boolean mustOpen = false;
+        synchronized (this) {
+            checkNotClosed();
+            numberOfAcquisitions++;
+            if (idleConnections.isEmpty() && numberOfReadConnections >= maximumReadConnections) {
+                numberOfWaits++;
+                long start = System.nanoTime();
+                long deadline = start + acquireTimeout * 1000000L;
+                try {
+                    while (idleConnections.isEmpty() && numberOfReadConnections >= maximumReadConnections) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            numberOfTimeouts++;
+                            throw new SQLException("No connection to the database " + url + " has been released in " + acquireTimeout + " ms");
+                        }
+                        wait(Math.max(1, remaining / 1000000L));
+                        checkNotClosed();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a connection to the database " + url);
+                } finally {
+                    totalWaitTime += System.nanoTime() - start;
+                }
+            }
+            if (!idleConnections.isEmpty()) {
+                connection = idleConnections.removeFirst();
+            } else {
+                //Reserve the connection, it is opened outside of the lock
+                numberOfReadConnections++;
+                mustOpen = true;
+            }
+            numberOfUsedConnections++;
+        }
+
+        if (mustOpen) {
+            try {
+                connection = new PooledConnection(this, openReadConnection());
+                PreparedQueries.register(connection);
+            } catch (SQLException e) {
+                synchronized (this) {
+                    numberOfReadConnections--;
+                    numberOfUsedConnections--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+        connection.hold();
+        connectionOfThread.set(connection);
+        return connection;
+    }
+
+    /**
+     * Give back a read-only connection to the pool, once it is not held anymore by its thread
+     *
+     * @param connection the connection to give back
+     */
+    void release(PooledConnection connection) {
+        connectionOfThread.remove();
+        boolean mustClose;
+        synchronized (this) {
+            numberOfUsedConnections--;
+            mustClose = closed;
+            if (mustClose)
+                numberOfReadConnections--;
+            else
+                idleConnections.addFirst(connection);
+            notifyAll();
+        }
+        if (mustClose)
+            connection.close();
+    }
+
+    /**
+     * Close the pool. Its idle read-only connections and its write connection are closed, the read-only connections
+     * currently used are closed when they are released, and the next users of the database file get a new pool.
+     */
+    public void close() {
+        synchronized (pools) {
+            Iterator<ConnectionPool> iterator = pools.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == this)
+                    iterator.remove();
+            }
+        }
+        List<PooledConnection> connectionsToClose;
+        synchronized (this) {
+            closed = true;
+            connectionsToClose = new ArrayList<PooledConnection>(idleConnections);
+            numberOfReadConnections -= idleConnections.size();
+            idleConnections.clear();
+            notifyAll();
+        }
+        for (PooledConnection connection : connectionsToClose) {
+            connection.close();
+        }
+        try {
+            writeConnection.close();
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "Error while closing the connection to the database " + url + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @throws SQLException if the pool has been closed
+     */
+    private void checkNotClosed() throws SQLException {
+        if (closed)
+            throw new SQLException("The connection pool of the database " + url + " is closed");
+    }
+
+    /**
+     * Get the in-memory catalog of the database. It is reloaded if the database files changed since its loading.
+     *
+     * @return the vulnerability catalog
+     * @throws SQLException if the catalog can not be loaded
+     */
+    public VulnerabilityCatalog getVulnerabilityCatalog() throws SQLException {
+        synchronized (catalogLock) {
+            String fileStamp = computeFileStamp();
+            if (vulnerabilityCatalog == null || !fileStamp.equals(vulnerabilityCatalogFileStamp)) {
+                long start = System.currentTimeMillis();
+                vulnerabilityCatalog = VulnerabilityCatalog.load(this, ++vulnerabilityCatalogVersion);
+                vulnerabilityCatalogFileStamp = fileStamp;
+                Logger.getAnonymousLogger().log(Level.INFO, "Vulnerability catalog loaded in " + (System.currentTimeMillis() - start) + " ms (" + vulnerabilityCatalog.getNumberOfVulnerabilities() + " vulnerabilities)");
+            }
+            return vulnerabilityCatalog;
+        }
+    }
+
+    /**
+     * @return the in-memory catalog of the database if it is already loaded and up to date, else null
+     */
+    public VulnerabilityCatalog getLoadedVulnerabilityCatalog() {
+        synchronized (catalogLock) {
+            if (vulnerabilityCatalog != null && computeFileStamp().equals(vulnerabilityCatalogFileStamp))
+                return vulnerabilityCatalog;
+            return null;
+        }
+    }
+
+    /**
+     * Force the reloading of the vulnerability catalog at its next use
+     */
+    public void invalidateVulnerabilityCatalog() {
+        synchronized (catalogLock) {
+            vulnerabilityCatalogFileStamp = null;
+        }
+    }
+
+    /**
+     * @return a stamp of the state of the database files, which changes when the database is modified
+     */
+    private String computeFileStamp() {
+        return file.lastModified() + ":" + file.length() + ":" + walFile.lastModified() + ":" + walFile.length();
+    }
+
+    /**
+     * @return true if the database is in WAL journal mode
+     */
+    public boolean isWalEnabled() {
+        return walEnabled;
+    }
+
+    /**
+     * @return the metrics of the pool
+     */
+    public synchronized JSONObject getMetrics() {
+        long statementCacheHits = 0;
+        long statementCacheMisses = 0;
+        for (PooledConnection connection : idleConnections) {
+            statementCacheHits += connection.getStatementCacheHits();
+            statementCacheMisses += connection.getStatementCacheMisses();
+        }
+        JSONObject metrics = new JSONObject();
+        metrics.put("url", url);
+        metrics.put("wal", walEnabled);
+        metrics.put("maximum_read_connections", maximumReadConnections);
+        metrics.put("read_connections", numberOfReadConnections);
+        metrics.put("used_read_connections", numberOfUsedConnections);
+        metrics.put("idle_read_connections", idleConnections.size());
+        metrics.put("acquisitions", numberOfAcquisitions);
+        metrics.put("waits", numberOfWaits);
+        metrics.put("total_wait_time_ms", totalWaitTime / 1000000L);
+        metrics.put("timeouts", numberOfTimeouts);
+        metrics.put("idle_statement_cache_hits", statementCacheHits);
+        metrics.put("idle_statement_cache_misses", statementCacheMisses);
+        return metrics;
+    }
+
+    /**
+     * Open a new read-only connection on the database file
+     *
+     * @return the connection
+     * @throws SQLException
+     */
+    private Connection openReadConnection() throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setBusyTimeout("" + BUSY_TIMEOUT);
+        return config.createConnection(url);
+    }
+
+    /**
+     * Switch the database to the WAL journal mode
+     *
+     * @param connection a connection allowed to write in the database
+     * @return true if the database is in WAL journal mode
+     */
+    private static boolean enableWAL(Connection connection) {
+        try {
+            Statement stmt = connection.createStatement();
+            ResultSet res = stmt.executeQuery("PRAGMA journal_mode=WAL");
+            boolean result = res.next() && "wal".equalsIgnoreCase(res.getString(1));
+            res.close();
+            stmt.close();
+            if (!result)
+                Logger.getAnonymousLogger().log(Level.WARNING, "The WAL journal mode can not be used for this database");
+            return result;
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "The WAL journal mode can not be used for this database: " + e.getMessage());
+            return false;
+        }
+    }
+}
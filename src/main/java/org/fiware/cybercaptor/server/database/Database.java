@@ -20,10 +20,16 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.database;
 
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -33,6 +39,26 @@ import java.sql.Statement;
  * @author Francois-Xavier Aguessy
  */
 public class Database {
+    /**
+     * The version of the schema of the database, stored in its user_version pragma
+     */
+    public static final int SCHEMA_VERSION = 1;
+
+    /**
+     * The indexes of the lookup columns (added in the version 1 of the schema), with the table they index.
+     * The text columns are indexed case-insensitively, as they are looked up, and the indexes contain the
+     * columns read by the lookups, so that the table rows are not read.
+     */
+    private static final String[][] LOOKUP_INDEXES = {
+            {"vulnerability", "CREATE INDEX IF NOT EXISTS index_vulnerability_cve ON vulnerability (cve COLLATE NOCASE, id);"},
+            {"cpe", "CREATE INDEX IF NOT EXISTS index_cpe_cpe_id ON cpe (cpe_id COLLATE NOCASE, id);"},
+            {"patchs", "CREATE INDEX IF NOT EXISTS index_patchs_link ON patchs (link COLLATE NOCASE);"},
+            {"rules", "CREATE INDEX IF NOT EXISTS index_rules_rule ON rules (rule COLLATE NOCASE);"},
+            {"rules_vulnerability", "CREATE INDEX IF NOT EXISTS index_rules_vulnerability_id_vulnerability ON rules_vulnerability (id_vulnerability ASC, id_rule ASC);"},
+            {"patchs_vulnerability", "CREATE INDEX IF NOT EXISTS index_patchs_vulnerability_id_vulnerability ON patchs_vulnerability (id_vulnerability ASC, id_patch ASC);"},
+            {"cpe_vulnerability", "CREATE INDEX IF NOT EXISTS index_cpe_vulnerability_id_vulnerability ON cpe_vulnerability (id_vulnerability ASC, id_cpe ASC);"}
+    };
+
     /**
      * Time out to load the database
      */
@@ -42,6 +68,16 @@ public class Database {
      */
     private Connection conn;
 
+    /**
+     * The pool of connections to the sqlite database file
+     */
+    private ConnectionPool pool;
+
+    /**
+     * The path of the sqlite database file
+     */
+    private String path;
+
     /**
      * Constructor of Database class
      *
@@ -60,29 +96,26 @@ public class Database {
      * @throws Exception
      */
     public void loadFromFile(String path) throws Exception {
-
-        // register the driver
-        String sDriverName = "org.sqlite.JDBC";
-        Class.forName(sDriverName);
-
-        // now we set up a set of fairly basic string variables to use in the body of the code proper
-        String sJdbc = "jdbc:sqlite";
-        String sDbUrl = sJdbc + ":" + path;
-
-        // create a database connection
-        this.conn = DriverManager.getConnection(sDbUrl);
-
+        // the connections are shared by all the Database objects opened on the same file
+        this.pool = ConnectionPool.getConnectionPool(path);
+        this.conn = pool.getWriteConnection();
+        this.path = path;
+        try {
+            upgradeSchema();
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "The schema of the database " + path + " could not be upgraded", e);
+        }
     }
 
     /**
-     * Close the connection to the database
+     * Acquire a read-only connection to the database, for the query paths.
+     * It must be released with {@link PooledConnection#release()} once the queries are done.
+     *
+     * @return a read-only connection, bound to the current thread
+     * @throws SQLException if no connection is available
      */
-    public void finalize() {
-        try {
-            getConn().close();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    public PooledConnection acquireReadConnection() throws SQLException {
+        return pool.acquireReadConnection();
     }
 
     /**
@@ -105,7 +138,46 @@ public class Database {
         executeQuery("CREATE TABLE IF NOT EXISTS cpe (id INTEGER PRIMARY KEY AUTOINCREMENT, cpe_id TEXT);");
         executeQuery("CREATE TABLE IF NOT EXISTS cpe_vulnerability (id_cpe INTEGER, id_vulnerability INTEGER);");
         executeQuery("CREATE UNIQUE INDEX IF NOT EXISTS index_cpe_vulnerability ON cpe_vulnerability (id_cpe ASC, id_vulnerability ASC);");
+        for (String[] index : LOOKUP_INDEXES) {
+            executeQuery(index[1]);
+        }
+        executeQuery("PRAGMA user_version = " + SCHEMA_VERSION);
+    }
 
+    /**
+     * Upgrade the schema of an existing database to the current version, creating the indexes of the lookup columns.
+     * Nothing is done if the database is empty (its schema is created by {@link #createDB()}) or already up to date.
+     *
+     * @throws SQLException
+     */
+    public void upgradeSchema() throws SQLException {
+        Statement stmt = getConn().createStatement();
+        try {
+            ResultSet res = stmt.executeQuery("PRAGMA user_version");
+            int version = res.next() ? res.getInt(1) : 0;
+            res.close();
+            if (version >= SCHEMA_VERSION)
+                return;
+
+            Set<String> tables = new HashSet<String>();
+            res = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'");
+            while (res.next()) {
+                tables.add(res.getString(1));
+            }
+            res.close();
+            if (!tables.contains("vulnerability"))
+                return;
+
+            long start = System.currentTimeMillis();
+            for (String[] index : LOOKUP_INDEXES) {
+                if (tables.contains(index[0]))
+                    stmt.executeUpdate(index[1]);
+            }
+            stmt.executeUpdate("PRAGMA user_version = " + SCHEMA_VERSION);
+            Logger.getAnonymousLogger().log(Level.INFO, "Schema of the database " + path + " upgraded from version " + version + " to version " + SCHEMA_VERSION + " in " + (System.currentTimeMillis() - start) + " ms");
+        } finally {
+            stmt.close();
+        }
     }
 
     /**
@@ -119,12 +191,45 @@ public class Database {
         stmt.setQueryTimeout(timeout);
         stmt.executeUpdate(query);
         stmt.close();
+        pool.invalidateVulnerabilityCatalog();
     }
 
     /**
-     * @return the connection element
+     * @return the connection used to write in the database
      */
     public Connection getConn() {
         return conn;
     }
+
+    /**
+     * Get the in-memory catalog of the vulnerabilities and remediations of the database,
+     * shared by all the users of the database file and reloaded when the file changes.
+     *
+     * @return the vulnerability catalog
+     * @throws SQLException if the catalog can not be loaded
+     */
+    public VulnerabilityCatalog getVulnerabilityCatalog() throws SQLException {
+        return pool.getVulnerabilityCatalog();
+    }
+
+    /**
+     * @return the in-memory catalog of the database if it is already loaded and up to date, else null
+     */
+    public VulnerabilityCatalog getLoadedVulnerabilityCatalog() {
+        return pool.getLoadedVulnerabilityCatalog();
+    }
+
+    /**
+     * @return the pool of connections to the database
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * @return the path of the sqlite database file
+     */
+    public String getPath() {
+        return path;
+    }
 }
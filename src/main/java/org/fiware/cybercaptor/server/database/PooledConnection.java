@@ -0,0 +1,170 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A read-only connection of a {@link ConnectionPool}, with its cache of prepared statements.
+ * It is used by only one thread at a time : the thread that acquired it, until it releases it.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class PooledConnection {
+    /**
+     * The maximum number of prepared statements kept in the cache
+     */
+    public static final int STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * The pool of the connection
+     */
+    private final ConnectionPool pool;
+
+    /**
+     * The jdbc connection
+     */
+    private final Connection connection;
+
+    /**
+     * The cached prepared statements, indexed by their sql query, the least recently used first
+     */
+    private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > STATEMENT_CACHE_SIZE) {
+                try {
+                    eldest.getValue().close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * The number of nested acquisitions of the connection by its thread
+     */
+    private int holdCount = 0;
+
+    /**
+     * The number of prepared statements found in the cache
+     */
+    private long statementCacheHits = 0;
+
+    /**
+     * The number of prepared statements not found in the cache
+     */
+    private long statementCacheMisses = 0;
+
+    /**
+     * Create a pooled connection
+     *
+     * @param pool       the pool of the connection
+     * @param connection the jdbc connection
+     */
+    PooledConnection(ConnectionPool pool, Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+    }
+
+    /**
+     * @return the jdbc connection (read-only)
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get a prepared statement from the cache of the connection, preparing it only at its first use.
+     * The statement must not be closed, and must not be executed again while one of its result sets is still used.
+     *
+     * @param sql the sql query
+     * @return the prepared statement
+     * @throws SQLException
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null) {
+            statementCacheHits++;
+            statement.clearParameters();
+            return statement;
+        }
+        statementCacheMisses++;
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    /**
+     * Release the connection. It is given back to the pool when all the nested acquisitions have been released.
+     */
+    public void release() {
+        holdCount--;
+        if (holdCount == 0)
+            pool.release(this);
+    }
+
+    /**
+     * @return the number of prepared statements found in the cache
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits;
+    }
+
+    /**
+     * @return the number of prepared statements not found in the cache
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses;
+    }
+
+    /**
+     * Register a new acquisition of the connection by its thread
+     */
+    void hold() {
+        holdCount++;
+    }
+
+    /**
+     * Close the prepared statements and the jdbc connection, and unregister it from {@link PreparedQueries}
+     */
+    void close() {
+        PreparedQueries.unregister(this);
+        for (PreparedStatement statement : statements.values()) {
+            PreparedQueries.closeStatement(statement);
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "Error while closing a connection to the database: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the lookup queries of the vulnerability database. The text columns are compared with equality
+ * (case-insensitive, so that the indexes created by {@link Database#upgradeSchema()} are used), and the queries are
+ * prepared only once per connection :
+ * <ul>
+ * <li>the read-only connections of a {@link ConnectionPool} use their own cache of prepared statements;</li>
+ * <li>the other connections (such as the write connection, which is shared by several threads) use one bounded cache per thread.</li>
+ * </ul>
+ * The statements returned by {@link #prepare(Connection, String)} must not be closed, and their result sets must be closed
+ * before the same query is executed again on the same connection.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class PreparedQueries {
+    /**
+     * Get a vulnerability with its id
+     */
+    public static final String VULNERABILITY_BY_ID = "SELECT id, cve, description, cvss_id FROM vulnerability WHERE id = ?";
+
+    /**
+     * Get a vulnerability with its CVE
+     */
+    public static final String VULNERABILITY_BY_CVE = "SELECT id, cve, description, cvss_id FROM vulnerability WHERE cve = ? COLLATE NOCASE ORDER BY id LIMIT 1";
+
+    /**
+     * Get the id of a vulnerability with its CVE
+     */
+    public static final String VULNERABILITY_ID_BY_CVE = "SELECT id FROM vulnerability WHERE cve = ? COLLATE NOCASE ORDER BY id LIMIT 1";
+
+    /**
+     * Get a cvss with its id
+     */
+    public static final String CVSS_BY_ID = "SELECT * FROM cvss WHERE id = ?";
+
+    /**
+     * Get a patch with its id
+     */
+    public static final String PATCH_BY_ID = "SELECT * FROM patchs WHERE id = ?";
+
+    /**
+     * Get a patch with its link or its id
+     */
+    public static final String PATCH_BY_LINK_OR_ID = "SELECT * FROM patchs WHERE link = ? COLLATE NOCASE OR id = ? ORDER BY id LIMIT 1";
+
+    /**
+     * Get a rule with its id
+     */
+    public static final String RULE_BY_ID = "SELECT id, rule, description, sid, gid FROM rules WHERE id = ?";
+
+    /**
+     * Get a rule with its text
+     */
+    public static final String RULE_BY_TEXT = "SELECT * FROM rules WHERE rule = ? COLLATE NOCASE ORDER BY id LIMIT 1";
+
+    /**
+     * Get a CPE with its name
+     */
+    public static final String CPE_BY_NAME = "SELECT id, cpe_id FROM cpe WHERE cpe_id = ? COLLATE NOCASE ORDER BY id LIMIT 1";
+
+    /**
+     * Get the ids of the rules detecting a vulnerability
+     */
+    public static final String RULES_OF_VULNERABILITY = "SELECT id_rule FROM rules_vulnerability WHERE id_vulnerability = ?";
+
+    /**
+     * Get the ids of the patches correcting a vulnerability
+     */
+    public static final String PATCHS_OF_VULNERABILITY = "SELECT id_patch FROM patchs_vulnerability WHERE id_vulnerability = ?";
+
+    /**
+     * Get the ids of the vulnerabilities detected by a rule
+     */
+    public static final String VULNERABILITIES_OF_RULE = "SELECT id_vulnerability FROM rules_vulnerability WHERE id_rule = ?";
+
+    /**
+     * Get the ids of the vulnerabilities corrected by a patch
+     */
+    public static final String VULNERABILITIES_OF_PATCH = "SELECT id_vulnerability FROM patchs_vulnerability WHERE id_patch = ?";
+
+    /**
+     * Get the ids of the vulnerabilities of a CPE
+     */
+    public static final String VULNERABILITIES_OF_CPE = "SELECT id_vulnerability FROM cpe_vulnerability WHERE id_cpe = ?";
+
+    /**
+     * The read-only connections of the pools, with their cache of prepared statements
+     */
+    private static final Map<Connection, PooledConnection> pooledConnections = new ConcurrentHashMap<Connection, PooledConnection>();
+
+    /**
+     * The prepared statements of the other connections, for each thread, indexed by their connection and their query,
+     * the least recently used first. The cache is bounded, and the statements removed from it are closed,
+     * so that the connections which are not used anymore are released.
+     */
+    private static final ThreadLocal<LinkedHashMap<StatementKey, PreparedStatement>> statements = new ThreadLocal<LinkedHashMap<StatementKey, PreparedStatement>>() {
+        @Override
+        protected LinkedHashMap<StatementKey, PreparedStatement> initialValue() {
+            return new LinkedHashMap<StatementKey, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+                    if (size() > PooledConnection.STATEMENT_CACHE_SIZE) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    };
+
+    /**
+     * Get a query of the registry prepared on a connection. The query is prepared only at its first use on the connection.
+     *
+     * @param conn  the database connection
+     * @param query the sql query (one of the constants of this class)
+     * @return the prepared statement, that must not be closed
+     * @throws SQLException
+     */
+    public static PreparedStatement prepare(Connection conn, String query) throws SQLException {
+        PooledConnection pooledConnection = pooledConnections.get(conn);
+        if (pooledConnection != null)
+            return pooledConnection.prepareStatement(query);
+
+        LinkedHashMap<StatementKey, PreparedStatement> threadStatements = statements.get();
+        StatementKey key = new StatementKey(conn, query);
+        PreparedStatement statement = threadStatements.get(key);
+        if (statement == null || statement.isClosed()) {
+            statement = conn.prepareStatement(query);
+            threadStatements.put(key, statement);
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Register a read-only connection of a pool, so that it uses its own cache of prepared statements
+     *
+     * @param pooledConnection the pooled connection
+     */
+    static void register(PooledConnection pooledConnection) {
+        pooledConnections.put(pooledConnection.getConnection(), pooledConnection);
+    }
+
+    /**
+     * Unregister a read-only connection of a pool, when it is closed
+     *
+     * @param pooledConnection the pooled connection
+     */
+    static void unregister(PooledConnection pooledConnection) {
+        pooledConnections.remove(pooledConnection.getConnection());
+    }
+
+    /**
+     * Close a prepared statement removed from a cache
+     *
+     * @param statement the statement
+     */
+    static void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "Error while closing a prepared statement: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The key of a prepared statement in the cache of a thread: its connection (compared by identity) and its query
+     */
+    private static final class StatementKey {
+        /**
+         * The connection of the statement
+         */
+        private final Connection connection;
+
+        /**
+         * The sql query of the statement
+         */
+        private final String query;
+
+        /**
+         * Create the key of a statement
+         *
+         * @param connection the connection of the statement
+         * @param query      the sql query of the statement
+         */
+        StatementKey(Connection connection, String query) {
+            this.connection = connection;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StatementKey))
+                return false;
+            StatementKey other = (StatementKey) obj;
+            return connection == other.connection && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(connection) + query.hashCode();
+        }
+    }
+}
@@ -39,6 +39,11 @@ public class FlowMatrix {
      */
     private List<FlowMatrixLine> flowMatrixLines = new ArrayList<>();
 
+    /**
+     * The index of the flow matrix lines, built at the first access check
+     */
+    private volatile FlowMatrixIndex index;
+
     /**
      * Create an empty flow matrix
      */
@@ -78,15 +83,7 @@ public class FlowMatrix {
         //TODO : note that this is false if local filtering is enabled...
         if (ni1.getVlan().equals(ni2.getVlan()))
             return true;
-        for (FlowMatrixLine flowMatrixLine : this.getFlowMatrixLines()) {
-            if (flowMatrixLine.getSource().contains(ni1) && flowMatrixLine.getDestination().contains(ni2)
-                    && flowMatrixLine.getDestination_port().inRange(destinationPort)
-                    && (flowMatrixLine.getProtocol() == FirewallRule.Protocol.ANY || protocol.equals(flowMatrixLine.getProtocol()) || protocol == FirewallRule.Protocol.ANY)) {
-                return true;
-            }
-
-        }
-        return false;
+        return getIndex().accessAuthorized(ni1, ni2, destinationPort, protocol);
     }
 
     /**
@@ -101,15 +98,7 @@ public class FlowMatrix {
     public boolean accessAuthorizedFromInternet(Interface ni, int destinationPort, FirewallRule.Protocol protocol) {
         if (this.getFlowMatrixLines().size() == 0)
             return true; //If there is no flow matrix loaded, return always true...
-        for (FlowMatrixLine flowMatrixLine : this.getFlowMatrixLines()) {
-            if (flowMatrixLine.getSource().isInternet() && flowMatrixLine.getDestination().contains(ni)
-                    && flowMatrixLine.getDestination_port().inRange(destinationPort)
-                    && (flowMatrixLine.getProtocol() == FirewallRule.Protocol.ANY || protocol.equals(flowMatrixLine.getProtocol()))) {
-                return true;
-            }
-
-        }
-        return false;
+        return getIndex().accessAuthorizedFromInternet(ni, destinationPort, protocol);
     }
 
     /**
@@ -119,4 +108,24 @@ public class FlowMatrix {
         return flowMatrixLines;
     }
 
+    /**
+     * Invalidate the index of the lines, after a modification of the lines list that does not change its size,
+     * or of the network of a VLAN used in a line
+     */
+    public void invalidate() {
+        index = null;
+    }
+
+    /**
+     * @return the index of the lines, rebuilt if it has been invalidated or if the list of lines has been modified directly
+     */
+    private FlowMatrixIndex getIndex() {
+        FlowMatrixIndex currentIndex = index;
+        if (currentIndex == null || !currentIndex.isIndexOf(flowMatrixLines)) {
+            currentIndex = new FlowMatrixIndex(flowMatrixLines);
+            index = currentIndex;
+        }
+        return currentIndex;
+    }
+
 }
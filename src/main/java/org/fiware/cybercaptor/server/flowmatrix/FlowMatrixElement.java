@@ -92,16 +92,14 @@ public class FlowMatrixElement {
             case INTERNET:
                 return false;
             case IP:
-                return ni.getAddress().equals(this.getResource());
+                return this.getResource() instanceof Interface && ni.getAddress() != null
+                        && ni.getAddress().equals(((Interface) this.getResource()).getAddress());
             case VLAN:
-                try {
-                    VLAN vlan = (VLAN) this.getResource();
-                    return IPAddress.networkInOtherNetwork(new IPAddress(ni.getAddress().getAddress()), IPAddress.getIPv4NetMask(32), new IPAddress(
-                            vlan.getNetworkAddress().getAddress()), IPAddress.getIPv4NetMask(vlan.getNetworkMask()));
-                } catch (Exception e) {
-                    e.printStackTrace();
+                VLAN vlan = (VLAN) this.getResource();
+                if (vlan == null || vlan.getNetworkAddress() == null || ni.getAddress() == null)
                     return false;
-                }
+                return IPAddress.networkInOtherNetwork(ni.getAddress().toInt(), IPAddress.getIPv4NetMaskInt(32),
+                        vlan.getNetworkAddress().toInt(), IPAddress.getIPv4NetMaskInt(vlan.getNetworkMask()));
             default:
                 return false;
         }
@@ -0,0 +1,405 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.flowmatrix;
+
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.VLAN;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
+import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the lines of a flow matrix, keyed by their source and destination elements.
+ * The IP elements are indexed in hash maps, the VLAN elements in prefix tries of their networks,
+ * and the destination ports of each couple of elements in sorted interval lists, one per protocol.
+ * The lines from Internet are indexed only by their destination element, and the lines towards Internet,
+ * that can not contain any network interface, are not indexed.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+class FlowMatrixIndex {
+    /**
+     * The number of lines of the flow matrix when it was indexed, used to detect its direct modifications
+     */
+    private final int indexedLinesSize;
+
+    /**
+     * The lines which source is an IP or a VLAN, by source then by destination element
+     */
+    private final ElementIndex<ElementIndex<PortRanges>> lines = new ElementIndex<ElementIndex<PortRanges>>();
+
+    /**
+     * The lines which source is Internet, by destination element
+     */
+    private final ElementIndex<PortRanges> linesFromInternet = new ElementIndex<PortRanges>();
+
+    /**
+     * Index the lines of a flow matrix
+     *
+     * @param flowMatrixLines the lines of the flow matrix
+     */
+    FlowMatrixIndex(List<FlowMatrixLine> flowMatrixLines) {
+        this.indexedLinesSize = flowMatrixLines.size();
+        List<PortRanges> allPortRanges = new ArrayList<PortRanges>();
+        for (FlowMatrixLine flowMatrixLine : flowMatrixLines) {
+            FlowMatrixElement source = flowMatrixLine.getSource();
+            FlowMatrixElement destination = flowMatrixLine.getDestination();
+            ElementIndex<PortRanges> destinations;
+            if (source.isInternet()) {
+                destinations = linesFromInternet;
+            } else {
+                destinations = lines.get(source);
+                if (destinations == null) {
+                    destinations = new ElementIndex<PortRanges>();
+                    if (!lines.put(source, destinations))
+                        continue; //the source contains no network interface
+                }
+            }
+            PortRanges portRanges = destinations.get(destination);
+            if (portRanges == null) {
+                portRanges = new PortRanges();
+                if (!destinations.put(destination, portRanges))
+                    continue; //the destination contains no network interface
+                allPortRanges.add(portRanges);
+            }
+            portRanges.add(flowMatrixLine.getProtocol(), flowMatrixLine.getDestination_port());
+        }
+        for (PortRanges portRanges : allPortRanges) {
+            portRanges.compile();
+        }
+    }
+
+    /**
+     * @param flowMatrixLines the lines of the flow matrix
+     * @return true if the lines have not been modified since they were indexed (as far as their number tells)
+     */
+    boolean isIndexOf(List<FlowMatrixLine> flowMatrixLines) {
+        return flowMatrixLines.size() == indexedLinesSize;
+    }
+
+    /**
+     * Test if a line of the flow matrix authorizes an access between two network interfaces
+     *
+     * @param ni1             the source network interface
+     * @param ni2             the destination network interface
+     * @param destinationPort the destination port
+     * @param protocol        the protocol
+     * @return true if a line which source contains ni1 and destination contains ni2 authorizes the port and protocol
+     * (the protocol ANY being authorized by the lines of any protocol)
+     */
+    boolean accessAuthorized(Interface ni1, Interface ni2, int destinationPort, FirewallRule.Protocol protocol) {
+        if (ni1.getAddress() == null || ni2.getAddress() == null)
+            return false;
+        List<ElementIndex<PortRanges>> sources = new ArrayList<ElementIndex<PortRanges>>();
+        lines.collect(ni1.getAddress().toInt(), sources);
+        List<PortRanges> destinations = new ArrayList<PortRanges>();
+        for (ElementIndex<PortRanges> source : sources) {
+            source.collect(ni2.getAddress().toInt(), destinations);
+        }
+        for (PortRanges portRanges : destinations) {
+            if (portRanges.contains(protocol, destinationPort, true))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Test if a line of the flow matrix authorizes an access from Internet to a network interface
+     *
+     * @param ni              the destination network interface
+     * @param destinationPort the destination port
+     * @param protocol        the protocol
+     * @return true if a line from Internet which destination contains ni authorizes the port and protocol
+     * (the protocol ANY being authorized only by the lines of protocol ANY)
+     */
+    boolean accessAuthorizedFromInternet(Interface ni, int destinationPort, FirewallRule.Protocol protocol) {
+        if (ni.getAddress() == null)
+            return false;
+        List<PortRanges> destinations = new ArrayList<PortRanges>();
+        linesFromInternet.collect(ni.getAddress().toInt(), destinations);
+        for (PortRanges portRanges : destinations) {
+            if (portRanges.contains(protocol, destinationPort, false))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Index of values by flow matrix element: the IP elements by address, and the VLAN elements
+     * in a binary prefix trie of their networks, so that all the elements containing an address
+     * are found by following the path of its bits.
+     *
+     * @param <V> the type of the values
+     */
+    private static class ElementIndex<V> {
+        /**
+         * The values of the IP elements, by 32 bits address
+         */
+        private final HashMap<Integer, V> byAddress = new HashMap<Integer, V>();
+
+        /**
+         * The root of the prefix trie of the VLAN elements (the network 0.0.0.0/0)
+         */
+        private final PrefixNode<V> networks = new PrefixNode<V>();
+
+        /**
+         * @param element a flow matrix element
+         * @return the value of this element, or null if it has not been put
+         */
+        V get(FlowMatrixElement element) {
+            switch (element.getType()) {
+                case IP:
+                    Integer address = addressOf(element);
+                    return address == null ? null : byAddress.get(address);
+                case VLAN:
+                    PrefixNode<V> node = nodeOf(element, false);
+                    return node == null ? null : node.value;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @param element a flow matrix element
+         * @param value   the value of this element
+         * @return false if the element can not contain any network interface, and has not been indexed
+         */
+        boolean put(FlowMatrixElement element, V value) {
+            switch (element.getType()) {
+                case IP:
+                    Integer address = addressOf(element);
+                    if (address == null)
+                        return false;
+                    byAddress.put(address, value);
+                    return true;
+                case VLAN:
+                    PrefixNode<V> node = nodeOf(element, true);
+                    if (node == null)
+                        return false;
+                    node.value = value;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Add to a list the values of all the elements containing an address
+         *
+         * @param address the 32 bits address
+         * @param result  the list in which the values are added
+         */
+        void collect(int address, List<V> result) {
+            V value = byAddress.get(address);
+            if (value != null)
+                result.add(value);
+            PrefixNode<V> node = networks;
+            for (int bit = 31; node != null; bit--) {
+                if (node.value != null)
+                    result.add(node.value);
+                if (bit < 0)
+                    break;
+                node = node.child((address >>> bit) & 1, false);
+            }
+        }
+
+        /**
+         * @param element an IP flow matrix element
+         * @return the 32 bits address of its network interface, or null if it has none
+         */
+        private static Integer addressOf(FlowMatrixElement element) {
+            if (!(element.getResource() instanceof Interface))
+                return null;
+            IPAddress address = ((Interface) element.getResource()).getAddress();
+            return address == null ? null : address.toInt();
+        }
+
+        /**
+         * @param element a VLAN flow matrix element
+         * @param create  true if the missing nodes of the path of the network should be created
+         * @return the node of the network of the VLAN, or null if it does not exist or the VLAN has no network
+         */
+        private PrefixNode<V> nodeOf(FlowMatrixElement element, boolean create) {
+            if (!(element.getResource() instanceof VLAN))
+                return null;
+            VLAN vlan = (VLAN) element.getResource();
+            if (vlan.getNetworkAddress() == null)
+                return null;
+            int network = vlan.getNetworkAddress().toInt();
+            //same prefix length as the mask IPAddress.getIPv4NetMaskInt(vlan.getNetworkMask())
+            int prefixLength = Math.min(32, vlan.getNetworkMask() < 0 ? 1 : vlan.getNetworkMask());
+            PrefixNode<V> node = networks;
+            for (int i = 0; i < prefixLength && node != null; i++) {
+                node = node.child((network >>> (31 - i)) & 1, create);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * A node of a binary prefix trie of networks
+     *
+     * @param <V> the type of the values
+     */
+    private static class PrefixNode<V> {
+        /**
+         * The child of the node for the next bit 0, or null
+         */
+        private PrefixNode<V> zeroChild;
+
+        /**
+         * The child of the node for the next bit 1, or null
+         */
+        private PrefixNode<V> oneChild;
+
+        /**
+         * The value of the network of this node, or null
+         */
+        private V value;
+
+        /**
+         * @param bit    the next bit of the network (0 or 1)
+         * @param create true if the child should be created if it does not exist
+         * @return the child of the node for the bit, or null if it does not exist and is not created
+         */
+        PrefixNode<V> child(int bit, boolean create) {
+            if (bit == 0) {
+                if (zeroChild == null && create)
+                    zeroChild = new PrefixNode<V>();
+                return zeroChild;
+            }
+            if (oneChild == null && create)
+                oneChild = new PrefixNode<V>();
+            return oneChild;
+        }
+    }
+
+    /**
+     * The destination ports authorized between two elements, for each protocol,
+     * compiled into sorted disjoint intervals searched by dichotomy.
+     */
+    private static class PortRanges {
+        /**
+         * The protocols, indexed by their ordinal
+         */
+        private static final FirewallRule.Protocol[] PROTOCOLS = FirewallRule.Protocol.values();
+
+        /**
+         * The port ranges added, by protocol ordinal
+         */
+        private List<List<int[]>> ranges = new ArrayList<List<int[]>>();
+
+        /**
+         * The sorted starts of the disjoint intervals, by protocol ordinal
+         */
+        private final int[][] starts = new int[PROTOCOLS.length][];
+
+        /**
+         * The ends (included) of the disjoint intervals, by protocol ordinal
+         */
+        private final int[][] ends = new int[PROTOCOLS.length][];
+
+        PortRanges() {
+            for (int i = 0; i < PROTOCOLS.length; i++) {
+                ranges.add(new ArrayList<int[]>());
+            }
+        }
+
+        /**
+         * @param protocol  the protocol of a flow matrix line
+         * @param portRange the destination port range of the line
+         */
+        void add(FirewallRule.Protocol protocol, PortRange portRange) {
+            if (portRange.isAny())
+                ranges.get(protocol.ordinal()).add(new int[]{Integer.MIN_VALUE, Integer.MAX_VALUE});
+            else if (portRange.getMin() <= portRange.getMax())
+                ranges.get(protocol.ordinal()).add(new int[]{portRange.getMin(), portRange.getMax()});
+        }
+
+        /**
+         * Merge the port ranges added into the sorted disjoint intervals
+         */
+        void compile() {
+            for (int i = 0; i < PROTOCOLS.length; i++) {
+                List<int[]> protocolRanges = ranges.get(i);
+                int[][] sorted = protocolRanges.toArray(new int[protocolRanges.size()][]);
+                Arrays.sort(sorted, new Comparator<int[]>() {
+                    @Override
+                    public int compare(int[] range1, int[] range2) {
+                        return Integer.compare(range1[0], range2[0]);
+                    }
+                });
+                int[] protocolStarts = new int[sorted.length];
+                int[] protocolEnds = new int[sorted.length];
+                int size = 0;
+                for (int[] range : sorted) {
+                    if (size > 0 && (long) range[0] <= (long) protocolEnds[size - 1] + 1) {
+                        protocolEnds[size - 1] = Math.max(protocolEnds[size - 1], range[1]);
+                    } else {
+                        protocolStarts[size] = range[0];
+                        protocolEnds[size] = range[1];
+                        size++;
+                    }
+                }
+                starts[i] = Arrays.copyOf(protocolStarts, size);
+                ends[i] = Arrays.copyOf(protocolEnds, size);
+            }
+            ranges = null;
+        }
+
+        /**
+         * @param protocol    the protocol of the access
+         * @param port        the destination port of the access
+         * @param anyMatchAll true if the protocol ANY is authorized by the ports of all the protocols
+         * @return true if the port is authorized for this protocol
+         */
+        boolean contains(FirewallRule.Protocol protocol, int port, boolean anyMatchAll) {
+            if (protocol == FirewallRule.Protocol.ANY && anyMatchAll) {
+                for (int i = 0; i < PROTOCOLS.length; i++) {
+                    if (contains(i, port))
+                        return true;
+                }
+                return false;
+            }
+            return contains(FirewallRule.Protocol.ANY.ordinal(), port) || contains(protocol.ordinal(), port);
+        }
+
+        /**
+         * @param protocolIndex the ordinal of a protocol
+         * @param port          a destination port
+         * @return true if the port is in one of the intervals of this protocol
+         */
+        private boolean contains(int protocolIndex, int port) {
+            int[] protocolStarts = starts[protocolIndex];
+            int position = Arrays.binarySearch(protocolStarts, port);
+            if (position >= 0)
+                return true;
+            int previous = -position - 2;
+            return previous >= 0 && port <= ends[protocolIndex][previous];
+        }
+    }
+}
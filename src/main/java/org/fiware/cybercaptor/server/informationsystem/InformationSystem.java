@@ -26,12 +26,14 @@ import org.fiware.cybercaptor.server.database.Database;
 import org.fiware.cybercaptor.server.flowmatrix.FlowMatrix;
 import org.fiware.cybercaptor.server.flowmatrix.FlowMatrixElement;
 import org.fiware.cybercaptor.server.flowmatrix.FlowMatrixLine;
+import org.fiware.cybercaptor.server.topology.ReachabilityMatrix;
 import org.fiware.cybercaptor.server.topology.Topology;
 import org.fiware.cybercaptor.server.topology.asset.Host;
 import org.fiware.cybercaptor.server.topology.asset.IPAddress;
 import org.fiware.cybercaptor.server.topology.asset.VLAN;
 import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
 import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
 import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -43,6 +45,7 @@ import org.json.JSONObject;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 
@@ -77,6 +80,26 @@ public class InformationSystem implements Cloneable {
      */
     private List<InformationSystemHost> machinesOfAttacker = new ArrayList<InformationSystemHost>();
 
+    /**
+     * The machines by name of their users (the first machine of the topology that has the user),
+     * built lazily and rebuilt when the hosts of the topology change
+     */
+    private HashMap<String, InformationSystemHost> machinesByUserName = null;
+
+    /**
+     * The modification count of the topology when {@link #machinesByUserName} was built
+     */
+    private int machinesByUserNameModificationCount;
+
+    /**
+     * The reachability matrix of the topology, computed lazily and recomputed when the topology changes
+     */
+    private ReachabilityMatrix reachabilityMatrix = null;
+
+    /**
+     * The flow matrix whose ports were used to compute {@link #reachabilityMatrix}
+     */
+    private FlowMatrix reachabilityMatrixFlowMatrix = null;
 
     /**
      * Create an empty information system
@@ -89,6 +112,8 @@ public class InformationSystem implements Cloneable {
     public InformationSystem clone() throws CloneNotSupportedException {
         InformationSystem copie = (InformationSystem) super.clone();
         copie.topology = copie.topology.clone();
+        copie.machinesByUserName = null;
+        copie.reachabilityMatrix = null;
         return copie;
     }
 
@@ -99,6 +124,17 @@ public class InformationSystem implements Cloneable {
      * @throws Exception
      */
     public void exportToMulvalDatalogFile(String mulvalFilePath) throws Exception {
+        exportToMulvalDatalogFile(mulvalFilePath, null);
+    }
+
+    /**
+     * Create a file with Datalog rules for the input of Mulval, taking into account the modifications of an overlay
+     *
+     * @param mulvalFilePath the filePath to store MulVAL input Datalog file
+     * @param overlay        the modifications of this information system to take into account (null if none)
+     * @throws Exception
+     */
+    public void exportToMulvalDatalogFile(String mulvalFilePath, InformationSystemOverlay overlay) throws Exception {
         PrintWriter fichier = new PrintWriter(new BufferedWriter(new FileWriter(mulvalFilePath)));
 
         //Add internet
@@ -132,8 +168,11 @@ public class InformationSystem implements Cloneable {
                     fichier.println("networkServiceInfo('" + service.getIpAddress() + "', '" + service.getName() + "', '" + service.getProtocol().toString() + "', " + service.getPortNumber() + ", 'user').");
                 }
 
-                for (String cve : service.getVulnerabilities().keySet()) {
-                    Vulnerability vulnerability = service.getVulnerabilities().get(cve);
+                HashMap<String, Vulnerability> vulnerabilities = service.getVulnerabilities();
+                if (overlay != null)
+                    vulnerabilities = overlay.getVulnerabilities(service);
+                for (String cve : vulnerabilities.keySet()) {
+                    Vulnerability vulnerability = vulnerabilities.get(cve);
                     fichier.println("vulProperty('" + vulnerability.cve + "', " + vulnerability.exploitType + ", " + vulnerability.exploitGoal + ").");
                     fichier.println("vulExists('" + host.getName() + "', '" + vulnerability.cve + "', '" + service.getName() + "', " + vulnerability.exploitType + ", " + vulnerability.exploitGoal + ").");
                     if (vulnerability.cvss != null && vulnerability.cvss.getScore() >= 6.6) {
@@ -285,7 +324,7 @@ public class InformationSystem implements Cloneable {
             if (existingMachine != null)
                 return existingMachine;
             InformationSystemHost newMachine = new InformationSystemHost(str, this.topology);
-            this.topology.getHosts().add(newMachine);
+            this.topology.addHost(newMachine);
             return newMachine;
         }
     }
@@ -319,10 +358,9 @@ public class InformationSystem implements Cloneable {
      * @return the machine if it exists else null
      */
     public InformationSystemHost existingMachineByName(String name) {
-        for (int i = 0; i < this.topology.getHosts().size(); i++) {
-            if (this.topology.getHosts().get(i).getName().equals(name))
-                return (InformationSystemHost) this.topology.getHosts().get(i);
-        }
+        InformationSystemHost existingMachine = (InformationSystemHost) this.topology.existingHostByName(name);
+        if (existingMachine != null)
+            return existingMachine;
         if (name.equals("internet"))
             return new InformationSystemHost("internet", topology);
 
@@ -351,14 +389,43 @@ public class InformationSystem implements Cloneable {
      * @return an existing machine that have the user that can use it.
      */
     public InformationSystemHost existingMachineByUserName(String username) {
+        if (machinesByUserName == null || machinesByUserNameModificationCount != topology.getModificationCount())
+            indexMachinesByUserName();
+        InformationSystemHost machine = machinesByUserName.get(username);
+        if (machine != null && !hasUser(machine, username)) { //the users of the machine have changed
+            indexMachinesByUserName();
+            machine = machinesByUserName.get(username);
+        }
+        return machine;
+    }
+
+    /**
+     * Index the machines of the topology by the names of their users
+     */
+    private void indexMachinesByUserName() {
+        HashMap<String, InformationSystemHost> index = new HashMap<String, InformationSystemHost>();
         for (int i = 0; i < this.topology.getHosts().size(); i++) {
             InformationSystemHost machine = (InformationSystemHost) this.topology.getHosts().get(i);
-            for (String j : machine.getUsers().keySet()) {
-                if (machine.getUsers().get(j).getName().equals(username))
-                    return machine;
+            for (User user : machine.getUsers().values()) {
+                if (!index.containsKey(user.getName()))
+                    index.put(user.getName(), machine);
             }
         }
-        return null;
+        machinesByUserName = index;
+        machinesByUserNameModificationCount = topology.getModificationCount();
+    }
+
+    /**
+     * @param machine  a machine
+     * @param username the name of a user
+     * @return true if the machine has a user with this name
+     */
+    private static boolean hasUser(InformationSystemHost machine, String username) {
+        for (User user : machine.getUsers().values()) {
+            if (user.getName().equals(username))
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -374,7 +441,7 @@ public class InformationSystem implements Cloneable {
             return existingMachine;
         InformationSystemHost newMachine = new InformationSystemHost(ipAddress.getAddress(), topology);
         newMachine.addInterface("int1", ipAddress.getAddress());
-        this.topology.getHosts().add(newMachine);
+        this.topology.addHost(newMachine);
         return newMachine;
     }
 
@@ -444,17 +511,21 @@ public class InformationSystem implements Cloneable {
      * Load a network topology from a dom element
      *
      * @param domElement the dom element of an xml file
+     * @param db         the vulnerability database
      * @throws Exception
      */
     public void loadFromDomElement(Element domElement, Database db) throws Exception {
         if (domElement == null)
             return;
+        //The vulnerabilities of all the hosts are loaded from the database at once
+        List<Vulnerability> vulnerabilitiesToLoad = new ArrayList<Vulnerability>();
         List<Element> hostsElement = domElement.getChildren("machine");
         for (Element hostElement : hostsElement) {
             InformationSystemHost host = new InformationSystemHost(this.topology);
-            host.loadFromDomElement(hostElement, this.topology, db);
-            this.topology.getHosts().add(host);
+            host.loadFromDomElement(hostElement, this.topology, vulnerabilitiesToLoad);
+            this.topology.addHost(host);
         }
+        Vulnerability.loadParametersFromDatabase(vulnerabilitiesToLoad, db);
         this.flowMatrix = new FlowMatrix(domElement.getChild("flow-matrix"), this.topology);
     }
 
@@ -500,6 +571,64 @@ public class InformationSystem implements Cloneable {
         return json;
     }
 
+    /**
+     * Get the reachability matrix between the hosts of the topology, in which the ports of the flow matrix
+     * are distinguished. It is computed at the first call, and recomputed when the topology or the flow matrix change.
+     *
+     * @return the reachability matrix
+     * @throws Exception
+     */
+    public synchronized ReachabilityMatrix getReachabilityMatrix() throws Exception {
+        if (reachabilityMatrix == null || reachabilityMatrixFlowMatrix != flowMatrix || !reachabilityMatrix.isUpToDate(topology)) {
+            List<PortRange> flowMatrixPortRanges = new ArrayList<PortRange>();
+            if (flowMatrix != null) {
+                for (FlowMatrixLine flowMatrixLine : flowMatrix.getFlowMatrixLines()) {
+                    flowMatrixPortRanges.add(flowMatrixLine.getDestination_port());
+                }
+            }
+            reachabilityMatrix = new ReachabilityMatrix(topology, flowMatrixPortRanges);
+            reachabilityMatrixFlowMatrix = flowMatrix;
+        }
+        return reachabilityMatrix;
+    }
+
+    /**
+     * Get the reachability between the hosts, in json
+     *
+     * @return the reachable port ranges of each protocol, for each couple of different hosts that can communicate
+     * @throws Exception
+     */
+    public JSONObject getReachabilityJson() throws Exception {
+        ReachabilityMatrix matrix = getReachabilityMatrix();
+        FirewallRule.Protocol[] protocols = ReachabilityMatrix.getProtocols();
+        JSONObject json = new JSONObject();
+        JSONArray reachability_array = new JSONArray();
+        for (Host from : matrix.getHosts()) {
+            for (Host to : matrix.getHosts()) {
+                if (from == to)
+                    continue;
+                List<List<PortRange>> portRanges = matrix.getReachablePortRanges(from, to);
+                JSONObject reachability_object = new JSONObject();
+                boolean reachable = false;
+                for (int i = 0; i < protocols.length; i++) {
+                    JSONArray ports_array = new JSONArray();
+                    for (PortRange portRange : portRanges.get(i)) {
+                        ports_array.put(portRange.toString());
+                    }
+                    reachable |= ports_array.length() > 0;
+                    reachability_object.put(protocols[i].toString(), ports_array);
+                }
+                if (reachable) {
+                    reachability_object.put("from", from.getName());
+                    reachability_object.put("to", to.getName());
+                    reachability_array.put(reachability_object);
+                }
+            }
+        }
+        json.put("reachability", reachability_array);
+        return json;
+    }
+
     /**
      * Get the network topology
      *
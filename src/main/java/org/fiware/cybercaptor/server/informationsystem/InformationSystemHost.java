@@ -105,6 +105,8 @@ public class InformationSystemHost extends Host {
      */
     public void setUsers(Map<String, User> users) {
         this.users = users;
+        if (getTopology() != null)
+            getTopology().invalidateIndex();
     }
 
     /**
@@ -223,9 +225,25 @@ public class InformationSystemHost extends Host {
      *
      * @param domElement the host root dom element
      * @param topology   the current network topology
+     * @param db         the vulnerability database
      * @throws Exception
      */
     public void loadFromDomElement(Element domElement, Topology topology, Database db) throws Exception {
+        List<Vulnerability> vulnerabilitiesToLoad = new ArrayList<Vulnerability>();
+        loadFromDomElement(domElement, topology, vulnerabilitiesToLoad);
+        Vulnerability.loadParametersFromDatabase(vulnerabilitiesToLoad, db);
+    }
+
+    /**
+     * Load the host from a DOM element (extracted from an XML file), without loading the parameters of its vulnerabilities
+     * from the database : they are added to a list, so that the vulnerabilities of several hosts can be loaded at once.
+     *
+     * @param domElement            the host root dom element
+     * @param topology              the current network topology
+     * @param vulnerabilitiesToLoad the list where the vulnerabilities of the host are added
+     * @throws Exception
+     */
+    public void loadFromDomElement(Element domElement, Topology topology, List<Vulnerability> vulnerabilitiesToLoad) throws Exception {
         Element nameElement = domElement.getChild("name");
         if (nameElement != null)
             this.setName(nameElement.getText());
@@ -330,7 +348,7 @@ public class InformationSystemHost extends Host {
                             Vulnerability vuln = new Vulnerability(cveElement.getText());
                             vuln.exploitGoal = goalElement.getText();
                             vuln.exploitType = typeElement.getText();
-                            vuln.loadParametersFromDatabase(db.getConn());
+                            vulnerabilitiesToLoad.add(vuln);
 
                             service.getVulnerabilities().put(vuln.cve, vuln);
 
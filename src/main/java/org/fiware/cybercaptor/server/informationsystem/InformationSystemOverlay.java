@@ -0,0 +1,156 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.informationsystem;
+
+import org.fiware.cybercaptor.server.remediation.Rule;
+import org.fiware.cybercaptor.server.topology.TopologyOverlay;
+import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class that represents modifications of an information system (typically the simulation of a remediation),
+ * without cloning nor modifying the information system itself.
+ * Only the changes are stored : the vulnerabilities corrected on the services, the firewall rules added
+ * (see {@link TopologyOverlay}) and the IDS rules deployed. All the rest is read in the base information system,
+ * which must not be modified while the overlay is used.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class InformationSystemOverlay extends TopologyOverlay {
+    /**
+     * The base information system
+     */
+    private final InformationSystem informationSystem;
+
+    /**
+     * The CVE identifiers of the vulnerabilities corrected on each patched service
+     */
+    private final IdentityHashMap<Service, Set<String>> correctedVulnerabilities = new IdentityHashMap<Service, Set<String>>();
+
+    /**
+     * The IDS rules deployed on each host
+     */
+    private final IdentityHashMap<InformationSystemHost, List<Rule>> deployedSnortRules = new IdentityHashMap<InformationSystemHost, List<Rule>>();
+
+    /**
+     * Create an overlay without modifications over an information system
+     *
+     * @param informationSystem the base information system
+     */
+    public InformationSystemOverlay(InformationSystem informationSystem) {
+        super(informationSystem.getTopology());
+        this.informationSystem = informationSystem;
+    }
+
+    /**
+     * @return the base information system
+     */
+    public InformationSystem getInformationSystem() {
+        return informationSystem;
+    }
+
+    /**
+     * Correct vulnerabilities on all the services of a host (same effect as
+     * {@link InformationSystemHost#correctVulnerabilities(List)}, but only in the overlay)
+     *
+     * @param host                     the host of the base information system
+     * @param correctedVulnerabilities the vulnerabilities to correct
+     */
+    public void correctVulnerabilities(InformationSystemHost host, List<Vulnerability> correctedVulnerabilities) {
+        for (Service service : host.getServices().values()) {
+            for (Vulnerability vulnerability : correctedVulnerabilities) {
+                if (service.getVulnerabilities().containsKey(vulnerability.cve)) {
+                    Set<String> correctedCVEs = this.correctedVulnerabilities.get(service);
+                    if (correctedCVEs == null) {
+                        correctedCVEs = new HashSet<String>();
+                        this.correctedVulnerabilities.put(service, correctedCVEs);
+                    }
+                    correctedCVEs.add(vulnerability.cve);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deploy an IDS rule on a host. The vulnerabilities detected by the rule are considered as corrected on the host.
+     *
+     * @param host                     the host of the base information system
+     * @param rule                     the deployed rule
+     * @param correctedVulnerabilities the vulnerabilities detected by the rule
+     */
+    public void deploySnortRule(InformationSystemHost host, Rule rule, List<Vulnerability> correctedVulnerabilities) {
+        List<Rule> rules = deployedSnortRules.get(host);
+        if (rules == null) {
+            rules = new ArrayList<Rule>();
+            deployedSnortRules.put(host, rules);
+        }
+        rules.add(rule);
+        //TODO: In fact, the vulnerability is not really corrected but rather suppressed on the path...
+        correctVulnerabilities(host, correctedVulnerabilities);
+    }
+
+    /**
+     * @param service a service of the base information system
+     * @return the vulnerabilities of the service that are not corrected in the overlay
+     */
+    public HashMap<String, Vulnerability> getVulnerabilities(Service service) {
+        Set<String> correctedCVEs = correctedVulnerabilities.get(service);
+        if (correctedCVEs == null)
+            return service.getVulnerabilities();
+        HashMap<String, Vulnerability> result = new HashMap<String, Vulnerability>(service.getVulnerabilities());
+        result.keySet().removeAll(correctedCVEs);
+        return result;
+    }
+
+    /**
+     * @param host a host of the base information system
+     * @return the IDS rules deployed on the host in the overlay
+     */
+    public List<Rule> getDeployedSnortRules(InformationSystemHost host) {
+        List<Rule> rules = deployedSnortRules.get(host);
+        if (rules == null)
+            return new ArrayList<Rule>();
+        return rules;
+    }
+
+    /**
+     * @return the services patched in the overlay
+     */
+    public List<Service> getPatchedServices() {
+        return new ArrayList<Service>(correctedVulnerabilities.keySet());
+    }
+
+    /**
+     * Create a file with Datalog rules for the input of Mulval, for the information system seen through the overlay
+     *
+     * @param mulvalFilePath the filePath to store MulVAL input Datalog file
+     * @throws Exception
+     */
+    public void exportToMulvalDatalogFile(String mulvalFilePath) throws Exception {
+        informationSystem.exportToMulvalDatalogFile(mulvalFilePath, this);
+    }
+}
@@ -20,10 +20,14 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.monitoring;
 
+import org.fiware.cybercaptor.server.attackgraph.AttackGraphSnapshot;
 import org.fiware.cybercaptor.server.attackgraph.AttackPath;
 import org.fiware.cybercaptor.server.attackgraph.MulvalAttackGraph;
 import org.fiware.cybercaptor.server.database.Database;
 import org.fiware.cybercaptor.server.informationsystem.InformationSystem;
+import org.fiware.cybercaptor.server.remediation.DeployableRemediation;
+import org.fiware.cybercaptor.server.remediation.RemediationPlan;
+import org.fiware.cybercaptor.server.remediation.RemediationPlanner;
 import org.fiware.cybercaptor.server.remediation.cost.GlobalParameters;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -66,6 +70,16 @@ public class Monitoring {
      */
     private String pathToCostParametersFolder = "";
 
+    /**
+     * The version of the monitoring content, incremented at each change of the information system or of the attack paths
+     */
+    private long version = 0;
+
+    /**
+     * The cache of the remediations computed for the attack paths
+     */
+    private final RemediationCache remediationCache = new RemediationCache();
+
     /**
      * Create a monitoring object with the folder where the cost parameters may be stored
      *
@@ -110,6 +124,7 @@ public class Monitoring {
         Element topologyElement = root.getChild("topology");
         setInformationSystem(new InformationSystem());
         getInformationSystem().loadFromDomElement(topologyElement, db);
+        invalidateRemediations();
 
         //this.attackGraph.addAttackGraphToTopology(informationSystem);
 
@@ -131,6 +146,7 @@ public class Monitoring {
      */
     public void setInformationSystem(InformationSystem informationSystem) {
         this.informationSystem = informationSystem;
+        invalidateRemediations();
     }
 
     /**
@@ -149,6 +165,7 @@ public class Monitoring {
      */
     public void setAttackGraph(MulvalAttackGraph attackGraph) {
         this.attackGraph = attackGraph;
+        invalidateRemediations();
     }
 
     /**
@@ -167,6 +184,7 @@ public class Monitoring {
      */
     public void setAttackPathList(List<AttackPath> attackPathList) {
         this.attackPathList = attackPathList;
+        invalidateRemediations();
     }
 
     /**
@@ -203,5 +221,75 @@ public class Monitoring {
      */
     public void setPathToCostParametersFolder(String pathToCostParametersFolder) {
         this.pathToCostParametersFolder = pathToCostParametersFolder;
+        invalidateRemediations();
+    }
+
+    /**
+     * Get the deployable remediations of an attack path. They are computed only once,
+     * then served from the cache while the topology, the cost parameters and the database are unchanged.
+     *
+     * @param attackPathId the identifier of the attack path
+     * @param db           the vulnerability and remediation database
+     * @return the sorted list of deployable remediations (not modifiable)
+     * @throws Exception
+     */
+    public List<DeployableRemediation> getDeployableRemediations(int attackPathId, Database db) throws Exception {
+        return remediationCache.getDeployableRemediations(this, attackPathId, db);
+    }
+
+    /**
+     * Get the K cheapest deployable remediations of an attack path, using a best-first search
+     * if the remediations of this path have not already been computed.
+     *
+     * @param attackPathId    the identifier of the attack path
+     * @param db              the vulnerability and remediation database
+     * @param numberOfResults the maximum number of deployable remediations to return
+     * @param expansionLimit  the maximum number of expansions of the search
+     * @return the cheapest deployable remediations, sorted by increasing cost
+     * @throws Exception
+     */
+    public List<DeployableRemediation> getCheapestDeployableRemediations(int attackPathId, Database db, int numberOfResults, int expansionLimit) throws Exception {
+        return remediationCache.getCheapestDeployableRemediations(this, attackPathId, db, numberOfResults, expansionLimit);
+    }
+
+    /**
+     * Compute a remediation plan of minimal operational cost correcting all the attack paths
+     *
+     * @param db         the vulnerability and remediation database
+     * @param mode       the planning mode
+     * @param timeBudget the time budget of the planning, in milliseconds
+     * @return the remediation plan
+     * @throws Exception
+     */
+    public RemediationPlan getRemediationPlan(Database db, RemediationPlanner.Mode mode, long timeBudget) throws Exception {
+        return remediationCache.getRemediationPlan(this, db, mode, timeBudget);
+    }
+
+    /**
+     * Get the snapshot of the attack graph, used to simulate remediations without cloning the attack graph.
+     * It is built only once while the attack graph is unchanged.
+     *
+     * @return the snapshot of the attack graph
+     */
+    public AttackGraphSnapshot getAttackGraphSnapshot() {
+        return remediationCache.getAttackGraphSnapshot(this);
+    }
+
+    /**
+     * Invalidate the cached remediations. Must be called when the information system
+     * or the attack paths are modified in place.
+     */
+    public synchronized void invalidateRemediations() {
+        version++;
+        remediationCache.invalidate();
+    }
+
+    /**
+     * Gets the version of the monitoring content.
+     *
+     * @return the version, incremented at each invalidation
+     */
+    public synchronized long getVersion() {
+        return version;
     }
 }
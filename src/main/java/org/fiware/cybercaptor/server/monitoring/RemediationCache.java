@@ -0,0 +1,235 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.monitoring;
+
+import org.fiware.cybercaptor.server.attackgraph.AttackGraph;
+import org.fiware.cybercaptor.server.attackgraph.AttackGraphSnapshot;
+import org.fiware.cybercaptor.server.attackgraph.AttackPath;
+import org.fiware.cybercaptor.server.attackgraph.LeafRemediationMemo;
+import org.fiware.cybercaptor.server.database.Database;
+import org.fiware.cybercaptor.server.remediation.DeployableRemediation;
+import org.fiware.cybercaptor.server.remediation.RemediationAction;
+import org.fiware.cybercaptor.server.remediation.RemediationPlan;
+import org.fiware.cybercaptor.server.remediation.RemediationPlanner;
+import org.fiware.cybercaptor.server.remediation.cost.GlobalParameters;
+import org.fiware.cybercaptor.server.remediation.cost.OperationalCostParameters;
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Cache of the deployable remediations computed for the attack paths of a monitoring object.
+ * The remediations of a path are computed at most once for a given version stamp
+ * (version of the monitoring, modification dates of the cost parameters and of the vulnerability database).
+ * As soon as the stamp changes, all cached remediations are dropped.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationCache {
+
+    /**
+     * The deployable remediations, indexed by the attack path identifier
+     */
+    private final HashMap<Integer, List<DeployableRemediation>> remediationsByAttackPath = new HashMap<Integer, List<DeployableRemediation>>();
+
+    /**
+     * The remediations of the leaves, shared between all the attack paths
+     */
+    private final LeafRemediationMemo leafRemediationMemo = new LeafRemediationMemo();
+
+    /**
+     * The snapshot of the attack graph used to simulate the remediations
+     */
+    private AttackGraphSnapshot attackGraphSnapshot = null;
+
+    /**
+     * The attack graph from which the snapshot has been built
+     */
+    private AttackGraph attackGraphOfSnapshot = null;
+
+    /**
+     * The version stamp of the inputs used to compute the cached remediations
+     */
+    private String versionStamp = null;
+
+    /**
+     * Get the deployable remediations of an attack path, computing them only if they are not cached
+     * for the current version of the inputs.
+     *
+     * @param monitoring   the monitoring object containing the attack path
+     * @param attackPathId the identifier of the attack path in the monitoring object
+     * @param db           the vulnerability and remediation database
+     * @return the sorted list of deployable remediations (not modifiable)
+     * @throws Exception
+     */
+    public synchronized List<DeployableRemediation> getDeployableRemediations(Monitoring monitoring, int attackPathId, Database db) throws Exception {
+        if (attackPathId < 0 || attackPathId >= monitoring.getAttackPathList().size())
+            throw new IllegalArgumentException("The attack path " + attackPathId + " does not exist.");
+
+        checkVersionStamp(monitoring, db);
+
+        List<DeployableRemediation> remediations = remediationsByAttackPath.get(attackPathId);
+        if (remediations == null) {
+            AttackPath attackPath = monitoring.getAttackPathList().get(attackPathId);
+            remediations = Collections.unmodifiableList(attackPath.getDeployableRemediations(monitoring.getInformationSystem(), db.getVulnerabilityCatalog(), monitoring.getPathToCostParametersFolder(), leafRemediationMemo));
+            remediationsByAttackPath.put(attackPathId, remediations);
+        }
+        return remediations;
+    }
+
+    /**
+     * Get the K cheapest deployable remediations of an attack path. If all the remediations of the path
+     * are already cached, they are used, else a best-first search is done (its result is not cached).
+     *
+     * @param monitoring      the monitoring object containing the attack path
+     * @param attackPathId    the identifier of the attack path in the monitoring object
+     * @param db              the vulnerability and remediation database
+     * @param numberOfResults the maximum number of deployable remediations to return
+     * @param expansionLimit  the maximum number of expansions of the search
+     * @return the cheapest deployable remediations, sorted by increasing cost
+     * @throws Exception
+     */
+    public synchronized List<DeployableRemediation> getCheapestDeployableRemediations(Monitoring monitoring, int attackPathId, Database db, int numberOfResults, int expansionLimit) throws Exception {
+        if (attackPathId < 0 || attackPathId >= monitoring.getAttackPathList().size())
+            throw new IllegalArgumentException("The attack path " + attackPathId + " does not exist.");
+
+        checkVersionStamp(monitoring, db);
+
+        List<DeployableRemediation> remediations = remediationsByAttackPath.get(attackPathId);
+        if (remediations != null) {
+            return remediations.subList(0, Math.min(Math.max(numberOfResults, 0), remediations.size()));
+        }
+        AttackPath attackPath = monitoring.getAttackPathList().get(attackPathId);
+        return attackPath.getCheapestDeployableRemediations(monitoring.getInformationSystem(), db.getVulnerabilityCatalog(), monitoring.getPathToCostParametersFolder(), leafRemediationMemo, numberOfResults, expansionLimit);
+    }
+
+    /**
+     * Compute a remediation plan correcting all the attack paths of the monitoring object.
+     * The leaves remediations are shared between the attack paths through the leaf remediation memo.
+     *
+     * @param monitoring the monitoring object
+     * @param db         the vulnerability and remediation database
+     * @param mode       the planning mode
+     * @param timeBudget the time budget of the planning, in milliseconds
+     * @return the remediation plan
+     * @throws Exception
+     */
+    public synchronized RemediationPlan getRemediationPlan(Monitoring monitoring, Database db, RemediationPlanner.Mode mode, long timeBudget) throws Exception {
+        checkVersionStamp(monitoring, db);
+
+        List<List<List<RemediationAction>>> remediationActionsOfPaths = new ArrayList<List<List<RemediationAction>>>();
+        VulnerabilityCatalog catalog = db.getVulnerabilityCatalog();
+        for (AttackPath attackPath : monitoring.getAttackPathList()) {
+            remediationActionsOfPaths.add(attackPath.getRemedationActions(monitoring.getInformationSystem(), catalog, monitoring.getPathToCostParametersFolder(), leafRemediationMemo));
+        }
+        return new RemediationPlanner(remediationActionsOfPaths).plan(mode, timeBudget);
+    }
+
+    /**
+     * Get the snapshot of the attack graph of the monitoring object, building it only if the attack graph has changed
+     *
+     * @param monitoring the monitoring object
+     * @return the snapshot of the attack graph
+     */
+    public synchronized AttackGraphSnapshot getAttackGraphSnapshot(Monitoring monitoring) {
+        if (attackGraphSnapshot == null || attackGraphOfSnapshot != monitoring.getAttackGraph()) {
+            attackGraphSnapshot = new AttackGraphSnapshot(monitoring.getAttackGraph());
+            attackGraphOfSnapshot = monitoring.getAttackGraph();
+        }
+        return attackGraphSnapshot;
+    }
+
+    /**
+     * Drop all the cached remediations
+     */
+    public synchronized void invalidate() {
+        remediationsByAttackPath.clear();
+        leafRemediationMemo.clear();
+        attackGraphSnapshot = null;
+        attackGraphOfSnapshot = null;
+        versionStamp = null;
+    }
+
+    /**
+     * @return the number of attack paths for which remediations are currently cached
+     */
+    public synchronized int size() {
+        return remediationsByAttackPath.size();
+    }
+
+    /**
+     * @return the memo of the leaf remediations shared between the attack paths
+     */
+    public LeafRemediationMemo getLeafRemediationMemo() {
+        return leafRemediationMemo;
+    }
+
+    /**
+     * Drop the cached remediations if they have been computed with another version of the inputs
+     *
+     * @param monitoring the monitoring object
+     * @param db         the vulnerability and remediation database
+     * @throws Exception if the vulnerability catalog can not be loaded
+     */
+    private void checkVersionStamp(Monitoring monitoring, Database db) throws Exception {
+        String currentVersionStamp = computeVersionStamp(monitoring, db);
+        if (!currentVersionStamp.equals(versionStamp)) {
+            remediationsByAttackPath.clear();
+            leafRemediationMemo.clear();
+            versionStamp = currentVersionStamp;
+        }
+    }
+
+    /**
+     * Compute the version stamp of all the inputs of the remediation computation
+     *
+     * @param monitoring the monitoring object
+     * @param db         the vulnerability and remediation database
+     * @return the version stamp
+     * @throws Exception if the vulnerability catalog can not be loaded
+     */
+    private static String computeVersionStamp(Monitoring monitoring, Database db) throws Exception {
+        String costParametersFolder = monitoring.getPathToCostParametersFolder();
+        StringBuilder stamp = new StringBuilder();
+        stamp.append(monitoring.getVersion());
+        stamp.append(':').append(lastModified(costParametersFolder + "/" + GlobalParameters.FILE_NAME));
+        stamp.append(':').append(lastModified(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_PATCH));
+        stamp.append(':').append(lastModified(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_FIREWALL_RULE));
+        stamp.append(':').append(lastModified(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_SNORT_RULE));
+        stamp.append(':').append(System.identityHashCode(db));
+        //The catalog is reloaded, with a new version, each time the database changes
+        stamp.append(':').append(db.getVulnerabilityCatalog().getVersion());
+        return stamp.toString();
+    }
+
+    /**
+     * @param path the path of a file
+     * @return the last modification date of the file, or 0 if it does not exist
+     */
+    private static long lastModified(String path) {
+        return new File(path).lastModified();
+    }
+}
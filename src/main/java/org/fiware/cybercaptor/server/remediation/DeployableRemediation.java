@@ -27,8 +27,6 @@ import org.fiware.cybercaptor.server.properties.ProjectProperties;
 import org.fiware.cybercaptor.server.remediation.serializable.SerializableDeployableRemediation;
 import org.jdom2.Element;
 
-import java.io.*;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -116,35 +114,20 @@ public class DeployableRemediation {
     }
 
     private double getHabitIndex() {
-        Logger.getAnonymousLogger().log(Level.INFO, this.actions.toString() + " has been validated to correct the path.");
         String remediationsHistoryPath = ProjectProperties.getProperty("remediations-history-path");
         if (remediationsHistoryPath == null || remediationsHistoryPath.isEmpty()) {
             Logger.getAnonymousLogger().log(Level.WARNING, "The remediations-history-path has not been set" +
                     ", the remediation history will not be kept.");
             return 0;
         }
-        double habitIndex = 0;
-
-        //Load the remediations history
-        File remediationsHistoryFile = new File(remediationsHistoryPath);
-        List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>> attackPathsRemediations;
-        if (remediationsHistoryFile.exists()) {
-            ObjectInputStream ois;
-            try {
-                ois = new ObjectInputStream(new FileInputStream(remediationsHistoryPath));
-                attackPathsRemediations = (List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>) ois.readObject();
-                for (AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> attackPathRemediation : attackPathsRemediations) {
-                    SerializableAttackPath serializableAttackPath = attackPathRemediation.getKey();
-                    SerializableDeployableRemediation serializableRemediation = attackPathRemediation.getValue();
-                    if (serializableAttackPath.isSimilarTo(new SerializableAttackPath(correctedPath, informationSystem)) && serializableRemediation.isSimilarTo(this))
-                        habitIndex++;
-                }
-                return habitIndex;
-            } catch (Exception e) {
-                Logger.getAnonymousLogger().log(Level.WARNING, "Error while loading the remediation history: " + e.getMessage());
-            }
-        } else {
-            return 0;
+
+        try {
+            RemediationHistory remediationHistory = RemediationHistory.getRemediationHistory(remediationsHistoryPath);
+            if (remediationHistory.size() == 0)
+                return 0;
+            return remediationHistory.getHabitIndex(new SerializableAttackPath(correctedPath, informationSystem), new SerializableDeployableRemediation(this));
+        } catch (Exception e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "Error while loading the remediation history: " + e.getMessage());
         }
         return 0;
     }
@@ -198,26 +181,9 @@ public class DeployableRemediation {
             return;
         }
 
-        //Load the remediations history
-        File remediationsHistoryFile = new File(remediationsHistoryPath);
-        List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>> attackPathsRemediations;
-        if (remediationsHistoryFile.exists()) {
-            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(remediationsHistoryPath));
-            attackPathsRemediations = (List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>) ois.readObject();
-        } else {
-            attackPathsRemediations = new ArrayList<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>();
-        }
-        Logger.getAnonymousLogger().log(Level.INFO, attackPathsRemediations.size() + " remediated paths in the history file.");
-
         //Add the current remediation + attack path to the history
         SerializableAttackPath serializableAttackPath = new SerializableAttackPath(this.correctedPath, informationSystem);
         SerializableDeployableRemediation serializableRemediation = new SerializableDeployableRemediation(this);
-        attackPathsRemediations.add(new AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>(serializableAttackPath, serializableRemediation));
-
-        //Save to the remediations history file
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(remediationsHistoryFile));
-        oos.writeObject(attackPathsRemediations);
+        RemediationHistory.getRemediationHistory(remediationsHistoryPath).add(serializableAttackPath, serializableRemediation);
     }
 }
-
-
@@ -0,0 +1,219 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.attackgraph.AttackPath;
+import org.fiware.cybercaptor.server.informationsystem.InformationSystem;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Best-first search of the cheapest deployable remediations of an attack path.
+ * Each group of remediation actions (remediation[i] = remediation[i][1] AND remediation[i][2]...) can be deployed
+ * on the product of the possible machines of its actions. Rather than materializing this whole product and sorting it,
+ * the machine combinations are enumerated lazily in a priority queue ordered by cost lower bounds,
+ * so that only the K cheapest deployable remediations are built.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class DeployableRemediationSearch {
+    /**
+     * The default number of deployable remediations to return
+     */
+    public static final int DEFAULT_NUMBER_OF_REMEDIATIONS = 10;
+
+    /**
+     * The default maximum number of expansions of the search
+     */
+    public static final int DEFAULT_EXPANSION_LIMIT = 100000;
+
+    /**
+     * The attack path to correct
+     */
+    private final AttackPath attackPath;
+
+    /**
+     * The information system
+     */
+    private final InformationSystem informationSystem;
+
+    /**
+     * The number of expansions done during the last search
+     */
+    private int numberOfExpansions = 0;
+
+    /**
+     * Create a new search
+     *
+     * @param attackPath        the attack path to correct
+     * @param informationSystem the information system
+     */
+    public DeployableRemediationSearch(AttackPath attackPath, InformationSystem informationSystem) {
+        this.attackPath = attackPath;
+        this.informationSystem = informationSystem;
+    }
+
+    /**
+     * Search the cheapest deployable remediations
+     *
+     * @param remediationActions the possible remediation actions : remediation[1] OR remediation[2]... ; remediation[1] = remediation[1][1] AND remediation[1][2]...
+     * @param numberOfResults    the maximum number of deployable remediations to return (K)
+     * @param expansionLimit     the maximum number of nodes taken from the priority queue
+     * @return the deployable remediations, sorted by increasing cost
+     * @throws Exception
+     */
+    public List<DeployableRemediation> search(List<List<RemediationAction>> remediationActions, int numberOfResults, int expansionLimit) throws Exception {
+        List<DeployableRemediation> result = new ArrayList<DeployableRemediation>();
+        numberOfExpansions = 0;
+        if (numberOfResults <= 0)
+            return result;
+
+        PriorityQueue<SearchNode> queue = new PriorityQueue<SearchNode>(Math.max(1, remediationActions.size()), new SearchNodeComparator());
+        long insertionOrder = 0;
+        for (List<RemediationAction> remediationGroup : remediationActions) {
+            //The actions without possible machine are not deployed
+            List<RemediationAction> deployableActions = new ArrayList<RemediationAction>();
+            double lowerBound = 0;
+            for (RemediationAction remediationAction : remediationGroup) {
+                if (remediationAction.getPossibleMachines().size() > 0) {
+                    deployableActions.add(remediationAction);
+                    lowerBound += remediationAction.getOperationalCostLowerBound();
+                }
+            }
+            if (!deployableActions.isEmpty()) {
+                queue.add(new SearchNode(deployableActions, new int[deployableActions.size()], lowerBound, lowerBound, null, insertionOrder++));
+            }
+        }
+
+        while (!queue.isEmpty() && result.size() < numberOfResults && numberOfExpansions < expansionLimit) {
+            SearchNode node = queue.poll();
+            numberOfExpansions++;
+
+            if (node.deployableRemediation == null) {
+                //First time this machine combination is reached: push the next combination of the group
+                int[] nextMachines = nextMachineCombination(node.actions, node.machines);
+                if (nextMachines != null) {
+                    queue.add(new SearchNode(node.actions, nextMachines, node.groupLowerBound, node.groupLowerBound, null, insertionOrder++));
+                }
+
+                //Then evaluate the real cost of this combination
+                DeployableRemediation deployableRemediation = new DeployableRemediation(attackPath, informationSystem);
+                for (int i = 0; i < node.actions.size(); i++) {
+                    DeployableRemediationAction deployableRemediationAction = new DeployableRemediationAction();
+                    deployableRemediationAction.setRemediationAction(node.actions.get(i));
+                    deployableRemediationAction.setHost(node.actions.get(i).getPossibleMachines().get(node.machines[i]));
+                    deployableRemediation.getActions().add(deployableRemediationAction);
+                }
+                deployableRemediation.computeCost();
+                if (deployableRemediation.getCost() > node.priority) {
+                    //The bound was not tight, the node goes back in the queue with its real cost
+                    queue.add(new SearchNode(node.actions, node.machines, node.groupLowerBound, deployableRemediation.getCost(), deployableRemediation, insertionOrder++));
+                    continue;
+                }
+                result.add(deployableRemediation);
+            } else {
+                result.add(node.deployableRemediation);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of expansions done during the last search
+     */
+    public int getNumberOfExpansions() {
+        return numberOfExpansions;
+    }
+
+    /**
+     * Compute the next combination of machines (as a mixed radix counter on the possible machines of each action)
+     *
+     * @param actions  the remediation actions
+     * @param machines the indexes of the current machines
+     * @return the indexes of the next machines, or null if all combinations have been enumerated
+     */
+    private static int[] nextMachineCombination(List<RemediationAction> actions, int[] machines) {
+        int[] next = machines.clone();
+        for (int i = next.length - 1; i >= 0; i--) {
+            next[i]++;
+            if (next[i] < actions.get(i).getPossibleMachines().size())
+                return next;
+            next[i] = 0;
+        }
+        return null;
+    }
+
+    /**
+     * A node of the search: a combination of machines for a group of remediation actions
+     */
+    private static class SearchNode {
+        /**
+         * The remediation actions of the group
+         */
+        private final List<RemediationAction> actions;
+        /**
+         * The index of the chosen machine for each action
+         */
+        private final int[] machines;
+        /**
+         * The lower bound of the cost of all combinations of the group
+         */
+        private final double groupLowerBound;
+        /**
+         * The priority of the node in the queue (lower bound or real cost)
+         */
+        private final double priority;
+        /**
+         * The evaluated deployable remediation (null if not evaluated yet)
+         */
+        private final DeployableRemediation deployableRemediation;
+        /**
+         * The insertion order, used to keep the search deterministic for equal priorities
+         */
+        private final long insertionOrder;
+
+        private SearchNode(List<RemediationAction> actions, int[] machines, double groupLowerBound, double priority, DeployableRemediation deployableRemediation, long insertionOrder) {
+            this.actions = actions;
+            this.machines = machines;
+            this.groupLowerBound = groupLowerBound;
+            this.priority = priority;
+            this.deployableRemediation = deployableRemediation;
+            this.insertionOrder = insertionOrder;
+        }
+    }
+
+    /**
+     * Comparator of search nodes (by priority, then by insertion order)
+     */
+    private static class SearchNodeComparator implements Comparator<SearchNode> {
+        public int compare(SearchNode n1, SearchNode n2) {
+            int result = Double.compare(n1.priority, n2.priority);
+            if (result != 0)
+                return result;
+            return Long.compare(n1.insertionOrder, n2.insertionOrder);
+        }
+    }
+}
@@ -20,7 +20,9 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.remediation;
 
+import org.fiware.cybercaptor.server.database.PreparedQueries;
 import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -139,7 +141,7 @@ public class Patch extends Remediation {
         if (id_patch <= 0) {
             return false;
         }
-        PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM patchs WHERE id = ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.PATCH_BY_ID);
         pstmt.setInt(1, id_patch);
         pstmt.execute();
         ResultSet res = pstmt.getResultSet();
@@ -151,6 +153,7 @@ public class Patch extends Remediation {
             return true;
 
         } else {
+            res.close();
             return false;
         }
     }
@@ -185,7 +188,7 @@ public class Patch extends Remediation {
      * @throws java.sql.SQLException
      */
     public boolean inDatabase(Connection conn) throws SQLException {
-        PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM patchs WHERE link LIKE ? OR id LIKE ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.PATCH_BY_LINK_OR_ID);
         pstmt.setString(1, link);
         pstmt.setInt(2, getId());
         pstmt.execute();
@@ -195,8 +198,8 @@ public class Patch extends Remediation {
             setId(res.getInt(1));
             String old_description = res.getString(3);
             res.close();
-            //We update the description if it was empty
-            if (getDescription() != null && !getDescription().equals(old_description) && !getDescription().isEmpty()) {
+            //We update the description if it was empty (not through a read-only connection of the pool)
+            if (!conn.isReadOnly() && getDescription() != null && !getDescription().equals(old_description) && !getDescription().isEmpty()) {
                 PreparedStatement pstmt2 = conn.prepareStatement("UPDATE patchs SET description = ? WHERE id = ?");
                 pstmt2.setString(1, getDescription());
                 pstmt2.setInt(2, getId());
@@ -205,7 +208,6 @@ public class Patch extends Remediation {
             }
             result = true;
         }
-        pstmt.close();
         res.close();
         return result;
     }
@@ -220,7 +222,7 @@ public class Patch extends Remediation {
     public List<Vulnerability> getCorectedVulnerabilities(Connection conn) throws Exception {
         List<Vulnerability> result = new ArrayList<Vulnerability>();
         if (this.inDatabase(conn)) {
-            PreparedStatement pstmt = conn.prepareStatement("SELECT id_vulnerability FROM patchs_vulnerability WHERE id_patch = ?");
+            PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITIES_OF_PATCH);
             pstmt.setInt(1, getId());
             pstmt.execute();
             ResultSet res = pstmt.getResultSet();
@@ -228,10 +230,19 @@ public class Patch extends Remediation {
                 Vulnerability vuln = new Vulnerability(conn, res.getInt(1));
                 result.add(vuln);
             }
-            pstmt.close();
             res.close();
         }
         return result;
     }
 
+    /**
+     * Get all vulnerabilities corrected by the patch from the in-memory catalog of the database
+     *
+     * @param catalog the vulnerability catalog
+     * @return a list of vulnerabilities corrected by the patch
+     */
+    public List<Vulnerability> getCorectedVulnerabilities(VulnerabilityCatalog catalog) {
+        return catalog.getVulnerabilitiesCorrectedByPatch(this);
+    }
+
 }
@@ -24,8 +24,8 @@ package org.fiware.cybercaptor.server.remediation;
 import org.fiware.cybercaptor.server.attackgraph.Vertex;
 import org.fiware.cybercaptor.server.informationsystem.InformationSystemHost;
 import org.fiware.cybercaptor.server.remediation.cost.OperationalCostParameters;
+import org.fiware.cybercaptor.server.remediation.cost.OperationalCostParametersCatalog;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -72,20 +72,11 @@ public class RemediationAction {
     public RemediationAction(ActionType actionType, String costParametersFolder) throws Exception {
         this.setActionType(actionType);
         if (this.getActionType() == ActionType.APPLY_PATCH) {
-            File parametersFile = new File(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_PATCH);
-            if (parametersFile.exists()) {
-                getOperationalCostParameters().loadFromXMLFile(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_PATCH);
-            }
+            setOperationalCostParameters(OperationalCostParametersCatalog.getOperationalCostParameters(costParametersFolder, OperationalCostParameters.FILE_NAME_PATCH));
         } else if (this.getActionType() == ActionType.DEPLOY_FIREWALL_RULE) {
-            File parametersFile = new File(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_FIREWALL_RULE);
-            if (parametersFile.exists()) {
-                getOperationalCostParameters().loadFromXMLFile(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_FIREWALL_RULE);
-            }
+            setOperationalCostParameters(OperationalCostParametersCatalog.getOperationalCostParameters(costParametersFolder, OperationalCostParameters.FILE_NAME_FIREWALL_RULE));
         } else if (this.getActionType() == ActionType.DEPLOY_SNORT_RULE) {
-            File parametersFile = new File(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_SNORT_RULE);
-            if (parametersFile.exists()) {
-                getOperationalCostParameters().loadFromXMLFile(costParametersFolder + "/" + OperationalCostParameters.FILE_NAME_SNORT_RULE);
-            }
+            setOperationalCostParameters(OperationalCostParametersCatalog.getOperationalCostParameters(costParametersFolder, OperationalCostParameters.FILE_NAME_SNORT_RULE));
         }
     }
 
@@ -253,6 +244,16 @@ public class RemediationAction {
         return Math.round((getRemediationCost() + getMaintenanceCost() + getRestartCost() + getDeploymentCost() + getTestCost()) * 100.0) / 100.0;
     }
 
+    /**
+     * Gets a lower bound of the operational cost of this action, whatever the machine on which it is deployed.
+     * The operational cost model does not depend yet on the machine, so the bound is the operational cost itself.
+     *
+     * @return the lower bound of the operational cost
+     */
+    public double getOperationalCostLowerBound() {
+        return getOperationalCost();
+    }
+
     @Override
     public String toString() {
         return "RemediationAction [actionType=" + getActionType()
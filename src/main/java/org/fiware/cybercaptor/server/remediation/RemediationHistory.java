@@ -0,0 +1,542 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.attackgraph.serializable.SerializableAttackPath;
+import org.fiware.cybercaptor.server.attackgraph.serializable.SerializableVertex;
+import org.fiware.cybercaptor.server.remediation.serializable.SerializableDeployableRemediation;
+import org.fiware.cybercaptor.server.remediation.serializable.SerializableDeployableRemediationAction;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory store of the remediations validated by the operators (the remediations history).
+ * The history file is loaded only once, then the past remediations are indexed by the vertices of their attack path
+ * and by their actions, so that the habit index of a remediation can be computed without reading the file again.
+ * <p/>
+ * The history file is an append-only log: a header (magic number + format version) followed by records
+ * (length of the payload, CRC32 of the payload, serialized attack path + remediation). Adding a remediation only appends
+ * one record, and the concurrent additions share the same fsync. When the file is loaded, a damaged record at the end
+ * of the log (interrupted write) is dropped. The files written with the previous format (a single serialized list)
+ * are converted by a compaction, which rewrites the log in a temporary file before replacing the history file.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationHistory {
+
+    /**
+     * The magic number at the beginning of the history log ("CCRH")
+     */
+    private static final int MAGIC_NUMBER = 0x43435248;
+
+    /**
+     * The version of the format of the history log
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The length of the header of the history log
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * The length of the header of a record (length + CRC32 of the payload)
+     */
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * The maximum length of a record payload, used to detect damaged records
+     */
+    private static final int MAXIMUM_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * The loaded histories, indexed by the path of their file
+     */
+    private static final HashMap<String, RemediationHistory> histories = new HashMap<String, RemediationHistory>();
+
+    /**
+     * The path of the history file
+     */
+    private final String path;
+
+    /**
+     * The length of the valid part of the history log (loaded or written by this object)
+     */
+    private long validLength = -1;
+
+    /**
+     * The length of the history log that is known to be on the disk (after the last fsync)
+     */
+    private long syncedLength = 0;
+
+    /**
+     * The error of the last load of the history log (null if it has been loaded). While it is set,
+     * nothing is written to the history file, so that a history that could not be read is not overwritten.
+     */
+    private Exception loadError = null;
+
+    /**
+     * The channel used to append records to the history log
+     */
+    private FileChannel appendChannel = null;
+
+    /**
+     * The lock used to share the fsync between concurrent additions
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * The past remediations (attack path + deployable remediation)
+     */
+    private List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>> entries = new ArrayList<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>();
+
+    /**
+     * The entries containing each attack path vertex (indexed by the key of the vertex)
+     */
+    private final HashMap<String, BitSet> entriesByVertex = new HashMap<String, BitSet>();
+
+    /**
+     * The entries containing each remediation action (indexed by the key of the action)
+     */
+    private final HashMap<String, BitSet> entriesByAction = new HashMap<String, BitSet>();
+
+    /**
+     * The already computed habit indexes, indexed by the signature of the attack path and of the remediation
+     */
+    private final HashMap<String, Integer> habitIndexes = new HashMap<String, Integer>();
+
+    /**
+     * Create a remediation history stored in a file
+     *
+     * @param path the path of the history file
+     */
+    private RemediationHistory(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Get the remediation history stored in a file. The file is loaded at the first call,
+     * and loaded again only if it has been modified by someone else.
+     *
+     * @param path the path of the history file
+     * @return the remediation history
+     */
+    public static synchronized RemediationHistory getRemediationHistory(String path) {
+        RemediationHistory history = histories.get(path);
+        if (history == null) {
+            history = new RemediationHistory(path);
+            histories.put(path, history);
+        }
+        history.reloadIfModified();
+        return history;
+    }
+
+    /**
+     * Compute the habit index of a remediation: the number of times a similar remediation has been validated
+     * for a similar attack path. A past attack path (resp. remediation) is similar if it contains all the vertices
+     * (resp. actions) of the current one.
+     *
+     * @param attackPath  the attack path
+     * @param remediation the remediation of the attack path
+     * @return the habit index
+     */
+    public synchronized int getHabitIndex(SerializableAttackPath attackPath, SerializableDeployableRemediation remediation) {
+        SortedSet<String> vertexKeys = new TreeSet<String>();
+        for (SerializableVertex vertex : attackPath.vertices.values()) {
+            vertexKeys.add(vertex.getKey());
+        }
+        SortedSet<String> actionKeys = new TreeSet<String>();
+        for (SerializableDeployableRemediationAction action : remediation.getActions()) {
+            actionKeys.add(action.getKey());
+        }
+        String signature = vertexKeys.toString() + actionKeys.toString();
+
+        Integer habitIndex = habitIndexes.get(signature);
+        if (habitIndex == null) {
+            BitSet similarEntries = new BitSet();
+            similarEntries.set(0, entries.size());
+            intersect(similarEntries, entriesByVertex, vertexKeys);
+            intersect(similarEntries, entriesByAction, actionKeys);
+            habitIndex = similarEntries.cardinality();
+            habitIndexes.put(signature, habitIndex);
+        }
+        return habitIndex;
+    }
+
+    /**
+     * Add a validated remediation to the history and append it to the history log.
+     * When this method returns, the remediation is on the disk.
+     *
+     * @param attackPath  the corrected attack path
+     * @param remediation the validated remediation
+     * @throws Exception if the history log can not be loaded or written
+     */
+    public void add(SerializableAttackPath attackPath, SerializableDeployableRemediation remediation) throws Exception {
+        AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry =
+                new AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>(attackPath, remediation);
+        byte[] record = toRecord(entry);
+
+        long recordEnd;
+        FileChannel channel;
+        synchronized (this) {
+            reloadIfModified();
+            if (loadError != null)
+                throw new IOException("The remediation history " + path + " can not be loaded, the remediation is not added", loadError);
+            channel = getAppendChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            validLength += record.length;
+            recordEnd = validLength;
+            addToIndexes(entry);
+        }
+        Logger.getAnonymousLogger().log(Level.INFO, size() + " remediated paths in the history file.");
+
+        //Group commit: one fsync makes durable all the records appended before it
+        synchronized (syncLock) {
+            if (syncedLength < recordEnd) {
+                long lengthToSync;
+                synchronized (this) {
+                    lengthToSync = validLength;
+                }
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    //The channel has been synchronized before being closed
+                }
+                syncedLength = lengthToSync;
+            }
+        }
+    }
+
+    /**
+     * Rewrite the history log with only its valid records, in a temporary file that replaces the history file.
+     *
+     * @throws IOException if the history log can not be written
+     */
+    public synchronized void compact() throws IOException {
+        closeAppendChannel();
+        String temporaryPath = path + ".compact";
+        FileOutputStream outputStream = new FileOutputStream(temporaryPath);
+        try {
+            DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+            dataOutputStream.writeInt(MAGIC_NUMBER);
+            dataOutputStream.writeInt(FORMAT_VERSION);
+            for (AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry : entries) {
+                dataOutputStream.write(toRecord(entry));
+            }
+            dataOutputStream.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        Files.move(Paths.get(temporaryPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        validLength = new File(path).length();
+        syncedLength = validLength;
+    }
+
+    /**
+     * @return the number of remediations in the history
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Load the history log if it has been modified since it was loaded. If records have been appended
+     * by someone else, only these records are read. If the log can not be read, the history is empty
+     * and the loading is tried again at the next call.
+     */
+    private synchronized void reloadIfModified() {
+        File historyFile = new File(path);
+        long fileLength = historyFile.exists() ? historyFile.length() : -1;
+        if (fileLength == validLength)
+            return;
+
+        try {
+            if (fileLength < 0) {
+                clear();
+                validLength = -1;
+            } else if (validLength >= HEADER_LENGTH && fileLength > validLength) {
+                readRecords(validLength);
+            } else {
+                clear();
+                load();
+            }
+            loadError = null;
+        } catch (Exception e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "Error while loading the remediation history " + path, e);
+            closeAppendChannel();
+            clear();
+            validLength = -1;
+            loadError = e;
+        }
+    }
+
+    /**
+     * Load the whole history log. A file with the previous format (one serialized list) is converted.
+     *
+     * @throws Exception if the history log can not be read
+     */
+    @SuppressWarnings("unchecked")
+    private void load() throws Exception {
+        closeAppendChannel();
+        DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        int magicNumber;
+        try {
+            magicNumber = inputStream.readInt();
+        } catch (EOFException e) {
+            magicNumber = -1;
+        } finally {
+            inputStream.close();
+        }
+
+        if (magicNumber == MAGIC_NUMBER) {
+            readRecords(HEADER_LENGTH);
+        } else if ((magicNumber >>> 16) == (ObjectStreamConstants.STREAM_MAGIC & 0xFFFF)) {
+            Logger.getAnonymousLogger().log(Level.INFO, "Conversion of the remediation history to the append-only format.");
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path));
+            try {
+                List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>> loadedEntries =
+                        (List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>) ois.readObject();
+                for (AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry : loadedEntries) {
+                    addToIndexes(entry);
+                }
+            } finally {
+                ois.close();
+            }
+            compact();
+        } else if (new File(path).length() < HEADER_LENGTH) {
+            //Empty file or file interrupted during the writing of its header
+            compact();
+        } else {
+            File unknownFile = new File(path + ".corrupted");
+            Logger.getAnonymousLogger().log(Level.WARNING, "Unknown format of the remediation history, it is moved to " + unknownFile.getPath());
+            Files.move(Paths.get(path), unknownFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            compact();
+        }
+    }
+
+    /**
+     * Read the records of the history log from an offset. If a damaged record is found
+     * (write interrupted by a crash), the log is truncated before it.
+     *
+     * @param offset the offset of the first record to read
+     * @throws Exception if the history log can not be read
+     */
+    @SuppressWarnings("unchecked")
+    private void readRecords(long offset) throws Exception {
+        closeAppendChannel();
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long fileLength = channel.size();
+            long position = offset;
+            ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            while (position < fileLength) {
+                recordHeader.clear();
+                if (!readFully(channel, recordHeader, position))
+                    break;
+                recordHeader.flip();
+                int payloadLength = recordHeader.getInt();
+                int checksum = recordHeader.getInt();
+                if (payloadLength <= 0 || payloadLength > MAXIMUM_RECORD_LENGTH)
+                    break;
+                ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                if (!readFully(channel, payload, position + RECORD_HEADER_LENGTH))
+                    break;
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum)
+                    break;
+
+                AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry;
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload.array()));
+                try {
+                    entry = (AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>) ois.readObject();
+                } finally {
+                    ois.close();
+                }
+                addToIndexes(entry);
+                position += RECORD_HEADER_LENGTH + payloadLength;
+            }
+
+            if (position < fileLength) {
+                Logger.getAnonymousLogger().log(Level.WARNING, "Damaged record at the end of the remediation history, "
+                        + (fileLength - position) + " bytes dropped.");
+                channel.truncate(position);
+                channel.force(true);
+            }
+            validLength = position;
+            syncedLength = position;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read bytes from a channel until the buffer is full
+     *
+     * @param channel  the channel
+     * @param buffer   the buffer to fill
+     * @param position the position of the first byte to read
+     * @return false if the end of the channel has been reached before the buffer is full
+     * @throws IOException
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Serialize an entry in a record of the history log
+     *
+     * @param entry the entry (attack path + remediation)
+     * @return the bytes of the record
+     * @throws IOException
+     */
+    private static byte[] toRecord(AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry) throws IOException {
+        ByteArrayOutputStream payloadStream = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(payloadStream);
+        oos.writeObject(entry);
+        oos.close();
+        byte[] payload = payloadStream.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        return record.array();
+    }
+
+    /**
+     * Get the channel used to append records, creating the history log if needed
+     *
+     * @return the channel
+     * @throws IOException
+     */
+    private FileChannel getAppendChannel() throws IOException {
+        if (validLength < HEADER_LENGTH) {
+            clear();
+            compact();
+        }
+        if (appendChannel == null) {
+            appendChannel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE);
+            appendChannel.position(validLength);
+        }
+        return appendChannel;
+    }
+
+    /**
+     * Close the channel used to append records
+     */
+    private void closeAppendChannel() {
+        if (appendChannel != null) {
+            try {
+                appendChannel.force(false);
+                appendChannel.close();
+            } catch (IOException e) {
+                Logger.getAnonymousLogger().log(Level.WARNING, "Error while closing the remediation history: " + e.getMessage());
+            }
+            appendChannel = null;
+        }
+    }
+
+    /**
+     * Add an entry to the history and to the indexes
+     *
+     * @param entry the entry to add
+     */
+    private void addToIndexes(AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation> entry) {
+        int entryNumber = entries.size();
+        entries.add(entry);
+        for (SerializableVertex vertex : entry.getKey().vertices.values()) {
+            addToIndex(entriesByVertex, vertex.getKey(), entryNumber);
+        }
+        for (SerializableDeployableRemediationAction action : entry.getValue().getActions()) {
+            addToIndex(entriesByAction, action.getKey(), entryNumber);
+        }
+        habitIndexes.clear();
+    }
+
+    /**
+     * Delete all the entries and indexes
+     */
+    private void clear() {
+        entries = new ArrayList<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>();
+        entriesByVertex.clear();
+        entriesByAction.clear();
+        habitIndexes.clear();
+    }
+
+    /**
+     * Add an entry number to an index
+     *
+     * @param index       the index
+     * @param key         the key
+     * @param entryNumber the number of the entry
+     */
+    private static void addToIndex(HashMap<String, BitSet> index, String key, int entryNumber) {
+        BitSet entriesOfKey = index.get(key);
+        if (entriesOfKey == null) {
+            entriesOfKey = new BitSet();
+            index.put(key, entriesOfKey);
+        }
+        entriesOfKey.set(entryNumber);
+    }
+
+    /**
+     * Keep only the entries containing all the keys
+     *
+     * @param entriesSet the set of entries to filter
+     * @param index      the index
+     * @param keys       the keys
+     */
+    private static void intersect(BitSet entriesSet, HashMap<String, BitSet> index, Set<String> keys) {
+        for (String key : keys) {
+            if (entriesSet.isEmpty())
+                return;
+            BitSet entriesOfKey = index.get(key);
+            if (entriesOfKey == null)
+                entriesSet.clear();
+            else
+                entriesSet.and(entriesOfKey);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.jdom2.Element;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class representing a remediation plan: a set of remediation actions correcting several attack paths,
+ * computed by the {@link RemediationPlanner}.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationPlan {
+    /**
+     * The remediation actions of the plan
+     */
+    private final List<RemediationAction> actions = new ArrayList<RemediationAction>();
+
+    /**
+     * The identifiers of the attack paths corrected by the plan
+     */
+    private final List<Integer> coveredAttackPaths = new ArrayList<Integer>();
+
+    /**
+     * The identifiers of the attack paths not corrected by the plan
+     */
+    private final List<Integer> uncoveredAttackPaths = new ArrayList<Integer>();
+
+    /**
+     * The mode used to compute the plan
+     */
+    private final RemediationPlanner.Mode mode;
+
+    /**
+     * True if the plan is proven to be of minimal cost
+     */
+    private final boolean optimal;
+
+    /**
+     * The operational cost of the plan
+     */
+    private double cost = 0;
+
+    /**
+     * True if the time budget has been exceeded during the planning
+     */
+    private boolean timeBudgetExceeded = false;
+
+    /**
+     * Create an empty remediation plan
+     *
+     * @param mode    the mode used to compute the plan
+     * @param optimal true if the plan is proven to be of minimal cost
+     */
+    public RemediationPlan(RemediationPlanner.Mode mode, boolean optimal) {
+        this.mode = mode;
+        this.optimal = optimal;
+    }
+
+    /**
+     * @return the remediation actions of the plan
+     */
+    public List<RemediationAction> getActions() {
+        return actions;
+    }
+
+    /**
+     * @return the identifiers of the attack paths corrected by the plan
+     */
+    public List<Integer> getCoveredAttackPaths() {
+        return coveredAttackPaths;
+    }
+
+    /**
+     * @return the identifiers of the attack paths not corrected by the plan
+     */
+    public List<Integer> getUncoveredAttackPaths() {
+        return uncoveredAttackPaths;
+    }
+
+    /**
+     * @return the mode used to compute the plan
+     */
+    public RemediationPlanner.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the plan is proven to be of minimal cost
+     */
+    public boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * @return the operational cost of the plan
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @param cost the operational cost of the plan
+     */
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    /**
+     * @return true if the time budget has been exceeded during the planning
+     */
+    public boolean isTimeBudgetExceeded() {
+        return timeBudgetExceeded;
+    }
+
+    /**
+     * @param timeBudgetExceeded true if the time budget has been exceeded during the planning
+     */
+    public void setTimeBudgetExceeded(boolean timeBudgetExceeded) {
+        this.timeBudgetExceeded = timeBudgetExceeded;
+    }
+
+    /**
+     * @return the dom element corresponding to this remediation plan
+     */
+    public Element toXMLElement() {
+        Element root = new Element("remediation_plan");
+
+        Element costElement = new Element("cost");
+        costElement.setText(this.getCost() + "");
+        root.addContent(costElement);
+
+        Element modeElement = new Element("mode");
+        modeElement.setText(this.getMode().toString().toLowerCase());
+        root.addContent(modeElement);
+
+        Element optimalElement = new Element("optimal");
+        optimalElement.setText(this.isOptimal() + "");
+        root.addContent(optimalElement);
+
+        Element timeBudgetExceededElement = new Element("time_budget_exceeded");
+        timeBudgetExceededElement.setText(this.isTimeBudgetExceeded() + "");
+        root.addContent(timeBudgetExceededElement);
+
+        Element coveredElement = new Element("covered_attack_paths");
+        root.addContent(coveredElement);
+        for (Integer attackPath : getCoveredAttackPaths()) {
+            Element attackPathElement = new Element("attack_path");
+            attackPathElement.setText(attackPath + "");
+            coveredElement.addContent(attackPathElement);
+        }
+
+        Element uncoveredElement = new Element("uncovered_attack_paths");
+        root.addContent(uncoveredElement);
+        for (Integer attackPath : getUncoveredAttackPaths()) {
+            Element attackPathElement = new Element("attack_path");
+            attackPathElement.setText(attackPath + "");
+            uncoveredElement.addContent(attackPathElement);
+        }
+
+        //The actions are deployed on their first possible machine
+        Element actionsElement = new Element("remediation_actions");
+        root.addContent(actionsElement);
+        for (RemediationAction action : getActions()) {
+            DeployableRemediationAction deployableRemediationAction = new DeployableRemediationAction();
+            deployableRemediationAction.setRemediationAction(action);
+            deployableRemediationAction.setHost(action.getPossibleMachines().get(0));
+            Element actionElement = deployableRemediationAction.toXMLElement();
+            Element costActionElement = new Element("cost");
+            costActionElement.setText(action.getOperationalCost() + "");
+            actionElement.addContent(costActionElement);
+            actionsElement.addContent(actionElement);
+        }
+
+        return root;
+    }
+}
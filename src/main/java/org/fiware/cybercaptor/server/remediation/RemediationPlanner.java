@@ -0,0 +1,345 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Planner of the remediations of all the attack paths of a monitoring object.
+ * Each attack path can be corrected by one of its remediations (remediation[1] OR remediation[2]...), each of them
+ * being a set of remediation actions (remediation[i][1] AND remediation[i][2]...). The planner searches a set of remediation
+ * actions of minimal operational cost that contains at least one remediation of each attack path
+ * (weighted minimum-cost hitting set). The remediation actions must be shared between the attack paths
+ * (e.g. with the {@link org.fiware.cybercaptor.server.attackgraph.LeafRemediationMemo}) to be counted only once.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationPlanner {
+    /**
+     * The maximum number of attack paths for which the exact mode is used in {@link Mode#AUTO} mode
+     */
+    public static final int EXACT_MODE_MAXIMUM_ATTACK_PATHS = 15;
+
+    /**
+     * The default time budget of the planning, in milliseconds
+     */
+    public static final long DEFAULT_TIME_BUDGET = 10000;
+
+    /**
+     * The distinct remediation actions
+     */
+    private final List<RemediationAction> actions = new ArrayList<RemediationAction>();
+
+    /**
+     * The cost of each distinct remediation action
+     */
+    private double[] actionCosts;
+
+    /**
+     * For each attack path, the possible remediations, as sets of remediation action indexes
+     */
+    private final List<List<BitSet>> remediationsOfPaths = new ArrayList<List<BitSet>>();
+
+    /**
+     * The date after which the planning must stop
+     */
+    private long deadline;
+
+    /**
+     * True if the time budget has been exceeded
+     */
+    private boolean timeBudgetExceeded;
+
+    /**
+     * The best set of actions found by the exact mode
+     */
+    private BitSet bestActions;
+
+    /**
+     * The cost of the best set of actions found by the exact mode
+     */
+    private double bestCost;
+
+    /**
+     * Create a planner
+     *
+     * @param remediationActionsOfPaths for each attack path, the list of possible remediation actions: remediation[1] OR remediation[2] OR remediation[3] ; remediation[1] = remediation[1][1] AND remediation[1][2]...
+     */
+    public RemediationPlanner(List<List<List<RemediationAction>>> remediationActionsOfPaths) {
+        IdentityHashMap<RemediationAction, Integer> actionIndexes = new IdentityHashMap<RemediationAction, Integer>();
+        for (List<List<RemediationAction>> remediationActions : remediationActionsOfPaths) {
+            List<BitSet> remediations = new ArrayList<BitSet>();
+            for (List<RemediationAction> remediation : remediationActions) {
+                BitSet remediationBitSet = new BitSet();
+                for (RemediationAction action : remediation) {
+                    //The actions without possible machine are not deployed
+                    if (action.getPossibleMachines().isEmpty())
+                        continue;
+                    Integer index = actionIndexes.get(action);
+                    if (index == null) {
+                        index = actions.size();
+                        actions.add(action);
+                        actionIndexes.put(action, index);
+                    }
+                    remediationBitSet.set(index);
+                }
+                if (!remediationBitSet.isEmpty())
+                    remediations.add(remediationBitSet);
+            }
+            remediationsOfPaths.add(remediations);
+        }
+        actionCosts = new double[actions.size()];
+        for (int i = 0; i < actions.size(); i++) {
+            actionCosts[i] = actions.get(i).getOperationalCostLowerBound();
+        }
+    }
+
+    /**
+     * Compute the remediation plan
+     *
+     * @param mode       the planning mode
+     * @param timeBudget the time budget of the planning, in milliseconds
+     * @return the remediation plan
+     */
+    public RemediationPlan plan(Mode mode, long timeBudget) {
+        deadline = System.currentTimeMillis() + timeBudget;
+        timeBudgetExceeded = false;
+
+        List<Integer> pathsToCover = new ArrayList<Integer>();
+        List<Integer> uncoverablePaths = new ArrayList<Integer>();
+        for (int i = 0; i < remediationsOfPaths.size(); i++) {
+            if (remediationsOfPaths.get(i).isEmpty())
+                uncoverablePaths.add(i);
+            else
+                pathsToCover.add(i);
+        }
+
+        if (mode == Mode.AUTO)
+            mode = pathsToCover.size() <= EXACT_MODE_MAXIMUM_ATTACK_PATHS ? Mode.EXACT : Mode.GREEDY;
+
+        //The greedy solution is always computed: it is the result in greedy mode, and the initial bound in exact mode
+        BitSet chosenActions = planGreedy(pathsToCover);
+        boolean optimal = false;
+        if (mode == Mode.EXACT && !timeBudgetExceeded) {
+            bestActions = chosenActions;
+            bestCost = cost(chosenActions);
+            searchExact(pathsToCover, new BitSet(), 0);
+            chosenActions = bestActions;
+            optimal = !timeBudgetExceeded;
+        }
+
+        RemediationPlan plan = new RemediationPlan(mode, optimal);
+        for (int i = chosenActions.nextSetBit(0); i >= 0; i = chosenActions.nextSetBit(i + 1)) {
+            plan.getActions().add(actions.get(i));
+        }
+        plan.setCost(Math.round(cost(chosenActions) * 100.0) / 100.0);
+        for (Integer path : pathsToCover) {
+            if (isCovered(path, chosenActions))
+                plan.getCoveredAttackPaths().add(path);
+            else
+                plan.getUncoveredAttackPaths().add(path);
+        }
+        plan.getUncoveredAttackPaths().addAll(uncoverablePaths);
+        plan.setTimeBudgetExceeded(timeBudgetExceeded);
+        return plan;
+    }
+
+    /**
+     * Greedy planning: add at each step the remediation with the lowest additional cost per newly covered attack path,
+     * then remove the actions that became useless.
+     *
+     * @param pathsToCover the attack paths to cover
+     * @return the chosen remediation actions
+     */
+    private BitSet planGreedy(List<Integer> pathsToCover) {
+        BitSet chosenActions = new BitSet();
+        List<Integer> uncoveredPaths = new ArrayList<Integer>(pathsToCover);
+
+        while (!uncoveredPaths.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                timeBudgetExceeded = true;
+                break;
+            }
+            BitSet bestRemediation = null;
+            double bestRatio = Double.MAX_VALUE;
+            for (Integer path : uncoveredPaths) {
+                //A pass is quadratic in the number of uncovered attack paths, so the time budget is also checked inside it
+                if (System.currentTimeMillis() > deadline) {
+                    timeBudgetExceeded = true;
+                    break;
+                }
+                for (BitSet remediation : remediationsOfPaths.get(path)) {
+                    BitSet newChosenActions = (BitSet) chosenActions.clone();
+                    newChosenActions.or(remediation);
+                    int newlyCoveredPaths = 0;
+                    for (Integer otherPath : uncoveredPaths) {
+                        if (isCovered(otherPath, newChosenActions))
+                            newlyCoveredPaths++;
+                    }
+                    double ratio = additionalCost(remediation, chosenActions) / newlyCoveredPaths;
+                    if (ratio < bestRatio) {
+                        bestRatio = ratio;
+                        bestRemediation = remediation;
+                    }
+                }
+            }
+            //Keep the best remediation of the interrupted pass, as the plan found so far
+            if (bestRemediation == null)
+                break;
+            chosenActions.or(bestRemediation);
+            List<Integer> stillUncoveredPaths = new ArrayList<Integer>();
+            for (Integer path : uncoveredPaths) {
+                if (!isCovered(path, chosenActions))
+                    stillUncoveredPaths.add(path);
+            }
+            uncoveredPaths = stillUncoveredPaths;
+            if (timeBudgetExceeded)
+                break;
+        }
+
+        //Remove the redundant actions, the most expensive first
+        List<Integer> chosenActionsList = new ArrayList<Integer>();
+        for (int i = chosenActions.nextSetBit(0); i >= 0; i = chosenActions.nextSetBit(i + 1)) {
+            chosenActionsList.add(i);
+        }
+        while (!chosenActionsList.isEmpty()) {
+            int mostExpensive = 0;
+            for (int i = 1; i < chosenActionsList.size(); i++) {
+                if (actionCosts[chosenActionsList.get(i)] > actionCosts[chosenActionsList.get(mostExpensive)])
+                    mostExpensive = i;
+            }
+            int action = chosenActionsList.remove(mostExpensive);
+            chosenActions.clear(action);
+            boolean stillCovered = true;
+            for (Integer path : pathsToCover) {
+                if (!uncoveredPaths.contains(path) && !isCovered(path, chosenActions)) {
+                    stillCovered = false;
+                    break;
+                }
+            }
+            if (!stillCovered)
+                chosenActions.set(action);
+        }
+        return chosenActions;
+    }
+
+    /**
+     * Exact planning: branch and bound on the remediations of the first uncovered attack path
+     *
+     * @param pathsToCover  the attack paths to cover
+     * @param chosenActions the actions already chosen
+     * @param cost          the cost of the actions already chosen
+     */
+    private void searchExact(List<Integer> pathsToCover, BitSet chosenActions, double cost) {
+        if (cost >= bestCost)
+            return;
+        if (System.currentTimeMillis() > deadline) {
+            timeBudgetExceeded = true;
+            return;
+        }
+
+        Integer firstUncoveredPath = null;
+        for (Integer path : pathsToCover) {
+            if (!isCovered(path, chosenActions)) {
+                firstUncoveredPath = path;
+                break;
+            }
+        }
+        if (firstUncoveredPath == null) {
+            bestCost = cost;
+            bestActions = (BitSet) chosenActions.clone();
+            return;
+        }
+
+        for (BitSet remediation : remediationsOfPaths.get(firstUncoveredPath)) {
+            if (timeBudgetExceeded)
+                return;
+            BitSet newChosenActions = (BitSet) chosenActions.clone();
+            newChosenActions.or(remediation);
+            searchExact(pathsToCover, newChosenActions, cost + additionalCost(remediation, chosenActions));
+        }
+    }
+
+    /**
+     * @param path          an attack path
+     * @param chosenActions the chosen actions
+     * @return true if one of the remediations of the attack path is contained in the chosen actions
+     */
+    private boolean isCovered(int path, BitSet chosenActions) {
+        for (BitSet remediation : remediationsOfPaths.get(path)) {
+            boolean contained = true;
+            for (int i = remediation.nextSetBit(0); i >= 0 && contained; i = remediation.nextSetBit(i + 1)) {
+                contained = chosenActions.get(i);
+            }
+            if (contained)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param remediation   a remediation
+     * @param chosenActions the chosen actions
+     * @return the cost of the actions of the remediation that are not already chosen
+     */
+    private double additionalCost(BitSet remediation, BitSet chosenActions) {
+        double result = 0;
+        for (int i = remediation.nextSetBit(0); i >= 0; i = remediation.nextSetBit(i + 1)) {
+            if (!chosenActions.get(i))
+                result += actionCosts[i];
+        }
+        return result;
+    }
+
+    /**
+     * @param chosenActions the chosen actions
+     * @return the cost of the chosen actions
+     */
+    private double cost(BitSet chosenActions) {
+        double result = 0;
+        for (int i = chosenActions.nextSetBit(0); i >= 0; i = chosenActions.nextSetBit(i + 1)) {
+            result += actionCosts[i];
+        }
+        return result;
+    }
+
+    /**
+     * The possible planning modes
+     */
+    public static enum Mode {
+        /**
+         * Branch and bound, optimal if it ends before the time budget
+         */
+        EXACT,
+        /**
+         * Greedy weighted set cover heuristic
+         */
+        GREEDY,
+        /**
+         * Exact for small instances, greedy for large ones
+         */
+        AUTO
+    }
+}
@@ -0,0 +1,171 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.jdom2.Element;
+
+/**
+ * Class representing the simulation of a deployable remediation on the attack graph,
+ * computed by the {@link RemediationSimulator}.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationSimulation {
+    /**
+     * The identifier of the attack path corrected by the remediation
+     */
+    private final int attackPathId;
+
+    /**
+     * The identifier of the remediation in the remediations of the attack path
+     */
+    private final int remediationId;
+
+    /**
+     * The simulated remediation
+     */
+    private final DeployableRemediation deployableRemediation;
+
+    /**
+     * The score of the attack graph after the remediation
+     */
+    private double score = 0;
+
+    /**
+     * The difference between the score after the remediation and the score of the current attack graph
+     */
+    private double scoreDelta = 0;
+
+    /**
+     * The number of vertices remaining in the attack graph after the remediation
+     */
+    private int numberOfRemainingVertices = 0;
+
+    /**
+     * Create a simulation of a remediation
+     *
+     * @param attackPathId          the identifier of the attack path corrected by the remediation
+     * @param remediationId         the identifier of the remediation in the remediations of the attack path
+     * @param deployableRemediation the simulated remediation
+     */
+    public RemediationSimulation(int attackPathId, int remediationId, DeployableRemediation deployableRemediation) {
+        this.attackPathId = attackPathId;
+        this.remediationId = remediationId;
+        this.deployableRemediation = deployableRemediation;
+    }
+
+    /**
+     * @return the identifier of the attack path corrected by the remediation
+     */
+    public int getAttackPathId() {
+        return attackPathId;
+    }
+
+    /**
+     * @return the identifier of the remediation in the remediations of the attack path
+     */
+    public int getRemediationId() {
+        return remediationId;
+    }
+
+    /**
+     * @return the simulated remediation
+     */
+    public DeployableRemediation getDeployableRemediation() {
+        return deployableRemediation;
+    }
+
+    /**
+     * @return the score of the attack graph after the remediation
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @param score the score of the attack graph after the remediation
+     */
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    /**
+     * @return the difference between the score after the remediation and the score of the current attack graph
+     */
+    public double getScoreDelta() {
+        return scoreDelta;
+    }
+
+    /**
+     * @param scoreDelta the difference between the score after the remediation and the score of the current attack graph
+     */
+    public void setScoreDelta(double scoreDelta) {
+        this.scoreDelta = scoreDelta;
+    }
+
+    /**
+     * @return the number of vertices remaining in the attack graph after the remediation
+     */
+    public int getNumberOfRemainingVertices() {
+        return numberOfRemainingVertices;
+    }
+
+    /**
+     * @param numberOfRemainingVertices the number of vertices remaining in the attack graph after the remediation
+     */
+    public void setNumberOfRemainingVertices(int numberOfRemainingVertices) {
+        this.numberOfRemainingVertices = numberOfRemainingVertices;
+    }
+
+    /**
+     * @return the dom element corresponding to this simulation
+     */
+    public Element toXMLElement() {
+        Element root = new Element("simulation");
+
+        Element attackPathElement = new Element("attack_path");
+        attackPathElement.setText(this.getAttackPathId() + "");
+        root.addContent(attackPathElement);
+
+        Element remediationElement = new Element("remediation");
+        remediationElement.setText(this.getRemediationId() + "");
+        root.addContent(remediationElement);
+
+        Element costElement = new Element("cost");
+        costElement.setText(this.getDeployableRemediation().getCost() + "");
+        root.addContent(costElement);
+
+        Element scoreElement = new Element("score");
+        scoreElement.setText(this.getScore() + "");
+        root.addContent(scoreElement);
+
+        Element scoreDeltaElement = new Element("score_delta");
+        scoreDeltaElement.setText(this.getScoreDelta() + "");
+        root.addContent(scoreDeltaElement);
+
+        Element remainingVerticesElement = new Element("remaining_vertices");
+        remainingVerticesElement.setText(this.getNumberOfRemainingVertices() + "");
+        root.addContent(remainingVerticesElement);
+
+        return root;
+    }
+}
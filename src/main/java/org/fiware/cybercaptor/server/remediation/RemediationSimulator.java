@@ -0,0 +1,178 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.attackgraph.AttackGraphSnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class used to simulate a batch of deployable remediations on an attack graph.
+ * Each remediation is simulated on its own copy-on-write view of the same attack graph snapshot,
+ * so the simulations are independent and are computed in parallel.
+ * Remediations deleting exactly the same vertices are simulated only once.
+ * The vertices are deleted in the order of the remediation actions, as in the simulation of a single remediation.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RemediationSimulator {
+    /**
+     * The maximum number of simulations waiting for a thread. When it is reached, the simulations are computed
+     * by the calling thread.
+     */
+    private static final int MAXIMUM_WAITING_SIMULATIONS = 1024;
+
+    /**
+     * The executor shared by all the simulators. Its threads are daemon threads, stopped after one minute without simulation.
+     */
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    /**
+     * The snapshot of the attack graph on which the remediations are simulated
+     */
+    private final AttackGraphSnapshot snapshot;
+
+    /**
+     * The previous max score (used for normalization of the scores)
+     */
+    private final double previousMaxScore;
+
+    /**
+     * The score of the attack graph without any remediation (computed at the first use)
+     */
+    private Double currentScore = null;
+
+    /**
+     * Create a remediation simulator
+     *
+     * @param snapshot         the snapshot of the attack graph on which the remediations are simulated
+     * @param previousMaxScore the previous max score (used for normalization of the scores)
+     */
+    public RemediationSimulator(AttackGraphSnapshot snapshot, double previousMaxScore) {
+        this.snapshot = snapshot;
+        this.previousMaxScore = previousMaxScore;
+    }
+
+    /**
+     * @return the score of the attack graph, without any remediation
+     */
+    public double getCurrentScore() {
+        if (currentScore == null)
+            currentScore = snapshot.createView().computeScore(previousMaxScore);
+        return currentScore;
+    }
+
+    /**
+     * Simulate all the remediations and store their scores in the simulations
+     *
+     * @param simulations the simulations to compute
+     * @throws Exception
+     */
+    public void simulate(List<RemediationSimulation> simulations) throws Exception {
+        //Group the simulations deleting the same vertices
+        Map<LinkedHashSet<Integer>, List<RemediationSimulation>> simulationsByDeletedVertices = new HashMap<LinkedHashSet<Integer>, List<RemediationSimulation>>();
+        for (RemediationSimulation simulation : simulations) {
+            LinkedHashSet<Integer> deletedVertices = new LinkedHashSet<Integer>();
+            for (DeployableRemediationAction action : simulation.getDeployableRemediation().getActions()) {
+                deletedVertices.add(action.getRemediationAction().getRelatedVertex().id);
+            }
+            List<RemediationSimulation> group = simulationsByDeletedVertices.get(deletedVertices);
+            if (group == null) {
+                group = new ArrayList<RemediationSimulation>();
+                simulationsByDeletedVertices.put(deletedVertices, group);
+            }
+            group.add(simulation);
+        }
+        if (simulationsByDeletedVertices.isEmpty())
+            return;
+
+        final double currentScore = getCurrentScore();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final Map.Entry<LinkedHashSet<Integer>, List<RemediationSimulation>> entry : simulationsByDeletedVertices.entrySet()) {
+                futures.add(EXECUTOR.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        AttackGraphSnapshot.View view = snapshot.createView();
+                        for (int vertexId : entry.getKey()) {
+                            view.deleteVertex(vertexId);
+                        }
+                        double score = view.computeScore(previousMaxScore);
+                        for (RemediationSimulation simulation : entry.getValue()) {
+                            simulation.setScore(score);
+                            simulation.setScoreDelta(score - currentScore);
+                            simulation.setNumberOfRemainingVertices(view.getNumberOfVertices());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            //If the batch failed, the simulations not yet computed are cancelled
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return the executor of the simulations, with one thread per processor
+     */
+    private static ExecutorService createExecutor() {
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAXIMUM_WAITING_SIMULATIONS), new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "remediation-simulator-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -21,7 +21,9 @@
 
 package org.fiware.cybercaptor.server.remediation;
 
+import org.fiware.cybercaptor.server.database.PreparedQueries;
 import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+import org.fiware.cybercaptor.server.vulnerability.VulnerabilityCatalog;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -173,7 +175,7 @@ public class Rule extends Remediation {
      * @throws java.sql.SQLException the exception
      */
     public boolean inDatabase(Connection conn) throws Exception {
-        PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM rules WHERE rule LIKE ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.RULE_BY_TEXT);
         pstmt.setString(1, getRule());
         pstmt.execute();
         boolean result = false;
@@ -183,8 +185,8 @@ public class Rule extends Remediation {
             int old_sid = res.getInt(3);
             int old_gid = res.getInt(4);
             res.close();
-            //We update the sid and gid if they were 0
-            if ((old_sid == 0 && getSid() != 0) || (old_gid == 0 && getGid() != 0)) {
+            //We update the sid and gid if they were 0 (not through a read-only connection of the pool)
+            if (!conn.isReadOnly() && ((old_sid == 0 && getSid() != 0) || (old_gid == 0 && getGid() != 0))) {
                 PreparedStatement pstmt2 = conn.prepareStatement("UPDATE rules SET sid = ? , gid = ? WHERE id = ?");
                 pstmt2.setInt(1, getSid());
                 pstmt2.setInt(2, getGid());
@@ -194,7 +196,6 @@ public class Rule extends Remediation {
             }
             result = true;
         }
-        pstmt.close();
         res.close();
         return result;
     }
@@ -211,7 +212,7 @@ public class Rule extends Remediation {
         if (id_rule <= 0) {
             return false;
         }
-        PreparedStatement pstmt = conn.prepareStatement("SELECT id, rule, description, sid, gid FROM rules WHERE id = ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.RULE_BY_ID);
         pstmt.setInt(1, id_rule);
         pstmt.execute();
         ResultSet res = pstmt.getResultSet();
@@ -225,6 +226,7 @@ public class Rule extends Remediation {
             return true;
 
         } else {
+            res.close();
             return false;
         }
     }
@@ -280,7 +282,7 @@ public class Rule extends Remediation {
     public List<Vulnerability> getCorectedVulnerabilities(Connection conn) throws Exception {
         List<Vulnerability> result = new ArrayList<Vulnerability>();
         if (this.inDatabase(conn)) {
-            PreparedStatement pstmt = conn.prepareStatement("SELECT id_vulnerability FROM rules_vulnerability WHERE id_rule = ?");
+            PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITIES_OF_RULE);
             pstmt.setInt(1, getId());
             pstmt.execute();
             ResultSet res = pstmt.getResultSet();
@@ -288,10 +290,21 @@ public class Rule extends Remediation {
                 Vulnerability vuln = new Vulnerability(conn, res.getInt(1));
                 result.add(vuln);
             }
+            res.close();
         }
         return result;
     }
 
+    /**
+     * Get all vulnerabilities corrected by the rule from the in-memory catalog of the database
+     *
+     * @param catalog the vulnerability catalog
+     * @return a list of vulnerabilities corrected by the rule
+     */
+    public List<Vulnerability> getCorectedVulnerabilities(VulnerabilityCatalog catalog) {
+        return catalog.getVulnerabilitiesDetectedByRule(this);
+    }
+
     /**
      * Gets sid.
      *
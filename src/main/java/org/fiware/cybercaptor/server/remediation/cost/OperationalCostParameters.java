@@ -132,6 +132,11 @@ public class OperationalCostParameters {
      */
     private double skillRateMaintenance = 1;
 
+    /**
+     * True if these parameters are shared (e.g. by the {@link OperationalCostParametersCatalog}) and can not be modified
+     */
+    private boolean readOnly = false;
+
     /**
      * Gets remediation cost.
      *
@@ -147,6 +152,7 @@ public class OperationalCostParameters {
      * @param remediationCost the remediation cost
      */
     public void setRemediationCost(double remediationCost) {
+        checkWritable();
         this.remediationCost = remediationCost;
     }
 
@@ -166,6 +172,7 @@ public class OperationalCostParameters {
      */
     public void setBusinessApplicationsTestsDuration(
             double businessApplicationsTestsDuration) {
+        checkWritable();
         this.businessApplicationsTestsDuration = businessApplicationsTestsDuration;
     }
 
@@ -184,6 +191,7 @@ public class OperationalCostParameters {
      * @param workCost the work cost
      */
     public void setWorkCost(double workCost) {
+        checkWritable();
         this.workCost = workCost;
     }
 
@@ -202,6 +210,7 @@ public class OperationalCostParameters {
      * @param computationPowerCost the computation power cost
      */
     public void setComputationPowerCost(double computationPowerCost) {
+        checkWritable();
         this.computationPowerCost = computationPowerCost;
     }
 
@@ -220,6 +229,7 @@ public class OperationalCostParameters {
      * @param storageCost the storage cost
      */
     public void setStorageCost(double storageCost) {
+        checkWritable();
         this.storageCost = storageCost;
     }
 
@@ -238,6 +248,7 @@ public class OperationalCostParameters {
      * @param deploymentDuration the deployment duration
      */
     public void setDeploymentDuration(double deploymentDuration) {
+        checkWritable();
         this.deploymentDuration = deploymentDuration;
     }
 
@@ -256,6 +267,7 @@ public class OperationalCostParameters {
      * @param remediationUninstallDuration the remediation uninstall duration
      */
     public void setRemediationUninstallDuration(double remediationUninstallDuration) {
+        checkWritable();
         this.remediationUninstallDuration = remediationUninstallDuration;
     }
 
@@ -275,6 +287,7 @@ public class OperationalCostParameters {
      */
     public void setServiceUnavailabilityDeploymentDuration(
             double serviceUnavailabilityDeploymentDuration) {
+        checkWritable();
         this.serviceUnavailabilityDeploymentDuration = serviceUnavailabilityDeploymentDuration;
     }
 
@@ -293,6 +306,7 @@ public class OperationalCostParameters {
      * @param restartCost the restart cost
      */
     public void setRestartCost(double restartCost) {
+        checkWritable();
         this.restartCost = restartCost;
     }
 
@@ -311,6 +325,7 @@ public class OperationalCostParameters {
      * @param restartDuration the restart duration
      */
     public void setRestartDuration(double restartDuration) {
+        checkWritable();
         this.restartDuration = restartDuration;
     }
 
@@ -329,6 +344,7 @@ public class OperationalCostParameters {
      * @param usedPower the used power
      */
     public void setUsedPower(double usedPower) {
+        checkWritable();
         this.usedPower = usedPower;
     }
 
@@ -347,6 +363,7 @@ public class OperationalCostParameters {
      * @param usedStorage the used storage
      */
     public void setUsedStorage(double usedStorage) {
+        checkWritable();
         this.usedStorage = usedStorage;
     }
 
@@ -365,6 +382,7 @@ public class OperationalCostParameters {
      * @param maintenanceDuration the maintenance duration
      */
     public void setMaintenanceDuration(double maintenanceDuration) {
+        checkWritable();
         this.maintenanceDuration = maintenanceDuration;
     }
 
@@ -383,6 +401,7 @@ public class OperationalCostParameters {
      * @param skillRateTests the skill rate tests
      */
     public void setSkillRateTests(double skillRateTests) {
+        checkWritable();
         this.skillRateTests = skillRateTests;
     }
 
@@ -401,6 +420,7 @@ public class OperationalCostParameters {
      * @param skillRateDeployment the skill rate deployment
      */
     public void setSkillRateDeployment(double skillRateDeployment) {
+        checkWritable();
         this.skillRateDeployment = skillRateDeployment;
     }
 
@@ -419,9 +439,32 @@ public class OperationalCostParameters {
      * @param skillRateMaintenance the skill rate maintenance
      */
     public void setSkillRateMaintenance(double skillRateMaintenance) {
+        checkWritable();
         this.skillRateMaintenance = skillRateMaintenance;
     }
 
+    /**
+     * Forbid any further modification of these parameters
+     */
+    void setReadOnly() {
+        this.readOnly = true;
+    }
+
+    /**
+     * @return true if these parameters can not be modified
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Check that these parameters can be modified
+     */
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("These operational cost parameters are shared and can not be modified");
+    }
+
     /**
      * Function used to save the parameters in an xml file
      *
@@ -0,0 +1,121 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation.cost;
+
+import java.io.File;
+import java.util.HashMap;
+
+/**
+ * Catalog of the operational cost parameters loaded from the cost parameters folders.
+ * Each file is parsed only once and the resulting parameters (that can not be modified) are shared
+ * by all the remediation actions. A file is loaded again if its modification date changes
+ * or if it has been explicitly invalidated (e.g. when new parameters are saved through the REST API).
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class OperationalCostParametersCatalog {
+
+    /**
+     * The default parameters, used when no file exists
+     */
+    private static final OperationalCostParameters DEFAULT_PARAMETERS = new OperationalCostParameters();
+
+    static {
+        DEFAULT_PARAMETERS.setReadOnly();
+    }
+
+    /**
+     * The loaded parameters, indexed by the path of their file
+     */
+    private static final HashMap<String, CatalogEntry> entries = new HashMap<String, CatalogEntry>();
+
+    /**
+     * Get the operational cost parameters stored in a cost parameters folder
+     *
+     * @param costParametersFolder the cost parameters folder
+     * @param fileName             the name of the parameters file (e.g. {@link OperationalCostParameters#FILE_NAME_PATCH})
+     * @return the shared (not modifiable) operational cost parameters, or the default parameters if the file does not exist
+     * @throws Exception if the file can not be loaded
+     */
+    public static synchronized OperationalCostParameters getOperationalCostParameters(String costParametersFolder, String fileName) throws Exception {
+        String path = costParametersFolder + "/" + fileName;
+        File file = new File(path);
+        if (!file.exists()) {
+            entries.remove(path);
+            return DEFAULT_PARAMETERS;
+        }
+
+        long lastModified = file.lastModified();
+        CatalogEntry entry = entries.get(path);
+        if (entry == null || entry.lastModified != lastModified) {
+            OperationalCostParameters parameters = new OperationalCostParameters();
+            parameters.loadFromXMLFile(path);
+            parameters.setReadOnly();
+            entry = new CatalogEntry(parameters, lastModified);
+            entries.put(path, entry);
+        }
+        return entry.parameters;
+    }
+
+    /**
+     * Invalidate the parameters loaded from a file
+     *
+     * @param costParametersFolder the cost parameters folder
+     * @param fileName             the name of the parameters file
+     */
+    public static synchronized void invalidate(String costParametersFolder, String fileName) {
+        entries.remove(costParametersFolder + "/" + fileName);
+    }
+
+    /**
+     * Invalidate all the loaded parameters
+     */
+    public static synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Parameters loaded from a file, with the modification date of the file when it was loaded
+     */
+    private static class CatalogEntry {
+        /**
+         * The loaded parameters
+         */
+        private final OperationalCostParameters parameters;
+
+        /**
+         * The modification date of the file
+         */
+        private final long lastModified;
+
+        /**
+         * Create a new catalog entry
+         *
+         * @param parameters   the loaded parameters
+         * @param lastModified the modification date of the file
+         */
+        private CatalogEntry(OperationalCostParameters parameters, long lastModified) {
+            this.parameters = parameters;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -36,6 +36,11 @@ import java.io.Serializable;
  * @author Francois -Xavier Aguessy
  */
 public class SerializableDeployableRemediationAction implements Serializable {
+    /**
+     * The version of the serialized form, that of the class before the addition of {@link #getKey()},
+     * so that the remediation histories already saved can still be read
+     */
+    private static final long serialVersionUID = -6801102845440944701L;
     /**
      * The remediation action type
      */
@@ -138,4 +143,13 @@ public class SerializableDeployableRemediationAction implements Serializable {
 
         return result;
     }
+
+    /**
+     * Get a canonical key of this action: two actions are equals if and only if they have the same key
+     *
+     * @return the key of the action
+     */
+    public String getKey() {
+        return getRemediationActionType() + "|" + getHost() + "|" + getRemediationAction();
+    }
 }
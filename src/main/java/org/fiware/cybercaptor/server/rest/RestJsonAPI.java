@@ -33,6 +33,8 @@ import org.fiware.cybercaptor.server.informationsystem.InformationSystem;
 import org.fiware.cybercaptor.server.monitoring.Monitoring;
 import org.fiware.cybercaptor.server.properties.ProjectProperties;
 import org.fiware.cybercaptor.server.remediation.DeployableRemediation;
+import org.fiware.cybercaptor.server.remediation.DeployableRemediationSearch;
+import org.fiware.cybercaptor.server.remediation.RemediationPlanner;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataContentDisposition;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -263,6 +265,29 @@ public class RestJsonAPI {
         return RestApplication.returnJsonObject(request, monitoring.getInformationSystem().getHostsListJson());
     }
 
+    /**
+     * Get the reachability between the hosts : the destination ports that each host can reach on the other hosts
+     *
+     * @param request the HTTP Request
+     * @return the HTTP Response
+     */
+    @GET
+    @Path("host/reachability")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getHostReachability(@Context HttpServletRequest request) {
+        Monitoring monitoring = ((Monitoring) request.getSession(true).getAttribute("monitoring"));
+
+        if (monitoring == null) {
+            return RestApplication.returnErrorMessage(request, "The monitoring object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+        try {
+            return RestApplication.returnJsonObject(request, monitoring.getInformationSystem().getReachabilityJson());
+        } catch (Exception e) {
+            return RestApplication.returnErrorMessage(request, e.getMessage());
+        }
+    }
+
     @OPTIONS
     @Path("/host/list")
     public Response setHostListOptions(@Context HttpServletRequest request) {
@@ -289,6 +314,7 @@ public class RestJsonAPI {
         JSONObject json = new JSONObject(jsonString);
         try {
             InformationSystemManagement.loadHostsSecurityRequirementsFromJson(monitoring, json);
+            monitoring.invalidateRemediations();
             return RestApplication.returnJsonObject(request, new JSONObject());
         } catch (Exception e) {
             return RestApplication.returnErrorMessage(request, e.getMessage());
@@ -340,6 +366,50 @@ public class RestJsonAPI {
         return RestApplication.returnJsonObject(request, new JSONObject().put("number", monitoring.getAttackPathList().size()));
     }
 
+    /**
+     * Compute a remediation plan correcting all the attack paths at a minimal cost
+     *
+     * @param request    the HTTP Request
+     * @param mode       the planning mode (auto, exact or greedy)
+     * @param timeBudget the time budget of the planning, in milliseconds
+     * @return the HTTP Response
+     */
+    @GET
+    @Path("attack_path/remediation_plan")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getRemediationPlan(@Context HttpServletRequest request,
+                                       @QueryParam("mode") @DefaultValue("auto") String mode,
+                                       @QueryParam("time_budget") @DefaultValue("" + RemediationPlanner.DEFAULT_TIME_BUDGET) long timeBudget) {
+        Monitoring monitoring = ((Monitoring) request.getSession(true).getAttribute("monitoring"));
+        Database db = ((Database) request.getSession(true).getAttribute("database"));
+
+        if (monitoring == null) {
+            return RestApplication.returnErrorMessage(request, "The monitoring object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        if (db == null) {
+            return RestApplication.returnErrorMessage(request, "The database object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        RemediationPlanner.Mode planningMode;
+        try {
+            planningMode = RemediationPlanner.Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return RestApplication.returnErrorMessage(request, "The planning mode " + mode + " does not exist (auto, exact or greedy)");
+        }
+
+        Element remediationPlanXML;
+        try {
+            remediationPlanXML = monitoring.getRemediationPlan(db, planningMode, timeBudget).toXMLElement();
+        } catch (Exception e) {
+            return RestApplication.returnErrorMessage(request, "Error during the computation of the remediation plan:" + e.getMessage());
+        }
+        XMLOutputter output = new XMLOutputter(Format.getPrettyFormat());
+        return RestApplication.returnJsonObject(request, XML.toJSONObject(output.outputString(remediationPlanXML)));
+    }
+
     /**
      * Get one attack path (id starting from 0)
      *
@@ -439,6 +509,51 @@ public class RestJsonAPI {
         return RestApplication.returnJsonObject(request, XML.toJSONObject(output.outputString(remediationXML)));
     }
 
+    /**
+     * Compute and return the cheapest remediations for an attack path, without enumerating all of them
+     *
+     * @param request         the HTTP Request
+     * @param id              the identifier of the attack path for which the remediations will be computed
+     * @param numberOfResults the maximum number of remediations to return
+     * @param expansionLimit  the maximum number of expansions of the search
+     * @return the HTTP Response
+     */
+    @GET
+    @Path("attack_path/{id}/remediations/best")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAttackPathBestRemediations(@Context HttpServletRequest request, @PathParam("id") int id,
+                                                  @QueryParam("k") @DefaultValue("" + DeployableRemediationSearch.DEFAULT_NUMBER_OF_REMEDIATIONS) int numberOfResults,
+                                                  @QueryParam("expansion_limit") @DefaultValue("" + DeployableRemediationSearch.DEFAULT_EXPANSION_LIMIT) int expansionLimit) {
+        Monitoring monitoring = ((Monitoring) request.getSession(true).getAttribute("monitoring"));
+        Database db = ((Database) request.getSession(true).getAttribute("database"));
+
+        if (monitoring == null) {
+            return RestApplication.returnErrorMessage(request, "The monitoring object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        if (db == null) {
+            return RestApplication.returnErrorMessage(request, "The database object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        int numberAttackPaths = monitoring.getAttackPathList().size();
+
+        if (id >= numberAttackPaths) {
+            return RestApplication.returnErrorMessage(request, "The attack path " + id + " does not exist. There are only" +
+                    numberAttackPaths + " attack paths (0 to " +
+                    (numberAttackPaths - 1) + ")");
+        }
+
+        Element remediationXML = AttackPathManagement.getCheapestRemediationsXML(monitoring, id, db, numberOfResults, expansionLimit);
+        if (remediationXML == null) {
+            return RestApplication.returnErrorMessage(request, "Error during the computation of the remediations.");
+        }
+        XMLOutputter output = new XMLOutputter(Format.getPrettyFormat());
+
+        return RestApplication.returnJsonObject(request, XML.toJSONObject(output.outputString(remediationXML)));
+    }
+
     /**
      * Simulate the remediation id_remediation of the path id, and compute the new attack graph
      *
@@ -472,7 +587,7 @@ public class RestJsonAPI {
                     (numberAttackPaths - 1) + ")");
         }
 
-        List<DeployableRemediation> remediations = monitoring.getAttackPathList().get(id).getDeployableRemediations(monitoring.getInformationSystem(), db.getConn(), monitoring.getPathToCostParametersFolder());
+        List<DeployableRemediation> remediations = monitoring.getDeployableRemediations(id, db);
 
         int numberRemediations = remediations.size();
 
@@ -505,6 +620,46 @@ public class RestJsonAPI {
 
     }
 
+    /**
+     * Simulate a batch of remediations, possibly of several attack paths, and return the score of the attack graph
+     * after each of them. The body must contain a json object such as
+     * {"remediations": [{"attack_path": 0, "remediation": 1}, {"attack_path": 2, "remediation": 0}]}
+     *
+     * @param request    the HTTP Request
+     * @param jsonString the json object containing the remediations to simulate
+     * @return the HTTP Response
+     */
+    @POST
+    @Path("attack_path/remediations/simulate")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response simulateRemediationsInAttackGraph(@Context HttpServletRequest request, String jsonString) {
+        Monitoring monitoring = ((Monitoring) request.getSession(true).getAttribute("monitoring"));
+        Database db = ((Database) request.getSession(true).getAttribute("database"));
+
+        if (monitoring == null) {
+            return RestApplication.returnErrorMessage(request, "The monitoring object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        if (db == null) {
+            return RestApplication.returnErrorMessage(request, "The database object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        if (jsonString == null || jsonString.isEmpty())
+            return RestApplication.returnErrorMessage(request, "The input text string is empty.");
+
+        Element simulationsXML;
+        try {
+            simulationsXML = AttackPathManagement.simulateRemediationsXML(monitoring, db, new JSONObject(jsonString));
+        } catch (Exception e) {
+            return RestApplication.returnErrorMessage(request, "Error during the simulation of the remediations:" + e.getMessage());
+        }
+        XMLOutputter output = new XMLOutputter(Format.getPrettyFormat());
+        return RestApplication.returnJsonObject(request, XML.toJSONObject(output.outputString(simulationsXML)));
+    }
+
     /**
      * Validate that the remediation id_remediation of the path id has been applied
      *
@@ -540,7 +695,7 @@ public class RestJsonAPI {
 
         List<DeployableRemediation> remediations;
         try {
-            remediations = monitoring.getAttackPathList().get(id).getDeployableRemediations(monitoring.getInformationSystem(), db.getConn(), monitoring.getPathToCostParametersFolder());
+            remediations = monitoring.getDeployableRemediations(id, db);
         } catch (Exception e) {
             return RestApplication.returnErrorMessage(request, "Error during the computation of the remediations:" + e.getMessage());
         }
@@ -627,6 +782,26 @@ public class RestJsonAPI {
     }
 
 
+    /**
+     * Get the metrics of the pool of connections to the vulnerability and remediation database
+     *
+     * @param request the HTTP Request
+     * @return the HTTP Response
+     */
+    @GET
+    @Path("database/pool")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getDatabasePoolMetrics(@Context HttpServletRequest request) {
+        Database db = ((Database) request.getSession(true).getAttribute("database"));
+
+        if (db == null) {
+            return RestApplication.returnErrorMessage(request, "The database object is empty. Did you forget to " +
+                    "initialize it ?");
+        }
+
+        return RestApplication.returnJsonObject(request, db.getConnectionPool().getMetrics());
+    }
+
     /**
      * Receive alerts in IDMEF format and add them into a local queue file,
      * before releasing them when the client requests it.
@@ -21,9 +21,11 @@
 
 package org.fiware.cybercaptor.server.rest;
 
+import org.fiware.cybercaptor.server.monitoring.Monitoring;
 import org.fiware.cybercaptor.server.properties.ProjectProperties;
 import org.fiware.cybercaptor.server.remediation.cost.GlobalParameters;
 import org.fiware.cybercaptor.server.remediation.cost.OperationalCostParameters;
+import org.fiware.cybercaptor.server.remediation.cost.OperationalCostParametersCatalog;
 import org.jdom2.Document;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
@@ -112,6 +114,7 @@ public class RestJsonConfiguration {
             return RestApplication.returnErrorMessage(request, "Can not save to XML file" +
                     " string: " + e.getMessage());
         }
+        invalidateRemediations(request);
         return RestApplication.returnJsonObject(request, new JSONObject());
     }
 
@@ -284,6 +287,20 @@ public class RestJsonConfiguration {
             return RestApplication.returnErrorMessage(request, "Can not save to XML file" +
                     " string: " + e.getMessage());
         }
+        OperationalCostParametersCatalog.invalidate(costParametersFolderPath, costParameterFileName);
+        invalidateRemediations(request);
         return RestApplication.returnJsonObject(request, new JSONObject());
     }
+
+    /**
+     * Invalidate the remediations cached in the monitoring object of the session, if any,
+     * because they have been computed with the previous cost parameters.
+     *
+     * @param request the HTTP Request
+     */
+    private void invalidateRemediations(HttpServletRequest request) {
+        Monitoring monitoring = ((Monitoring) request.getSession(true).getAttribute("monitoring"));
+        if (monitoring != null)
+            monitoring.invalidateRemediations();
+    }
 }
@@ -61,6 +61,52 @@ public class Launch {
      */
     public static double main(double[] vertexIDTable, String[] vertexFactTable, double[] vertexMulvalMetricTable, String[] vertexTypeTable, double[] arcSrcTable, double[] arcDstTable, ImpactMetric[][] ImpactMetrics, String pathToAttackPathsFile, double previousMaxScore) throws Exception {
 
+        Graph graph = buildGraph(vertexIDTable, vertexFactTable, vertexMulvalMetricTable, vertexTypeTable, arcSrcTable, arcDstTable, ImpactMetrics);
+        Vertex[] TargetSet = Graph.getVerticesOnTypeAndFact(graph.getVertices(), "OR");
+
+        System.out.println("Generate Attack Paths");
+        Graph[] result = AttackPaths.main(TargetSet, graph); //Disabled following the test launch of attack path algorithm.
+
+        double scoreAttackGraph = formulas.MinMax(formulas.globalScore(graph), previousMaxScore);
+
+        saveToXmlFile(pathToAttackPathsFile, result);
+        Logger.getAnonymousLogger().log(Level.INFO, "Attack paths generated");
+        return scoreAttackGraph;
+    }
+
+    /**
+     * Compute only the score of an attack graph, without generating nor saving its attack paths.
+     * A new instance of the scoring formulas is used, so that several scores can be computed in parallel.
+     *
+     * @param vertexIDTable           the vertex ids table
+     * @param vertexFactTable         the vertex facts table
+     * @param vertexMulvalMetricTable the vertex metrics table
+     * @param vertexTypeTable         the vertex types table
+     * @param arcSrcTable             the arc sources table
+     * @param arcDstTable             the arc destinations table
+     * @param ImpactMetrics           the impact metrics table
+     * @param previousMaxScore        the previous max score (used for normalization)
+     * @return the score of the attack graph
+     */
+    public static double score(double[] vertexIDTable, String[] vertexFactTable, double[] vertexMulvalMetricTable, String[] vertexTypeTable, double[] arcSrcTable, double[] arcDstTable, ImpactMetric[][] ImpactMetrics, double previousMaxScore) {
+        Graph graph = buildGraph(vertexIDTable, vertexFactTable, vertexMulvalMetricTable, vertexTypeTable, arcSrcTable, arcDstTable, ImpactMetrics);
+        ScoringFormulas scoringFormulas = new ScoringFormulas();
+        return scoringFormulas.MinMax(scoringFormulas.globalScore(graph), previousMaxScore);
+    }
+
+    /**
+     * Build the graph used by the scoring function
+     *
+     * @param vertexIDTable           the vertex ids table
+     * @param vertexFactTable         the vertex facts table
+     * @param vertexMulvalMetricTable the vertex metrics table
+     * @param vertexTypeTable         the vertex types table
+     * @param arcSrcTable             the arc sources table
+     * @param arcDstTable             the arc destinations table
+     * @param ImpactMetrics           the impact metrics table
+     * @return the graph
+     */
+    private static Graph buildGraph(double[] vertexIDTable, String[] vertexFactTable, double[] vertexMulvalMetricTable, String[] vertexTypeTable, double[] arcSrcTable, double[] arcDstTable, ImpactMetric[][] ImpactMetrics) {
         Arc[] ArcsTable = new Arc[arcSrcTable.length];
         Vertex[] VerticesTable = new Vertex[vertexIDTable.length];
 
@@ -78,17 +124,7 @@ public class Launch {
             VerticesTable[i].setType(vertexTypeTable[i]);
             VerticesTable[i].setImpactMetrics(ImpactMetrics[i]);
         }
-        Graph graph = new Graph(ArcsTable, VerticesTable);
-        Vertex[] TargetSet = Graph.getVerticesOnTypeAndFact(VerticesTable, "OR");
-
-        System.out.println("Generate Attack Paths");
-        Graph[] result = AttackPaths.main(TargetSet, graph); //Disabled following the test launch of attack path algorithm.
-
-        double scoreAttackGraph = formulas.MinMax(formulas.globalScore(graph), previousMaxScore);
-
-        saveToXmlFile(pathToAttackPathsFile, result);
-        Logger.getAnonymousLogger().log(Level.INFO, "Attack paths generated");
-        return scoreAttackGraph;
+        return new Graph(ArcsTable, VerticesTable);
     }
 
     /**
@@ -0,0 +1,303 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.Network;
+import org.fiware.cybercaptor.server.topology.asset.VLAN;
+import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed layer 2 adjacency of the hosts of a topology : the members of each VLAN (hosts, interfaces,
+ * and hosts by IP address), the VLANs of the interfaces of each host, and the interfaces sorted by address,
+ * for the subnet lookups. The neighbours of a host or of an interface are then found without scanning
+ * the hosts of the topology, nor the interfaces of the hosts of the VLANs.
+ * The lists are in the same order (and with the same repetitions) as the ones computed from the VLANs
+ * of the interfaces, so that the routing follows the same paths.
+ * The index is immutable : it is built again by the topology when its modification count changes.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class AdjacencyIndex {
+    /**
+     * The modification count of the topology when the index was built
+     */
+    private final int modificationCount;
+
+    /**
+     * For each host, the members of the VLAN of each of its interfaces (in the order of the interfaces)
+     */
+    private final IdentityHashMap<Host, VlanMembers[]> vlansOfHosts = new IdentityHashMap<Host, VlanMembers[]>();
+
+    /**
+     * For each interface, the members of its VLAN
+     */
+    private final IdentityHashMap<Interface, VlanMembers> vlansOfInterfaces = new IdentityHashMap<Interface, VlanMembers>();
+
+    /**
+     * The position of the first occurrence of each host in the list of hosts of the topology
+     */
+    private final IdentityHashMap<Host, Integer> hostPositions = new IdentityHashMap<Host, Integer>();
+
+    /**
+     * The addresses of the interfaces of the hosts, in unsigned ascending order (shifted by Integer.MIN_VALUE)
+     */
+    private final int[] sortedAddresses;
+
+    /**
+     * The interfaces of {@link #sortedAddresses}
+     */
+    private final Interface[] sortedInterfaces;
+
+    /**
+     * Build the adjacency index of a topology
+     *
+     * @param topology the topology
+     */
+    AdjacencyIndex(Topology topology) {
+        this.modificationCount = topology.getModificationCount();
+        IdentityHashMap<VLAN, VlanMembers> members = new IdentityHashMap<VLAN, VlanMembers>();
+        List<Interface> interfaces = new ArrayList<Interface>();
+        List<Host> hosts = topology.getHosts();
+        for (int position = 0; position < hosts.size(); position++) {
+            Host host = hosts.get(position);
+            if (hostPositions.containsKey(host))
+                continue;
+            hostPositions.put(host, position);
+            List<VlanMembers> vlansOfHost = new ArrayList<VlanMembers>();
+            for (Interface intface : host.getInterfaces().values()) {
+                VLAN vlan = intface.getVlan();
+                VlanMembers vlanMembers = members.get(vlan);
+                if (vlanMembers == null) {
+                    vlanMembers = new VlanMembers(vlan);
+                    members.put(vlan, vlanMembers);
+                }
+                vlansOfHost.add(vlanMembers);
+                vlansOfInterfaces.put(intface, vlanMembers);
+                if (intface.getAddress() != null)
+                    interfaces.add(intface);
+            }
+            vlansOfHosts.put(host, vlansOfHost.toArray(new VlanMembers[vlansOfHost.size()]));
+        }
+
+        //Sort the interfaces by unsigned address (the position of the interface is kept in the low bits)
+        long[] keys = new long[interfaces.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) (interfaces.get(i).getAddress().toInt() ^ Integer.MIN_VALUE) << 32) | i;
+        }
+        Arrays.sort(keys);
+        sortedAddresses = new int[keys.length];
+        sortedInterfaces = new Interface[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sortedAddresses[i] = (int) (keys[i] >> 32);
+            sortedInterfaces[i] = interfaces.get((int) keys[i]);
+        }
+    }
+
+    /**
+     * @param topology the topology
+     * @return true if the topology has not changed since the index was built
+     */
+    boolean isUpToDate(Topology topology) {
+        return topology.getModificationCount() == modificationCount;
+    }
+
+    /**
+     * @param host a host of the topology
+     * @return the hosts of the VLANs of the interfaces of the host (not modifiable), or null if the host is not indexed
+     */
+    public List<Host> getDirectlyAccessibleHosts(Host host) {
+        VlanMembers[] vlansOfHost = vlansOfHosts.get(host);
+        if (vlansOfHost == null)
+            return null;
+        if (vlansOfHost.length == 1)
+            return vlansOfHost[0].hosts;
+        List<Host> result = new ArrayList<Host>();
+        for (VlanMembers vlanMembers : vlansOfHost) {
+            result.addAll(vlanMembers.hosts);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Get the hosts directly accessible from a host that have an IP address, in the order of
+     * {@link #getDirectlyAccessibleHosts(Host)}
+     *
+     * @param host a host of the topology
+     * @param ip   an ip address
+     * @return the hosts of the VLANs of the host that have this address (not modifiable), or null if the host is not indexed
+     */
+    public List<Host> getDirectlyAccessibleHostsWithIP(Host host, IPAddress ip) {
+        VlanMembers[] vlansOfHost = vlansOfHosts.get(host);
+        if (vlansOfHost == null)
+            return null;
+        List<Host> result = Collections.emptyList();
+        boolean copied = false;
+        for (VlanMembers vlanMembers : vlansOfHost) {
+            List<Host> hostsWithIP = vlanMembers.hostsByIP.get(ip);
+            if (hostsWithIP == null)
+                continue;
+            if (result.isEmpty()) {
+                result = hostsWithIP;
+            } else {
+                if (!copied) {
+                    result = new ArrayList<Host>(result);
+                    copied = true;
+                }
+                result.addAll(hostsWithIP);
+            }
+        }
+        return copied ? Collections.unmodifiableList(result) : result;
+    }
+
+    /**
+     * @param intface an interface of a host of the topology
+     * @return the other interfaces of its VLAN, or null if the interface is not indexed
+     */
+    public List<Interface> getDirectlyAccessibleInterfaces(Interface intface) {
+        VlanMembers vlanMembers = vlansOfInterfaces.get(intface);
+        if (vlanMembers == null)
+            return null;
+        List<Interface> result = new ArrayList<Interface>(vlanMembers.interfaces.size());
+        for (Interface vlanInterface : vlanMembers.interfaces) {
+            if (!vlanInterface.equals(intface))
+                result.add(vlanInterface);
+        }
+        return result;
+    }
+
+    /**
+     * @param network a network
+     * @return the hosts of the topology having an interface (with a network) whose address is in the network,
+     * in the order of the hosts of the topology
+     */
+    public List<Host> getHostsInNetwork(Network network) {
+        int mask = network.getMask().toInt();
+        int networkAddress = network.getAddress().toInt() & mask;
+        int first = 0;
+        int end = sortedAddresses.length;
+        if ((~mask & (~mask + 1)) == 0) { //a prefix : only the interfaces of the range of the network are tested
+            first = lowerBound(networkAddress ^ Integer.MIN_VALUE);
+            end = (networkAddress | ~mask) == -1 ? sortedAddresses.length : lowerBound(((networkAddress | ~mask) + 1) ^ Integer.MIN_VALUE);
+        }
+        List<Host> result = new ArrayList<Host>();
+        IdentityHashMap<Host, Boolean> found = new IdentityHashMap<Host, Boolean>();
+        for (int i = first; i < end; i++) {
+            Interface intface = sortedInterfaces[i];
+            if (intface.getNetwork() != null && (intface.getAddress().toInt() & mask) == networkAddress
+                    && intface.getHost() != null && found.put(intface.getHost(), Boolean.TRUE) == null)
+                result.add(intface.getHost());
+        }
+        Collections.sort(result, new Comparator<Host>() {
+            @Override
+            public int compare(Host host1, Host host2) {
+                return Integer.compare(position(host1), position(host2));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @param host a host
+     * @return the position of the host in the list of hosts of the topology
+     */
+    private int position(Host host) {
+        Integer position = hostPositions.get(host);
+        return position == null ? Integer.MAX_VALUE : position;
+    }
+
+    /**
+     * @param key a shifted address
+     * @return the position of the first sorted address greater than or equal to the key
+     */
+    private int lowerBound(int key) {
+        int low = 0;
+        int high = sortedAddresses.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedAddresses[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * The members of a VLAN
+     */
+    private static class VlanMembers {
+        /**
+         * The hosts of the VLAN (not modifiable)
+         */
+        private final List<Host> hosts;
+
+        /**
+         * The interfaces of the VLAN (not modifiable)
+         */
+        private final List<Interface> interfaces;
+
+        /**
+         * The hosts of the VLAN having each IP address, in the order (and with the repetitions) of the hosts of the VLAN
+         */
+        private final HashMap<IPAddress, List<Host>> hostsByIP = new HashMap<IPAddress, List<Host>>();
+
+        /**
+         * Index the members of a VLAN
+         *
+         * @param vlan the VLAN
+         */
+        VlanMembers(VLAN vlan) {
+            this.hosts = Collections.unmodifiableList(new ArrayList<Host>(vlan.getHosts()));
+            this.interfaces = Collections.unmodifiableList(new ArrayList<Interface>(vlan.getInterfaces()));
+            for (Host host : hosts) {
+                if (host == null)
+                    continue;
+                List<IPAddress> addresses = new ArrayList<IPAddress>();
+                for (Interface intface : host.getInterfaces().values()) {
+                    if (intface.getAddress() != null && !addresses.contains(intface.getAddress()))
+                        addresses.add(intface.getAddress());
+                }
+                for (IPAddress address : addresses) {
+                    List<Host> hostsWithIP = hostsByIP.get(address);
+                    if (hostsWithIP == null) {
+                        hostsWithIP = new ArrayList<Host>(1);
+                        hostsByIP.put(address, hostsWithIP);
+                    }
+                    hostsWithIP.add(host);
+                }
+            }
+            for (Map.Entry<IPAddress, List<Host>> entry : hostsByIP.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch simulation of packets in a topology : for each packet (source, destination, protocol, ports), does it arrive
+ * to its destination through the routing and firewall tables of the hosts, and else which host blocks it ?
+ * The routes are computed once for each couple of source and destination hosts of the batch, then the packets
+ * are filtered on their route in parallel, without any console output.
+ * A packet from the Internet arrives if it passes one of the routes from the Internet to its destination host.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class PacketSimulation {
+    /**
+     * The default source port of the simulated packets
+     */
+    public static final int SOURCE_PORT = 1025;
+
+    /**
+     * The topology in which the packets are simulated
+     */
+    private final Topology topology;
+
+    /**
+     * Create a packet simulation in a topology
+     *
+     * @param topology the topology
+     */
+    public PacketSimulation(Topology topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * Simulate a batch of packets
+     *
+     * @param packets       the packets to simulate
+     * @param withHopTraces true if the hosts crossed by each packet should be kept in its verdict
+     * @return the verdict of each packet, in the order of the packets
+     * @throws Exception if the simulation is interrupted
+     */
+    public List<Verdict> simulate(List<Packet> packets, final boolean withHopTraces) throws Exception {
+        final Verdict[] verdicts = new Verdict[packets.size()];
+        if (packets.isEmpty())
+            return Arrays.asList(verdicts);
+
+        //The hosts of the packets, and the distinct couples of hosts whose routes are needed
+        final Host[] sources = new Host[packets.size()];
+        final Host[] destinations = new Host[packets.size()];
+        final IdentityHashMap<Host, IdentityHashMap<Host, Object>> routes = new IdentityHashMap<Host, IdentityHashMap<Host, Object>>();
+        final IdentityHashMap<Host, Object> routesFromInternet = new IdentityHashMap<Host, Object>();
+        final List<Host[]> couples = new ArrayList<Host[]>();
+        for (int i = 0; i < packets.size(); i++) {
+            Packet packet = packets.get(i);
+            destinations[i] = topology.existingHostByIPAddress(packet.getDestination());
+            if (packet.isFromInternet()) {
+                if (destinations[i] != null && !routesFromInternet.containsKey(destinations[i])) {
+                    routesFromInternet.put(destinations[i], null);
+                    couples.add(new Host[]{null, destinations[i]});
+                }
+                continue;
+            }
+            sources[i] = topology.existingHostByIPAddress(packet.getSource());
+            if (sources[i] == null || destinations[i] == null)
+                continue;
+            IdentityHashMap<Host, Object> routesFromSource = routes.get(sources[i]);
+            if (routesFromSource == null) {
+                routesFromSource = new IdentityHashMap<Host, Object>();
+                routes.put(sources[i], routesFromSource);
+            }
+            if (!routesFromSource.containsKey(destinations[i])) {
+                routesFromSource.put(destinations[i], null);
+                couples.add(new Host[]{sources[i], destinations[i]});
+            }
+        }
+
+        //The routes (or the routing failures) of the couples, computed in parallel on the adjacency index built here
+        topology.getAdjacencyIndex();
+        final Object[] coupleRoutes = new Object[couples.size()];
+        runInParallel(couples.size(), new IndexTask() {
+            @Override
+            public void run(int index) {
+                Host[] couple = couples.get(index);
+                try {
+                    if (couple[0] == null)
+                        coupleRoutes[index] = topology.getRoutesFromInternet(couple[1]);
+                    else
+                        coupleRoutes[index] = Collections.singletonList(topology.routeBetweenHosts(couple[0], couple[1]));
+                } catch (Exception e) {
+                    coupleRoutes[index] = String.valueOf(e.getMessage());
+                }
+            }
+        });
+        for (int i = 0; i < couples.size(); i++) {
+            Host[] couple = couples.get(i);
+            if (couple[0] == null)
+                routesFromInternet.put(couple[1], coupleRoutes[i]);
+            else
+                routes.get(couple[0]).put(couple[1], coupleRoutes[i]);
+        }
+
+        //The packets, filtered on their routes in parallel
+        final List<Packet> packetList = packets;
+        runInParallel(packets.size(), new IndexTask() {
+            @Override
+            public void run(int index) {
+                Packet packet = packetList.get(index);
+                Object packetRoutes;
+                if (destinations[index] == null)
+                    packetRoutes = "No host with the destination address " + packet.getDestination();
+                else if (packet.isFromInternet())
+                    packetRoutes = routesFromInternet.get(destinations[index]);
+                else if (sources[index] == null)
+                    packetRoutes = "No host with the source address " + packet.getSource();
+                else
+                    packetRoutes = routes.get(sources[index]).get(destinations[index]);
+                if (packetRoutes instanceof String) {
+                    verdicts[index] = new Verdict(false, null, null, (String) packetRoutes, null);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<List<Host>> routesOfPacket = (List<List<Host>>) packetRoutes;
+                    verdicts[index] = simulate(packet, sources[index], destinations[index], routesOfPacket, withHopTraces);
+                }
+            }
+        });
+        return Arrays.asList(verdicts);
+    }
+
+    /**
+     * Simulate a packet on its routes
+     *
+     * @param packet        the packet
+     * @param source        the source host (null if the packet is sent from the Internet)
+     * @param destination   the destination host
+     * @param routes        the routes that the packet can follow
+     * @param withHopTraces true if the hosts crossed by the packet should be kept in its verdict
+     * @return the verdict of the packet on its first route where it arrives, or else on its first route
+     */
+    private Verdict simulate(Packet packet, Host source, Host destination, List<List<Host>> routes, boolean withHopTraces) {
+        if (routes.isEmpty())
+            return new Verdict(false, null, null, "No route from the Internet", null);
+        IPAddress ipFrom = packet.isFromInternet() ? IPAddress.getIPv4NetMask(0) : packet.getSource();
+        IPAddress maskFrom = IPAddress.getIPv4NetMask(packet.isFromInternet() ? 0 : 32);
+        Verdict firstVerdict = null;
+        for (List<Host> route : routes) {
+            Verdict verdict;
+            if (route.size() <= 1) {
+                //Only one host on the route, no filtering. No host in the route --> The packet can not be sent !
+                verdict = new Verdict(route.size() == 1, null, null, route.isEmpty() ? "Empty route" : null, withHopTraces ? route : null);
+            } else {
+                boolean sentByFirstHost = source != null && source == route.get(0);
+                boolean receivedByLastHost = destination == route.get(route.size() - 1);
+                int blockingHost = Topology.blockingHostOnARoute(route, sentByFirstHost, receivedByLastHost, ipFrom, maskFrom, packet.getSourcePort(),
+                        packet.getDestination(), IPAddress.getIPv4NetMask(32), packet.getDestinationPort(), packet.getProtocol(), null);
+                if (blockingHost < 0) {
+                    verdict = new Verdict(true, null, null, null, withHopTraces ? route : null);
+                } else {
+                    Host host = route.get(blockingHost);
+                    //The input table is tested first, so it blocks the packet if it filters it and does not let it pass
+                    boolean inputBlocks = !(blockingHost == 0 && sentByFirstHost) && !host.getInputFirewallRulesTable().packetCanPass(packet.getProtocol(),
+                            ipFrom, maskFrom, packet.getSourcePort(), packet.getDestination(), IPAddress.getIPv4NetMask(32), packet.getDestinationPort());
+                    verdict = new Verdict(false, host, inputBlocks ? FirewallRule.Table.INPUT : FirewallRule.Table.OUTPUT, null,
+                            withHopTraces ? route.subList(0, blockingHost + 1) : null);
+                }
+            }
+            if (verdict.isDelivered())
+                return verdict;
+            if (firstVerdict == null)
+                firstVerdict = verdict;
+        }
+        return firstVerdict;
+    }
+
+    /**
+     * A task applied to each index of a range
+     */
+    private interface IndexTask {
+        /**
+         * @param index an index of the range
+         */
+        void run(int index);
+    }
+
+    /**
+     * Apply a task to all the indexes of a range, split in contiguous chunks handled in parallel
+     *
+     * @param size the size of the range
+     * @param task the task to apply to each index
+     * @throws Exception if the computation is interrupted
+     */
+    private static void runInParallel(int size, final IndexTask task) throws Exception {
+        if (size == 0)
+            return;
+        int numberOfThreads = Math.min(Runtime.getRuntime().availableProcessors(), size);
+        final int chunkSize = (size + numberOfThreads - 1) / numberOfThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int start = 0; start < size; start += chunkSize) {
+                final int chunkStart = start;
+                final int chunkEnd = Math.min(size, start + chunkSize);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int index = chunkStart; index < chunkEnd; index++) {
+                            task.run(index);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A packet to simulate
+     */
+    public static class Packet {
+        /**
+         * The source address (null if the packet is sent from the Internet)
+         */
+        private final IPAddress source;
+
+        /**
+         * The source port
+         */
+        private final int sourcePort;
+
+        /**
+         * The destination address
+         */
+        private final IPAddress destination;
+
+        /**
+         * The destination port
+         */
+        private final int destinationPort;
+
+        /**
+         * The protocol
+         */
+        private final FirewallRule.Protocol protocol;
+
+        /**
+         * Create a packet
+         *
+         * @param source          the source address (null if the packet is sent from the Internet)
+         * @param sourcePort      the source port
+         * @param destination     the destination address
+         * @param destinationPort the destination port
+         * @param protocol        the protocol
+         */
+        public Packet(IPAddress source, int sourcePort, IPAddress destination, int destinationPort, FirewallRule.Protocol protocol) {
+            if (destination == null)
+                throw new IllegalArgumentException("The destination of the packet is null");
+            this.source = source;
+            this.sourcePort = sourcePort;
+            this.destination = destination;
+            this.destinationPort = destinationPort;
+            this.protocol = protocol;
+        }
+
+        /**
+         * Create a packet sent from the source port {@link #SOURCE_PORT}
+         *
+         * @param source          the source address (null if the packet is sent from the Internet)
+         * @param destination     the destination address
+         * @param protocol        the protocol
+         * @param destinationPort the destination port
+         */
+        public Packet(IPAddress source, IPAddress destination, FirewallRule.Protocol protocol, int destinationPort) {
+            this(source, SOURCE_PORT, destination, destinationPort, protocol);
+        }
+
+        /**
+         * @return true if the packet is sent from the Internet
+         */
+        public boolean isFromInternet() {
+            return source == null;
+        }
+
+        /**
+         * @return the source address (null if the packet is sent from the Internet)
+         */
+        public IPAddress getSource() {
+            return source;
+        }
+
+        /**
+         * @return the source port
+         */
+        public int getSourcePort() {
+            return sourcePort;
+        }
+
+        /**
+         * @return the destination address
+         */
+        public IPAddress getDestination() {
+            return destination;
+        }
+
+        /**
+         * @return the destination port
+         */
+        public int getDestinationPort() {
+            return destinationPort;
+        }
+
+        /**
+         * @return the protocol
+         */
+        public FirewallRule.Protocol getProtocol() {
+            return protocol;
+        }
+
+        @Override
+        public String toString() {
+            return protocol + " " + (source == null ? "internet" : source.getAddress()) + ":" + sourcePort + " -> " + destination.getAddress() + ":" + destinationPort;
+        }
+    }
+
+    /**
+     * The result of the simulation of a packet
+     */
+    public static class Verdict {
+        /**
+         * true if the packet arrives to its destination
+         */
+        private final boolean delivered;
+
+        /**
+         * The host blocking the packet (null if it arrives or can not be routed)
+         */
+        private final Host blockingHost;
+
+        /**
+         * The firewall table of the blocking host that blocks the packet (null if it arrives or can not be routed)
+         */
+        private final FirewallRule.Table blockingTable;
+
+        /**
+         * The routing failure (null if the packet is routed)
+         */
+        private final String routingError;
+
+        /**
+         * The hosts crossed by the packet, up to its destination or the blocking host (null if not requested)
+         */
+        private final List<Host> hops;
+
+        /**
+         * Create a verdict
+         *
+         * @param delivered     true if the packet arrives to its destination
+         * @param blockingHost  the host blocking the packet
+         * @param blockingTable the firewall table of the blocking host that blocks the packet
+         * @param routingError  the routing failure
+         * @param hops          the hosts crossed by the packet
+         */
+        Verdict(boolean delivered, Host blockingHost, FirewallRule.Table blockingTable, String routingError, List<Host> hops) {
+            this.delivered = delivered;
+            this.blockingHost = blockingHost;
+            this.blockingTable = blockingTable;
+            this.routingError = routingError;
+            this.hops = hops == null ? null : Collections.unmodifiableList(hops);
+        }
+
+        /**
+         * @return true if the packet arrives to its destination
+         */
+        public boolean isDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return the host blocking the packet (null if it arrives or can not be routed)
+         */
+        public Host getBlockingHost() {
+            return blockingHost;
+        }
+
+        /**
+         * @return the firewall table (INPUT or OUTPUT) of the blocking host that blocks the packet
+         * (null if it arrives or can not be routed)
+         */
+        public FirewallRule.Table getBlockingTable() {
+            return blockingTable;
+        }
+
+        /**
+         * @return the routing failure (null if the packet is routed)
+         */
+        public String getRoutingError() {
+            return routingError;
+        }
+
+        /**
+         * @return the hosts crossed by the packet, up to its destination or the blocking host (null if not requested)
+         */
+        public List<Host> getHops() {
+            return hops;
+        }
+
+        @Override
+        public String toString() {
+            if (delivered)
+                return "delivered";
+            if (blockingHost != null)
+                return "blocked by " + blockingTable + " of " + blockingHost.getName();
+            return "not routed : " + routingError;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRulesTable;
+import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reachability relation between the hosts of a topology : for each source host, destination host, protocol
+ * and class of destination ports, can a packet sent by the source host arrive to the destination host,
+ * through the routing and firewall tables of the hosts ?
+ * The destination ports are split in classes of ports that are handled in the same way by all the firewall rules
+ * of the topology (and by the given additional port ranges, e.g. the ports of the flow matrix), so that one packet
+ * per class is simulated. The packets are sent with the source port {@link #SOURCE_PORT}.
+ * The relation is stored in one bitset per source host, and is computed in parallel over the source hosts.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class ReachabilityMatrix {
+    /**
+     * The source port of the simulated packets
+     */
+    public static final int SOURCE_PORT = 1025;
+
+    /**
+     * The maximum port number
+     */
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * The protocols of the simulated packets
+     */
+    private static final FirewallRule.Protocol[] PROTOCOLS = {FirewallRule.Protocol.TCP, FirewallRule.Protocol.UDP, FirewallRule.Protocol.ICMP};
+
+    /**
+     * The hosts of the matrix
+     */
+    private final List<Host> hosts;
+
+    /**
+     * The index of the hosts in {@link #hosts}
+     */
+    private final IdentityHashMap<Host, Integer> hostIndexes = new IdentityHashMap<Host, Integer>();
+
+    /**
+     * The first port of each port class
+     */
+    private final int[] portClassStarts;
+
+    /**
+     * The port class of each port
+     */
+    private final char[] portClasses = new char[MAX_PORT + 1];
+
+    /**
+     * For each source host, the bits (destination host, protocol, port class) of the packets that arrive
+     */
+    private final BitSet[] reachability;
+
+    /**
+     * The modification count of the topology when the matrix was computed
+     */
+    private final int topologyModificationCount;
+
+    /**
+     * The signature of the firewall tables of the topology when the matrix was computed
+     */
+    private final long firewallSignature;
+
+    /**
+     * Compute the reachability matrix of a topology
+     *
+     * @param topology             the topology
+     * @param additionalPortRanges destination port ranges that must be distinguished in addition to
+     *                             the ones of the firewall rules (can be empty)
+     * @throws Exception if the computation is interrupted
+     */
+    public ReachabilityMatrix(final Topology topology, Collection<PortRange> additionalPortRanges) throws Exception {
+        this.topologyModificationCount = topology.getModificationCount();
+        this.firewallSignature = firewallSignature(topology);
+        this.hosts = new ArrayList<Host>(topology.getHosts());
+        for (int i = 0; i < hosts.size(); i++) {
+            if (!hostIndexes.containsKey(hosts.get(i)))
+                hostIndexes.put(hosts.get(i), i);
+        }
+
+        //Port classes : the bounds of all the port ranges split the ports
+        TreeSet<Integer> cuts = new TreeSet<Integer>();
+        cuts.add(0);
+        for (Host host : hosts) {
+            addPortCuts(cuts, host.getInputFirewallRulesTable());
+            addPortCuts(cuts, host.getOutputFirewallRulesTable());
+        }
+        for (PortRange portRange : additionalPortRanges) {
+            addPortCuts(cuts, portRange);
+        }
+        portClassStarts = new int[cuts.size()];
+        int portClass = 0;
+        for (int cut : cuts) {
+            portClassStarts[portClass++] = cut;
+        }
+        for (portClass = 0; portClass < portClassStarts.length; portClass++) {
+            int end = portClass + 1 < portClassStarts.length ? portClassStarts[portClass + 1] : MAX_PORT + 1;
+            for (int port = portClassStarts[portClass]; port < end; port++) {
+                portClasses[port] = (char) portClass;
+            }
+        }
+
+        //The lookup and adjacency indexes of the topology are built before being shared by the threads
+        if (!hosts.isEmpty() && hosts.get(0).getFirstIPAddress() != null)
+            topology.existingHostByIPAddress(hosts.get(0).getFirstIPAddress());
+        topology.getAdjacencyIndex();
+
+        reachability = new BitSet[hosts.size()];
+        if (hosts.isEmpty())
+            return;
+        long start = System.currentTimeMillis();
+        int numberOfThreads = Math.min(Runtime.getRuntime().availableProcessors(), hosts.size());
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < hosts.size(); i++) {
+                final int source = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        reachability[source] = computeReachabilityFrom(hosts.get(source));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception)
+                        throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Logger.getAnonymousLogger().log(Level.INFO, "Reachability matrix of " + hosts.size() + " hosts and " + portClassStarts.length + " port classes computed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Add the bounds of the destination port ranges of the rules of a firewall table
+     *
+     * @param cuts  the set of the bounds
+     * @param table the firewall table
+     */
+    private static void addPortCuts(TreeSet<Integer> cuts, FirewallRulesTable table) {
+        for (FirewallRule rule : table.getRules()) {
+            addPortCuts(cuts, rule.getDestinationPortRange());
+        }
+    }
+
+    /**
+     * Add the bounds of a port range
+     *
+     * @param cuts      the set of the bounds
+     * @param portRange the port range
+     */
+    private static void addPortCuts(TreeSet<Integer> cuts, PortRange portRange) {
+        if (portRange == null || portRange.isAny())
+            return;
+        if (portRange.getMin() > 0 && portRange.getMin() <= MAX_PORT)
+            cuts.add(portRange.getMin());
+        if (portRange.getMax() >= 0 && portRange.getMax() < MAX_PORT)
+            cuts.add(portRange.getMax() + 1);
+    }
+
+    /**
+     * @param topology a topology
+     * @return a signature of the firewall tables of the hosts, that changes when one of the tables changes
+     */
+    private static long firewallSignature(Topology topology) {
+        long signature = 1;
+        for (Host host : topology.getHosts()) {
+            signature = 31 * signature + System.identityHashCode(host.getInputFirewallRulesTable()) + host.getInputFirewallRulesTable().getModificationCount();
+            signature = 31 * signature + System.identityHashCode(host.getOutputFirewallRulesTable()) + host.getOutputFirewallRulesTable().getModificationCount();
+        }
+        return signature;
+    }
+
+    /**
+     * Simulate the packets sent by a host to all the hosts
+     *
+     * @param source the source host
+     * @return the bits (destination host, protocol, port class) of the packets that arrive
+     */
+    private BitSet computeReachabilityFrom(Host source) {
+        BitSet result = new BitSet(hosts.size() * PROTOCOLS.length * portClassStarts.length);
+        for (int destination = 0; destination < hosts.size(); destination++) {
+            Host destinationHost = hosts.get(destination);
+            for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+                for (int portClass = 0; portClass < portClassStarts.length; portClass++) {
+                    if (source == destinationHost || packetArrives(source, destinationHost, PROTOCOLS[protocol], portClassStarts[portClass]))
+                        result.set(bitIndex(destination, protocol, portClass));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param source          the source host
+     * @param destination     the destination host
+     * @param protocol        the protocol of the packet
+     * @param destinationPort the destination port of the packet
+     * @return true if a packet sent from one of the interfaces of the source host arrives to
+     * one of the interfaces of the destination host
+     */
+    private static boolean packetArrives(Host source, Host destination, FirewallRule.Protocol protocol, int destinationPort) {
+        for (Interface sourceInterface : source.getInterfaces().values()) {
+            for (Interface destinationInterface : destination.getInterfaces().values()) {
+                try {
+                    if (source.sendPacketSucceed(sourceInterface.getAddress(), SOURCE_PORT, destinationInterface.getAddress(), destinationPort, protocol))
+                        return true;
+                } catch (Exception e) { //Routing problem : the packet does not arrive
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param destination the index of the destination host
+     * @param protocol    the index of the protocol
+     * @param portClass   the port class
+     * @return the index of the bit in the bitset of a source host
+     */
+    private int bitIndex(int destination, int protocol, int portClass) {
+        return (destination * PROTOCOLS.length + protocol) * portClassStarts.length + portClass;
+    }
+
+    /**
+     * @param protocol a protocol
+     * @return its index in {@link #PROTOCOLS}, or -1 for {@link FirewallRule.Protocol#ANY}
+     */
+    private static int protocolIndex(FirewallRule.Protocol protocol) {
+        for (int i = 0; i < PROTOCOLS.length; i++) {
+            if (PROTOCOLS[i] == protocol)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Can a packet sent by a host arrive to another host ?
+     *
+     * @param from            the source host
+     * @param to              the destination host
+     * @param protocol        the protocol of the packet ({@link FirewallRule.Protocol#ANY} if any protocol is accepted)
+     * @param destinationPort the destination port of the packet
+     * @return true if the packet arrives, false if it is blocked or if one of the hosts is not in the matrix
+     */
+    public boolean canReach(Host from, Host to, FirewallRule.Protocol protocol, int destinationPort) {
+        Integer source = hostIndexes.get(from);
+        Integer destination = hostIndexes.get(to);
+        if (source == null || destination == null || destinationPort < 0 || destinationPort > MAX_PORT)
+            return false;
+        int portClass = portClasses[destinationPort];
+        int protocolIndex = protocolIndex(protocol);
+        if (protocolIndex >= 0)
+            return reachability[source].get(bitIndex(destination, protocolIndex, portClass));
+        for (int i = 0; i < PROTOCOLS.length; i++) {
+            if (reachability[source].get(bitIndex(destination, i, portClass)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param from the source host
+     * @param to   the destination host
+     * @return the destination port ranges reachable by each protocol (indexed like the protocols TCP, UDP, ICMP),
+     * with consecutive port classes merged
+     */
+    public List<List<PortRange>> getReachablePortRanges(Host from, Host to) {
+        List<List<PortRange>> result = new ArrayList<List<PortRange>>();
+        Integer source = hostIndexes.get(from);
+        Integer destination = hostIndexes.get(to);
+        for (int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+            List<PortRange> portRanges = new ArrayList<PortRange>();
+            if (source != null && destination != null) {
+                int rangeStart = -1;
+                for (int portClass = 0; portClass <= portClassStarts.length; portClass++) {
+                    boolean reachable = portClass < portClassStarts.length && reachability[source].get(bitIndex(destination, protocol, portClass));
+                    if (reachable && rangeStart < 0) {
+                        rangeStart = portClassStarts[portClass];
+                    } else if (!reachable && rangeStart >= 0) {
+                        int rangeEnd = portClass < portClassStarts.length ? portClassStarts[portClass] - 1 : MAX_PORT;
+                        portRanges.add(rangeStart == 0 && rangeEnd == MAX_PORT ? new PortRange(true) : new PortRange(rangeStart, rangeEnd));
+                        rangeStart = -1;
+                    }
+                }
+            }
+            result.add(portRanges);
+        }
+        return result;
+    }
+
+    /**
+     * @return the protocols of the matrix, in the order of {@link #getReachablePortRanges(Host, Host)}
+     */
+    public static FirewallRule.Protocol[] getProtocols() {
+        return PROTOCOLS.clone();
+    }
+
+    /**
+     * @return the hosts of the matrix
+     */
+    public List<Host> getHosts() {
+        return hosts;
+    }
+
+    /**
+     * @return the number of classes of destination ports
+     */
+    public int getNumberOfPortClasses() {
+        return portClassStarts.length;
+    }
+
+    /**
+     * @param topology the topology of the matrix
+     * @return true if the hosts, interfaces, routing tables and firewall tables of the topology
+     * have not changed since the matrix was computed
+     */
+    public boolean isUpToDate(Topology topology) {
+        return topology.getModificationCount() == topologyModificationCount && firewallSignature(topology) == firewallSignature;
+    }
+}
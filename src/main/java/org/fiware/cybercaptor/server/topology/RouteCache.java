@@ -0,0 +1,195 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Cache of the routes computed in a topology : the routes between two hosts, and the routes
+ * from the internet to a host. The routing failures are cached too, with their message.
+ * The cache is cleared when the modification count of the topology changes, i.e. when its hosts,
+ * interfaces or routing tables change.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class RouteCache {
+    /**
+     * The routes between two hosts (or the message of the routing failure), by source and destination host
+     */
+    private final IdentityHashMap<Host, IdentityHashMap<Host, Object>> routes = new IdentityHashMap<Host, IdentityHashMap<Host, Object>>();
+
+    /**
+     * The routes from the internet (or the message of the routing failure), by destination host
+     */
+    private final IdentityHashMap<Host, Object> routesFromInternet = new IdentityHashMap<Host, Object>();
+
+    /**
+     * The modification count of the topology when the cached routes were computed
+     */
+    private int modificationCount;
+
+    /**
+     * The number of routes found in the cache
+     */
+    private long hits = 0;
+
+    /**
+     * The number of routes that had to be computed
+     */
+    private long misses = 0;
+
+    /**
+     * Clear the cache if the topology has changed since the routes were computed
+     *
+     * @param currentModificationCount the current modification count of the topology
+     */
+    private void checkModificationCount(int currentModificationCount) {
+        if (currentModificationCount != modificationCount) {
+            routes.clear();
+            routesFromInternet.clear();
+            modificationCount = currentModificationCount;
+        }
+    }
+
+    /**
+     * @param from                     the source host
+     * @param to                       the destination host
+     * @param currentModificationCount the current modification count of the topology
+     * @return the cached route (a not modifiable list of hosts), the message of the cached routing failure (a String),
+     * or null if the route is not in the cache
+     */
+    synchronized Object getRoute(Host from, Host to, int currentModificationCount) {
+        checkModificationCount(currentModificationCount);
+        IdentityHashMap<Host, Object> routesFrom = routes.get(from);
+        Object result = routesFrom == null ? null : routesFrom.get(to);
+        if (result != null)
+            hits++;
+        else
+            misses++;
+        return result;
+    }
+
+    /**
+     * Store a route between two hosts
+     *
+     * @param from                     the source host
+     * @param to                       the destination host
+     * @param route                    the route, or the message of the routing failure
+     * @param currentModificationCount the modification count of the topology when the route was computed
+     * @return the stored route : a not modifiable list of hosts, or the message of the routing failure
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Object putRoute(Host from, Host to, Object route, int currentModificationCount) {
+        Object stored = route instanceof List ? Collections.unmodifiableList(new ArrayList<Host>((List<Host>) route)) : route;
+        checkModificationCount(currentModificationCount);
+        IdentityHashMap<Host, Object> routesFrom = routes.get(from);
+        if (routesFrom == null) {
+            routesFrom = new IdentityHashMap<Host, Object>();
+            routes.put(from, routesFrom);
+        }
+        routesFrom.put(to, stored);
+        return stored;
+    }
+
+    /**
+     * @param to                       the destination host
+     * @param currentModificationCount the current modification count of the topology
+     * @return the cached routes from the internet (a not modifiable list of not modifiable routes), the message
+     * of the cached routing failure (a String), or null if the routes are not in the cache
+     */
+    synchronized Object getRoutesFromInternet(Host to, int currentModificationCount) {
+        checkModificationCount(currentModificationCount);
+        Object result = routesFromInternet.get(to);
+        if (result != null)
+            hits++;
+        else
+            misses++;
+        return result;
+    }
+
+    /**
+     * Store the routes from the internet to a host
+     *
+     * @param to                       the destination host
+     * @param routesTo                 the routes, or the message of the routing failure
+     * @param currentModificationCount the modification count of the topology when the routes were computed
+     * @return the stored routes : a not modifiable list of not modifiable routes, or the message of the routing failure
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Object putRoutesFromInternet(Host to, Object routesTo, int currentModificationCount) {
+        Object stored = routesTo;
+        if (routesTo instanceof List) {
+            List<List<Host>> routeList = new ArrayList<List<Host>>();
+            for (List<Host> route : (List<List<Host>>) routesTo) {
+                routeList.add(Collections.unmodifiableList(new ArrayList<Host>(route)));
+            }
+            stored = Collections.unmodifiableList(routeList);
+        }
+        checkModificationCount(currentModificationCount);
+        routesFromInternet.put(to, stored);
+        return stored;
+    }
+
+    /**
+     * Delete all the cached routes
+     */
+    public synchronized void clear() {
+        routes.clear();
+        routesFromInternet.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * @return the number of cached routes (between two hosts and from the internet)
+     */
+    public synchronized int size() {
+        int size = routesFromInternet.size();
+        for (IdentityHashMap<Host, Object> routesFrom : routes.values()) {
+            size += routesFrom.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of routes found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of routes that had to be computed
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RouteCache{size=" + size() + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+}
@@ -27,13 +27,18 @@ import org.fiware.cybercaptor.server.topology.asset.IPAddress;
 import org.fiware.cybercaptor.server.topology.asset.Network;
 import org.fiware.cybercaptor.server.topology.asset.VLAN;
 import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRulesTable;
 import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 
 /**
@@ -52,6 +57,34 @@ public class Topology implements Cloneable {
      */
     private HashMap<String, VLAN> vlans = new HashMap<String, VLAN>();
 
+    /**
+     * The hash indexes of the hosts by IP address and by name, built lazily and maintained
+     * when hosts and interfaces are added through the topology (null when invalidated)
+     */
+    private volatile TopologyIndex index = null;
+
+    /**
+     * The layer 2 adjacency of the hosts, built lazily and rebuilt when the modification count changes
+     */
+    private volatile AdjacencyIndex adjacencyIndex = null;
+
+    /**
+     * Counter incremented at each change of the hosts or of their interfaces made through the topology,
+     * so that the indexes built on top of the topology know when to be rebuilt
+     */
+    private int modificationCount = 0;
+
+    /**
+     * The size of the list of hosts when the modification count was last read, used to detect
+     * the hosts added to or removed from the list directly
+     */
+    private int observedHostsSize = 0;
+
+    /**
+     * The cache of the routes between the hosts of the topology
+     */
+    private RouteCache routeCache = new RouteCache();
+
     /**
      * Gets hosts.
      *
@@ -67,7 +100,125 @@ public class Topology implements Cloneable {
      * @param host the host to add
      */
     public void addHost(Host host) {
+        TopologyIndex currentIndex = index;
+        if (currentIndex != null && !currentIndex.isIndexOf(hosts))
+            currentIndex = index = null;
         this.hosts.add(host);
+        modificationCount++;
+        if (currentIndex != null)
+            currentIndex.addHost(host);
+    }
+
+    /**
+     * Remove a host from the topology
+     *
+     * @param host the host to remove
+     * @return true if the host was in the topology
+     */
+    public boolean removeHost(Host host) {
+        boolean removed = this.hosts.remove(host);
+        if (removed)
+            invalidateIndex();
+        return removed;
+    }
+
+    /**
+     * Update the indexes of the topology after the addition of an interface to one of its hosts.
+     * It is called by {@link Host}, so that the interface can be found by its IP address.
+     *
+     * @param host             the host
+     * @param networkInterface the added interface
+     */
+    public void interfaceAdded(Host host, Interface networkInterface) {
+        modificationCount++;
+        TopologyIndex currentIndex = index;
+        if (currentIndex != null)
+            currentIndex.addInterface(host, networkInterface);
+    }
+
+    /**
+     * Update the indexes of the topology after the renaming of a host.
+     * It is called by {@link Host}, so that the host can be found by its new name.
+     *
+     * @param host the renamed host
+     */
+    public void hostRenamed(Host host) {
+        TopologyIndex currentIndex = index;
+        if (currentIndex != null && currentIndex.containsHost(host))
+            invalidateIndex();
+    }
+
+    /**
+     * Invalidate the cached routes and the adjacency of the hosts. It is called by the routing tables,
+     * the hosts and the interfaces when they change, and must be called after a change that is not made
+     * through them, e.g. the direct modification of the hosts of a vlan.
+     */
+    public void invalidateRoutes() {
+        modificationCount++;
+    }
+
+    /**
+     * @return the cache of the routes between the hosts of the topology
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * Invalidate the indexes of the hosts. This must be called after a change that is not made
+     * through the topology or its hosts, e.g. the direct modification of the interfaces of a host
+     * that is already in the topology.
+     * A direct addition or removal of hosts in the list of hosts is detected without it.
+     */
+    public void invalidateIndex() {
+        modificationCount++;
+        index = null;
+    }
+
+    /**
+     * @return a counter of the changes of the hosts (the changes made through the topology
+     * and the direct changes of the size of the list of hosts), that can be compared to know if the hosts
+     * have changed since a previous call
+     */
+    public int getModificationCount() {
+        int hostsSize = hosts.size();
+        if (hostsSize != observedHostsSize) {
+            observedHostsSize = hostsSize;
+            modificationCount++;
+        }
+        return modificationCount;
+    }
+
+    /**
+     * @return the indexes of the hosts, rebuilt if they have been invalidated or if the list of hosts
+     * has been modified directly
+     */
+    private TopologyIndex getIndex() {
+        TopologyIndex currentIndex = index;
+        if (currentIndex == null || !currentIndex.isIndexOf(hosts))
+            currentIndex = rebuildIndex();
+        return currentIndex;
+    }
+
+    /**
+     * @return the layer 2 adjacency of the hosts, rebuilt if the topology has changed since it was built
+     */
+    public AdjacencyIndex getAdjacencyIndex() {
+        AdjacencyIndex currentIndex = adjacencyIndex;
+        if (currentIndex == null || !currentIndex.isUpToDate(this)) {
+            currentIndex = new AdjacencyIndex(this);
+            adjacencyIndex = currentIndex;
+        }
+        return currentIndex;
+    }
+
+    /**
+     * @return the new indexes of the hosts
+     */
+    private TopologyIndex rebuildIndex() {
+        TopologyIndex newIndex = new TopologyIndex(hosts);
+        index = newIndex;
+        return newIndex;
     }
 
     /**
@@ -117,6 +268,7 @@ public class Topology implements Cloneable {
 
     /**
      * Compute the route between two hosts. The max TTL has been set to 64.
+     * The routes (and the routing failures) are cached until the hosts, interfaces or routing tables change.
      *
      * @param m1 the source host
      * @param m2 the destination host
@@ -124,6 +276,64 @@ public class Topology implements Cloneable {
      * @throws Exception the exception
      */
     public List<Host> routeBetweenHosts(Host m1, Host m2) throws Exception {
+        if (m1 == null || m2 == null)
+            return computeRouteBetweenHosts(m1, m2);
+        int currentModificationCount = getModificationCount();
+        Object route = routeCache.getRoute(m1, m2, currentModificationCount);
+        if (route == null) {
+            try {
+                route = computeRouteBetweenHosts(m1, m2);
+            } catch (Exception e) {
+                route = String.valueOf(e.getMessage());
+            }
+            route = routeCache.putRoute(m1, m2, route, currentModificationCount);
+        }
+        if (route instanceof String)
+            throw new Exception((String) route);
+        @SuppressWarnings("unchecked")
+        List<Host> result = new ArrayList<Host>((List<Host>) route);
+        return result;
+    }
+
+    /**
+     * Compute the routes from the internet to a host, i.e. the routes from all the hosts connected
+     * to the internet, without the routes that have another of these routes as suffix.
+     *
+     * @param to the destination host
+     * @return the routes from the internet to the host
+     * @throws Exception if the routing fails
+     */
+    public List<List<Host>> getRoutesFromInternet(Host to) throws Exception {
+        int currentModificationCount = getModificationCount();
+        Object routes = routeCache.getRoutesFromInternet(to, currentModificationCount);
+        if (routes == null) {
+            try {
+                routes = to.computeRoutesFromInternet();
+            } catch (Exception e) {
+                routes = String.valueOf(e.getMessage());
+            }
+            routes = routeCache.putRoutesFromInternet(to, routes, currentModificationCount);
+        }
+        if (routes instanceof String)
+            throw new Exception((String) routes);
+        List<List<Host>> result = new ArrayList<List<Host>>();
+        @SuppressWarnings("unchecked")
+        List<List<Host>> cachedRoutes = (List<List<Host>>) routes;
+        for (List<Host> route : cachedRoutes) {
+            result.add(new ArrayList<Host>(route));
+        }
+        return result;
+    }
+
+    /**
+     * Compute the route between two hosts, without the cache
+     *
+     * @param m1 the source host
+     * @param m2 the destination host
+     * @return the list of hosts that constitute the route
+     * @throws Exception the exception
+     */
+    private List<Host> computeRouteBetweenHosts(Host m1, Host m2) throws Exception {
         List<Host> usedHosts = new ArrayList<Host>();
         Iterator<Entry<String, Interface>> ite = m2.getInterfaces().entrySet().iterator();
         if (!ite.hasNext())
@@ -148,7 +358,7 @@ public class Topology implements Cloneable {
         Host m1 = existingHostByIPAddress(ipFrom);
         Host m2 = existingHostByIPAddress(ipTo);
         List<Host> hostList = routeBetweenHosts(m1, m2);
-        return sendAPacketOnARoute(hostList, ipFrom, new IPAddress("255.255.255.255"), sourcePort, ipTo, new IPAddress("255.255.255.255"), destinationPort, protocol);
+        return sendAPacketOnARoute(hostList, ipFrom, IPAddress.getIPv4NetMask(32), sourcePort, ipTo, IPAddress.getIPv4NetMask(32), destinationPort, protocol);
     }
 
 
@@ -167,51 +377,79 @@ public class Topology implements Cloneable {
      * @throws Exception the exception
      */
     public boolean sendAPacketOnARoute(List<Host> route, IPAddress ipFrom, IPAddress maskFrom, int sourcePort, IPAddress ipTo, IPAddress maskTo, int destinationPort, FirewallRule.Protocol protocol) throws Exception {
+        return sendAPacketOnARoute(route, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort, protocol, null);
+    }
 
-        if (route.size() > 1) { //At least one host
-            //First host : only output if this host if the source host (not the case if the packet is sent from the internet, in that case input and output)
-            if (this.existingHostByIPAddress(ipFrom) != null && this.existingHostByIPAddress(ipFrom).equals(route.get(0))) {
-                if (!route.get(0).getOutputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)) {
-                    System.out.println("Don't pass host output of \"" + route.get(0).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
-                    return false;
-                }
-            } else {
-                if (!route.get(0).getInputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)
-                        || !route.get(0).getOutputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)) {
-                    System.out.println("Don't pass host \"" + route.get(0).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
-                    return false;
-                }
-            }
-
-
-            //Other hosts : test input and output
-            for (int i = 1; i < route.size() - 1; i++) {
-                if (!route.get(i).getInputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)
-                        || !route.get(i).getOutputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)) {
-                    System.out.println("Don't pass host \"" + route.get(i).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
-                    return false;
-                }
-            }
-
-            //Last host : only input if this host if the destination host (not the case if the packet is sent to the internet, in that case input and output)
-            if (this.existingHostByIPAddress(ipTo) != null && this.existingHostByIPAddress(ipTo).equals(route.get(route.size() - 1))) {
-                if (!route.get(route.size() - 1).getInputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)) {
-                    System.out.println("Don't pass input of host \"" + route.get(route.size() - 1).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
-                    return false;
-                }
-            } else {
-                if (!route.get(route.size() - 1).getInputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)
-                        || !route.get(route.size() - 1).getOutputFirewallRulesTable().packetCanPass(protocol, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort)) {
-                    System.out.println("Don't pass host \"" + route.get(route.size() - 1).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
-                    return false;
-                }
-            }
-
-            return true;
-        } else //Only one host on the route, no filtering
+    /**
+     * Send a packet on a route and see if it is blocked or not, reading the firewall tables through an overlay.
+     *
+     * @param route           the route of the packet
+     * @param ipFrom          the ip from
+     * @param maskFrom        the mask from
+     * @param sourcePort      the source port
+     * @param ipTo            IP of the receiver
+     * @param maskTo          the mask to
+     * @param destinationPort port of the receiver
+     * @param protocol        protocol used
+     * @param overlay         the modifications of this topology to take into account (null if none)
+     * @return true if this packet arrives.
+     * @throws Exception the exception
+     */
+    public boolean sendAPacketOnARoute(List<Host> route, IPAddress ipFrom, IPAddress maskFrom, int sourcePort, IPAddress ipTo, IPAddress maskTo, int destinationPort, FirewallRule.Protocol protocol, TopologyOverlay overlay) throws Exception {
+        if (route.size() <= 1) //Only one host on the route, no filtering
             //No host in the route --> The packet can not be sent !
             return route.size() == 1;
 
+        //First host : only output if this host if the source host (not the case if the packet is sent from the internet, in that case input and output)
+        boolean sentByFirstHost = this.existingHostByIPAddress(ipFrom) != null && this.existingHostByIPAddress(ipFrom).equals(route.get(0));
+        //Last host : only input if this host if the destination host (not the case if the packet is sent to the internet, in that case input and output)
+        boolean receivedByLastHost = this.existingHostByIPAddress(ipTo) != null && this.existingHostByIPAddress(ipTo).equals(route.get(route.size() - 1));
+        int blockingHost = blockingHostOnARoute(route, sentByFirstHost, receivedByLastHost, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort, protocol, overlay);
+        if (blockingHost >= 0 && Logger.getAnonymousLogger().isLoggable(Level.FINE)) {
+            String where;
+            if (blockingHost == 0 && sentByFirstHost)
+                where = "host output of";
+            else if (blockingHost == route.size() - 1 && receivedByLastHost)
+                where = "input of host";
+            else
+                where = "host";
+            Logger.getAnonymousLogger().log(Level.FINE, "Don't pass " + where + " \"" + route.get(blockingHost).getName() + "\" (" + protocol + " From : " + ipFrom.getAddress() + "/" + maskFrom.getMaskFromIPv4Address() + ":" + sourcePort + " To " + ipTo.getAddress() + "/" + maskTo.getMaskFromIPv4Address() + ":" + destinationPort + ")");
+        }
+        return blockingHost < 0;
+    }
+
+    /**
+     * Find the host of a route (of at least two hosts) whose firewall tables block a packet, without any output.
+     * The first host only filters with its output table if it sent the packet, and the last host only with its input
+     * table if it receives the packet, the other hosts filter with both tables.
+     *
+     * @param route              the route of the packet
+     * @param sentByFirstHost    true if the packet is sent by the first host of the route
+     * @param receivedByLastHost true if the packet is received by the last host of the route
+     * @param ipFrom             the ip from
+     * @param maskFrom           the mask from
+     * @param sourcePort         the source port
+     * @param ipTo               IP of the receiver
+     * @param maskTo             the mask to
+     * @param destinationPort    port of the receiver
+     * @param protocol           protocol used
+     * @param overlay            the modifications of this topology to take into account (null if none)
+     * @return the position in the route of the host blocking the packet, or -1 if the packet arrives
+     */
+    static int blockingHostOnARoute(List<Host> route, boolean sentByFirstHost, boolean receivedByLastHost, IPAddress ipFrom, IPAddress maskFrom, int sourcePort, IPAddress ipTo, IPAddress maskTo, int destinationPort, FirewallRule.Protocol protocol, TopologyOverlay overlay) {
+        PortRange sourcePortRange = new PortRange(sourcePort, sourcePort);
+        PortRange destinationPortRange = new PortRange(destinationPort, destinationPort);
+        int last = route.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Host host = route.get(i);
+            boolean filteredByInput = !(i == 0 && sentByFirstHost);
+            boolean filteredByOutput = !(i == last && receivedByLastHost);
+            if (filteredByInput && !inputFirewallRulesTable(host, overlay).packetCanPass(protocol, ipFrom, maskFrom, sourcePortRange, ipTo, maskTo, destinationPortRange))
+                return i;
+            if (filteredByOutput && !outputFirewallRulesTable(host, overlay).packetCanPass(protocol, ipFrom, maskFrom, sourcePortRange, ipTo, maskTo, destinationPortRange))
+                return i;
+        }
+        return -1;
     }
 
     /**
@@ -225,7 +463,34 @@ public class Topology implements Cloneable {
      * @throws Exception the exception
      */
     public boolean sendAPacketOnARouteFromInternet(List<Host> route, IPAddress ipAddress, int portNumber, FirewallRule.Protocol protocol) throws Exception {
-        return this.sendAPacketOnARoute(route, IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), 1025, ipAddress, IPAddress.getIPv4NetMask(32), portNumber, protocol);
+        return this.sendAPacketOnARouteFromInternet(route, ipAddress, portNumber, protocol, null);
+    }
+
+    /**
+     * Send a packet on a route from internet, reading the firewall tables through an overlay.
+     *
+     * @param route      the route followed by the packet
+     * @param ipAddress  the destination ip address
+     * @param portNumber the destination port
+     * @param protocol   the proto used
+     * @param overlay    the modifications of this topology to take into account (null if none)
+     * @return true if the packet can pass the route if it comes from internet
+     * @throws Exception the exception
+     */
+    public boolean sendAPacketOnARouteFromInternet(List<Host> route, IPAddress ipAddress, int portNumber, FirewallRule.Protocol protocol, TopologyOverlay overlay) throws Exception {
+        return this.sendAPacketOnARoute(route, IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), 1025, ipAddress, IPAddress.getIPv4NetMask(32), portNumber, protocol, overlay);
+    }
+
+    private static FirewallRulesTable inputFirewallRulesTable(Host host, TopologyOverlay overlay) {
+        if (overlay == null)
+            return host.getInputFirewallRulesTable();
+        return overlay.getInputFirewallRulesTable(host);
+    }
+
+    private static FirewallRulesTable outputFirewallRulesTable(Host host, TopologyOverlay overlay) {
+        if (overlay == null)
+            return host.getOutputFirewallRulesTable();
+        return overlay.getOutputFirewallRulesTable(host);
     }
 
     /**
@@ -253,14 +518,11 @@ public class Topology implements Cloneable {
      * @throws Exception the exception
      */
     public Interface getInterfaceByIpAddress(IPAddress ipAddress) throws Exception {
-        for (Host host : getHosts()) {
-            for (Interface networkInterface : host.getInterfaces().values()) {
-                if (networkInterface.getAddress().equals(ipAddress)) {
-                    return networkInterface;
-                }
-            }
-        }
-        return null;
+        TopologyIndex currentIndex = getIndex();
+        Interface networkInterface = currentIndex.getInterface(ipAddress);
+        if (networkInterface == null && currentIndex.containsIP(ipAddress)) //the indexed interface has changed
+            networkInterface = rebuildIndex().getInterface(ipAddress);
+        return networkInterface;
     }
 
     /**
@@ -270,11 +532,11 @@ public class Topology implements Cloneable {
      * @return the host if it exists else null
      */
     public Host existingHostByIPAddress(IPAddress ipAddress) {
-        for (int i = 0; i < this.getHosts().size(); i++) {
-            if (this.getHosts().get(i).hasIP(ipAddress))
-                return this.getHosts().get(i);
-        }
-        return null;
+        TopologyIndex currentIndex = getIndex();
+        Host host = currentIndex.getHostByIP(ipAddress);
+        if (host == null && currentIndex.containsIP(ipAddress)) //the indexed interface has changed
+            host = rebuildIndex().getHostByIP(ipAddress);
+        return host;
     }
 
     /**
@@ -284,14 +546,14 @@ public class Topology implements Cloneable {
      * @return the host if it exists else null
      */
     public Host existingHostByName(String name) {
-        for (int i = 0; i < this.getHosts().size(); i++) {
-            if (this.getHosts().get(i).getName().equals(name))
-                return this.getHosts().get(i);
-        }
+        TopologyIndex currentIndex = getIndex();
+        Host host = currentIndex.getHostByName(name);
+        if (host == null && currentIndex.containsName(name)) //the indexed host has been renamed
+            host = rebuildIndex().getHostByName(name);
         //if(name.equals("internet"))
         //	return new Host("internet",this);
 
-        return null;
+        return host;
     }
 
     /**
@@ -315,14 +577,14 @@ public class Topology implements Cloneable {
 
         Host newHost = new Host(name, this);
 
-        if (!m1.getInputFirewallRulesTable().getRuleList().isEmpty())
+        if (!m1.getInputFirewallRulesTable().getRules().isEmpty())
             newHost.setInputFirewallRulesTable(m1.getInputFirewallRulesTable());
-        if (!m2.getInputFirewallRulesTable().getRuleList().isEmpty())
+        if (!m2.getInputFirewallRulesTable().getRules().isEmpty())
             newHost.setInputFirewallRulesTable(m2.getInputFirewallRulesTable());
 
-        if (!m1.getOutputFirewallRulesTable().getRuleList().isEmpty())
+        if (!m1.getOutputFirewallRulesTable().getRules().isEmpty())
             newHost.setOutputFirewallRulesTable(m1.getOutputFirewallRulesTable());
-        if (!m2.getOutputFirewallRulesTable().getRuleList().isEmpty())
+        if (!m2.getOutputFirewallRulesTable().getRules().isEmpty())
             newHost.setOutputFirewallRulesTable(m2.getOutputFirewallRulesTable());
 
         if (!m1.getRoutingTable().getRouteList().isEmpty())
@@ -357,59 +619,73 @@ public class Topology implements Cloneable {
         this.getHosts().remove(m1);
         this.getHosts().remove(m2);
         this.getHosts().add(newHost);
+        invalidateIndex();
         return newHost;
     }
 
+    /**
+     * Clone the topology. The references between the copied hosts, interfaces and vlans are updated
+     * with identity maps, in a time linear in the size of the topology. The immutable components
+     * (ip addresses, networks) are shared, and the rules of the firewall tables are shared
+     * until they are modified.
+     *
+     * @return the copy of the topology
+     * @throws CloneNotSupportedException
+     */
     @Override
     public Topology clone() throws CloneNotSupportedException {
         Topology copie = (Topology) super.clone();
-
-        copie.hosts = new ArrayList<Host>(this.getHosts());
-        for (int i = 0; i < copie.getHosts().size(); i++) {
-            copie.getHosts().set(i, copie.getHosts().get(i).clone());
+        copie.index = null;
+        copie.adjacencyIndex = null;
+        copie.routeCache = new RouteCache();
+
+        IdentityHashMap<VLAN, VLAN> vlanCopies = new IdentityHashMap<VLAN, VLAN>();
+        copie.vlans = new HashMap<String, VLAN>();
+        for (Entry<String, VLAN> entry : this.getVlans().entrySet()) {
+            VLAN vlanCopie = entry.getValue().clone();
+            vlanCopies.put(entry.getValue(), vlanCopie);
+            copie.vlans.put(entry.getKey(), vlanCopie);
         }
 
-        copie.vlans = new HashMap<String, VLAN>(this.getVlans());
-        for (String key : copie.getVlans().keySet()) {
-            copie.getVlans().put(key, copie.getVlans().get(key).clone());
-        }
-
-        //For all the hosts
-        for (int i = 0; i < copie.getHosts().size(); i++) {
-            //update the references in all the interfaces of all the hosts
-            Host hostCopie = copie.getHosts().get(i);
-            for (String key : hostCopie.getInterfaces().keySet()) {
-                Interface currentInterface = hostCopie.getInterfaces().get(key);
-                //replace the directly connected interfaces by the real interfaces of the new object
-
-
-                for (int j = 0; j < currentInterface.getDirectlyAccessibleInterface().size(); j++) {
-                    try {
-                        Interface newHostAccessibleInterface = currentInterface.getDirectlyAccessibleInterface().get(j);
-                        Host newHostAccessible = copie.getHostByIPAddress(newHostAccessibleInterface.getHost().getFirstIPAddress());
-                        currentInterface.getDirectlyAccessibleInterface().set(j, newHostAccessible.getInterfaces().get(newHostAccessibleInterface.getName()));
-
-                    } catch (Exception e) {
-                        System.out.println("Problem when copying the topology : host whitout ip address");
-                    }
-                }
+        IdentityHashMap<Host, Host> hostCopies = new IdentityHashMap<Host, Host>();
+        IdentityHashMap<Interface, Interface> interfaceCopies = new IdentityHashMap<Interface, Interface>();
+        copie.hosts = new ArrayList<Host>(this.getHosts().size());
+        for (Host host : this.getHosts()) {
+            Host hostCopie = host.clone();
+            hostCopies.put(host, hostCopie);
+            for (Entry<String, Interface> entry : host.getInterfaces().entrySet()) {
+                interfaceCopies.put(entry.getValue(), hostCopie.getInterfaces().get(entry.getKey()));
             }
             hostCopie.setTopology(copie);
-
+            copie.hosts.add(hostCopie);
         }
 
-        //For all the vlans
-        for (String key : copie.getVlans().keySet()) {
-            //update the references in all the interfaces and hosts of all the vlans
-            VLAN currentVlan = copie.getVlans().get(key);
-            for (int k = 0; k < currentVlan.getInterfaces().size(); k++) {
-                Interface intface = currentVlan.getInterfaces().get(k);
-                currentVlan.getInterfaces().set(k, copie.existingHostByIPAddress(intface.getAddress()).getExistingInterfaceFromIP(intface.getAddress()));
+        //move the copied interfaces in the copied vlans (including the vlans that are not registered in the topology)
+        for (Interface interfaceCopie : interfaceCopies.values()) {
+            VLAN vlan = interfaceCopie.getVlan();
+            if (vlan == null)
+                continue;
+            VLAN vlanCopie = vlanCopies.get(vlan);
+            if (vlanCopie == null) {
+                vlanCopie = vlan.clone();
+                vlanCopies.put(vlan, vlanCopie);
             }
+            interfaceCopie.setVlan(vlanCopie);
+        }
 
-            for (int k = 0; k < currentVlan.getHosts().size(); k++) {
-                Host currentHost = currentVlan.getHosts().get(k);
-                currentVlan.getHosts().set(k, copie.existingHostByIPAddress(currentHost.getFirstIPAddress()));
+        //update the references in all the interfaces and hosts of all the vlans
+        for (Entry<VLAN, VLAN> vlanEntry : vlanCopies.entrySet()) {
+            VLAN vlan = vlanEntry.getKey();
+            VLAN vlanCopie = vlanEntry.getValue();
+            vlanCopie.getInterfaces().clear();
+            for (Interface intface : vlan.getInterfaces()) {
+                Interface interfaceCopie = interfaceCopies.get(intface);
+                vlanCopie.getInterfaces().add(interfaceCopie != null ? interfaceCopie : intface);
+            }
+            vlanCopie.getHosts().clear();
+            for (Host host : vlan.getHosts()) {
+                Host hostCopie = hostCopies.get(host);
+                vlanCopie.getHosts().add(hostCopie != null ? hostCopie : host);
             }
         }
 
@@ -432,14 +708,7 @@ public class Topology implements Cloneable {
      * @return all the hosts of this topology that are in the network
      */
     public List<Host> getHostsInNetwork(Network network) {
-        List<Host> result = new ArrayList<Host>();
-        for (int i = 0; i < this.getHosts().size(); i++) {
-            Host host = this.getHosts().get(i);
-            if (host.inNetwork(network)) {
-                result.add(host);
-            }
-        }
-        return result;
+        return getAdjacencyIndex().getHostsInNetwork(network);
     }
 
 }
@@ -0,0 +1,174 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Hash indexes of the hosts of a topology, by IP address and by name.
+ * As the linear lookups they replace, an IP address or a name is mapped to the first host
+ * of the list of hosts that has it.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+class TopologyIndex {
+    /**
+     * The indexed hosts
+     */
+    private final Set<Host> hosts = Collections.newSetFromMap(new IdentityHashMap<Host, Boolean>());
+
+    /**
+     * The size of the list of hosts when it was indexed, used to detect its direct modifications
+     */
+    private int indexedListSize = 0;
+
+    /**
+     * The interfaces of the hosts, by IP address
+     */
+    private final HashMap<IPAddress, Interface> interfacesByIP = new HashMap<IPAddress, Interface>();
+
+    /**
+     * The hosts, by IP address
+     */
+    private final HashMap<IPAddress, Host> hostsByIP = new HashMap<IPAddress, Host>();
+
+    /**
+     * The hosts, by name
+     */
+    private final HashMap<String, Host> hostsByName = new HashMap<String, Host>();
+
+    /**
+     * Index a list of hosts
+     *
+     * @param hosts the list of hosts of the topology
+     */
+    TopologyIndex(List<Host> hosts) {
+        for (Host host : hosts) {
+            addHost(host);
+        }
+    }
+
+    /**
+     * @param hosts the list of hosts of the topology
+     * @return true if the list has not been modified since it was indexed (as far as its size tells)
+     */
+    boolean isIndexOf(List<Host> hosts) {
+        return hosts.size() == indexedListSize;
+    }
+
+    /**
+     * @param host a host
+     * @return true if the host is indexed
+     */
+    boolean containsHost(Host host) {
+        return hosts.contains(host);
+    }
+
+    /**
+     * Index a host appended to the list of hosts
+     *
+     * @param host the added host
+     */
+    void addHost(Host host) {
+        indexedListSize++;
+        if (!hosts.add(host))
+            return;
+        if (host.getName() != null && !hostsByName.containsKey(host.getName()))
+            hostsByName.put(host.getName(), host);
+        for (Interface networkInterface : host.getInterfaces().values()) {
+            addInterface(host, networkInterface);
+        }
+    }
+
+    /**
+     * Index an interface added to a host. Nothing is done if the host is not indexed.
+     *
+     * @param host             the host
+     * @param networkInterface the added interface
+     */
+    void addInterface(Host host, Interface networkInterface) {
+        IPAddress address = networkInterface.getAddress();
+        if (address == null || !hosts.contains(host) || interfacesByIP.containsKey(address))
+            return;
+        interfacesByIP.put(address, networkInterface);
+        hostsByIP.put(address, host);
+    }
+
+    /**
+     * @param ipAddress an IP address
+     * @return the interface that has this address, or null if there is no such interface
+     * or if the indexed interface has been modified since it was indexed
+     */
+    Interface getInterface(IPAddress ipAddress) {
+        Interface networkInterface = interfacesByIP.get(ipAddress);
+        if (networkInterface == null || !networkInterface.getAddress().equals(ipAddress)
+                || hostsByIP.get(ipAddress).getInterfaces().get(networkInterface.getName()) != networkInterface)
+            return null;
+        return networkInterface;
+    }
+
+    /**
+     * @param ipAddress an IP address
+     * @return the host that has this address, or null if there is no such host
+     * or if the indexed interface has been modified since it was indexed
+     */
+    Host getHostByIP(IPAddress ipAddress) {
+        if (getInterface(ipAddress) == null)
+            return null;
+        return hostsByIP.get(ipAddress);
+    }
+
+    /**
+     * @param ipAddress an IP address
+     * @return true if an interface with this address is indexed, even if it has been modified since
+     */
+    boolean containsIP(IPAddress ipAddress) {
+        return interfacesByIP.containsKey(ipAddress);
+    }
+
+    /**
+     * @param name a host name
+     * @return the host that has this name, or null if there is no such host
+     * or if it has been renamed since it was indexed
+     */
+    Host getHostByName(String name) {
+        Host host = hostsByName.get(name);
+        if (host == null || !name.equals(host.getName()))
+            return null;
+        return host;
+    }
+
+    /**
+     * @param name a host name
+     * @return true if a host with this name is indexed, even if it has been renamed since
+     */
+    boolean containsName(String name) {
+        return hostsByName.containsKey(name);
+    }
+}
@@ -0,0 +1,199 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.topology;
+
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRulesTable;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Class that represents modifications of a network topology, without modifying the topology itself.
+ * Only the changes (the firewall rules added on the hosts) are stored, all the rest is read in the base topology,
+ * which must not be modified while the overlay is used.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class TopologyOverlay {
+    /**
+     * The base topology
+     */
+    private final Topology topology;
+
+    /**
+     * The firewall rules added at the beginning of the input firewall tables of the hosts (first rule first)
+     */
+    private final IdentityHashMap<Host, List<FirewallRule>> addedInputFirewallRules = new IdentityHashMap<Host, List<FirewallRule>>();
+
+    /**
+     * The firewall rules added at the beginning of the output firewall tables of the hosts (first rule first)
+     */
+    private final IdentityHashMap<Host, List<FirewallRule>> addedOutputFirewallRules = new IdentityHashMap<Host, List<FirewallRule>>();
+
+    /**
+     * The input firewall tables of the modified hosts, as seen through the overlay (built at the first use)
+     */
+    private final IdentityHashMap<Host, FirewallRulesTable> inputFirewallRulesTables = new IdentityHashMap<Host, FirewallRulesTable>();
+
+    /**
+     * The output firewall tables of the modified hosts, as seen through the overlay (built at the first use)
+     */
+    private final IdentityHashMap<Host, FirewallRulesTable> outputFirewallRulesTables = new IdentityHashMap<Host, FirewallRulesTable>();
+
+    /**
+     * Create an overlay without modifications over a topology
+     *
+     * @param topology the base topology
+     */
+    public TopologyOverlay(Topology topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * @return the base topology
+     */
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * Add a firewall rule at the beginning of the input or output firewall table of a host (according to the table of the rule)
+     *
+     * @param host the host of the base topology
+     * @param rule the rule to add
+     */
+    public void addFirewallRule(Host host, FirewallRule rule) {
+        if (rule.getTable() == FirewallRule.Table.INPUT) {
+            addRule(addedInputFirewallRules, host, rule);
+            inputFirewallRulesTables.remove(host);
+        } else if (rule.getTable() == FirewallRule.Table.OUTPUT) {
+            addRule(addedOutputFirewallRules, host, rule);
+            outputFirewallRulesTables.remove(host);
+        }
+    }
+
+    /**
+     * @param host a host of the base topology
+     * @return the input firewall table of the host, including the rules added in the overlay
+     */
+    public FirewallRulesTable getInputFirewallRulesTable(Host host) {
+        return getFirewallRulesTable(host, true, host.getInputFirewallRulesTable(), addedInputFirewallRules, inputFirewallRulesTables);
+    }
+
+    /**
+     * @param host a host of the base topology
+     * @return the output firewall table of the host, including the rules added in the overlay
+     */
+    public FirewallRulesTable getOutputFirewallRulesTable(Host host) {
+        return getFirewallRulesTable(host, false, host.getOutputFirewallRulesTable(), addedOutputFirewallRules, outputFirewallRulesTables);
+    }
+
+    /**
+     * @return the hosts whose firewall tables are modified in the overlay
+     */
+    public List<Host> getHostsWithAddedFirewallRules() {
+        List<Host> result = new ArrayList<Host>(addedInputFirewallRules.keySet());
+        for (Host host : addedOutputFirewallRules.keySet()) {
+            if (!addedInputFirewallRules.containsKey(host))
+                result.add(host);
+        }
+        return result;
+    }
+
+    /**
+     * Compute the route between two hosts. The routing tables are not modified by the overlay,
+     * so the route is the one of the base topology.
+     *
+     * @param from the source host
+     * @param to   the destination host
+     * @return the list of hosts that constitute the route
+     * @throws Exception
+     */
+    public List<Host> routeBetweenHosts(Host from, Host to) throws Exception {
+        return topology.routeBetweenHosts(from, to);
+    }
+
+    /**
+     * Send a packet on a route and see if it is blocked or not by the firewall tables seen through the overlay.
+     *
+     * @param route           the route of the packet
+     * @param ipFrom          the ip from
+     * @param maskFrom        the mask from
+     * @param sourcePort      the source port
+     * @param ipTo            IP of the receiver
+     * @param maskTo          the mask to
+     * @param destinationPort port of the receiver
+     * @param protocol        protocol used
+     * @return true if this packet arrives.
+     * @throws Exception
+     */
+    public boolean sendAPacketOnARoute(List<Host> route, IPAddress ipFrom, IPAddress maskFrom, int sourcePort, IPAddress ipTo, IPAddress maskTo, int destinationPort, FirewallRule.Protocol protocol) throws Exception {
+        return topology.sendAPacketOnARoute(route, ipFrom, maskFrom, sourcePort, ipTo, maskTo, destinationPort, protocol, this);
+    }
+
+    /**
+     * Send a packet on a route from internet and see if it is blocked or not by the firewall tables seen through the overlay.
+     *
+     * @param route      the route followed by the packet
+     * @param ipAddress  the destination ip address
+     * @param portNumber the destination port
+     * @param protocol   the proto used
+     * @return true if the packet can pass the route if it comes from internet
+     * @throws Exception
+     */
+    public boolean sendAPacketOnARouteFromInternet(List<Host> route, IPAddress ipAddress, int portNumber, FirewallRule.Protocol protocol) throws Exception {
+        return topology.sendAPacketOnARouteFromInternet(route, ipAddress, portNumber, protocol, this);
+    }
+
+    private static void addRule(IdentityHashMap<Host, List<FirewallRule>> addedRules, Host host, FirewallRule rule) {
+        List<FirewallRule> rules = addedRules.get(host);
+        if (rules == null) {
+            rules = new ArrayList<FirewallRule>();
+            addedRules.put(host, rules);
+        }
+        //As the rule is added at the beginning of the table, it is before all previously added rules
+        rules.add(0, rule);
+    }
+
+    private static FirewallRulesTable getFirewallRulesTable(Host host, boolean isInput, FirewallRulesTable baseTable,
+                                                            IdentityHashMap<Host, List<FirewallRule>> addedRules,
+                                                            IdentityHashMap<Host, FirewallRulesTable> tables) {
+        List<FirewallRule> rules = addedRules.get(host);
+        if (rules == null)
+            return baseTable;
+        FirewallRulesTable table = tables.get(host);
+        if (table == null) {
+            table = new FirewallRulesTable(isInput);
+            ArrayList<FirewallRule> ruleList = new ArrayList<FirewallRule>(rules.size() + baseTable.getRules().size());
+            ruleList.addAll(rules);
+            ruleList.addAll(baseTable.getRules());
+            table.setRuleList(ruleList);
+            table.setDefaultAction(baseTable.getDefaultAction());
+            tables.put(host, table);
+        }
+        return table;
+    }
+}
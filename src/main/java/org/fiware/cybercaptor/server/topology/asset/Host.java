@@ -22,11 +22,13 @@
 package org.fiware.cybercaptor.server.topology.asset;
 
 
+import org.fiware.cybercaptor.server.topology.AdjacencyIndex;
 import org.fiware.cybercaptor.server.topology.Topology;
 import org.fiware.cybercaptor.server.topology.asset.component.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
@@ -85,16 +87,57 @@ public class Host implements Cloneable {
     }
 
     /**
-     * @return true if route1 is a suffix of route2
-     */
-    private static boolean routeSuffixOfAnOtherRoute(List<Host> route1, List<Host> route2) {
-        if (route1.size() > route2.size()) //route2 is too short for having route1 as prefix
-            return false;
-        for (int i = 1; i <= route1.size(); i++) {
-            if (!route1.get(route1.size() - i).equals(route2.get(route2.size() - i))) //One element is different
-                return false;
+     * Delete the redundant routes, i.e. the routes that have another route as suffix (of identical routes, only the first is kept).
+     * The reversed routes are inserted in a tree, a route is redundant if there is another route on its path in the tree.
+     *
+     * @param routes the routes
+     * @return the routes that are not redundant, in the same order
+     */
+    private static List<List<Host>> withoutRedundantRoutes(List<List<Host>> routes) {
+        RouteSuffixNode root = new RouteSuffixNode();
+        for (int i = 0; i < routes.size(); i++) {
+            RouteSuffixNode node = root;
+            List<Host> route = routes.get(i);
+            for (int j = route.size() - 1; j >= 0; j--) {
+                RouteSuffixNode child = node.children.get(route.get(j));
+                if (child == null) {
+                    child = new RouteSuffixNode();
+                    node.children.put(route.get(j), child);
+                }
+                node = child;
+            }
+            if (node.route < 0)
+                node.route = i;
         }
-        return true;
+
+        List<List<Host>> result = new ArrayList<List<Host>>();
+        for (int i = 0; i < routes.size(); i++) {
+            RouteSuffixNode node = root;
+            List<Host> route = routes.get(i);
+            boolean redundant = false;
+            for (int j = route.size() - 1; j >= 0 && !redundant; j--) {
+                redundant = node.route >= 0; //a shorter route is a suffix of this route
+                node = node.children.get(route.get(j));
+            }
+            if (!redundant && node.route == i)
+                result.add(route);
+        }
+        return result;
+    }
+
+    /**
+     * A node of the tree of the reversed routes
+     */
+    private static class RouteSuffixNode {
+        /**
+         * The children of the node, by next host of the reversed route
+         */
+        private final IdentityHashMap<Host, RouteSuffixNode> children = new IdentityHashMap<Host, RouteSuffixNode>();
+
+        /**
+         * The index of the first route that ends at this node, or -1
+         */
+        private int route = -1;
     }
 
     /**
@@ -108,7 +151,10 @@ public class Host implements Cloneable {
      * @param name the name to set
      */
     public void setName(String name) {
+        boolean renamed = this.name != null && !this.name.equals(name);
         this.name = name;
+        if (renamed && this.topology != null)
+            this.topology.hostRenamed(this);
     }
 
     /**
@@ -130,6 +176,8 @@ public class Host implements Cloneable {
      */
     public void setRoutingTable(RoutingTable routingTable) {
         this.routingTable = routingTable;
+        if (this.topology != null)
+            this.topology.invalidateRoutes();
     }
 
     /**
@@ -186,6 +234,8 @@ public class Host implements Cloneable {
         if (!this.getInterfaces().containsKey(name)) { //If this host has not already this interface
             Interface intface = new Interface(name, ipAddress, this);
             this.getInterfaces().put(name, intface);
+            if (this.topology != null)
+                this.topology.interfaceAdded(this, intface);
             return intface;
         } else
             return this.getInterfaces().get(name);
@@ -204,6 +254,8 @@ public class Host implements Cloneable {
         if (!this.getInterfaces().containsKey(name)) { //If this host has not already this interface
             Interface intface = new Interface(name, ipAddress, this, vlan);
             this.getInterfaces().put(name, intface);
+            if (this.topology != null)
+                this.topology.interfaceAdded(this, intface);
             return intface;
         } else
             return this.getInterfaces().get(name);
@@ -224,23 +276,15 @@ public class Host implements Cloneable {
         }
 
         if (!hasIP(ip)) { //Packet not arrived
-            Host nextHost = null;
-            List<Host> directlyAccessibleHosts = getDirectlyAccessibleHosts();
-            for (Host directlyAccessibleHost : directlyAccessibleHosts) {
-                if (directlyAccessibleHost.hasIP(ip)) //If the packet is for a neighbour, we send it to him
-                    nextHost = directlyAccessibleHost;
-            }
-            if (nextHost != null) {
-                nextHost.routeAPacketTo(ip, ttl - 1, usedHosts);
+            List<Host> neighboursWithIP = getDirectlyAccessibleHostsWithIP(ip);
+            if (!neighboursWithIP.isEmpty()) { //If the packet is for a neighbour, we send it to him
+                neighboursWithIP.get(neighboursWithIP.size() - 1).routeAPacketTo(ip, ttl - 1, usedHosts);
             } else {//We have to look in the routing table
-                List<Host> directlyAccessible = getDirectlyAccessibleHosts();
                 IPAddress nextIP = this.getRoutingTable().getNextHop(ip);
                 boolean nextHostFound = false;
-                for (Host aDirectlyAccessible : directlyAccessible) {
-                    if (aDirectlyAccessible.hasIP(nextIP)) { //Search the nextHop host object
-                        aDirectlyAccessible.routeAPacketTo(ip, ttl - 1, usedHosts);
-                        nextHostFound = true;
-                    }
+                for (Host aDirectlyAccessible : getDirectlyAccessibleHostsWithIP(nextIP)) { //Search the nextHop host object
+                    aDirectlyAccessible.routeAPacketTo(ip, ttl - 1, usedHosts);
+                    nextHostFound = true;
                 }
                 if (!nextHostFound) { //Routing problem
                     throw new Exception("Routing problem, there is no route corresponding to the packet or the destination host is on the internet");
@@ -344,6 +388,8 @@ public class Host implements Cloneable {
         }
         Interface newInterface = new Interface("int", ipAddress.getAddress(), this);
         this.getInterfaces().put("int", newInterface);
+        if (this.topology != null)
+            this.topology.interfaceAdded(this, newInterface);
         return newInterface;
     }
 
@@ -351,6 +397,9 @@ public class Host implements Cloneable {
      * @return the list of hosts that are directly accessible to the interfaces of this host
      */
     public List<Host> getDirectlyAccessibleHosts() {
+        AdjacencyIndex adjacencyIndex = getAdjacencyIndex();
+        if (adjacencyIndex != null)
+            return new ArrayList<Host>(adjacencyIndex.getDirectlyAccessibleHosts(this));
         List<Host> directlyAccessibleHosts = new ArrayList<Host>();
         for (String key : this.getInterfaces().keySet()) {
             Interface intface = getInterfaces().get(key);
@@ -378,6 +427,10 @@ public class Host implements Cloneable {
      * @return the host that possess this IP address, if this host is in one of the vlan of the host
      */
     public Host hostInVlan(IPAddress address) {
+        if (getAdjacencyIndex() != null) {
+            List<Host> hostsWithIP = getDirectlyAccessibleHostsWithIP(address);
+            return hostsWithIP.isEmpty() ? null : hostsWithIP.get(0);
+        }
         List<VLAN> vlans = getVlans();
         for (VLAN vlan : vlans) {
             List<Host> hostsOfVlan = vlan.getHosts();
@@ -389,6 +442,36 @@ public class Host implements Cloneable {
         return null;
     }
 
+    /**
+     * @param ip an IP Address
+     * @return the hosts of the vlans of this host that have this IP address, in the order
+     * (and with the repetitions) of {@link #getDirectlyAccessibleHosts()}
+     */
+    private List<Host> getDirectlyAccessibleHostsWithIP(IPAddress ip) {
+        AdjacencyIndex adjacencyIndex = getAdjacencyIndex();
+        if (adjacencyIndex != null)
+            return adjacencyIndex.getDirectlyAccessibleHostsWithIP(this, ip);
+        List<Host> result = new ArrayList<Host>();
+        for (Host directlyAccessibleHost : getDirectlyAccessibleHosts()) {
+            if (directlyAccessibleHost.hasIP(ip))
+                result.add(directlyAccessibleHost);
+        }
+        return result;
+    }
+
+    /**
+     * @return the adjacency index of the topology, or null if this host is not in a topology
+     * (or has been added to it directly, without the topology being notified)
+     */
+    private AdjacencyIndex getAdjacencyIndex() {
+        if (this.topology == null)
+            return null;
+        AdjacencyIndex adjacencyIndex = this.topology.getAdjacencyIndex();
+        if (adjacencyIndex.getDirectlyAccessibleHosts(this) == null)
+            return null;
+        return adjacencyIndex;
+    }
+
     /**
      * @param ip an IP Address
      * @return true if this host as this address IP on one of its interface
@@ -465,47 +548,31 @@ public class Host implements Cloneable {
     }
 
     /**
-     * @return the routes from Internet to this host
+     * @return the routes from Internet to this host (cached by the topology until it changes)
      * @throws Exception
      */
     public List<List<Host>> getRoutesFromInternet() throws Exception {
-        List<List<Host>> result = new ArrayList<List<Host>>();
+        return topology.getRoutesFromInternet(this);
+    }
 
+    /**
+     * Compute the routes from Internet to this host, without the cache of the topology
+     *
+     * @return the routes from Internet to this host
+     * @throws Exception
+     */
+    public List<List<Host>> computeRoutesFromInternet() throws Exception {
+        List<List<Host>> result = new ArrayList<List<Host>>();
 
         for (int i = 0; i < topology.getHosts().size(); i++) {
             Host currentHost = topology.getHosts().get(i);
             if (currentHost.connectedToTheInternet()) {
-                List<Host> route = new ArrayList<Host>();
-                currentHost.routeAPacketTo(this.getFirstIPAddress(), 64, route);
-                result.add(route);
+                result.add(topology.routeBetweenHosts(currentHost, this));
             }
         }
 
-
-        //Start refinement : deletion of redundant routes (routes in which a route is a suffix of the other routes)
-
-        //Check if a route is a "suffix" of another route, in such a case, delete routes with this suffix.
-        boolean resultHasChanged = true;
-        while (resultHasChanged) {
-            resultHasChanged = false;
-            for (int i = 0; i < result.size(); i++) {
-                for (int j = i + 1; j < result.size(); j++) {
-                    if (routeSuffixOfAnOtherRoute(result.get(i), result.get(j))) { //route i is a suffix of route j
-                        result.remove(j);
-                        j--;
-                        resultHasChanged = true;
-                    } else if (routeSuffixOfAnOtherRoute(result.get(j), result.get(i))) {// route j is a suffix of route i
-                        result.remove(i);
-                        i--;
-                        resultHasChanged = true;
-                        break;
-                    }
-                }
-            }
-        }
-        //Refinement done
-
-        return result;
+        //Deletion of redundant routes (routes in which a route is a suffix of the other routes)
+        return withoutRedundantRoutes(result);
     }
 
     /**
@@ -513,9 +580,11 @@ public class Host implements Cloneable {
      * @return true if this host is in the network else false
      */
     public boolean inNetwork(Network network) {
+        int mask = network.getMask().toInt();
+        int networkAddress = network.getAddress().toInt() & mask;
         for (String key : this.getInterfaces().keySet()) {
             Interface intface = this.getInterfaces().get(key);
-            if (intface.getNetwork() != null && (new Network(intface.getAddress())).isIncludedIn(network))
+            if (intface.getNetwork() != null && (intface.getAddress().toInt() & mask) == networkAddress)
                 return true;
         }
         return false;
@@ -586,6 +655,7 @@ public class Host implements Cloneable {
 		 * Routing table
 		 */
         copie.routingTable = this.getRoutingTable().clone();
+        copie.routingTable.setRelatedHost(copie);
 
         //update the reference to the interfaces in the route object with the new interfaces
         for (int i = 0; i < copie.getRoutingTable().getRouteList().size(); i++) {
@@ -594,7 +664,7 @@ public class Host implements Cloneable {
         }
 
 		/*
-		 * Firewall Rules Table
+		 * Firewall Rules Table (their rules are shared until they are modified)
 		 */
         copie.setInputFirewallRulesTable(this.getInputFirewallRulesTable().clone());
         copie.setOutputFirewallRulesTable(this.getOutputFirewallRulesTable().clone());
@@ -20,10 +20,13 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.topology.asset;
 
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * Class that represents an IP address
+ * Class that represents an IP address.
+ * An IP address is immutable : its string is parsed only once, when it is created, into a 32 bits int,
+ * that is used for all the comparisons and network computations.
  *
  * @author Francois-Xavier Aguessy
  */
@@ -33,10 +36,26 @@ public class IPAddress implements Cloneable {
      */
     public static Pattern pattern = Pattern.compile("^(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?).(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?).(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?).(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$");
 
+    /**
+     * The IPv4 masks, indexed by their prefix length (/0 to /32), shared by all the networks and rules
+     */
+    private static final IPAddress[] MASKS = new IPAddress[33];
+
+    static {
+        for (int prefix = 0; prefix <= 32; prefix++) {
+            MASKS[prefix] = new IPAddress(getIPv4NetMaskInt(prefix));
+        }
+    }
+
     /**
      * The string of the  IP address
      */
-    private String address = "";
+    private final String address;
+
+    /**
+     * The 32 bits int of the IP address
+     */
+    private final int value;
 
     /**
      * Create an IPAddress
@@ -46,11 +65,75 @@ public class IPAddress implements Cloneable {
      */
     public IPAddress(String address) throws Exception {
         super();
-        if (!isAnIPAddress(address))
-            throw new Exception("Invalid IP Address ");
+        this.value = parse(address);
         this.address = address;
     }
 
+    /**
+     * Create an IPAddress from its 32 bits int
+     *
+     * @param value the 32 bits int of the ip address
+     */
+    public IPAddress(int value) {
+        super();
+        this.value = value;
+        this.address = ((value >>> 24) & 0xFF) + "." + ((value >>> 16) & 0xFF) + "." + ((value >>> 8) & 0xFF) + "." + (value & 0xFF);
+    }
+
+    /**
+     * Parse the string of an IPv4 address
+     *
+     * @param address the string of the ip address
+     * @return the 32 bits int of the ip address
+     * @throws Exception if the string is not an IPv4 address
+     */
+    private static int parse(String address) throws Exception {
+        if (address == null)
+            throw new Exception("Invalid IP Address ");
+        long result = parseDottedDecimal(address);
+        if (result >= 0)
+            return (int) result;
+
+        //Other separators accepted by the pattern
+        Matcher matcher = pattern.matcher(address);
+        if (!matcher.matches())
+            throw new Exception("Invalid IP Address ");
+        return (Integer.parseInt(matcher.group(1)) << 24) | (Integer.parseInt(matcher.group(2)) << 16) |
+                (Integer.parseInt(matcher.group(3)) << 8) | Integer.parseInt(matcher.group(4));
+    }
+
+    /**
+     * Parse the string of an IPv4 address in the usual dotted decimal notation, without regular expression
+     *
+     * @param address the string of the ip address
+     * @return the 32 bits int of the ip address (as an unsigned value), or -1 if the string is not in the dotted decimal notation
+     */
+    private static long parseDottedDecimal(String address) {
+        long result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                digits++;
+                if (digits > 3 || octet > 255)
+                    return -1;
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0)
+            return -1;
+        return (result << 8) | octet;
+    }
+
     /**
      * Transform a mask like /24 into an ip address 255.255.255.0
      *
@@ -58,20 +141,25 @@ public class IPAddress implements Cloneable {
      * @return the IPv4 mask
      */
     public static IPAddress getIPv4NetMask(int netPrefix) {
-        try {
-            if (netPrefix == 0) {
-                return new IPAddress("0.0.0.0");
-            }
-            int shiftby = (1 << 31);
-            for (int i = netPrefix - 1; i > 0; i--) {
-                shiftby = (shiftby >> 1);
-            }
-            String maskString = Integer.toString((shiftby >> 24) & 255) + "." + Integer.toString((shiftby >> 16) & 255) + "." + Integer.toString((shiftby >> 8) & 255) + "." + Integer.toString(shiftby & 255);
-            return new IPAddress(maskString);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return null;
+        if (netPrefix >= 0 && netPrefix <= 32)
+            return MASKS[netPrefix];
+        return new IPAddress(getIPv4NetMaskInt(netPrefix));
+    }
+
+    /**
+     * Transform a mask like /24 into the 32 bits int of the ip address 255.255.255.0
+     *
+     * @param netPrefix the int prefix
+     * @return the 32 bits int of the IPv4 mask
+     */
+    public static int getIPv4NetMaskInt(int netPrefix) {
+        if (netPrefix == 0)
+            return 0;
+        if (netPrefix < 0)
+            return 1 << 31;
+        if (netPrefix >= 32)
+            return -1;
+        return -1 << (32 - netPrefix);
     }
 
     /**
@@ -82,15 +170,22 @@ public class IPAddress implements Cloneable {
      * @return true if the first network is contained in the second network
      */
     public static boolean networkInOtherNetwork(IPAddress ipNetwork1, IPAddress maskNetwork1, IPAddress ipNetwork2, IPAddress maskNetwork2) {
-        int intIpNetwork1 = ipNetwork1.toInt();
-        int intmaskNetwork1 = maskNetwork1.toInt();
-        int intIpNetwork2 = ipNetwork2.toInt();
-        int intmaskNetwork2 = maskNetwork2.toInt();
-        return (intIpNetwork1 & intmaskNetwork1 & intmaskNetwork2) == (intIpNetwork2 & intmaskNetwork2);
+        return networkInOtherNetwork(ipNetwork1.value, maskNetwork1.value, ipNetwork2.value, maskNetwork2.value);
+    }
+
+    /**
+     * @param ipNetwork1   the 32 bits int of the ip of the first network
+     * @param maskNetwork1 the 32 bits int of the mask of the first network
+     * @param ipNetwork2   the 32 bits int of the ip of the second network
+     * @param maskNetwork2 the 32 bits int of the mask of the second network
+     * @return true if the first network is contained in the second network
+     */
+    public static boolean networkInOtherNetwork(int ipNetwork1, int maskNetwork1, int ipNetwork2, int maskNetwork2) {
+        return (ipNetwork1 & maskNetwork1 & maskNetwork2) == (ipNetwork2 & maskNetwork2);
     }
 
     public static boolean isAnIPAddress(String str) {
-        return pattern.matcher(str).matches();
+        return str != null && (parseDottedDecimal(str) >= 0 || pattern.matcher(str).matches());
     }
 
     /**
@@ -106,13 +201,7 @@ public class IPAddress implements Cloneable {
      * @return the mask
      */
     public int getMaskFromIPv4Address() {
-        int ip_int = this.toInt();
-        int i = 31;
-        while (i >= 0 && (ip_int << i) == 0) {
-            i--;
-        }
-        return i + 1;
-
+        return 32 - Integer.numberOfTrailingZeros(value);
     }
 
     /**
@@ -121,12 +210,7 @@ public class IPAddress implements Cloneable {
      * @return the 32 bit int
      */
     public int toInt() {
-        String[] ip_string = this.getAddress().split("\\.");
-
-        return ((Integer.parseInt(ip_string[0]) & 0xFF) << 24) |
-                ((Integer.parseInt(ip_string[1]) & 0xFF) << 16) |
-                ((Integer.parseInt(ip_string[2]) & 0xFF) << 8) |
-                ((Integer.parseInt(ip_string[3]) & 0xFF));
+        return value;
     }
 
     @Override
@@ -138,12 +222,12 @@ public class IPAddress implements Cloneable {
         if (getClass() != obj.getClass())
             return false;
         IPAddress other = (IPAddress) obj;
-        if (getAddress() == null) {
-            if (other.getAddress() != null)
-                return false;
-        } else if (!getAddress().equals(other.getAddress()))
-            return false;
-        return true;
+        return value == other.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
     }
 
     @Override
@@ -164,7 +164,10 @@ public class VLAN implements Cloneable {
 
     @Override
     public VLAN clone() throws CloneNotSupportedException {
-        return (VLAN) super.clone();
+        VLAN copie = (VLAN) super.clone();
+        copie.hosts = new ArrayList<Host>(this.hosts);
+        copie.interfaces = new ArrayList<Interface>(this.interfaces);
+        return copie;
     }
 
     /**
@@ -140,7 +140,7 @@ public class FirewallRule implements Cloneable {
             masksource = IPAddress.getIPv4NetMask(Integer.parseInt(source.substring(source.indexOf("/") + 1, source.length())));
         } else {
             ipsource = new IPAddress(source);
-            masksource = new IPAddress("255.255.255.255");
+            masksource = IPAddress.getIPv4NetMask(32);
         }
 
         //destination IP
@@ -149,7 +149,7 @@ public class FirewallRule implements Cloneable {
             maskdestination = IPAddress.getIPv4NetMask(Integer.parseInt(destination.substring(destination.indexOf("/") + 1, destination.length())));
         } else {
             ipdestination = new IPAddress(destination);
-            maskdestination = new IPAddress("255.255.255.255");
+            maskdestination = IPAddress.getIPv4NetMask(32);
         }
 
         sourcePortRange.setAny(true); //If no information, the rule is for all ports
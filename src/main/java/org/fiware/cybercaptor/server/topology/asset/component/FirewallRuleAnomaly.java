@@ -0,0 +1,125 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology.asset.component;
+
+/**
+ * Class that represents an anomaly of a firewall rule table : a rule that is never applied, because all the packets
+ * it matches are matched before by a previous rule (the covering rule)
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class FirewallRuleAnomaly {
+    /**
+     * The type of the anomaly
+     */
+    private final AnomalyType type;
+
+    /**
+     * The rule never applied
+     */
+    private final FirewallRule rule;
+
+    /**
+     * The position of the rule never applied in the table
+     */
+    private final int rulePosition;
+
+    /**
+     * The previous rule matching all the packets of the rule
+     */
+    private final FirewallRule coveringRule;
+
+    /**
+     * The position of the covering rule in the table
+     */
+    private final int coveringRulePosition;
+
+    /**
+     * Create a firewall rule anomaly
+     *
+     * @param type                 the type of the anomaly
+     * @param rule                 the rule never applied
+     * @param rulePosition         the position of the rule in the table
+     * @param coveringRule         the previous rule matching all the packets of the rule
+     * @param coveringRulePosition the position of the covering rule in the table
+     */
+    public FirewallRuleAnomaly(AnomalyType type, FirewallRule rule, int rulePosition, FirewallRule coveringRule, int coveringRulePosition) {
+        this.type = type;
+        this.rule = rule;
+        this.rulePosition = rulePosition;
+        this.coveringRule = coveringRule;
+        this.coveringRulePosition = coveringRulePosition;
+    }
+
+    /**
+     * @return the type of the anomaly
+     */
+    public AnomalyType getType() {
+        return type;
+    }
+
+    /**
+     * @return the rule never applied
+     */
+    public FirewallRule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return the position of the rule never applied in the table
+     */
+    public int getRulePosition() {
+        return rulePosition;
+    }
+
+    /**
+     * @return the previous rule matching all the packets of the rule
+     */
+    public FirewallRule getCoveringRule() {
+        return coveringRule;
+    }
+
+    /**
+     * @return the position of the covering rule in the table
+     */
+    public int getCoveringRulePosition() {
+        return coveringRulePosition;
+    }
+
+    @Override
+    public String toString() {
+        return type + " rule " + rulePosition + " " + rule + " by rule " + coveringRulePosition + " " + coveringRule;
+    }
+
+    /**
+     * Possible types of anomaly
+     */
+    public enum AnomalyType {
+        /**
+         * The covering rule has an other action : the rule is never applied
+         */
+        SHADOWED,
+        /**
+         * The covering rule has the same action : the rule can be removed
+         */
+        REDUNDANT
+    }
+}
@@ -0,0 +1,364 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology.asset.component;
+
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Action;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compiled form of the rules of a firewall rule table, to find the first rule matching a packet without testing
+ * the rules one by one. For each field of the rules (protocol, source, destination, source port, destination port),
+ * the set of rules matching a value is precomputed as a bit vector (one bit per rule, in the order of the table) :
+ * <ul>
+ * <li>for the ip addresses, in a binary trie of the rule prefixes, each node containing the rules whose prefix
+ * is a prefix of the path to this node;</li>
+ * <li>for the ports, for each distinct minimum and maximum of the rule port ranges.</li>
+ * </ul>
+ * The rules matching a packet are the intersection of the sets of its fields, and the first rule of this intersection
+ * whose action is ACCEPT or DROP gives the decision. The rules whose mask is not a prefix (non contiguous mask)
+ * are kept in all the ip sets, and checked one by one.
+ * The classifier is immutable : it must be built again when the rules of the table change.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+class FirewallRuleClassifier {
+    /**
+     * The rules of the table, when the classifier was built
+     */
+    private final FirewallRule[] rules;
+
+    /**
+     * The number of 64 bits words of the bit vectors
+     */
+    private final int words;
+
+    /**
+     * The rules matching each protocol, indexed by the ordinal of the protocol
+     */
+    private final long[][] protocolRules;
+
+    /**
+     * The rules whose source or destination mask is not a prefix
+     */
+    private final long[] irregularRules;
+
+    /**
+     * The rules matching the source ip addresses
+     */
+    private final PrefixSets sourceRules;
+
+    /**
+     * The rules matching the destination ip addresses
+     */
+    private final PrefixSets destinationRules;
+
+    /**
+     * The rules matching the minimum source ports
+     */
+    private final BoundSets sourcePortMinRules;
+
+    /**
+     * The rules matching the maximum source ports
+     */
+    private final BoundSets sourcePortMaxRules;
+
+    /**
+     * The rules matching the minimum destination ports
+     */
+    private final BoundSets destinationPortMinRules;
+
+    /**
+     * The rules matching the maximum destination ports
+     */
+    private final BoundSets destinationPortMaxRules;
+
+    /**
+     * Compile the rules of a firewall rule table
+     *
+     * @param ruleList the rules, in the order of the table
+     */
+    FirewallRuleClassifier(List<FirewallRule> ruleList) {
+        this.rules = ruleList.toArray(new FirewallRule[ruleList.size()]);
+        this.words = (rules.length + 63) >>> 6;
+
+        Protocol[] protocols = Protocol.values();
+        protocolRules = new long[protocols.length][words];
+        irregularRules = new long[words];
+        for (int i = 0; i < rules.length; i++) {
+            for (Protocol protocol : protocols) {
+                if (rules[i].getProtocol().contained(protocol))
+                    protocolRules[protocol.ordinal()][i >>> 6] |= 1L << i;
+            }
+            if (!isPrefix(rules[i].getSourceMask().toInt()) || !isPrefix(rules[i].getDestinationMask().toInt()))
+                irregularRules[i >>> 6] |= 1L << i;
+        }
+
+        int[] addresses = new int[rules.length];
+        int[] masks = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            addresses[i] = rules[i].getSource().toInt();
+            masks[i] = rules[i].getSourceMask().toInt();
+        }
+        sourceRules = new PrefixSets(addresses, masks, words);
+        for (int i = 0; i < rules.length; i++) {
+            addresses[i] = rules[i].getDestination().toInt();
+            masks[i] = rules[i].getDestinationMask().toInt();
+        }
+        destinationRules = new PrefixSets(addresses, masks, words);
+
+        Long[] minimums = new Long[rules.length];
+        Long[] maximums = new Long[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            PortRange range = rules[i].getSourcePortRange();
+            minimums[i] = range.isAny() ? null : (long) range.getMin();
+            maximums[i] = range.isAny() ? null : -(long) range.getMax();
+        }
+        sourcePortMinRules = new BoundSets(minimums, words);
+        sourcePortMaxRules = new BoundSets(maximums, words);
+        for (int i = 0; i < rules.length; i++) {
+            PortRange range = rules[i].getDestinationPortRange();
+            minimums[i] = range.isAny() ? null : (long) range.getMin();
+            maximums[i] = range.isAny() ? null : -(long) range.getMax();
+        }
+        destinationPortMinRules = new BoundSets(minimums, words);
+        destinationPortMaxRules = new BoundSets(maximums, words);
+    }
+
+    /**
+     * @param mask the 32 bits int of a mask
+     * @return true if the mask is a prefix (its bits set are contiguous, from the most significant one)
+     */
+    private static boolean isPrefix(int mask) {
+        return (~mask & (~mask + 1)) == 0;
+    }
+
+    /**
+     * Find the action of the first rule matching a packet, with the same semantic as a linear scan of the rules
+     *
+     * @param protocol             the protocol used
+     * @param source               the source ip address
+     * @param sourceMask           the mask source
+     * @param sourcePortRange      the source port range
+     * @param destination          the destination ip address
+     * @param destinationMask      the destination mask
+     * @param destinationPortRange the destination port range
+     * @return the action (ACCEPT or DROP) of the first matching rule, or null if no rule with such an action matches
+     */
+    Action classify(Protocol protocol, IPAddress source, IPAddress sourceMask, PortRange sourcePortRange, IPAddress destination, IPAddress destinationMask, PortRange destinationPortRange) {
+        long[] protocolSet = protocolRules[protocol.ordinal()];
+        long[] sourceSet = sourceRules.lookup(source.toInt() & sourceMask.toInt());
+        long[] destinationSet = destinationRules.lookup(destination.toInt() & destinationMask.toInt());
+        long[] sourcePortMinSet = sourcePortMinRules.lookup(sourcePortRange.getMin());
+        long[] sourcePortMaxSet = sourcePortMaxRules.lookup(-(long) sourcePortRange.getMax());
+        long[] destinationPortMinSet = destinationPortMinRules.lookup(destinationPortRange.getMin());
+        long[] destinationPortMaxSet = destinationPortMaxRules.lookup(-(long) destinationPortRange.getMax());
+
+        for (int w = 0; w < words; w++) {
+            long candidates = protocolSet[w] & sourceSet[w] & destinationSet[w] & sourcePortMinSet[w] & sourcePortMaxSet[w]
+                    & destinationPortMinSet[w] & destinationPortMaxSet[w];
+            while (candidates != 0) {
+                int bit = Long.numberOfTrailingZeros(candidates);
+                candidates &= candidates - 1;
+                FirewallRule rule = rules[(w << 6) + bit];
+                if ((irregularRules[w] & (1L << bit)) != 0
+                        && !(IPAddress.networkInOtherNetwork(source, sourceMask, rule.getSource(), rule.getSourceMask())
+                        && IPAddress.networkInOtherNetwork(destination, destinationMask, rule.getDestination(), rule.getDestinationMask())))
+                    continue;
+                if (rule.getAction() == Action.ACCEPT || rule.getAction() == Action.DROP)
+                    return rule.getAction();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of rules of the classifier
+     */
+    int size() {
+        return rules.length;
+    }
+
+    /**
+     * Sets of rules matching ip addresses, stored in a binary trie of the rule prefixes
+     */
+    private static class PrefixSets {
+        /**
+         * The child of each node for the bit 0 (0 if none, the root is the node 0)
+         */
+        private int[] zeroChildren = new int[64];
+
+        /**
+         * The child of each node for the bit 1 (0 if none, the root is the node 0)
+         */
+        private int[] oneChildren = new int[64];
+
+        /**
+         * The rules matching the addresses of each node : the rules of the node and of all its ancestors.
+         * The nodes without rules share the set of their parent.
+         */
+        private long[][] sets = new long[64][];
+
+        /**
+         * The number of nodes
+         */
+        private int numberOfNodes = 1;
+
+        /**
+         * Build the trie of the rule prefixes
+         *
+         * @param addresses the address of each rule
+         * @param masks     the mask of each rule
+         * @param words     the number of 64 bits words of the bit vectors
+         */
+        PrefixSets(int[] addresses, int[] masks, int words) {
+            int[] parents = new int[64];
+            long[][] ownSets = new long[64][];
+            for (int i = 0; i < addresses.length; i++) {
+                int prefixLength = isPrefix(masks[i]) ? Integer.bitCount(masks[i]) : 0;
+                //The rules with a non contiguous mask are in the set of the root, they are checked one by one
+                int key = addresses[i] & masks[i];
+                int node = 0;
+                for (int bit = 0; bit < prefixLength; bit++) {
+                    boolean one = ((key << bit) & 0x80000000) != 0;
+                    int child = one ? oneChildren[node] : zeroChildren[node];
+                    if (child == 0) {
+                        if (numberOfNodes == zeroChildren.length) {
+                            zeroChildren = Arrays.copyOf(zeroChildren, numberOfNodes * 2);
+                            oneChildren = Arrays.copyOf(oneChildren, numberOfNodes * 2);
+                            parents = Arrays.copyOf(parents, numberOfNodes * 2);
+                            ownSets = Arrays.copyOf(ownSets, numberOfNodes * 2);
+                        }
+                        child = numberOfNodes++;
+                        parents[child] = node;
+                        if (one)
+                            oneChildren[node] = child;
+                        else
+                            zeroChildren[node] = child;
+                    }
+                    node = child;
+                }
+                if (ownSets[node] == null)
+                    ownSets[node] = new long[words];
+                ownSets[node][i >>> 6] |= 1L << i;
+            }
+
+            //The parents are always created before their children
+            sets = new long[numberOfNodes][];
+            sets[0] = ownSets[0] != null ? ownSets[0] : new long[words];
+            for (int node = 1; node < numberOfNodes; node++) {
+                long[] parentSet = sets[parents[node]];
+                if (ownSets[node] == null) {
+                    sets[node] = parentSet;
+                } else {
+                    long[] set = ownSets[node];
+                    for (int w = 0; w < words; w++) {
+                        set[w] |= parentSet[w];
+                    }
+                    sets[node] = set;
+                }
+            }
+        }
+
+        /**
+         * @param key the masked 32 bits int of an ip address
+         * @return the rules whose prefix is a prefix of the key
+         */
+        long[] lookup(int key) {
+            int node = 0;
+            for (int bit = 0; bit < 32; bit++) {
+                int child = ((key << bit) & 0x80000000) != 0 ? oneChildren[node] : zeroChildren[node];
+                if (child == 0)
+                    break;
+                node = child;
+            }
+            return sets[node];
+        }
+    }
+
+    /**
+     * Sets of rules whose bound is lower than or equal to a value, for each distinct bound of the rules.
+     * A port range of a rule matches the port range of a packet if its minimum is lower than or equal to the minimum
+     * of the packet, and its maximum is greater than or equal to the maximum of the packet (the opposite of the maximum
+     * is used as bound), or if it contains all the ports.
+     */
+    private static class BoundSets {
+        /**
+         * The distinct bounds of the rules, in ascending order
+         */
+        private final long[] bounds;
+
+        /**
+         * The rules whose bound is lower than or equal to each bound (the first set contains only the rules without bound)
+         */
+        private final long[][] sets;
+
+        /**
+         * Build the sets of rules of each bound
+         *
+         * @param ruleBounds the bound of each rule (null if the rule matches all the values)
+         * @param words      the number of 64 bits words of the bit vectors
+         */
+        BoundSets(Long[] ruleBounds, int words) {
+            TreeMap<Long, List<Integer>> rulesByBound = new TreeMap<Long, List<Integer>>();
+            long[] current = new long[words];
+            for (int i = 0; i < ruleBounds.length; i++) {
+                if (ruleBounds[i] == null) {
+                    current[i >>> 6] |= 1L << i;
+                } else {
+                    List<Integer> rulesOfBound = rulesByBound.get(ruleBounds[i]);
+                    if (rulesOfBound == null) {
+                        rulesOfBound = new ArrayList<Integer>();
+                        rulesByBound.put(ruleBounds[i], rulesOfBound);
+                    }
+                    rulesOfBound.add(i);
+                }
+            }
+            bounds = new long[rulesByBound.size()];
+            sets = new long[rulesByBound.size() + 1][];
+            sets[0] = current.clone();
+            int index = 0;
+            for (Map.Entry<Long, List<Integer>> entry : rulesByBound.entrySet()) {
+                bounds[index] = entry.getKey();
+                for (int i : entry.getValue()) {
+                    current[i >>> 6] |= 1L << i;
+                }
+                sets[++index] = current.clone();
+            }
+        }
+
+        /**
+         * @param value a value
+         * @return the rules whose bound is lower than or equal to the value
+         */
+        long[] lookup(long value) {
+            int index = Arrays.binarySearch(bounds, value);
+            //The number of bounds lower than or equal to the value
+            return sets[index >= 0 ? index + 1 : -index - 1];
+        }
+    }
+}
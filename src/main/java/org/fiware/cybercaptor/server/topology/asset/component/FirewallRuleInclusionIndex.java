@@ -0,0 +1,368 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology.asset.component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Geometric index of the rules of a firewall rule table, to find the rules including a rule or included into it
+ * (in the sense of {@link FirewallRule#includedIntoRule(FirewallRule)}) without testing all the rules.
+ * The source and destination networks of the rules are stored in two binary tries of their prefixes :
+ * <ul>
+ * <li>the rules including a rule are on the path of its masked address, from the root to the leaf;</li>
+ * <li>the rules included into a rule are in the subtree of the node of its prefix (or are shorter prefixes of its
+ * path, when the address of the rule has only zeros after them).</li>
+ * </ul>
+ * For each query, the dimension (source or destination) giving the fewest candidates is used, and the candidates
+ * are then checked with the complete inclusion test (ports included). The rules whose mask is not a prefix
+ * (non contiguous mask) are candidates of all the queries.
+ * The index only contains the positions of the rules : it is immutable and must be built again when the rules
+ * of the table change.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+class FirewallRuleInclusionIndex {
+    /**
+     * The number of rules of the index
+     */
+    private final int size;
+
+    /**
+     * The positions of the rules whose source or destination mask is not a prefix
+     */
+    private final int[] irregularRules;
+
+    /**
+     * The trie of the source networks of the rules
+     */
+    private final PrefixTrie sourceTrie = new PrefixTrie();
+
+    /**
+     * The trie of the destination networks of the rules
+     */
+    private final PrefixTrie destinationTrie = new PrefixTrie();
+
+    /**
+     * Build the index of a list of rules
+     *
+     * @param rules the rules of the table
+     */
+    FirewallRuleInclusionIndex(List<FirewallRule> rules) {
+        this.size = rules.size();
+        IntList irregular = new IntList();
+        for (int i = 0; i < rules.size(); i++) {
+            FirewallRule rule = rules.get(i);
+            if (!isRegular(rule)) {
+                irregular.add(i);
+                continue;
+            }
+            sourceTrie.add(rule.getSource().toInt(), rule.getSourceMask().toInt(), i);
+            destinationTrie.add(rule.getDestination().toInt(), rule.getDestinationMask().toInt(), i);
+        }
+        this.irregularRules = irregular.toArray();
+        sourceTrie.computeSubtreeSizes();
+        destinationTrie.computeSubtreeSizes();
+    }
+
+    /**
+     * @param mask the 32 bits int of a mask
+     * @return true if the mask is a prefix (its bits set are contiguous, from the most significant one)
+     */
+    private static boolean isPrefix(int mask) {
+        return (~mask & (~mask + 1)) == 0;
+    }
+
+    /**
+     * @param rule a firewall rule
+     * @return true if the source and destination masks of the rule are prefixes
+     */
+    static boolean isRegular(FirewallRule rule) {
+        return isPrefix(rule.getSourceMask().toInt()) && isPrefix(rule.getDestinationMask().toInt());
+    }
+
+    /**
+     * @return the number of rules of the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the positions of the rules that may include a rule, or that may be included into it
+     *
+     * @param rule      a firewall rule, whose masks are prefixes
+     * @param including true to get the candidates including the rule
+     * @param included  true to get the candidates included into the rule
+     * @return the positions of the candidate rules, sorted and without duplicates
+     */
+    int[] candidates(FirewallRule rule, boolean including, boolean included) {
+        int source = rule.getSource().toInt() & rule.getSourceMask().toInt();
+        int sourcePrefix = Integer.bitCount(rule.getSourceMask().toInt());
+        int destination = rule.getDestination().toInt() & rule.getDestinationMask().toInt();
+        int destinationPrefix = Integer.bitCount(rule.getDestinationMask().toInt());
+
+        IntList result = new IntList();
+        result.addAll(irregularRules);
+        if (including) {
+            if (sourceTrie.countPath(source) <= destinationTrie.countPath(destination))
+                sourceTrie.collectPath(source, result);
+            else
+                destinationTrie.collectPath(destination, result);
+        }
+        if (included) {
+            if (sourceTrie.countIncluded(source, sourcePrefix) <= destinationTrie.countIncluded(destination, destinationPrefix))
+                sourceTrie.collectIncluded(source, sourcePrefix, result);
+            else
+                destinationTrie.collectIncluded(destination, destinationPrefix, result);
+        }
+        return result.toSortedSet();
+    }
+
+    /**
+     * A binary trie of network prefixes, whose nodes contain the positions of the rules of their prefix
+     */
+    private static class PrefixTrie {
+        /**
+         * The child of each node for the bit 0 (0 if none, the root is the node 0)
+         */
+        private int[] zeroChildren = new int[64];
+
+        /**
+         * The child of each node for the bit 1 (0 if none, the root is the node 0)
+         */
+        private int[] oneChildren = new int[64];
+
+        /**
+         * The parent of each node
+         */
+        private int[] parents = new int[64];
+
+        /**
+         * The positions of the rules of each node (null if none)
+         */
+        private IntList[] rules = new IntList[64];
+
+        /**
+         * The number of rules in the subtree of each node
+         */
+        private int[] subtreeSizes;
+
+        /**
+         * The number of nodes
+         */
+        private int numberOfNodes = 1;
+
+        /**
+         * Add a rule at the node of its prefix
+         *
+         * @param address  the 32 bits int of the network address
+         * @param mask     the 32 bits int of the network mask (a prefix)
+         * @param position the position of the rule
+         */
+        void add(int address, int mask, int position) {
+            int key = address & mask;
+            int node = 0;
+            for (int bit = 0; bit < Integer.bitCount(mask); bit++) {
+                boolean one = ((key << bit) & 0x80000000) != 0;
+                int child = one ? oneChildren[node] : zeroChildren[node];
+                if (child == 0) {
+                    if (numberOfNodes == zeroChildren.length) {
+                        zeroChildren = Arrays.copyOf(zeroChildren, numberOfNodes * 2);
+                        oneChildren = Arrays.copyOf(oneChildren, numberOfNodes * 2);
+                        parents = Arrays.copyOf(parents, numberOfNodes * 2);
+                        rules = Arrays.copyOf(rules, numberOfNodes * 2);
+                    }
+                    child = numberOfNodes++;
+                    parents[child] = node;
+                    if (one)
+                        oneChildren[node] = child;
+                    else
+                        zeroChildren[node] = child;
+                }
+                node = child;
+            }
+            if (rules[node] == null)
+                rules[node] = new IntList();
+            rules[node].add(position);
+        }
+
+        /**
+         * Compute the number of rules of the subtree of each node, once all the rules are added
+         */
+        void computeSubtreeSizes() {
+            subtreeSizes = new int[numberOfNodes];
+            //The parents are always created before their children
+            for (int node = numberOfNodes - 1; node >= 0; node--) {
+                if (rules[node] != null)
+                    subtreeSizes[node] += rules[node].size();
+                if (node > 0)
+                    subtreeSizes[parents[node]] += subtreeSizes[node];
+            }
+        }
+
+        /**
+         * @param node a node
+         * @param key  the masked 32 bits int of a network address
+         * @param bit  the depth of the node
+         * @return the child of the node on the path of the key (0 if none)
+         */
+        private int child(int node, int key, int bit) {
+            return ((key << bit) & 0x80000000) != 0 ? oneChildren[node] : zeroChildren[node];
+        }
+
+        /**
+         * @param key the masked 32 bits int of a network address
+         * @return the number of rules on the path of the key
+         */
+        int countPath(int key) {
+            int count = 0;
+            int node = 0;
+            for (int bit = 0; ; bit++) {
+                if (rules[node] != null)
+                    count += rules[node].size();
+                if (bit == 32 || (node = child(node, key, bit)) == 0)
+                    return count;
+            }
+        }
+
+        /**
+         * @param key    the masked 32 bits int of a network address
+         * @param result the list in which the positions of the rules on the path of the key are added
+         */
+        void collectPath(int key, IntList result) {
+            int node = 0;
+            for (int bit = 0; ; bit++) {
+                if (rules[node] != null)
+                    result.addAll(rules[node]);
+                if (bit == 32 || (node = child(node, key, bit)) == 0)
+                    return;
+            }
+        }
+
+        /**
+         * Count the rules whose network is included into a network : the rules of the subtree of its prefix,
+         * and the rules of the shorter prefixes of its path followed only by zeros in its address.
+         *
+         * @param key          the masked 32 bits int of a network address
+         * @param prefixLength the length of the prefix of the network
+         * @return the number of rules included into the network
+         */
+        int countIncluded(int key, int prefixLength) {
+            int count = 0;
+            int node = 0;
+            for (int bit = 0; bit < prefixLength; bit++) {
+                if (rules[node] != null && key << bit == 0)
+                    count += rules[node].size();
+                if ((node = child(node, key, bit)) == 0)
+                    return count;
+            }
+            return count + subtreeSizes[node];
+        }
+
+        /**
+         * @param key          the masked 32 bits int of a network address
+         * @param prefixLength the length of the prefix of the network
+         * @param result       the list in which the positions of the rules included into the network are added
+         */
+        void collectIncluded(int key, int prefixLength, IntList result) {
+            int node = 0;
+            for (int bit = 0; bit < prefixLength; bit++) {
+                if (rules[node] != null && key << bit == 0)
+                    result.addAll(rules[node]);
+                if ((node = child(node, key, bit)) == 0)
+                    return;
+            }
+            IntList stack = new IntList();
+            stack.add(node);
+            while (stack.size() > 0) {
+                node = stack.removeLast();
+                if (subtreeSizes[node] == 0)
+                    continue;
+                if (rules[node] != null)
+                    result.addAll(rules[node]);
+                if (zeroChildren[node] != 0)
+                    stack.add(zeroChildren[node]);
+                if (oneChildren[node] != 0)
+                    stack.add(oneChildren[node]);
+            }
+        }
+    }
+
+    /**
+     * A growable list of ints
+     */
+    private static class IntList {
+        /**
+         * The values
+         */
+        private int[] values = new int[4];
+
+        /**
+         * The number of values
+         */
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(int[] others) {
+            for (int value : others) {
+                add(value);
+            }
+        }
+
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        int removeLast() {
+            return values[--size];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        /**
+         * @return the values, sorted and without duplicates
+         */
+        int[] toSortedSet() {
+            int[] sorted = toArray();
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (distinct == 0 || sorted[i] != sorted[distinct - 1])
+                    sorted[distinct++] = sorted[i];
+            }
+            return Arrays.copyOf(sorted, distinct);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Table
 import org.jdom2.Element;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -35,11 +36,24 @@ import java.util.List;
  * @author Francois-Xavier Aguessy
  */
 public class FirewallRulesTable implements Cloneable {
+    /**
+     * The minimum number of rules of a table for which the rules are compiled into a classifier.
+     * Smaller tables are scanned linearly.
+     */
+    public static final int CLASSIFIER_THRESHOLD = 16;
+
     /**
      * The list of firewall rules
      */
     private ArrayList<FirewallRule> ruleList = new ArrayList<FirewallRule>();
 
+    /**
+     * true if this table is a clone whose rules are still those of the table it was cloned from.
+     * They are copied before the first modification of the clone, so that a clone costs only a copy of its list
+     * until it is modified, while the original table keeps its rules.
+     */
+    private boolean ruleListShared = false;
+
 
     /**
      * The default action to take if no rule is matched
@@ -50,22 +64,78 @@ public class FirewallRulesTable implements Cloneable {
      */
     private boolean isInput;
 
+    /**
+     * The compiled rules, for the packet matching. It is built at the first packet after a change of the rules.
+     */
+    private volatile FirewallRuleClassifier classifier = null;
+
+    /**
+     * The index of the inclusions between the rules, for the conflict detection. It is built at the first
+     * conflict search after a change of the rules.
+     */
+    private volatile FirewallRuleInclusionIndex inclusionIndex = null;
+
+    /**
+     * The number of changes of the rules (incremented at each invalidation)
+     */
+    private volatile int modificationCount = 0;
+
     public FirewallRulesTable(boolean isInput) {
         this.isInput = isInput;
     }
 
     /**
+     * Get the list of rules, to modify it. If this table is a clone still sharing the rules of its original table,
+     * they are copied first. The rules can be read without copy with {@link #getRules()}.
+     *
      * @return the ruleList
      */
     public ArrayList<FirewallRule> getRuleList() {
+        if (ruleListShared) {
+            try {
+                for (int i = 0; i < ruleList.size(); i++) {
+                    ruleList.set(i, ruleList.get(i).clone());
+                }
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            ruleListShared = false;
+        }
         return ruleList;
     }
 
+    /**
+     * @return the rules of the table, not modifiable
+     */
+    public List<FirewallRule> getRules() {
+        return Collections.unmodifiableList(ruleList);
+    }
+
     /**
      * @param ruleList the ruleList to set
      */
     public void setRuleList(ArrayList<FirewallRule> ruleList) {
         this.ruleList = ruleList;
+        this.ruleListShared = false;
+        invalidate();
+    }
+
+    /**
+     * Invalidate the compiled rules. It must be called when the rule list or its rules are modified directly,
+     * else it is done by the methods of the firewall rule table.
+     */
+    public void invalidate() {
+        this.classifier = null;
+        this.inclusionIndex = null;
+        this.modificationCount++;
+    }
+
+    /**
+     * @return the number of changes of the rules, that can be compared to know if the rules have changed
+     * since a previous call
+     */
+    public int getModificationCount() {
+        return modificationCount;
     }
 
     /**
@@ -109,9 +179,24 @@ public class FirewallRulesTable implements Cloneable {
 
         FirewallRule rule = new FirewallRule(action, protocol, source, sourceMask, sourcePortRange, destination, destinationMask, destinationPortRange, table);
         this.getRuleList().add(rule);
+        invalidate();
         return rule;
     }
 
+    /**
+     * Remove a firewall rule from the firewall rule table
+     *
+     * @param rule the rule to remove
+     * @return true if the rule was in the table
+     */
+    public boolean removeFirewallRule(FirewallRule rule) {
+        int index = this.ruleList.indexOf(rule); //looked up before a copy of a shared list
+        if (index >= 0)
+            this.getRuleList().remove(index);
+        invalidate();
+        return index >= 0;
+    }
+
     /**
      * Test if a packet can pass according to the firewall rules
      *
@@ -143,8 +228,35 @@ public class FirewallRulesTable implements Cloneable {
     public boolean packetCanPass(Protocol protocol, IPAddress source, IPAddress sourceMask, PortRange sourcePortRange, IPAddress destination, IPAddress destinationMask, PortRange destinationPortRange) {
         if (source.equals(destination) && sourceMask.getMaskFromIPv4Address() == 32 && destinationMask.getMaskFromIPv4Address() == 32)
             return true;
-        for (int i = 0; i < getRuleList().size(); i++) {
-            FirewallRule rule = getRuleList().get(i);
+        if (ruleList.size() < CLASSIFIER_THRESHOLD)
+            return packetCanPassLinear(protocol, source, sourceMask, sourcePortRange, destination, destinationMask, destinationPortRange);
+
+        FirewallRuleClassifier classifier = this.classifier;
+        if (classifier == null || classifier.size() != ruleList.size()) {
+            classifier = new FirewallRuleClassifier(ruleList);
+            this.classifier = classifier;
+        }
+        Action action = classifier.classify(protocol, source, sourceMask, sourcePortRange, destination, destinationMask, destinationPortRange);
+        if (action != null)
+            return action == Action.ACCEPT;
+        return (this.getDefaultAction() == Action.ACCEPT);
+    }
+
+    /**
+     * Test if a packet can pass according to the firewall rules, testing the rules one by one (first match)
+     *
+     * @param protocol             the protocol used
+     * @param source               the source ip address
+     * @param sourceMask           the mask source
+     * @param sourcePortRange      the source port range
+     * @param destination          the destination ip address
+     * @param destinationMask      the destination mask
+     * @param destinationPortRange the destination port range
+     * @return true if the packet can pass the host, else false
+     */
+    boolean packetCanPassLinear(Protocol protocol, IPAddress source, IPAddress sourceMask, PortRange sourcePortRange, IPAddress destination, IPAddress destinationMask, PortRange destinationPortRange) {
+        for (int i = 0; i < ruleList.size(); i++) {
+            FirewallRule rule = ruleList.get(i);
             if (rule.getProtocol().contained(protocol)
                     && IPAddress.networkInOtherNetwork(source, sourceMask, rule.getSource(), rule.getSourceMask())
                     && IPAddress.networkInOtherNetwork(destination, destinationMask, rule.getDestination(), rule.getDestinationMask())
@@ -194,6 +306,7 @@ public class FirewallRulesTable implements Cloneable {
                 this.getRuleList().add(fwRule);
             }
         }
+        invalidate();
     }
 
     /**
@@ -211,8 +324,8 @@ public class FirewallRulesTable implements Cloneable {
         defaultElement.setText(this.getDefaultAction().toString().toUpperCase());
 
         //Firwall rules
-        for (int i = 0; i < this.getRuleList().size(); i++) {
-            FirewallRule rule = this.getRuleList().get(i);
+        for (int i = 0; i < this.ruleList.size(); i++) {
+            FirewallRule rule = this.ruleList.get(i);
             root.addContent(rule.toDomXMLElement());
         }
 
@@ -223,10 +336,10 @@ public class FirewallRulesTable implements Cloneable {
     public FirewallRulesTable clone() throws CloneNotSupportedException {
         FirewallRulesTable copie = (FirewallRulesTable) super.clone();
 
-        copie.setRuleList(new ArrayList<FirewallRule>(this.getRuleList()));
-        for (int i = 0; i < copie.getRuleList().size(); i++) {
-            copie.getRuleList().set(i, copie.getRuleList().get(i).clone());
-        }
+        //the rules (and their compiled classifier and index) are shared until the copy is modified,
+        //the original table is left untouched
+        copie.ruleList = new ArrayList<FirewallRule>(this.ruleList);
+        copie.ruleListShared = true;
 
         return copie;
     }
@@ -235,8 +348,8 @@ public class FirewallRulesTable implements Cloneable {
     public String toString() {
         String result = "";
         result += "FirewallRulesTable : defaultAction=" + getDefaultAction() + "\n";
-        for (int i = 0; i < getRuleList().size(); i++) {
-            result += "Rule " + i + " " + getRuleList().get(i) + "\n";
+        for (int i = 0; i < ruleList.size(); i++) {
+            result += "Rule " + i + " " + ruleList.get(i) + "\n";
         }
         return result;
     }
@@ -247,24 +360,104 @@ public class FirewallRulesTable implements Cloneable {
      */
     public List<FirewallRule> getConflictsFirewallRulesWith(FirewallRule rule) {
         List<FirewallRule> result = new ArrayList<FirewallRule>();
-
-        for (FirewallRule ruleToTest : this.ruleList) {
-            if (rule.includedIntoRule(ruleToTest)) {
-                //The action of these rules is different
-                if (rule.getAction() != ruleToTest.getAction())
-                    result.add(ruleToTest);
+        if (ruleList.size() < CLASSIFIER_THRESHOLD || !FirewallRuleInclusionIndex.isRegular(rule)) {
+            for (FirewallRule ruleToTest : this.ruleList) {
+                addConflict(rule, ruleToTest, result);
             }
-
-            if (ruleToTest.includedIntoRule(rule)) {
-                //The action of these rules is different
-                if (rule.getAction() != ruleToTest.getAction())
-                    result.add(ruleToTest);
+        } else {
+            //only the rules that may include the rule or be included into it are tested, in the order of the table
+            for (int position : getInclusionIndex().candidates(rule, true, true)) {
+                addConflict(rule, this.ruleList.get(position), result);
             }
+        }
+        return result;
+    }
+
+    /**
+     * Add a rule of the table to the conflicts of a rule, if one of the rules is included into the other
+     * with an other action (once for each direction of the inclusion)
+     *
+     * @param rule       a firewall rule
+     * @param ruleToTest a rule of the table
+     * @param result     the list of conflicting rules
+     */
+    private static void addConflict(FirewallRule rule, FirewallRule ruleToTest, List<FirewallRule> result) {
+        if (rule.includedIntoRule(ruleToTest)) {
+            //The action of these rules is different
+            if (rule.getAction() != ruleToTest.getAction())
+                result.add(ruleToTest);
+        }
+
+        if (ruleToTest.includedIntoRule(rule)) {
+            //The action of these rules is different
+            if (rule.getAction() != ruleToTest.getAction())
+                result.add(ruleToTest);
+        }
+    }
 
+    /**
+     * Analyse all the rules of the table, in one pass, to find the rules that are never applied because a previous
+     * rule (with action ACCEPT or DROP) matches all their packets : the rule is shadowed if the first of these previous
+     * rules has an other action, and redundant if it has the same action. A rule covered only by the union
+     * of several previous rules is not detected.
+     *
+     * @return the anomalies of the rules, in the order of the table
+     */
+    public List<FirewallRuleAnomaly> getRuleAnomalies() {
+        List<FirewallRuleAnomaly> result = new ArrayList<FirewallRuleAnomaly>();
+        FirewallRuleInclusionIndex index = ruleList.size() < CLASSIFIER_THRESHOLD ? null : getInclusionIndex();
+        for (int position = 0; position < ruleList.size(); position++) {
+            FirewallRule rule = ruleList.get(position);
+            if (rule.getAction() == Action.LOG)
+                continue;
+            int coveringPosition = -1;
+            if (index == null || !FirewallRuleInclusionIndex.isRegular(rule)) {
+                for (int candidate = 0; candidate < position && coveringPosition < 0; candidate++) {
+                    if (covers(ruleList.get(candidate), rule))
+                        coveringPosition = candidate;
+                }
+            } else {
+                for (int candidate : index.candidates(rule, true, false)) {
+                    if (candidate >= position)
+                        break;
+                    if (covers(ruleList.get(candidate), rule)) {
+                        coveringPosition = candidate;
+                        break;
+                    }
+                }
+            }
+            if (coveringPosition >= 0) {
+                FirewallRule coveringRule = ruleList.get(coveringPosition);
+                FirewallRuleAnomaly.AnomalyType type = coveringRule.getAction() == rule.getAction() ?
+                        FirewallRuleAnomaly.AnomalyType.REDUNDANT : FirewallRuleAnomaly.AnomalyType.SHADOWED;
+                result.add(new FirewallRuleAnomaly(type, rule, position, coveringRule, coveringPosition));
+            }
         }
         return result;
     }
 
+    /**
+     * @param coveringRule a rule of the table
+     * @param rule         a following rule of the table
+     * @return true if the covering rule decides of all the packets matched by the rule
+     */
+    private static boolean covers(FirewallRule coveringRule, FirewallRule rule) {
+        return coveringRule.getAction() != Action.LOG && coveringRule.getProtocol().contained(rule.getProtocol())
+                && rule.includedIntoRule(coveringRule);
+    }
+
+    /**
+     * @return the index of the inclusions between the rules, rebuilt if the rules have changed
+     */
+    private FirewallRuleInclusionIndex getInclusionIndex() {
+        FirewallRuleInclusionIndex index = this.inclusionIndex;
+        if (index == null || index.size() != ruleList.size()) {
+            index = new FirewallRuleInclusionIndex(ruleList);
+            this.inclusionIndex = index;
+        }
+        return index;
+    }
+
     /**
      * Test if a firewall rule has a conflict with this firewall rule table
      * @param rule the firewall rule to test
@@ -180,6 +180,8 @@ public class Interface implements Cloneable {
         this.vlan = vlan;
         vlan.addInterface(this);
         vlan.addHost(this.host);
+        if (this.host != null && this.host.getTopology() != null)
+            this.host.getTopology().invalidateRoutes();
     }
 
     /**
@@ -214,6 +216,11 @@ public class Interface implements Cloneable {
      * @return the directlyAccessibleInterface
      */
     public List<Interface> getDirectlyAccessibleInterface() {
+        if (this.host != null && this.host.getTopology() != null) {
+            List<Interface> indexed = this.host.getTopology().getAdjacencyIndex().getDirectlyAccessibleInterfaces(this);
+            if (indexed != null)
+                return indexed;
+        }
         List<Interface> result = new ArrayList<Interface>();
         for (int i = 0; i < this.vlan.getInterfaces().size(); i++) {
             Interface intface = this.vlan.getInterfaces().get(i);
@@ -312,10 +319,9 @@ public class Interface implements Cloneable {
 
     @Override
     public Interface clone() throws CloneNotSupportedException {
-        Interface copie = (Interface) super.clone();
-        copie.setAddress(this.getAddress().clone());
-        copie.setVlan(this.vlan.clone());
-        return copie;
+        //the address is immutable and shared, the copy stays in the vlan of this interface until it is
+        //replaced (by the clone of the topology), without being added to its lists
+        return (Interface) super.clone();
     }
 
     @Override
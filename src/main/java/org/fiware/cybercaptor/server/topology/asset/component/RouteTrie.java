@@ -0,0 +1,157 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.topology.asset.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary trie of the routes of a routing table, keyed by their destination prefix, for the longest prefix match
+ * of a destination ip address in at most 32 steps, whatever the number of routes.
+ * The routes whose mask is not a prefix (non contiguous mask) can not be stored in the trie : they are checked one by one,
+ * and their specificity is the number of bits of their mask.
+ * For routes with the same specificity, the first route of the routing table wins.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+class RouteTrie {
+    /**
+     * The routes of the routing table, when the trie was built
+     */
+    private final Route[] routes;
+
+    /**
+     * The child of each node for the bit 0 of the address (0 if none, the root is the node 0)
+     */
+    private int[] zeroChildren = new int[64];
+
+    /**
+     * The child of each node for the bit 1 of the address (0 if none, the root is the node 0)
+     */
+    private int[] oneChildren = new int[64];
+
+    /**
+     * The index of the route of each node (-1 if none)
+     */
+    private int[] nodeRoutes = new int[64];
+
+    /**
+     * The number of nodes
+     */
+    private int numberOfNodes = 1;
+
+    /**
+     * The index of the routes whose mask is not a prefix
+     */
+    private final int[] irregularRoutes;
+
+    /**
+     * Build the trie of routes
+     *
+     * @param routeList the routes of the routing table, in their order
+     */
+    RouteTrie(List<Route> routeList) {
+        this.routes = routeList.toArray(new Route[routeList.size()]);
+        Arrays.fill(nodeRoutes, -1);
+        List<Integer> irregular = new ArrayList<Integer>();
+        for (int i = 0; i < routes.length; i++) {
+            int mask = routes[i].getMask().toInt();
+            int prefixLength = Integer.bitCount(mask);
+            if (mask != (prefixLength == 0 ? 0 : -1 << (32 - prefixLength))) {
+                irregular.add(i);
+                continue;
+            }
+            int destination = routes[i].getDestination().toInt() & mask;
+            int node = 0;
+            for (int bit = 0; bit < prefixLength; bit++) {
+                boolean one = ((destination << bit) & 0x80000000) != 0;
+                int child = one ? oneChildren[node] : zeroChildren[node];
+                if (child == 0) {
+                    child = newNode();
+                    if (one)
+                        oneChildren[node] = child;
+                    else
+                        zeroChildren[node] = child;
+                }
+                node = child;
+            }
+            if (nodeRoutes[node] == -1)
+                nodeRoutes[node] = i;
+        }
+        this.irregularRoutes = new int[irregular.size()];
+        for (int i = 0; i < irregular.size(); i++) {
+            irregularRoutes[i] = irregular.get(i);
+        }
+    }
+
+    /**
+     * @return the index of a new node
+     */
+    private int newNode() {
+        if (numberOfNodes == nodeRoutes.length) {
+            zeroChildren = Arrays.copyOf(zeroChildren, numberOfNodes * 2);
+            oneChildren = Arrays.copyOf(oneChildren, numberOfNodes * 2);
+            nodeRoutes = Arrays.copyOf(nodeRoutes, numberOfNodes * 2);
+            Arrays.fill(nodeRoutes, numberOfNodes, numberOfNodes * 2, -1);
+        }
+        return numberOfNodes++;
+    }
+
+    /**
+     * Find the most specific route matching an ip address
+     *
+     * @param ip the 32 bits int of the destination ip address
+     * @return the most specific route, or null if no route matches the ip address
+     */
+    Route lookup(int ip) {
+        int best = nodeRoutes[0];
+        int bestLength = 0;
+        int node = 0;
+        for (int bit = 0; bit < 32; bit++) {
+            node = ((ip << bit) & 0x80000000) != 0 ? oneChildren[node] : zeroChildren[node];
+            if (node == 0)
+                break;
+            if (nodeRoutes[node] != -1) {
+                best = nodeRoutes[node];
+                bestLength = bit + 1;
+            }
+        }
+        for (int index : irregularRoutes) {
+            int mask = routes[index].getMask().toInt();
+            if ((ip & mask) == (routes[index].getDestination().toInt() & mask)) {
+                int length = Integer.bitCount(mask);
+                if (best == -1 || length > bestLength || (length == bestLength && index < best)) {
+                    best = index;
+                    bestLength = length;
+                }
+            }
+        }
+        return best == -1 ? null : routes[best];
+    }
+
+    /**
+     * @return the number of routes of the trie
+     */
+    int size() {
+        return routes.length;
+    }
+}
@@ -44,10 +44,22 @@ public class RoutingTable implements Cloneable {
      */
     private ArrayList<Route> routeList = new ArrayList<Route>();
 
+    /**
+     * The trie of the routes, for the next hop lookups. It is built at the first lookup after a change of the routes.
+     */
+    private volatile RouteTrie routeTrie = null;
+
     public RoutingTable(Host host) {
         this.relatedHost = host;
     }
 
+    /**
+     * @param relatedHost the host of this routing table
+     */
+    public void setRelatedHost(Host relatedHost) {
+        this.relatedHost = relatedHost;
+    }
+
     /**
      * @return the routeList
      */
@@ -60,6 +72,17 @@ public class RoutingTable implements Cloneable {
      */
     public void setRouteList(ArrayList<Route> routeList) {
         this.routeList = routeList;
+        invalidate();
+    }
+
+    /**
+     * Invalidate the trie of the routes and the routes cached by the topology. It must be called when the route list
+     * or its routes are modified directly, else it is done by the methods of the routing table.
+     */
+    public void invalidate() {
+        this.routeTrie = null;
+        if (this.relatedHost != null && this.relatedHost.getTopology() != null)
+            this.relatedHost.getTopology().invalidateRoutes();
     }
 
     /**
@@ -87,6 +110,7 @@ public class RoutingTable implements Cloneable {
                 this.getRouteList().add(route);
             }
         }
+        invalidate();
         return route;
     }
 
@@ -109,25 +133,26 @@ public class RoutingTable implements Cloneable {
         if (!this.relatedHost.getInterfaces().containsValue(intface)) {
             throw new Exception("this interface does not belongs to this host");
         }
-        return addRoute(new IPAddress("0.0.0.0"), new IPAddress("0.0.0.0"), gateway, intface);
+        return addRoute(IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), gateway, intface);
     }
 
     /**
+     * Get the next hop of an ip address, using the most specific route matching this address (longest prefix match)
+     *
      * @param ip the destination ip address
      * @return the next ip address according to the destination ip address and the routing table
      * @throws Exception
      */
     public IPAddress getNextHop(IPAddress ip) throws Exception {
-        int int_ip = ip.toInt();
-        for (int i = 0; i < getRouteList().size(); i++) {
-            Route route = getRouteList().get(i);
-            int int_destination = route.getDestination().toInt();
-            int int_mask = route.getMask().toInt();
-            if ((int_ip & int_mask) == (int_destination & int_mask)) {
-                return route.getGateway();
-            }
+        RouteTrie trie = this.routeTrie;
+        if (trie == null || trie.size() != getRouteList().size()) {
+            trie = new RouteTrie(getRouteList());
+            this.routeTrie = trie;
         }
-        throw new Exception("Missing default gateway for host " + relatedHost.getName());
+        Route route = trie.lookup(ip.toInt());
+        if (route == null)
+            throw new Exception("Missing default gateway for host " + relatedHost.getName());
+        return route.getGateway();
     }
 
     /**
@@ -149,16 +174,19 @@ public class RoutingTable implements Cloneable {
                 this.getRouteList().add(route);
             }
         }
+        invalidate();
     }
 
     @Override
     public RoutingTable clone() throws CloneNotSupportedException {
         RoutingTable copie = (RoutingTable) super.clone();
 
-        copie.setRouteList(new ArrayList<Route>(this.getRouteList()));
+        //the trie is reset without invalidating the routes of the topology of the original table
+        copie.routeList = new ArrayList<Route>(this.getRouteList());
         for (int i = 0; i < copie.getRouteList().size(); i++) {
             copie.getRouteList().set(i, copie.getRouteList().get(i).clone());
         }
+        copie.routeTrie = null;
 
         return copie;
     }
@@ -22,6 +22,7 @@
 package org.fiware.cybercaptor.server.vulnerability;
 
 import org.fiware.cybercaptor.server.database.Database;
+import org.fiware.cybercaptor.server.database.PreparedQueries;
 import org.fiware.cybercaptor.server.properties.ProjectProperties;
 
 import java.io.*;
@@ -61,6 +62,7 @@ public class CPE {
 
     /**
      * The entry point of application to populate the CPEs.
+     * The feeds are imported in bulk, or incrementally if the first argument is "incremental".
      *
      * @param args the input arguments
      */
@@ -72,7 +74,11 @@ public class CPE {
             try {
                 Database db = new Database(databaseFile.getAbsolutePath());
                 db.createDB();
-                populateCPECVEDatabase("./resources/CVE-CPE/", db.getConn());
+                CPECVEImporter.Mode mode = args.length > 0 && args[0].equals("incremental") ? CPECVEImporter.Mode.INCREMENTAL : CPECVEImporter.Mode.FULL;
+                CPECVEImporter importer = new CPECVEImporter(db.getConn());
+                importer.importFolder("./resources/CVE-CPE/", mode);
+                db.getConnectionPool().invalidateVulnerabilityCatalog();
+                System.out.println(importer);
                 CPE testCPE = new CPE("cpe:/a:microsoft:ie");
                 List<Vulnerability> vulnsTest = testCPE.getVulnerabilities(db.getConn());
                 for (Vulnerability aVulnsTest : vulnsTest) {
@@ -93,6 +99,7 @@ public class CPE {
      * CVE-1999-0001:5.0:cpe:/o:openbsd:openbsd:2.4
      * CVE-1999-0001:5.0:cpe:/o:freebsd:freebsd:2.2.6
      * ...
+     * The relations are added one by one, see {@link CPECVEImporter} to import large feeds.
      *
      * @param pathToCVECPEFolder the folder in which all CPE/CVE files are located
      * @param conn               the database connection
@@ -140,7 +147,7 @@ public class CPE {
     public List<Vulnerability> getVulnerabilities(Connection conn) throws Exception {
         List<Vulnerability> result = new ArrayList<Vulnerability>();
         if (this.inDatabase(conn)) {
-            PreparedStatement pstmt = conn.prepareStatement("SELECT id_vulnerability FROM cpe_vulnerability WHERE id_cpe = ?");
+            PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITIES_OF_CPE);
             pstmt.setInt(1, id);
             pstmt.execute();
             ResultSet res = pstmt.getResultSet();
@@ -148,10 +155,22 @@ public class CPE {
                 Vulnerability vulnerability = new Vulnerability(conn, res.getInt(1));
                 result.add(vulnerability);
             }
+            res.close();
         }
         return result;
     }
 
+    /**
+     * Get all vulnerabilities related to this cpe in the in-memory catalog of the database
+     *
+     * @param catalog the vulnerability catalog
+     * @return a list of vulnerabilities related to this CPE
+     * @throws SQLException if the CPE index of the catalog can not be loaded
+     */
+    public List<Vulnerability> getVulnerabilities(VulnerabilityCatalog catalog) throws SQLException {
+        return catalog.getVulnerabilitiesOfCPE(cpe_id);
+    }
+
     /**
      * Find whether or not the CPE is in the database
      *
@@ -160,7 +179,7 @@ public class CPE {
      * @throws java.sql.SQLException the sQL exception
      */
     public boolean inDatabase(Connection conn) throws SQLException {
-        PreparedStatement pstmt = conn.prepareStatement("SELECT id,cpe_id FROM cpe WHERE cpe_id LIKE ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.CPE_BY_NAME);
         pstmt.setString(1, this.cpe_id);
         pstmt.execute();
         ResultSet res = pstmt.getResultSet();
@@ -169,7 +188,6 @@ public class CPE {
             //We get the id of this CPE
             id = res.getInt(1);
         }
-        pstmt.close();
         res.close();
         return result;
     }
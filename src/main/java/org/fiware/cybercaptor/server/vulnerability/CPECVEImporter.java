@@ -0,0 +1,638 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.vulnerability;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk importer of the NVD CVE/CPE feeds (files nvdcve-2.0-YYYY.csv) into the vulnerability database.
+ * The feeds are streamed, the CVEs and CPEs are deduplicated in memory, and the rows are inserted with batches
+ * inside large transactions.
+ * <ul>
+ * <li>In {@link Mode#FULL} mode, the relations of the feeds are added to the database (as with
+ * {@link CPE#populateCPECVEDatabase}). The indexes of the cpe_vulnerability table are dropped during
+ * the import, then the duplicated relations are removed and the indexes are created again.</li>
+ * <li>In {@link Mode#INCREMENTAL} mode, the CPEs of each CVE of the feeds are compared with the ones
+ * of the database, and only the CVEs whose CPEs changed are updated.</li>
+ * </ul>
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class CPECVEImporter {
+    /**
+     * The import modes
+     */
+    public enum Mode {
+        FULL, INCREMENTAL
+    }
+
+    /**
+     * The format of the lines of the feeds : CVE-1999-0001:5.0:cpe:/o:openbsd:openbsd:2.4
+     */
+    public static final Pattern LINE_PATTERN = Pattern.compile("^(CVE-\\d{4}-\\d+):[\\d\\.]+:(cpe:/[\\w\\-\\.:%]+)$");
+
+    /**
+     * The number of rows sent to the database in one batch
+     */
+    public static final int BATCH_SIZE = 10000;
+
+    /**
+     * The number of rows inserted or deleted in one transaction
+     */
+    public static final int TRANSACTION_SIZE = 200000;
+
+    /**
+     * The number of lines between two progress reports
+     */
+    public static final int PROGRESS_INTERVAL = 100000;
+
+    /**
+     * The database connection (allowed to write)
+     */
+    private final Connection conn;
+
+    /**
+     * The id of the vulnerabilities, indexed by their CVE (in upper case)
+     */
+    private final HashMap<String, Integer> vulnerabilityIds = new HashMap<String, Integer>();
+
+    /**
+     * The id of the CPEs, indexed by their name (in lower case)
+     */
+    private final HashMap<String, Integer> cpeIds = new HashMap<String, Integer>();
+
+    /**
+     * The next id of a new vulnerability
+     */
+    private int nextVulnerabilityId;
+
+    /**
+     * The next id of a new CPE
+     */
+    private int nextCPEId;
+
+    /**
+     * The statement inserting a vulnerability
+     */
+    private PreparedStatement insertVulnerability;
+
+    /**
+     * The statement inserting a CPE
+     */
+    private PreparedStatement insertCPE;
+
+    /**
+     * The statement inserting a relation between a CPE and a vulnerability
+     */
+    private PreparedStatement insertRelation;
+
+    /**
+     * The statement deleting a relation between a CPE and a vulnerability
+     */
+    private PreparedStatement deleteRelation;
+
+    /**
+     * The number of rows in the current batches
+     */
+    private int rowsInBatches = 0;
+
+    /**
+     * The number of rows in the current transaction
+     */
+    private int rowsInTransaction = 0;
+
+    /**
+     * The number of lines read
+     */
+    private long lines = 0;
+
+    /**
+     * The number of vulnerabilities added to the database
+     */
+    private long addedVulnerabilities = 0;
+
+    /**
+     * The number of CPEs added to the database
+     */
+    private long addedCPEs = 0;
+
+    /**
+     * The number of relations between CPEs and vulnerabilities added to the database
+     */
+    private long addedRelations = 0;
+
+    /**
+     * The number of relations between CPEs and vulnerabilities deleted from the database
+     */
+    private long deletedRelations = 0;
+
+    /**
+     * The number of CVEs whose CPEs did not change (incremental mode)
+     */
+    private long unchangedCVEs = 0;
+
+    /**
+     * The number of CVEs whose CPEs changed (incremental mode)
+     */
+    private long changedCVEs = 0;
+
+    /**
+     * The duration of the import, in milliseconds
+     */
+    private long duration = 0;
+
+    /**
+     * Create an importer
+     *
+     * @param conn the database connection (allowed to write)
+     */
+    public CPECVEImporter(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Import all the nvdcve-2.0-YYYY.csv files of a folder
+     *
+     * @param pathToCVECPEFolder the folder in which all CPE/CVE files are located
+     * @param mode               the import mode
+     * @throws Exception
+     */
+    public void importFolder(String pathToCVECPEFolder, Mode mode) throws Exception {
+        File[] files = new File(pathToCVECPEFolder).listFiles();
+        List<File> feeds = new ArrayList<File>();
+        for (File file : files != null ? files : new File[0]) {
+            if (file.getName().endsWith(".csv"))
+                feeds.add(file);
+        }
+        importFeeds(feeds, mode);
+    }
+
+    /**
+     * Import CVE/CPE feeds
+     *
+     * @param feeds the feed files
+     * @param mode  the import mode
+     * @throws Exception
+     */
+    public void importFeeds(List<File> feeds, Mode mode) throws Exception {
+        long start = System.currentTimeMillis();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            loadExistingIds();
+            insertVulnerability = conn.prepareStatement("INSERT INTO vulnerability(id,cve,description,cvss_id) VALUES(?,?,'',0)");
+            insertCPE = conn.prepareStatement("INSERT INTO cpe(id,cpe_id) VALUES(?,?)");
+            if (mode == Mode.FULL) {
+                executeUpdate("DROP INDEX IF EXISTS index_cpe_vulnerability");
+                executeUpdate("DROP INDEX IF EXISTS index_cpe_vulnerability_id_vulnerability");
+                insertRelation = conn.prepareStatement("INSERT INTO cpe_vulnerability(id_cpe,id_vulnerability) VALUES(?,?)");
+                for (File feed : feeds) {
+                    importFeedFull(feed);
+                }
+                executeBatches();
+                Logger.getAnonymousLogger().log(Level.INFO, "Remove the duplicated relations and create the index of the CPE/CVE relations");
+                executeUpdate("DELETE FROM cpe_vulnerability WHERE rowid NOT IN (SELECT MIN(rowid) FROM cpe_vulnerability GROUP BY id_cpe, id_vulnerability)");
+                createRelationIndexes();
+            } else {
+                insertRelation = conn.prepareStatement("INSERT OR IGNORE INTO cpe_vulnerability(id_cpe,id_vulnerability) VALUES(?,?)");
+                deleteRelation = conn.prepareStatement("DELETE FROM cpe_vulnerability WHERE id_cpe = ? AND id_vulnerability = ?");
+                for (File feed : feeds) {
+                    importFeedIncremental(feed);
+                }
+                executeBatches();
+            }
+            conn.commit();
+        } catch (Exception e) {
+            conn.rollback();
+            if (mode == Mode.FULL)
+                restoreRelationIndexes();
+            throw e;
+        } finally {
+            closeStatements();
+            conn.setAutoCommit(autoCommit);
+            duration = System.currentTimeMillis() - start;
+        }
+        Logger.getAnonymousLogger().log(Level.INFO, "CPE/CVE import done : " + this);
+    }
+
+    /**
+     * Import a feed, adding all its relations
+     *
+     * @param feed the feed file
+     * @throws Exception
+     */
+    private void importFeedFull(File feed) throws Exception {
+        long start = System.currentTimeMillis();
+        long linesOfFeed = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(feed), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                linesOfFeed++;
+                reportProgress(feed, linesOfFeed, start);
+                Matcher matcher = LINE_PATTERN.matcher(line);
+                if (matcher.matches()) {
+                    addRelation(getOrCreateCPEId(matcher.group(2)), getOrCreateVulnerabilityId(matcher.group(1)));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        reportFeed(feed, linesOfFeed, start);
+    }
+
+    /**
+     * Import a feed, updating only the CVEs whose CPEs changed
+     *
+     * @param feed the feed file
+     * @throws Exception
+     */
+    private void importFeedIncremental(File feed) throws Exception {
+        long start = System.currentTimeMillis();
+        long linesOfFeed = 0;
+        //The CPEs of each CVE of the feed
+        LinkedHashMap<String, LinkedHashSet<String>> cpesByCVE = new LinkedHashMap<String, LinkedHashSet<String>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(feed), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                linesOfFeed++;
+                reportProgress(feed, linesOfFeed, start);
+                Matcher matcher = LINE_PATTERN.matcher(line);
+                if (matcher.matches()) {
+                    String cve = matcher.group(1).toUpperCase(Locale.ENGLISH);
+                    LinkedHashSet<String> cpes = cpesByCVE.get(cve);
+                    if (cpes == null) {
+                        cpes = new LinkedHashSet<String>();
+                        cpesByCVE.put(cve, cpes);
+                    }
+                    cpes.add(matcher.group(2));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        //The current relations of the CVEs of the feed that are already in the database
+        List<Integer> existingVulnerabilityIds = new ArrayList<Integer>();
+        for (String cve : cpesByCVE.keySet()) {
+            Integer vulnerabilityId = vulnerabilityIds.get(cve);
+            if (vulnerabilityId != null)
+                existingVulnerabilityIds.add(vulnerabilityId);
+        }
+        HashMap<Integer, Set<Integer>> currentCPEs = loadRelations(existingVulnerabilityIds);
+
+        for (Map.Entry<String, LinkedHashSet<String>> entry : cpesByCVE.entrySet()) {
+            int vulnerabilityId = getOrCreateVulnerabilityId(entry.getKey());
+            Set<Integer> cpes = new LinkedHashSet<Integer>();
+            for (String cpe : entry.getValue()) {
+                cpes.add(getOrCreateCPEId(cpe));
+            }
+            Set<Integer> current = currentCPEs.get(vulnerabilityId);
+            if (current == null)
+                current = new HashSet<Integer>();
+            if (current.equals(cpes)) {
+                unchangedCVEs++;
+                continue;
+            }
+            changedCVEs++;
+            for (Integer cpeId : cpes) {
+                if (!current.contains(cpeId))
+                    addRelation(cpeId, vulnerabilityId);
+            }
+            for (Integer cpeId : current) {
+                if (!cpes.contains(cpeId))
+                    removeRelation(cpeId, vulnerabilityId);
+            }
+        }
+        reportFeed(feed, linesOfFeed, start);
+    }
+
+    /**
+     * Load the ids of the vulnerabilities and CPEs already in the database
+     *
+     * @throws SQLException
+     */
+    private void loadExistingIds() throws SQLException {
+        vulnerabilityIds.clear();
+        cpeIds.clear();
+        nextVulnerabilityId = 1;
+        nextCPEId = 1;
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet res = stmt.executeQuery("SELECT id, cve FROM vulnerability ORDER BY id");
+            while (res.next()) {
+                if (res.getString(2) != null && !vulnerabilityIds.containsKey(res.getString(2).toUpperCase(Locale.ENGLISH)))
+                    vulnerabilityIds.put(res.getString(2).toUpperCase(Locale.ENGLISH), res.getInt(1));
+                nextVulnerabilityId = Math.max(nextVulnerabilityId, res.getInt(1) + 1);
+            }
+            res.close();
+            res = stmt.executeQuery("SELECT id, cpe_id FROM cpe ORDER BY id");
+            while (res.next()) {
+                if (res.getString(2) != null && !cpeIds.containsKey(res.getString(2).toLowerCase(Locale.ENGLISH)))
+                    cpeIds.put(res.getString(2).toLowerCase(Locale.ENGLISH), res.getInt(1));
+                nextCPEId = Math.max(nextCPEId, res.getInt(1) + 1);
+            }
+            res.close();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Load the CPEs of vulnerabilities
+     *
+     * @param vulnerabilityIdList the id of the vulnerabilities
+     * @return the id of the CPEs, indexed by the id of the vulnerability
+     * @throws SQLException
+     */
+    private HashMap<Integer, Set<Integer>> loadRelations(List<Integer> vulnerabilityIdList) throws SQLException {
+        HashMap<Integer, Set<Integer>> result = new HashMap<Integer, Set<Integer>>();
+        for (int start = 0; start < vulnerabilityIdList.size(); start += Vulnerability.MAXIMUM_BATCH_SIZE) {
+            List<Integer> batch = vulnerabilityIdList.subList(start, Math.min(start + Vulnerability.MAXIMUM_BATCH_SIZE, vulnerabilityIdList.size()));
+            char[] parameters = new char[batch.size() * 2 - 1];
+            Arrays.fill(parameters, ',');
+            for (int i = 0; i < parameters.length; i += 2) {
+                parameters[i] = '?';
+            }
+            PreparedStatement pstmt = conn.prepareStatement("SELECT id_vulnerability, id_cpe FROM cpe_vulnerability WHERE id_vulnerability IN (" + new String(parameters) + ")");
+            for (int i = 0; i < batch.size(); i++) {
+                pstmt.setInt(i + 1, batch.get(i));
+            }
+            ResultSet res = pstmt.executeQuery();
+            while (res.next()) {
+                Set<Integer> cpes = result.get(res.getInt(1));
+                if (cpes == null) {
+                    cpes = new HashSet<Integer>();
+                    result.put(res.getInt(1), cpes);
+                }
+                cpes.add(res.getInt(2));
+            }
+            res.close();
+            pstmt.close();
+        }
+        return result;
+    }
+
+    /**
+     * Get the id of a vulnerability, adding it to the database if needed
+     *
+     * @param cve the CVE of the vulnerability
+     * @return the id of the vulnerability
+     * @throws SQLException
+     */
+    private int getOrCreateVulnerabilityId(String cve) throws SQLException {
+        String key = cve.toUpperCase(Locale.ENGLISH);
+        Integer id = vulnerabilityIds.get(key);
+        if (id == null) {
+            id = nextVulnerabilityId++;
+            vulnerabilityIds.put(key, id);
+            insertVulnerability.setInt(1, id);
+            insertVulnerability.setString(2, cve);
+            insertVulnerability.addBatch();
+            addedVulnerabilities++;
+            rowAdded();
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a CPE, adding it to the database if needed
+     *
+     * @param cpe the name of the CPE
+     * @return the id of the CPE
+     * @throws SQLException
+     */
+    private int getOrCreateCPEId(String cpe) throws SQLException {
+        String key = cpe.toLowerCase(Locale.ENGLISH);
+        Integer id = cpeIds.get(key);
+        if (id == null) {
+            id = nextCPEId++;
+            cpeIds.put(key, id);
+            insertCPE.setInt(1, id);
+            insertCPE.setString(2, cpe);
+            insertCPE.addBatch();
+            addedCPEs++;
+            rowAdded();
+        }
+        return id;
+    }
+
+    /**
+     * Add a relation between a CPE and a vulnerability
+     *
+     * @param cpeId           the id of the CPE
+     * @param vulnerabilityId the id of the vulnerability
+     * @throws SQLException
+     */
+    private void addRelation(int cpeId, int vulnerabilityId) throws SQLException {
+        insertRelation.setInt(1, cpeId);
+        insertRelation.setInt(2, vulnerabilityId);
+        insertRelation.addBatch();
+        addedRelations++;
+        rowAdded();
+    }
+
+    /**
+     * Remove a relation between a CPE and a vulnerability
+     *
+     * @param cpeId           the id of the CPE
+     * @param vulnerabilityId the id of the vulnerability
+     * @throws SQLException
+     */
+    private void removeRelation(int cpeId, int vulnerabilityId) throws SQLException {
+        deleteRelation.setInt(1, cpeId);
+        deleteRelation.setInt(2, vulnerabilityId);
+        deleteRelation.addBatch();
+        deletedRelations++;
+        rowAdded();
+    }
+
+    /**
+     * Execute the batches when they are full, and commit the transaction when it is large enough
+     *
+     * @throws SQLException
+     */
+    private void rowAdded() throws SQLException {
+        rowsInBatches++;
+        if (rowsInBatches >= BATCH_SIZE)
+            executeBatches();
+    }
+
+    /**
+     * Execute the pending batches. The vulnerabilities and CPEs are inserted before their relations.
+     *
+     * @throws SQLException
+     */
+    private void executeBatches() throws SQLException {
+        insertVulnerability.executeBatch();
+        insertCPE.executeBatch();
+        insertRelation.executeBatch();
+        if (deleteRelation != null)
+            deleteRelation.executeBatch();
+        rowsInTransaction += rowsInBatches;
+        rowsInBatches = 0;
+        if (rowsInTransaction >= TRANSACTION_SIZE) {
+            conn.commit();
+            rowsInTransaction = 0;
+        }
+    }
+
+    /**
+     * Execute an update query
+     *
+     * @param query the query
+     * @throws SQLException
+     */
+    private void executeUpdate(String query) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.executeUpdate(query);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Create the indexes of the CPE/CVE relations, dropped during a full import
+     *
+     * @throws SQLException
+     */
+    private void createRelationIndexes() throws SQLException {
+        executeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS index_cpe_vulnerability ON cpe_vulnerability (id_cpe ASC, id_vulnerability ASC)");
+        executeUpdate("CREATE INDEX IF NOT EXISTS index_cpe_vulnerability_id_vulnerability ON cpe_vulnerability (id_vulnerability ASC, id_cpe ASC)");
+    }
+
+    /**
+     * Create again the indexes of the CPE/CVE relations after the rollback of a failed full import,
+     * in their own transaction (the error is only logged, so that the error of the import is reported)
+     */
+    private void restoreRelationIndexes() {
+        try {
+            closeStatements();
+            createRelationIndexes();
+            conn.commit();
+        } catch (SQLException e) {
+            Logger.getAnonymousLogger().log(Level.WARNING, "The indexes of the CPE/CVE relations could not be restored", e);
+        }
+    }
+
+    /**
+     * Close the prepared statements
+     *
+     * @throws SQLException
+     */
+    private void closeStatements() throws SQLException {
+        for (PreparedStatement statement : new PreparedStatement[]{insertVulnerability, insertCPE, insertRelation, deleteRelation}) {
+            if (statement != null)
+                statement.close();
+        }
+        insertVulnerability = null;
+        insertCPE = null;
+        insertRelation = null;
+        deleteRelation = null;
+    }
+
+    /**
+     * Report the progress of the import of a feed
+     *
+     * @param feed        the feed file
+     * @param linesOfFeed the number of lines of the feed already read
+     * @param start       the start time of the import of the feed
+     */
+    private void reportProgress(File feed, long linesOfFeed, long start) {
+        lines++;
+        if (linesOfFeed % PROGRESS_INTERVAL == 0) {
+            Logger.getAnonymousLogger().log(Level.INFO, feed.getName() + " : " + linesOfFeed + " lines read (" + throughput(linesOfFeed, start) + " lines/s)");
+        }
+    }
+
+    /**
+     * Report the end of the import of a feed
+     *
+     * @param feed        the feed file
+     * @param linesOfFeed the number of lines of the feed
+     * @param start       the start time of the import of the feed
+     */
+    private void reportFeed(File feed, long linesOfFeed, long start) {
+        Logger.getAnonymousLogger().log(Level.INFO, feed.getName() + " imported : " + linesOfFeed + " lines in " + (System.currentTimeMillis() - start) + " ms (" + throughput(linesOfFeed, start) + " lines/s)");
+    }
+
+    /**
+     * @param number the number of processed elements
+     * @param start  the start time
+     * @return the number of processed elements per second
+     */
+    private static long throughput(long number, long start) {
+        return number * 1000 / Math.max(1, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @return the number of relations between CPEs and vulnerabilities added to the database
+     */
+    public long getAddedRelations() {
+        return addedRelations;
+    }
+
+    /**
+     * @return the number of relations between CPEs and vulnerabilities deleted from the database
+     */
+    public long getDeletedRelations() {
+        return deletedRelations;
+    }
+
+    /**
+     * @return the number of CVEs whose CPEs changed (incremental mode)
+     */
+    public long getChangedCVEs() {
+        return changedCVEs;
+    }
+
+    @Override
+    public String toString() {
+        return lines + " lines in " + duration + " ms (" + lines * 1000 / Math.max(1, duration) + " lines/s), "
+                + addedVulnerabilities + " vulnerabilities added, " + addedCPEs + " CPEs added, "
+                + addedRelations + " relations added, " + deletedRelations + " relations deleted, "
+                + changedCVEs + " CVEs changed, " + unchangedCVEs + " CVEs unchanged";
+    }
+}
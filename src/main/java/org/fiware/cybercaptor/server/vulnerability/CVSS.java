@@ -20,6 +20,8 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.vulnerability;
 
+import org.fiware.cybercaptor.server.database.PreparedQueries;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -82,6 +84,22 @@ public class CVSS {
         loadFromDatabase(id_cvss, conn);
     }
 
+    /**
+     * Create a copy of a cvss
+     *
+     * @param cvss the cvss to copy
+     */
+    public CVSS(CVSS cvss) {
+        this.id = cvss.id;
+        this.score = cvss.score;
+        this.accessVector = cvss.accessVector;
+        this.accessComplexity = cvss.accessComplexity;
+        this.authentication = cvss.authentication;
+        this.confidentialityImpact = cvss.confidentialityImpact;
+        this.integrityImpact = cvss.integrityImpact;
+        this.availabilityImpact = cvss.availabilityImpact;
+    }
+
     /**
      * Gets id.
      *
@@ -238,27 +256,38 @@ public class CVSS {
         if (id_cvss <= 0) {
             return false;
         }
-        PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM cvss WHERE id = ?");
+        PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.CVSS_BY_ID);
         pstmt.setInt(1, id_cvss);
         pstmt.execute();
         ResultSet res = pstmt.getResultSet();
         if (res.next()) {
-            setId(res.getInt(1));
-            setScore(res.getDouble(2));
-            setAccessVector(AccessVectorValues.fromString(res.getString(3)));
-            setAccessComplexity(AccessComplexityValues.fromString(res.getString(4)));
-            setAuthentication(AuthenticationValues.fromString(res.getString(5)));
-            setConfidentialityImpact(ImpactValues.fromString(res.getString(6)));
-            setIntegrityImpact(ImpactValues.fromString(res.getString(7)));
-            setAvailabilityImpact(ImpactValues.fromString(res.getString(8)));
+            loadFromResultSet(res);
             res.close();
             return true;
 
         } else {
+            res.close();
             return false;
         }
     }
 
+    /**
+     * Load the cvss from the current row of a result set containing all the columns of the cvss table, in their order
+     *
+     * @param res the result set
+     * @throws java.sql.SQLException the sQL exception
+     */
+    void loadFromResultSet(ResultSet res) throws SQLException {
+        setId(res.getInt(1));
+        setScore(res.getDouble(2));
+        setAccessVector(AccessVectorValues.fromString(res.getString(3)));
+        setAccessComplexity(AccessComplexityValues.fromString(res.getString(4)));
+        setAuthentication(AuthenticationValues.fromString(res.getString(5)));
+        setConfidentialityImpact(ImpactValues.fromString(res.getString(6)));
+        setIntegrityImpact(ImpactValues.fromString(res.getString(7)));
+        setAvailabilityImpact(ImpactValues.fromString(res.getString(8)));
+    }
+
     /**
      * Add the cvss to the database
      *
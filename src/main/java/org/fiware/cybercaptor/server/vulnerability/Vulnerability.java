@@ -20,6 +20,9 @@
  ****************************************************************************************/
 package org.fiware.cybercaptor.server.vulnerability;
 
+import org.fiware.cybercaptor.server.database.Database;
+import org.fiware.cybercaptor.server.database.PooledConnection;
+import org.fiware.cybercaptor.server.database.PreparedQueries;
 import org.fiware.cybercaptor.server.remediation.Patch;
 import org.fiware.cybercaptor.server.remediation.Rule;
 
@@ -28,7 +31,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +53,11 @@ public class Vulnerability {
 	 * The pattern of a CVE id
 	 */
 	public final static Pattern PATTERN = Pattern.compile("^[a-zA-Z]{1,5}-\\d{4}-\\d+$");
+
+	/**
+	 * The maximum number of values in the IN lists of the batched queries (sqlite allows at most 999 parameters)
+	 */
+	public final static int MAXIMUM_BATCH_SIZE = 500;
 	
 	/**
 	 * The id of the vulnerability in the database
@@ -138,7 +153,7 @@ public class Vulnerability {
 	 * @throws Exception
 	 */
 	public static int getIdVulnerabilityFromCVE(String cve, Connection conn) throws Exception{
-		PreparedStatement pstmt = conn.prepareStatement("SELECT id FROM vulnerability WHERE cve LIKE ?");
+		PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITY_ID_BY_CVE);
 		pstmt.setString(1,cve);
 		pstmt.execute();
 		ResultSet res = pstmt.getResultSet();
@@ -160,7 +175,7 @@ public class Vulnerability {
 	public List<Rule> getRules(Connection conn) throws SQLException {
 		List<Rule> result = new ArrayList<Rule>();
 		if(this.inDatabase(conn)) {
-			PreparedStatement pstmt = conn.prepareStatement("SELECT id_rule FROM rules_vulnerability WHERE id_vulnerability = ?");
+			PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.RULES_OF_VULNERABILITY);
 			pstmt.setInt(1,id);
 			pstmt.execute();
 			ResultSet res = pstmt.getResultSet();
@@ -168,6 +183,7 @@ public class Vulnerability {
 				Rule rule = new Rule(conn, res.getInt(1));
 				result.add(rule);
 			}
+			res.close();
 		}
 		return result;
 	}
@@ -181,7 +197,7 @@ public class Vulnerability {
 	public List<Patch> getPatchs(Connection conn) throws SQLException {
 		List<Patch> result = new ArrayList<Patch>();
 		if(this.inDatabase(conn)) {
-			PreparedStatement pstmt = conn.prepareStatement("SELECT id_patch FROM patchs_vulnerability WHERE id_vulnerability = ?");
+			PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.PATCHS_OF_VULNERABILITY);
 			pstmt.setInt(1,id);
 			pstmt.execute();
 			ResultSet res = pstmt.getResultSet();
@@ -189,6 +205,7 @@ public class Vulnerability {
 				Patch patch = new Patch(conn, res.getInt(1));
 				result.add(patch);
 			}
+			res.close();
 		}
 		return result;
 	}
@@ -200,7 +217,7 @@ public class Vulnerability {
 	 * @throws java.sql.SQLException
 	 */
 	public boolean inDatabase(Connection conn) throws SQLException {
-		PreparedStatement pstmt = conn.prepareStatement("SELECT id,cve,description,cvss_id FROM vulnerability WHERE cve LIKE ?");
+		PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITY_BY_CVE);
 		pstmt.setString(1,cve);
 		pstmt.execute();
 		ResultSet res = pstmt.getResultSet();
@@ -208,7 +225,8 @@ public class Vulnerability {
 		if(result) { //This CVE is already in the DB
 			//We get the id of this vulnerability and update the description
 			id = res.getInt(1);
-			if((!description.isEmpty() && !description.equals(res.getString(3))) || cvss.getId() != res.getInt(4)) {
+			//The object is not updated through a read-only connection of the pool
+			if(!conn.isReadOnly() && ((!description.isEmpty() && !description.equals(res.getString(3))) || cvss.getId() != res.getInt(4))) {
 				res.close();
 				PreparedStatement pstmt2 = conn.prepareStatement("UPDATE vulnerability SET description = ?, cvss_id = ? WHERE id = ?");
 				pstmt2.setString(1,description);
@@ -218,7 +236,6 @@ public class Vulnerability {
 				pstmt2.close();
 			}
 		}
-		pstmt.close();
 		res.close();
 		return result;
 	}
@@ -288,7 +305,7 @@ public class Vulnerability {
 		if(id_vulnerability <= 0) {
 			return false;
 		}
-		PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM vulnerability WHERE id = ?");
+		PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITY_BY_ID);
 		pstmt.setInt(1,id_vulnerability);
 		pstmt.execute();
 		ResultSet res = pstmt.getResultSet();
@@ -297,13 +314,14 @@ public class Vulnerability {
 			cve = res.getString(2);
 			description = res.getString(3);
 			int id_cvss = res.getInt(4);
+			res.close();
 			if(id_cvss > 0)
 				cvss.loadFromDatabase(id_cvss, conn);
-			res.close();
 			return true;
 
 		}
 		else {
+			res.close();
 			return false;
 		}
 	}
@@ -316,7 +334,7 @@ public class Vulnerability {
 		if(cve.isEmpty() || cve.equals("")) {
 			return;
 		}
-		PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM vulnerability WHERE cve LIKE ?");
+		PreparedStatement pstmt = PreparedQueries.prepare(conn, PreparedQueries.VULNERABILITY_BY_CVE);
 		pstmt.setString(1,cve);
 		pstmt.execute();
 		ResultSet res = pstmt.getResultSet();
@@ -324,13 +342,152 @@ public class Vulnerability {
 			id = res.getInt(1);
 			description = res.getString(3);
 			int id_cvss = res.getInt(4);
+			res.close();
 			if(id_cvss > 0)
 				cvss.loadFromDatabase(id_cvss, conn);
+		}
+		else {
 			res.close();
-
 		}
 	}
 	
+	/**
+	 * Load all the parameters : id, cvss... (except the CVE) from the in-memory catalog of the database, with the cve identifier
+	 * @param catalog the vulnerability catalog
+	 */
+	public void loadParametersFromCatalog(VulnerabilityCatalog catalog) {
+		if(cve.isEmpty()) {
+			return;
+		}
+		Vulnerability vulnerability = catalog.getVulnerability(cve);
+		if(vulnerability != null) {
+			id = vulnerability.id;
+			description = vulnerability.description;
+			if(vulnerability.cvss.getId() > 0)
+				cvss = vulnerability.cvss;
+		}
+	}
+
+	/**
+	 * Load all the parameters : id, cvss... (except the CVE) of a set of vulnerabilities at once, with their cve identifier.
+	 * The vulnerability catalog is used if it is already loaded and up to date, else the vulnerabilities are resolved
+	 * with a few batched queries, instead of one query per vulnerability.
+	 * @param vulnerabilities the vulnerabilities to load
+	 * @param db the vulnerability database
+	 * @throws java.sql.SQLException
+	 */
+	public static void loadParametersFromDatabase(Collection<Vulnerability> vulnerabilities, Database db) throws SQLException {
+		VulnerabilityCatalog catalog = db.getLoadedVulnerabilityCatalog();
+		if(catalog != null) {
+			for(Vulnerability vulnerability : vulnerabilities) {
+				vulnerability.loadParametersFromCatalog(catalog);
+			}
+			return;
+		}
+		PooledConnection connection = db.acquireReadConnection();
+		try {
+			loadParametersFromDatabase(vulnerabilities, connection.getConnection());
+		} finally {
+			connection.release();
+		}
+	}
+
+	/**
+	 * Load all the parameters : id, cvss... (except the CVE) of a set of vulnerabilities at once, with their cve identifier,
+	 * using IN lists of at most {@link #MAXIMUM_BATCH_SIZE} values. The CVEs are matched case-insensitively,
+	 * as with {@link PreparedQueries#VULNERABILITY_BY_CVE}, so that the case-insensitive index of the CVEs is used.
+	 * @param vulnerabilities the vulnerabilities to load
+	 * @param conn the database connection
+	 * @throws java.sql.SQLException
+	 */
+	public static void loadParametersFromDatabase(Collection<Vulnerability> vulnerabilities, Connection conn) throws SQLException {
+		//The vulnerabilities to load, indexed by their CVE in upper case
+		HashMap<String, List<Vulnerability>> vulnerabilitiesByCVE = new HashMap<String, List<Vulnerability>>();
+		Set<String> searchedCVEs = new LinkedHashSet<String>();
+		for(Vulnerability vulnerability : vulnerabilities) {
+			if(vulnerability.cve == null || vulnerability.cve.isEmpty())
+				continue;
+			String key = vulnerability.cve.toUpperCase(Locale.ENGLISH);
+			List<Vulnerability> vulnerabilitiesOfCVE = vulnerabilitiesByCVE.get(key);
+			if(vulnerabilitiesOfCVE == null) {
+				vulnerabilitiesOfCVE = new ArrayList<Vulnerability>();
+				vulnerabilitiesByCVE.put(key, vulnerabilitiesOfCVE);
+			}
+			vulnerabilitiesOfCVE.add(vulnerability);
+			searchedCVEs.add(key);
+		}
+
+		//The rows of the vulnerability table : the first one (lowest id) is kept for each CVE, as with the single lookup query
+		HashMap<String, Vulnerability> rowsByCVE = new HashMap<String, Vulnerability>();
+		HashMap<String, Integer> cvssIdsByCVE = new HashMap<String, Integer>();
+		List<String> cves = new ArrayList<String>(searchedCVEs);
+		for(int start = 0; start < cves.size(); start += MAXIMUM_BATCH_SIZE) {
+			List<String> batch = cves.subList(start, Math.min(start + MAXIMUM_BATCH_SIZE, cves.size()));
+			PreparedStatement pstmt = conn.prepareStatement("SELECT id,cve,description,cvss_id FROM vulnerability WHERE cve COLLATE NOCASE IN (" + parameters(batch.size()) + ") ORDER BY id");
+			for(int i = 0; i < batch.size(); i++) {
+				pstmt.setString(i + 1, batch.get(i));
+			}
+			ResultSet res = pstmt.executeQuery();
+			while(res.next()) {
+				String key = res.getString(2).toUpperCase(Locale.ENGLISH);
+				Vulnerability row = rowsByCVE.get(key);
+				if(row == null || res.getInt(1) < row.id) {
+					rowsByCVE.put(key, new Vulnerability(res.getInt(1), res.getString(2), res.getString(3)));
+					cvssIdsByCVE.put(key, res.getInt(4));
+				}
+			}
+			res.close();
+			pstmt.close();
+		}
+
+		//The rows of the cvss table
+		HashMap<Integer, CVSS> cvssById = new HashMap<Integer, CVSS>();
+		List<Integer> cvssIds = new ArrayList<Integer>();
+		for(Integer cvssId : new HashSet<Integer>(cvssIdsByCVE.values())) {
+			if(cvssId > 0)
+				cvssIds.add(cvssId);
+		}
+		for(int start = 0; start < cvssIds.size(); start += MAXIMUM_BATCH_SIZE) {
+			List<Integer> batch = cvssIds.subList(start, Math.min(start + MAXIMUM_BATCH_SIZE, cvssIds.size()));
+			PreparedStatement pstmt = conn.prepareStatement("SELECT * FROM cvss WHERE id IN (" + parameters(batch.size()) + ")");
+			for(int i = 0; i < batch.size(); i++) {
+				pstmt.setInt(i + 1, batch.get(i));
+			}
+			ResultSet res = pstmt.executeQuery();
+			while(res.next()) {
+				CVSS cvss = new CVSS();
+				cvss.loadFromResultSet(res);
+				cvssById.put(cvss.getId(), cvss);
+			}
+			res.close();
+			pstmt.close();
+		}
+
+		for(Map.Entry<String, Vulnerability> row : rowsByCVE.entrySet()) {
+			CVSS cvss = cvssById.get(cvssIdsByCVE.get(row.getKey()));
+			for(Vulnerability vulnerability : vulnerabilitiesByCVE.get(row.getKey())) {
+				vulnerability.id = row.getValue().id;
+				vulnerability.description = row.getValue().description;
+				if(cvss != null)
+					vulnerability.cvss = new CVSS(cvss);
+			}
+		}
+	}
+
+	/**
+	 * @param number the number of parameters
+	 * @return the list of parameters of an IN clause : "?,?,?"
+	 */
+	private static String parameters(int number) {
+		StringBuilder result = new StringBuilder();
+		for(int i = 0; i < number; i++) {
+			if(i > 0)
+				result.append(',');
+			result.append('?');
+		}
+		return result.toString();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,497 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.vulnerability;
+
+import org.fiware.cybercaptor.server.database.ConnectionPool;
+import org.fiware.cybercaptor.server.database.PooledConnection;
+import org.fiware.cybercaptor.server.remediation.Patch;
+import org.fiware.cybercaptor.server.remediation.Rule;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory snapshot of the vulnerability and remediation database, indexed by CVE, by id, by patch link,
+ * by rule text and by CPE, so that the remediation and topology loading paths do not have to query the database.
+ * The catalog is never modified after its loading : the lookups return new objects, that can be modified by the caller.
+ * The CVEs, patch links, rules and CPEs are matched case-insensitively, as with the lookup queries of the database.
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class VulnerabilityCatalog {
+    /**
+     * The version of the catalog (a new version is loaded each time the database changes)
+     */
+    private final long version;
+
+    /**
+     * The pool of connections used to load the CPE index
+     */
+    private final ConnectionPool connectionPool;
+
+    /**
+     * The vulnerabilities, indexed by their id
+     */
+    private final HashMap<Integer, Vulnerability> vulnerabilitiesById = new HashMap<Integer, Vulnerability>();
+
+    /**
+     * The vulnerabilities, indexed by their CVE (in upper case)
+     */
+    private final HashMap<String, Vulnerability> vulnerabilitiesByCVE = new HashMap<String, Vulnerability>();
+
+    /**
+     * The CVSS, indexed by their id
+     */
+    private final HashMap<Integer, CVSS> cvssById = new HashMap<Integer, CVSS>();
+
+    /**
+     * The patches, indexed by their id
+     */
+    private final HashMap<Integer, Patch> patchesById = new HashMap<Integer, Patch>();
+
+    /**
+     * The id of the patches, indexed by their link (in lower case)
+     */
+    private final HashMap<String, Integer> patchIdsByLink = new HashMap<String, Integer>();
+
+    /**
+     * The snort rules, indexed by their id
+     */
+    private final HashMap<Integer, Rule> rulesById = new HashMap<Integer, Rule>();
+
+    /**
+     * The id of the snort rules, indexed by their text (in lower case)
+     */
+    private final HashMap<String, Integer> ruleIdsByText = new HashMap<String, Integer>();
+
+    /**
+     * The id of the patches of each vulnerability
+     */
+    private HashMap<Integer, int[]> patchIdsByVulnerabilityId;
+
+    /**
+     * The id of the vulnerabilities corrected by each patch
+     */
+    private HashMap<Integer, int[]> vulnerabilityIdsByPatchId;
+
+    /**
+     * The id of the snort rules of each vulnerability
+     */
+    private HashMap<Integer, int[]> ruleIdsByVulnerabilityId;
+
+    /**
+     * The id of the vulnerabilities detected by each snort rule
+     */
+    private HashMap<Integer, int[]> vulnerabilityIdsByRuleId;
+
+    /**
+     * The id of the CPEs, indexed by their name (in lower case), loaded at the first CPE lookup
+     */
+    private HashMap<String, Integer> cpeIdsByName = null;
+
+    /**
+     * The id of the vulnerabilities of each CPE, loaded at the first CPE lookup
+     */
+    private HashMap<Integer, int[]> vulnerabilityIdsByCpeId = null;
+
+    /**
+     * Create an empty catalog
+     *
+     * @param connectionPool the pool of connections to the database
+     * @param version        the version of the catalog
+     */
+    private VulnerabilityCatalog(ConnectionPool connectionPool, long version) {
+        this.connectionPool = connectionPool;
+        this.version = version;
+    }
+
+    /**
+     * Load a catalog from the database. The CPE index, which is only used by the CPE lookups,
+     * is loaded at the first of them.
+     *
+     * @param connectionPool the pool of connections to the database
+     * @param version        the version of the catalog
+     * @return the loaded catalog
+     * @throws SQLException
+     */
+    public static VulnerabilityCatalog load(ConnectionPool connectionPool, long version) throws SQLException {
+        VulnerabilityCatalog catalog = new VulnerabilityCatalog(connectionPool, version);
+        PooledConnection connection = connectionPool.acquireReadConnection();
+        Statement stmt = null;
+        try {
+            stmt = connection.getConnection().createStatement();
+            ResultSet res = stmt.executeQuery("SELECT id, score, access_vector, access_complexity, authentication, confidentiality_impact, integrity_impact, availability_impact FROM cvss ORDER BY id");
+            while (res.next()) {
+                CVSS cvss = new CVSS();
+                cvss.loadFromResultSet(res);
+                catalog.cvssById.put(cvss.getId(), cvss);
+            }
+            res.close();
+
+            res = stmt.executeQuery("SELECT id, cve, description, cvss_id FROM vulnerability ORDER BY id");
+            while (res.next()) {
+                Vulnerability vulnerability = new Vulnerability(res.getInt(1), res.getString(2), res.getString(3));
+                CVSS cvss = catalog.cvssById.get(res.getInt(4));
+                if (cvss != null)
+                    vulnerability.cvss = cvss;
+                catalog.vulnerabilitiesById.put(vulnerability.id, vulnerability);
+                if (vulnerability.cve != null && !catalog.vulnerabilitiesByCVE.containsKey(upperCase(vulnerability.cve)))
+                    catalog.vulnerabilitiesByCVE.put(upperCase(vulnerability.cve), vulnerability);
+            }
+            res.close();
+
+            res = stmt.executeQuery("SELECT id, link, description FROM patchs ORDER BY id");
+            while (res.next()) {
+                Patch patch = new Patch(res.getString(2), res.getString(3));
+                patch.setId(res.getInt(1));
+                catalog.patchesById.put(patch.getId(), patch);
+                if (patch.getLink() != null && !catalog.patchIdsByLink.containsKey(lowerCase(patch.getLink())))
+                    catalog.patchIdsByLink.put(lowerCase(patch.getLink()), patch.getId());
+            }
+            res.close();
+
+            res = stmt.executeQuery("SELECT id, rule, description, sid, gid FROM rules ORDER BY id");
+            while (res.next()) {
+                Rule rule = new Rule(res.getString(2), new HashMap<String, List<String>>());
+                rule.setId(res.getInt(1));
+                rule.setDescription(res.getString(3));
+                rule.setSid(res.getInt(4));
+                rule.setGid(res.getInt(5));
+                catalog.rulesById.put(rule.getId(), rule);
+                if (rule.getRule() != null && !catalog.ruleIdsByText.containsKey(lowerCase(rule.getRule())))
+                    catalog.ruleIdsByText.put(lowerCase(rule.getRule()), rule.getId());
+            }
+            res.close();
+
+            catalog.patchIdsByVulnerabilityId = new HashMap<Integer, int[]>();
+            catalog.vulnerabilityIdsByPatchId = new HashMap<Integer, int[]>();
+            loadAssociation(stmt, "SELECT id_patch, id_vulnerability FROM patchs_vulnerability", catalog.vulnerabilityIdsByPatchId, catalog.patchIdsByVulnerabilityId);
+
+            catalog.ruleIdsByVulnerabilityId = new HashMap<Integer, int[]>();
+            catalog.vulnerabilityIdsByRuleId = new HashMap<Integer, int[]>();
+            loadAssociation(stmt, "SELECT id_rule, id_vulnerability FROM rules_vulnerability", catalog.vulnerabilityIdsByRuleId, catalog.ruleIdsByVulnerabilityId);
+        } finally {
+            if (stmt != null)
+                stmt.close();
+            connection.release();
+        }
+        return catalog;
+    }
+
+    /**
+     * @return the version of the catalog
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of vulnerabilities of the catalog
+     */
+    public int getNumberOfVulnerabilities() {
+        return vulnerabilitiesById.size();
+    }
+
+    /**
+     * Get a vulnerability from its CVE
+     *
+     * @param cve the CVE of the vulnerability
+     * @return a new vulnerability object, or null if this CVE is not in the catalog
+     */
+    public Vulnerability getVulnerability(String cve) {
+        if (cve == null)
+            return null;
+        return copyOf(vulnerabilitiesByCVE.get(upperCase(cve)));
+    }
+
+    /**
+     * Get a vulnerability from its id
+     *
+     * @param id the id of the vulnerability in the database
+     * @return a new vulnerability object, or null if this id is not in the catalog
+     */
+    public Vulnerability getVulnerability(int id) {
+        return copyOf(vulnerabilitiesById.get(id));
+    }
+
+    /**
+     * Get the patches correcting a vulnerability
+     *
+     * @param cve the CVE of the vulnerability
+     * @return the list of patches (new objects), empty if the CVE is not in the catalog
+     */
+    public List<Patch> getPatches(String cve) {
+        List<Patch> result = new ArrayList<Patch>();
+        Vulnerability vulnerability = (cve == null) ? null : vulnerabilitiesByCVE.get(upperCase(cve));
+        if (vulnerability == null)
+            return result;
+        for (int patchId : idsOf(patchIdsByVulnerabilityId, vulnerability.id)) {
+            result.add(copyOf(patchesById.get(patchId), patchId));
+        }
+        return result;
+    }
+
+    /**
+     * Get the snort rules detecting a vulnerability
+     *
+     * @param cve the CVE of the vulnerability
+     * @return the list of snort rules (new objects), empty if the CVE is not in the catalog
+     */
+    public List<Rule> getRules(String cve) {
+        List<Rule> result = new ArrayList<Rule>();
+        Vulnerability vulnerability = (cve == null) ? null : vulnerabilitiesByCVE.get(upperCase(cve));
+        if (vulnerability == null)
+            return result;
+        for (int ruleId : idsOf(ruleIdsByVulnerabilityId, vulnerability.id)) {
+            result.add(copyOf(rulesById.get(ruleId), ruleId));
+        }
+        return result;
+    }
+
+    /**
+     * Get the vulnerabilities corrected by a patch, found by its link or by its id
+     *
+     * @param patch the patch
+     * @return the list of vulnerabilities (new objects), empty if the patch is not in the catalog
+     */
+    public List<Vulnerability> getVulnerabilitiesCorrectedByPatch(Patch patch) {
+        Integer patchId = (patch.getLink() == null) ? null : patchIdsByLink.get(lowerCase(patch.getLink()));
+        if (patchesById.containsKey(patch.getId()) && (patchId == null || patch.getId() < patchId))
+            patchId = patch.getId();
+        if (patchId == null)
+            return new ArrayList<Vulnerability>();
+        return vulnerabilitiesOf(idsOf(vulnerabilityIdsByPatchId, patchId));
+    }
+
+    /**
+     * Get the vulnerabilities detected by a snort rule, found by its text
+     *
+     * @param rule the snort rule
+     * @return the list of vulnerabilities (new objects), empty if the rule is not in the catalog
+     */
+    public List<Vulnerability> getVulnerabilitiesDetectedByRule(Rule rule) {
+        Integer ruleId = (rule.getRule() == null) ? null : ruleIdsByText.get(lowerCase(rule.getRule()));
+        if (ruleId == null)
+            return new ArrayList<Vulnerability>();
+        return vulnerabilitiesOf(idsOf(vulnerabilityIdsByRuleId, ruleId));
+    }
+
+    /**
+     * Get the vulnerabilities related to a CPE. The CPE index is loaded at the first call.
+     *
+     * @param cpeId the name of the CPE
+     * @return the list of vulnerabilities (new objects), empty if the CPE is not in the catalog
+     * @throws SQLException if the CPE index can not be loaded
+     */
+    public List<Vulnerability> getVulnerabilitiesOfCPE(String cpeId) throws SQLException {
+        loadCPEIndex();
+        Integer id = (cpeId == null) ? null : cpeIdsByName.get(lowerCase(cpeId));
+        if (id == null)
+            return new ArrayList<Vulnerability>();
+        return vulnerabilitiesOf(idsOf(vulnerabilityIdsByCpeId, id));
+    }
+
+    /**
+     * Load the CPE index, if it is not already loaded
+     *
+     * @throws SQLException
+     */
+    private synchronized void loadCPEIndex() throws SQLException {
+        if (cpeIdsByName != null)
+            return;
+        HashMap<String, Integer> cpeIds = new HashMap<String, Integer>();
+        HashMap<Integer, int[]> vulnerabilityIds = new HashMap<Integer, int[]>();
+        PooledConnection connection = connectionPool.acquireReadConnection();
+        Statement stmt = null;
+        try {
+            stmt = connection.getConnection().createStatement();
+            ResultSet res = stmt.executeQuery("SELECT id, cpe_id FROM cpe ORDER BY id");
+            while (res.next()) {
+                String name = res.getString(2);
+                if (name != null && !cpeIds.containsKey(lowerCase(name)))
+                    cpeIds.put(lowerCase(name), res.getInt(1));
+            }
+            res.close();
+            loadAssociation(stmt, "SELECT id_cpe, id_vulnerability FROM cpe_vulnerability", vulnerabilityIds, null);
+        } finally {
+            if (stmt != null)
+                stmt.close();
+            connection.release();
+        }
+        vulnerabilityIdsByCpeId = vulnerabilityIds;
+        cpeIdsByName = cpeIds;
+    }
+
+    /**
+     * Load an association table of the database, in both directions. As with the queries using the unique index
+     * of the table and its lookup index on the second column, the related ids are sorted in both directions.
+     *
+     * @param stmt          the statement used to execute the query
+     * @param query         the query selecting the two columns of the association
+     * @param secondByFirst the ids of the second column, indexed by the id of the first column
+     * @param firstBySecond the ids of the first column, indexed by the id of the second column (may be null)
+     * @throws SQLException
+     */
+    private static void loadAssociation(Statement stmt, String query, HashMap<Integer, int[]> secondByFirst, HashMap<Integer, int[]> firstBySecond) throws SQLException {
+        int size = 0;
+        int[] first = new int[1024];
+        int[] second = new int[1024];
+        ResultSet res = stmt.executeQuery(query);
+        while (res.next()) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+            }
+            first[size] = res.getInt(1);
+            second[size] = res.getInt(2);
+            size++;
+        }
+        res.close();
+
+        group(first, second, size, secondByFirst);
+        for (int[] ids : secondByFirst.values()) {
+            Arrays.sort(ids);
+        }
+        if (firstBySecond != null) {
+            group(second, first, size, firstBySecond);
+            for (int[] ids : firstBySecond.values()) {
+                Arrays.sort(ids);
+            }
+        }
+    }
+
+    /**
+     * Group values by key, keeping the order of the values
+     *
+     * @param keys   the keys
+     * @param values the values (values[i] is related to keys[i])
+     * @param size   the number of pairs
+     * @param result the values, indexed by their key
+     */
+    private static void group(int[] keys, int[] values, int size, HashMap<Integer, int[]> result) {
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++) {
+            Integer count = counts.get(keys[i]);
+            counts.put(keys[i], (count == null) ? 1 : count + 1);
+        }
+        for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+            result.put(count.getKey(), new int[count.getValue()]);
+            count.setValue(0);
+        }
+        for (int i = 0; i < size; i++) {
+            int position = counts.get(keys[i]);
+            result.get(keys[i])[position] = values[i];
+            counts.put(keys[i], position + 1);
+        }
+    }
+
+    /**
+     * @param index an index of ids
+     * @param id    an id
+     * @return the ids related to this id (empty array if none)
+     */
+    private static int[] idsOf(HashMap<Integer, int[]> index, int id) {
+        int[] ids = index.get(id);
+        return (ids == null) ? new int[0] : ids;
+    }
+
+    /**
+     * @param vulnerabilityIds id of vulnerabilities
+     * @return the list of the vulnerabilities (new objects). The ids that are not in the catalog give empty vulnerabilities.
+     */
+    private List<Vulnerability> vulnerabilitiesOf(int[] vulnerabilityIds) {
+        List<Vulnerability> result = new ArrayList<Vulnerability>();
+        for (int vulnerabilityId : vulnerabilityIds) {
+            Vulnerability vulnerability = getVulnerability(vulnerabilityId);
+            if (vulnerability == null) {
+                vulnerability = new Vulnerability(0, "", "");
+            }
+            result.add(vulnerability);
+        }
+        return result;
+    }
+
+    /**
+     * @param vulnerability a vulnerability of the catalog (may be null)
+     * @return a copy of the vulnerability and of its cvss, or null
+     */
+    private static Vulnerability copyOf(Vulnerability vulnerability) {
+        if (vulnerability == null)
+            return null;
+        Vulnerability result = new Vulnerability(vulnerability.id, vulnerability.cve, vulnerability.description);
+        if (vulnerability.cvss.getId() > 0)
+            result.cvss = new CVSS(vulnerability.cvss);
+        return result;
+    }
+
+    /**
+     * @param patch a patch of the catalog (may be null)
+     * @param id    the id of the patch
+     * @return a copy of the patch, or an empty patch if it is not in the catalog
+     */
+    private static Patch copyOf(Patch patch, int id) {
+        if (patch == null)
+            return new Patch("", "");
+        Patch result = new Patch(patch.getLink(), patch.getDescription());
+        result.setId(id);
+        return result;
+    }
+
+    /**
+     * @param rule a snort rule of the catalog (may be null)
+     * @param id   the id of the rule
+     * @return a copy of the rule, or an empty rule if it is not in the catalog
+     */
+    private static Rule copyOf(Rule rule, int id) {
+        Rule result = new Rule("", new HashMap<String, List<String>>());
+        if (rule == null)
+            return result;
+        result.setRule(rule.getRule());
+        result.setId(id);
+        result.setDescription(rule.getDescription());
+        result.setSid(rule.getSid());
+        result.setGid(rule.getGid());
+        return result;
+    }
+
+    /**
+     * @param string a string
+     * @return the string in upper case
+     */
+    private static String upperCase(String string) {
+        return string.toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @param string a string
+     * @return the string in lower case
+     */
+    private static String lowerCase(String string) {
+        return string.toLowerCase(Locale.ENGLISH);
+    }
+}
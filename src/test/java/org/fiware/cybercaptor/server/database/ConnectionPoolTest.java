@@ -0,0 +1,255 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.database;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Class to test the pool of connections to a sqlite database file.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class ConnectionPoolTest {
+
+    /**
+     * The folder of the database file
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The path of the database file
+     */
+    private String path;
+
+    /**
+     * The thread acquiring connections concurrently to the test thread
+     */
+    private ExecutorService otherThread;
+
+    @Before
+    public void setUp() throws Exception {
+        path = folder.newFile("pool.db").getPath();
+        otherThread = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        otherThread.shutdownNow();
+    }
+
+    /**
+     * Test that the nested acquisitions of a thread get the same connection, which goes back to the pool
+     * only when all of them have been released.
+     */
+    @Test
+    public void testNestedAcquisitions() throws Exception {
+        ConnectionPool pool = newPool(2, 1000);
+        PooledConnection connection = pool.acquireReadConnection();
+        PooledConnection nestedConnection = pool.acquireReadConnection();
+        Assert.assertSame(connection, nestedConnection);
+        Assert.assertEquals(1, pool.getMetrics().getLong("acquisitions"));
+        Assert.assertEquals(1, pool.getMetrics().getInt("used_read_connections"));
+
+        nestedConnection.release();
+        Assert.assertEquals(1, pool.getMetrics().getInt("used_read_connections"));
+        Assert.assertEquals(0, pool.getMetrics().getInt("idle_read_connections"));
+        Assert.assertEquals(1, count(connection));
+
+        connection.release();
+        Assert.assertEquals(0, pool.getMetrics().getInt("used_read_connections"));
+        Assert.assertEquals(1, pool.getMetrics().getInt("idle_read_connections"));
+        pool.close();
+    }
+
+    /**
+     * Test that a released connection is reused, with its cache of prepared statements, by the next acquisitions.
+     */
+    @Test
+    public void testReleaseGivesBackToPool() throws Exception {
+        final ConnectionPool pool = newPool(2, 1000);
+        final PooledConnection connection = pool.acquireReadConnection();
+        Assert.assertEquals(1, count(connection));
+        connection.release();
+
+        PooledConnection reusedConnection = otherThread.submit(new Callable<PooledConnection>() {
+            @Override
+            public PooledConnection call() throws Exception {
+                PooledConnection reusedConnection = pool.acquireReadConnection();
+                count(reusedConnection);
+                reusedConnection.release();
+                return reusedConnection;
+            }
+        }).get();
+        Assert.assertSame(connection, reusedConnection);
+        Assert.assertEquals(1, connection.getStatementCacheMisses());
+        Assert.assertEquals(1, connection.getStatementCacheHits());
+        Assert.assertEquals(1, pool.getMetrics().getInt("read_connections"));
+        Assert.assertEquals(2, pool.getMetrics().getLong("acquisitions"));
+        Assert.assertEquals(0, pool.getMetrics().getLong("waits"));
+        pool.close();
+    }
+
+    /**
+     * Test that an acquisition fails when all the connections are held longer than the timeout,
+     * and succeeds when a connection is released in time.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final ConnectionPool pool = newPool(1, 100);
+        PooledConnection connection = pool.acquireReadConnection();
+        try {
+            acquireInOtherThread(pool).get();
+            fail("The acquisition should have timed out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        Assert.assertEquals(1, pool.getMetrics().getLong("timeouts"));
+        Assert.assertEquals(1, pool.getMetrics().getLong("waits"));
+        connection.release();
+        Assert.assertSame(connection, acquireInOtherThread(pool).get());
+        pool.close();
+
+        final ConnectionPool slowPool = newPool(1, 10000);
+        connection = slowPool.acquireReadConnection();
+        Future<PooledConnection> waitingAcquisition = acquireInOtherThread(slowPool);
+        while (slowPool.getMetrics().getLong("waits") == 0) {
+            Thread.sleep(5);
+        }
+        connection.release();
+        Assert.assertSame(connection, waitingAcquisition.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, slowPool.getMetrics().getLong("timeouts"));
+        slowPool.close();
+    }
+
+    /**
+     * Test that a connection held while the pool is closed stays usable, and is closed when it is released,
+     * and that the waiting and the next acquisitions fail.
+     */
+    @Test
+    public void testCloseWhileHeld() throws Exception {
+        ConnectionPool pool = createItemTable(ConnectionPool.getConnectionPool(path));
+        PooledConnection connection = pool.acquireReadConnection();
+        PooledConnection idleConnection = acquireInOtherThread(pool).get();
+        Assert.assertNotSame(connection, idleConnection);
+        Assert.assertEquals(2, pool.getMetrics().getInt("read_connections"));
+
+        pool.close();
+        Assert.assertTrue(idleConnection.getConnection().isClosed());
+        Assert.assertTrue(pool.getWriteConnection().isClosed());
+        Assert.assertEquals(1, pool.getMetrics().getInt("read_connections"));
+        Assert.assertNotSame(pool, ConnectionPool.getConnectionPool(path));
+
+        Assert.assertEquals(1, count(connection));
+        try {
+            acquireInOtherThread(pool).get();
+            fail("The acquisition on a closed pool should fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        connection.release();
+        Assert.assertTrue(connection.getConnection().isClosed());
+        Assert.assertEquals(0, pool.getMetrics().getInt("read_connections"));
+        ConnectionPool.getConnectionPool(path).close();
+
+        ConnectionPool otherPool = newPool(1, 10000);
+        connection = otherPool.acquireReadConnection();
+        Future<PooledConnection> waitingAcquisition = acquireInOtherThread(otherPool);
+        while (otherPool.getMetrics().getLong("waits") == 0) {
+            Thread.sleep(5);
+        }
+        otherPool.close();
+        try {
+            waitingAcquisition.get(5, TimeUnit.SECONDS);
+            fail("The waiting acquisition should fail when the pool is closed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SQLException);
+        }
+        connection.release();
+    }
+
+    /**
+     * @param maximumReadConnections the maximum number of read-only connections
+     * @param acquireTimeout         the maximum time to wait for a connection, in milliseconds
+     * @return a new pool on the database file, containing a table "item" of one row
+     */
+    private ConnectionPool newPool(int maximumReadConnections, long acquireTimeout) throws Exception {
+        return createItemTable(new ConnectionPool(path, maximumReadConnections, acquireTimeout));
+    }
+
+    /**
+     * @param pool a pool on the database file
+     * @return the pool, once the table "item" of one row is created
+     */
+    private static ConnectionPool createItemTable(ConnectionPool pool) throws SQLException {
+        Statement statement = pool.getWriteConnection().createStatement();
+        statement.execute("CREATE TABLE IF NOT EXISTS item (id INTEGER PRIMARY KEY)");
+        statement.execute("INSERT OR IGNORE INTO item (id) VALUES (1)");
+        statement.close();
+        return pool;
+    }
+
+    /**
+     * @param connection a read-only connection
+     * @return the number of rows of the table "item"
+     */
+    private static int count(PooledConnection connection) throws SQLException {
+        ResultSet resultSet = connection.prepareStatement("SELECT COUNT(*) FROM item").executeQuery();
+        int result = resultSet.getInt(1);
+        resultSet.close();
+        return result;
+    }
+
+    /**
+     * Acquire a read-only connection in the other thread, and release it if the acquisition succeeded
+     *
+     * @param pool the pool
+     * @return the future acquired connection
+     */
+    private Future<PooledConnection> acquireInOtherThread(final ConnectionPool pool) {
+        return otherThread.submit(new Callable<PooledConnection>() {
+            @Override
+            public PooledConnection call() throws Exception {
+                PooledConnection connection = pool.acquireReadConnection();
+                connection.release();
+                return connection;
+            }
+        });
+    }
+}
@@ -0,0 +1,259 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.database;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of the latency of the lookup queries on a synthetic database of the size of the NVD :
+ * LIKE queries prepared at each call without the lookup indexes (schema version 0, previous behaviour),
+ * then equality queries of {@link PreparedQueries} once the schema is upgraded.
+ * It is not run by the unit tests. Usage : QueryLatencyBenchmark [number of CVEs] [number of lookups]
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class QueryLatencyBenchmark {
+
+    /**
+     * The number of CPEs, relative to the number of CVEs
+     */
+    private static final int CPES_PER_CVE = 2;
+
+    /**
+     * The number of CPEs of each CVE
+     */
+    private static final int RELATIONS_PER_CVE = 10;
+
+    /**
+     * The lookups : name, query before the upgrade, query of the registry, and type of parameter
+     */
+    private static final String[][] LOOKUPS = {
+            {"vulnerability by CVE", "SELECT id,cve,description,cvss_id FROM vulnerability WHERE cve LIKE ?", PreparedQueries.VULNERABILITY_BY_CVE, "cve"},
+            {"vulnerability id by CVE", "SELECT id FROM vulnerability WHERE cve LIKE ?", PreparedQueries.VULNERABILITY_ID_BY_CVE, "cve"},
+            {"CPE by name", "SELECT id,cpe_id FROM cpe WHERE cpe_id LIKE ?", PreparedQueries.CPE_BY_NAME, "cpe"},
+            {"rule by text", "SELECT * FROM rules WHERE rule LIKE ?", PreparedQueries.RULE_BY_TEXT, "rule"},
+            {"patchs of vulnerability", "SELECT id_patch FROM patchs_vulnerability WHERE id_vulnerability = ?", PreparedQueries.PATCHS_OF_VULNERABILITY, "id_vulnerability"},
+            {"rules of vulnerability", "SELECT id_rule FROM rules_vulnerability WHERE id_vulnerability = ?", PreparedQueries.RULES_OF_VULNERABILITY, "id_vulnerability"},
+            {"vulnerabilities of CPE", "SELECT id_vulnerability FROM cpe_vulnerability WHERE id_cpe = ?", PreparedQueries.VULNERABILITIES_OF_CPE, "id_cpe"},
+            {"vulnerabilities of patch", "SELECT id_vulnerability FROM patchs_vulnerability WHERE id_patch = ?", PreparedQueries.VULNERABILITIES_OF_PATCH, "id_patch"}
+    };
+
+    public static void main(String[] args) throws Exception {
+        int numberOfCVEs = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int numberOfLookups = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        File file = File.createTempFile("query-latency-benchmark", ".db");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        Database db = new Database(file.getPath());
+        db.createDB();
+        long start = System.nanoTime();
+        populateDatabase(db.getConn(), numberOfCVEs);
+        System.out.println(numberOfCVEs + " CVEs, " + numberOfCVEs * CPES_PER_CVE + " CPEs, " + numberOfCVEs * RELATIONS_PER_CVE + " CPE relations, generated in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        //Previous schema
+        Statement stmt = db.getConn().createStatement();
+        ResultSet res = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND sql IS NOT NULL AND name NOT IN ('index_rules_vulnerability', 'index_patchs_vulnerability', 'index_cre', 'index_cvss', 'index_cpe_vulnerability')");
+        StringBuilder drop = new StringBuilder();
+        while (res.next()) {
+            drop.append("DROP INDEX ").append(res.getString(1)).append(";");
+        }
+        res.close();
+        stmt.executeUpdate(drop.toString());
+        stmt.executeUpdate("PRAGMA user_version = 0");
+        stmt.close();
+
+        Random random = new Random(2);
+        Object[][] parameters = new Object[LOOKUPS.length][numberOfLookups];
+        for (int l = 0; l < LOOKUPS.length; l++) {
+            for (int i = 0; i < numberOfLookups; i++) {
+                parameters[l][i] = parameter(LOOKUPS[l][3], random, numberOfCVEs);
+            }
+        }
+
+        long[] checksums = new long[LOOKUPS.length];
+        for (int l = 0; l < LOOKUPS.length; l++) {
+            checksums[l] = measure("LIKE / no index  : " + LOOKUPS[l][0], db.getConn(), LOOKUPS[l][1], false, parameters[l]);
+        }
+
+        start = System.nanoTime();
+        db.upgradeSchema();
+        System.out.println("Schema upgrade : " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        boolean same = true;
+        for (int l = 0; l < LOOKUPS.length; l++) {
+            measure(null, db.getConn(), LOOKUPS[l][2], true, parameters[l]);
+            long checksum = measure("registry / index : " + LOOKUPS[l][0], db.getConn(), LOOKUPS[l][2], true, parameters[l]);
+            same &= checksum == checksums[l];
+        }
+        System.out.println("Same results : " + same);
+    }
+
+    /**
+     * Measure the latency of a lookup query
+     *
+     * @param name       the name of the lookup (null for a warm up)
+     * @param conn       the database connection
+     * @param query      the sql query
+     * @param registry   true if the query is prepared with the registry, false if it is prepared at each call
+     * @param parameters the parameter of each lookup
+     * @return the checksum of the results
+     * @throws Exception
+     */
+    private static long measure(String name, Connection conn, String query, boolean registry, Object[] parameters) throws Exception {
+        long[] latencies = new long[parameters.length];
+        long checksum = 0;
+        for (int i = 0; i < parameters.length; i++) {
+            long start = System.nanoTime();
+            PreparedStatement pstmt = registry ? PreparedQueries.prepare(conn, query) : conn.prepareStatement(query);
+            pstmt.setObject(1, parameters[i]);
+            ResultSet res = pstmt.executeQuery();
+            while (res.next()) {
+                checksum = checksum * 31 + res.getInt(1);
+            }
+            res.close();
+            if (!registry)
+                pstmt.close();
+            latencies[i] = System.nanoTime() - start;
+        }
+        if (name == null)
+            return checksum;
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        System.out.println(name + " : mean " + total / latencies.length / 1000 + " us, median " + latencies[latencies.length / 2] / 1000
+                + " us, p99 " + latencies[latencies.length * 99 / 100] / 1000 + " us");
+        return checksum;
+    }
+
+    /**
+     * @param type         the type of parameter
+     * @param random       the random generator
+     * @param numberOfCVEs the number of CVEs in the database
+     * @return a random parameter of a lookup (a tenth of the text parameters are not in the database)
+     */
+    private static Object parameter(String type, Random random, int numberOfCVEs) {
+        int i = 1 + random.nextInt(numberOfCVEs + numberOfCVEs / 10);
+        if (type.equals("cve"))
+            return "CVE-2015-" + i;
+        else if (type.equals("cpe"))
+            return "cpe:/a:vendor_" + i % 5000 + ":product_" + i;
+        else if (type.equals("rule"))
+            return "alert tcp any any -> any any (msg:\"rule " + i / 10 + "\";)";
+        else if (type.equals("id_cpe"))
+            return 1 + random.nextInt(numberOfCVEs * CPES_PER_CVE);
+        else if (type.equals("id_patch"))
+            return 1 + random.nextInt(numberOfCVEs / 5);
+        return 1 + random.nextInt(numberOfCVEs);
+    }
+
+    /**
+     * Fill the database with CVEs, CPEs, patches and rules, and their relations
+     *
+     * @param conn         the database connection
+     * @param numberOfCVEs the number of CVEs
+     * @throws Exception
+     */
+    private static void populateDatabase(Connection conn, int numberOfCVEs) throws Exception {
+        Random random = new Random(0);
+        conn.setAutoCommit(false);
+        int numberOfCPEs = numberOfCVEs * CPES_PER_CVE;
+        int numberOfPatchs = numberOfCVEs / 5;
+        int numberOfRules = numberOfCVEs / 10;
+        PreparedStatement cvssStatement = conn.prepareStatement("INSERT INTO cvss(score,access_vector,access_complexity,authentication,confidentiality_impact,integrity_impact,availability_impact) VALUES(?,'NETWORK','LOW','NONE','PARTIAL','PARTIAL','PARTIAL')");
+        PreparedStatement vulnerabilityStatement = conn.prepareStatement("INSERT INTO vulnerability(cve,description,cvss_id) VALUES(?,?,?)");
+        for (int i = 1; i <= numberOfCVEs; i++) {
+            cvssStatement.setDouble(1, random.nextInt(100) / 10.);
+            cvssStatement.addBatch();
+            vulnerabilityStatement.setString(1, "CVE-2015-" + i);
+            vulnerabilityStatement.setString(2, "Synthetic vulnerability " + i);
+            vulnerabilityStatement.setInt(3, i);
+            vulnerabilityStatement.addBatch();
+        }
+        cvssStatement.executeBatch();
+        vulnerabilityStatement.executeBatch();
+        cvssStatement.close();
+        vulnerabilityStatement.close();
+
+        PreparedStatement statement = conn.prepareStatement("INSERT INTO cpe(cpe_id) VALUES(?)");
+        for (int i = 1; i <= numberOfCPEs; i++) {
+            statement.setString(1, "cpe:/a:vendor_" + i % 5000 + ":product_" + i);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+        statement.close();
+        statement = conn.prepareStatement("INSERT OR IGNORE INTO cpe_vulnerability(id_cpe,id_vulnerability) VALUES(?,?)");
+        for (int i = 1; i <= numberOfCVEs; i++) {
+            for (int j = 0; j < RELATIONS_PER_CVE; j++) {
+                statement.setInt(1, 1 + random.nextInt(numberOfCPEs));
+                statement.setInt(2, i);
+                statement.addBatch();
+            }
+            if (i % 10000 == 0)
+                statement.executeBatch();
+        }
+        statement.executeBatch();
+        statement.close();
+
+        statement = conn.prepareStatement("INSERT INTO patchs(link,description) VALUES(?,?)");
+        for (int i = 1; i <= numberOfPatchs; i++) {
+            statement.setString(1, "http://www.example.com/patch/" + i);
+            statement.setString(2, "Synthetic patch " + i);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+        statement.close();
+        statement = conn.prepareStatement("INSERT INTO rules(rule,sid,gid) VALUES(?,?,1)");
+        for (int i = 1; i <= numberOfRules; i++) {
+            statement.setString(1, "alert tcp any any -> any any (msg:\"rule " + i + "\";)");
+            statement.setInt(2, i);
+            statement.addBatch();
+        }
+        statement.executeBatch();
+        statement.close();
+        PreparedStatement patchStatement = conn.prepareStatement("INSERT OR IGNORE INTO patchs_vulnerability(id_patch,id_vulnerability) VALUES(?,?)");
+        PreparedStatement ruleStatement = conn.prepareStatement("INSERT OR IGNORE INTO rules_vulnerability(id_rule,id_vulnerability) VALUES(?,?)");
+        for (int i = 1; i <= numberOfCVEs; i++) {
+            patchStatement.setInt(1, 1 + random.nextInt(numberOfPatchs));
+            patchStatement.setInt(2, i);
+            patchStatement.addBatch();
+            ruleStatement.setInt(1, 1 + random.nextInt(numberOfRules));
+            ruleStatement.setInt(2, i);
+            ruleStatement.addBatch();
+        }
+        patchStatement.executeBatch();
+        ruleStatement.executeBatch();
+        patchStatement.close();
+        ruleStatement.close();
+        conn.commit();
+        conn.setAutoCommit(true);
+    }
+}
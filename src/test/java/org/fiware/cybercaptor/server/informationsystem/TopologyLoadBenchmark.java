@@ -0,0 +1,212 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+package org.fiware.cybercaptor.server.informationsystem;
+
+import org.fiware.cybercaptor.server.database.Database;
+import org.fiware.cybercaptor.server.database.PooledConnection;
+import org.fiware.cybercaptor.server.topology.asset.Host;
+import org.fiware.cybercaptor.server.vulnerability.Vulnerability;
+import org.jdom2.Element;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.Random;
+
+/**
+ * Benchmark of the loading of the vulnerabilities of a synthetic topology of several thousand hosts :
+ * one query per vulnerability (previous behaviour), batched IN queries, and in-memory vulnerability catalog.
+ * It is not run by the unit tests. Usage : TopologyLoadBenchmark [number of hosts] [number of CVEs in the database]
+ *
+ * @author Francois-Xavier Aguessy
+ */
+public class TopologyLoadBenchmark {
+
+    /**
+     * The number of services of each host
+     */
+    private static final int SERVICES_PER_HOST = 3;
+
+    /**
+     * The number of vulnerabilities of each service
+     */
+    private static final int VULNERABILITIES_PER_SERVICE = 4;
+
+    public static void main(String[] args) throws Exception {
+        int numberOfHosts = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int numberOfCVEs = (args.length > 1) ? Integer.parseInt(args[1]) : 50000;
+
+        File file = File.createTempFile("topology-load-benchmark", ".db");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        Database db = new Database(file.getPath());
+        db.createDB();
+        populateDatabase(db.getConn(), numberOfCVEs);
+        Element topologyElement = buildTopology(numberOfHosts, numberOfCVEs);
+        System.out.println(numberOfHosts + " hosts, " + numberOfHosts * SERVICES_PER_HOST * VULNERABILITIES_PER_SERVICE + " vulnerabilities, " + numberOfCVEs + " CVEs in the database");
+
+        //Warm up
+        loadOneByOne(topologyElement, db);
+        new InformationSystem().loadFromDomElement(topologyElement, db);
+
+        long start = System.nanoTime();
+        String oneByOne = loadOneByOne(topologyElement, db);
+        System.out.println("One query per vulnerability : " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        start = System.nanoTime();
+        InformationSystem informationSystem = new InformationSystem();
+        informationSystem.loadFromDomElement(topologyElement, db);
+        System.out.println("Batched queries : " + (System.nanoTime() - start) / 1000000 + " ms");
+        String batched = summary(informationSystem);
+
+        start = System.nanoTime();
+        db.getVulnerabilityCatalog();
+        System.out.println("Vulnerability catalog loading : " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        start = System.nanoTime();
+        informationSystem = new InformationSystem();
+        informationSystem.loadFromDomElement(topologyElement, db);
+        System.out.println("Vulnerability catalog : " + (System.nanoTime() - start) / 1000000 + " ms");
+        String catalog = summary(informationSystem);
+
+        System.out.println("Same vulnerabilities : " + (oneByOne.equals(batched) && oneByOne.equals(catalog)));
+    }
+
+    /**
+     * Load the topology, then load the parameters of its vulnerabilities with one query per vulnerability
+     *
+     * @param topologyElement the topology
+     * @param db              the database
+     * @return the summary of the loaded vulnerabilities
+     * @throws Exception
+     */
+    private static String loadOneByOne(Element topologyElement, Database db) throws Exception {
+        InformationSystem informationSystem = new InformationSystem();
+        for (Element hostElement : topologyElement.getChildren("machine")) {
+            InformationSystemHost host = new InformationSystemHost(informationSystem.getTopology());
+            host.loadFromDomElement(hostElement, informationSystem.getTopology(), new java.util.ArrayList<Vulnerability>());
+            informationSystem.getTopology().getHosts().add(host);
+        }
+        PooledConnection connection = db.acquireReadConnection();
+        try {
+            for (Host host : informationSystem.getTopology().getHosts()) {
+                for (Service service : ((InformationSystemHost) host).getServices().values()) {
+                    for (Vulnerability vulnerability : service.getVulnerabilities().values()) {
+                        vulnerability.loadParametersFromDatabase(connection.getConnection());
+                    }
+                }
+            }
+        } finally {
+            connection.release();
+        }
+        return summary(informationSystem);
+    }
+
+    /**
+     * @param informationSystem an information system
+     * @return the summary of the parameters of its vulnerabilities
+     */
+    private static String summary(InformationSystem informationSystem) {
+        StringBuilder result = new StringBuilder();
+        for (Host host : informationSystem.getTopology().getHosts()) {
+            for (Service service : ((InformationSystemHost) host).getServices().values()) {
+                for (Vulnerability vulnerability : service.getVulnerabilities().values()) {
+                    result.append(vulnerability.cve).append('/').append(vulnerability.id).append('/')
+                            .append(vulnerability.cvss.getId()).append('/').append(vulnerability.cvss.getScore()).append(';');
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Fill the database with CVEs and their cvss
+     *
+     * @param conn         the database connection
+     * @param numberOfCVEs the number of CVEs
+     * @throws Exception
+     */
+    private static void populateDatabase(Connection conn, int numberOfCVEs) throws Exception {
+        Random random = new Random(0);
+        conn.setAutoCommit(false);
+        PreparedStatement cvssStatement = conn.prepareStatement("INSERT INTO cvss(score,access_vector,access_complexity,authentication,confidentiality_impact,integrity_impact,availability_impact) VALUES(?,'NETWORK','LOW','NONE','PARTIAL','PARTIAL','PARTIAL')");
+        PreparedStatement vulnerabilityStatement = conn.prepareStatement("INSERT INTO vulnerability(cve,description,cvss_id) VALUES(?,?,?)");
+        for (int i = 1; i <= numberOfCVEs; i++) {
+            cvssStatement.setDouble(1, random.nextInt(100) / 10.);
+            cvssStatement.addBatch();
+            vulnerabilityStatement.setString(1, "CVE-2015-" + i);
+            vulnerabilityStatement.setString(2, "Synthetic vulnerability " + i);
+            vulnerabilityStatement.setInt(3, i);
+            vulnerabilityStatement.addBatch();
+        }
+        cvssStatement.executeBatch();
+        vulnerabilityStatement.executeBatch();
+        conn.commit();
+        conn.setAutoCommit(true);
+        cvssStatement.close();
+        vulnerabilityStatement.close();
+    }
+
+    /**
+     * Build a synthetic topology
+     *
+     * @param numberOfHosts the number of hosts
+     * @param numberOfCVEs  the number of CVEs in the database
+     * @return the topology dom element
+     */
+    private static Element buildTopology(int numberOfHosts, int numberOfCVEs) {
+        Random random = new Random(1);
+        Element root = new Element("topology");
+        for (int h = 0; h < numberOfHosts; h++) {
+            Element machine = new Element("machine");
+            root.addContent(machine);
+            machine.addContent(new Element("name").setText("host-" + h));
+            Element interfaces = new Element("interfaces");
+            machine.addContent(interfaces);
+            Element inface = new Element("interface");
+            interfaces.addContent(inface);
+            inface.addContent(new Element("name").setText("eth0"));
+            inface.addContent(new Element("ipaddress").setText("10." + (h >> 16 & 0xff) + "." + (h >> 8 & 0xff) + "." + (h & 0xff)));
+            Element services = new Element("services");
+            machine.addContent(services);
+            for (int s = 0; s < SERVICES_PER_HOST; s++) {
+                Element service = new Element("service");
+                services.addContent(service);
+                service.addContent(new Element("name").setText("service-" + s));
+                service.addContent(new Element("port").setText("" + (1000 + s)));
+                service.addContent(new Element("protocol").setText("TCP"));
+                Element vulnerabilities = new Element("vulnerabilities");
+                service.addContent(vulnerabilities);
+                for (int v = 0; v < VULNERABILITIES_PER_SERVICE; v++) {
+                    Element vulnerability = new Element("vulnerability");
+                    vulnerabilities.addContent(vulnerability);
+                    vulnerability.addContent(new Element("type").setText("remoteExploit"));
+                    vulnerability.addContent(new Element("goal").setText("privEscalation"));
+                    //Some CVEs are not in the database
+                    vulnerability.addContent(new Element("cve").setText("CVE-2015-" + (1 + random.nextInt(numberOfCVEs + numberOfCVEs / 10))));
+                }
+            }
+        }
+        return root;
+    }
+}
@@ -0,0 +1,158 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.informationsystem.InformationSystemHost;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Class to test the best-first search of the cheapest deployable remediations.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class DeployableRemediationSearchTest {
+
+    /**
+     * The folder of the (default) operational cost parameters
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The number of hosts created, to give them distinct names (the hosts are compared by name)
+     */
+    private int numberOfHosts = 0;
+
+    /**
+     * Test that the K results are the K cheapest deployable remediations, in increasing cost order,
+     * including when the cost lower bounds of the actions are not tight.
+     */
+    @Test
+    public void testCheapestRemediationsInCostOrder() throws Exception {
+        Random random = new Random(6);
+        for (int instance = 0; instance < 50; instance++) {
+            List<List<RemediationAction>> remediationActions = new ArrayList<List<RemediationAction>>();
+            List<Double> allCosts = new ArrayList<Double>();
+            int numberOfGroups = 1 + random.nextInt(5);
+            for (int group = 0; group < numberOfGroups; group++) {
+                List<RemediationAction> remediationGroup = new ArrayList<RemediationAction>();
+                double groupCost = 0;
+                int numberOfCombinations = 1;
+                int numberOfActions = 1 + random.nextInt(3);
+                for (int i = 0; i < numberOfActions; i++) {
+                    double cost = 1 + random.nextInt(100);
+                    double lowerBound = random.nextBoolean() ? cost : cost * random.nextInt(10) / 10;
+                    int numberOfMachines = 1 + random.nextInt(3);
+                    remediationGroup.add(action(cost, lowerBound, numberOfMachines));
+                    groupCost += cost;
+                    numberOfCombinations *= numberOfMachines;
+                }
+                remediationActions.add(remediationGroup);
+                allCosts.addAll(Collections.nCopies(numberOfCombinations, groupCost));
+            }
+            Collections.sort(allCosts);
+
+            int numberOfResults = 1 + random.nextInt(allCosts.size() + 2);
+            DeployableRemediationSearch search = new DeployableRemediationSearch(null, null);
+            List<DeployableRemediation> remediations = search.search(remediationActions, numberOfResults, DeployableRemediationSearch.DEFAULT_EXPANSION_LIMIT);
+
+            Assert.assertEquals(Math.min(numberOfResults, allCosts.size()), remediations.size());
+            Set<List<InformationSystemHost>> deployments = new HashSet<List<InformationSystemHost>>();
+            for (int i = 0; i < remediations.size(); i++) {
+                Assert.assertEquals(allCosts.get(i), remediations.get(i).getCost(), 0.001);
+                List<InformationSystemHost> deployment = new ArrayList<InformationSystemHost>();
+                for (DeployableRemediationAction action : remediations.get(i).getActions()) {
+                    deployment.add(action.getHost());
+                }
+                Assert.assertTrue("The machine combinations must be distinct", deployments.add(deployment));
+            }
+            Assert.assertTrue(search.getNumberOfExpansions() <= 2 * allCosts.size());
+        }
+    }
+
+    /**
+     * Test the actions without possible machine, the empty requests and the expansion limit.
+     */
+    @Test
+    public void testLimits() throws Exception {
+        RemediationAction notDeployable = action(1, 1, 0);
+        RemediationAction cheap = action(2, 2, 3);
+        RemediationAction expensive = action(5, 5, 1);
+        List<List<RemediationAction>> remediationActions = new ArrayList<List<RemediationAction>>();
+        remediationActions.add(Arrays.asList(expensive, notDeployable));
+        remediationActions.add(Arrays.asList(notDeployable));
+        remediationActions.add(Arrays.asList(cheap));
+
+        DeployableRemediationSearch search = new DeployableRemediationSearch(null, null);
+        List<DeployableRemediation> remediations = search.search(remediationActions, 10, DeployableRemediationSearch.DEFAULT_EXPANSION_LIMIT);
+        Assert.assertEquals(4, remediations.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(2, remediations.get(i).getCost(), 0.001);
+            Assert.assertSame(cheap.getPossibleMachines().get(i), remediations.get(i).getActions().get(0).getHost());
+        }
+        Assert.assertEquals(5, remediations.get(3).getCost(), 0.001);
+        Assert.assertEquals(1, remediations.get(3).getActions().size());
+
+        Assert.assertTrue(search.search(remediationActions, 0, DeployableRemediationSearch.DEFAULT_EXPANSION_LIMIT).isEmpty());
+        Assert.assertEquals(0, search.getNumberOfExpansions());
+
+        remediations = search.search(remediationActions, 10, 2);
+        Assert.assertEquals(2, search.getNumberOfExpansions());
+        Assert.assertEquals(2, remediations.size());
+        Assert.assertEquals(2, remediations.get(1).getCost(), 0.001);
+    }
+
+    /**
+     * @param cost             the operational cost of the action
+     * @param lowerBound       the lower bound of the operational cost of the action
+     * @param numberOfMachines the number of machines on which the action can be deployed
+     * @return the remediation action
+     */
+    private RemediationAction action(final double cost, final double lowerBound, int numberOfMachines) throws Exception {
+        RemediationAction action = new RemediationAction(RemediationAction.ActionType.DEPLOY_FIREWALL_RULE, folder.getRoot().getPath()) {
+            @Override
+            public double getOperationalCost() {
+                return cost;
+            }
+
+            @Override
+            public double getOperationalCostLowerBound() {
+                return lowerBound;
+            }
+        };
+        for (int i = 0; i < numberOfMachines; i++) {
+            action.getPossibleMachines().add(new InformationSystemHost("host" + numberOfHosts++, null));
+        }
+        return action;
+    }
+}
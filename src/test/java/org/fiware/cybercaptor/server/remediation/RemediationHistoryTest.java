@@ -0,0 +1,261 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.attackgraph.AttackPath;
+import org.fiware.cybercaptor.server.attackgraph.Vertex;
+import org.fiware.cybercaptor.server.attackgraph.serializable.SerializableAttackPath;
+import org.fiware.cybercaptor.server.attackgraph.serializable.SerializableVertex;
+import org.fiware.cybercaptor.server.informationsystem.InformationSystem;
+import org.fiware.cybercaptor.server.informationsystem.InformationSystemHost;
+import org.fiware.cybercaptor.server.informationsystem.graph.InformationSystemGraphVertex;
+import org.fiware.cybercaptor.server.remediation.serializable.SerializableDeployableRemediation;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Class to test the append-only log of the remediation history.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class RemediationHistoryTest {
+
+    /**
+     * The magic number at the beginning of the history log
+     */
+    private static final int MAGIC_NUMBER = 0x43435248;
+
+    /**
+     * The folder of the history files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that the added remediations are read again from the log, and that the compaction keeps them.
+     */
+    @Test
+    public void testAddAndCompact() throws Exception {
+        String path = newPath();
+        RemediationHistory history = RemediationHistory.getRemediationHistory(path);
+        Assert.assertEquals(0, history.size());
+        history.add(attackPath("host1"), remediation("rule1"));
+        history.add(attackPath("host1", "host2"), remediation("rule1", "rule2"));
+        history.add(attackPath("host2"), remediation("rule2"));
+        Assert.assertEquals(3, history.size());
+        Assert.assertEquals(2, history.getHabitIndex(attackPath("host1"), remediation("rule1")));
+        Assert.assertEquals(1, history.getHabitIndex(attackPath("host2"), remediation("rule1", "rule2")));
+        Assert.assertEquals(3, reload(path).size());
+
+        long length = new File(path).length();
+        history.compact();
+        Assert.assertEquals(length, new File(path).length());
+        Assert.assertEquals(MAGIC_NUMBER, readMagicNumber(path));
+        history.add(attackPath("host3"), remediation("rule3"));
+        RemediationHistory reloaded = reload(path);
+        Assert.assertEquals(4, reloaded.size());
+        Assert.assertEquals(2, reloaded.getHabitIndex(attackPath("host1"), remediation("rule1")));
+        Assert.assertEquals(1, reloaded.getHabitIndex(attackPath("host3"), remediation("rule3")));
+    }
+
+    /**
+     * Test the conversion of a history file written with the previous format (one serialized list).
+     */
+    @Test
+    public void testLegacyConversion() throws Exception {
+        String path = newPath();
+        writeLegacyHistory(path);
+
+        RemediationHistory history = RemediationHistory.getRemediationHistory(path);
+        Assert.assertEquals(2, history.size());
+        Assert.assertEquals(MAGIC_NUMBER, readMagicNumber(path));
+        Assert.assertEquals(2, history.getHabitIndex(attackPath("host1"), remediation("rule1")));
+        Assert.assertEquals(1, history.getHabitIndex(attackPath("host1"), remediation("rule2")));
+
+        history.add(attackPath("host2"), remediation("rule2"));
+        Assert.assertEquals(3, reload(path).size());
+    }
+
+    /**
+     * Test that a record damaged by an interrupted write at the end of the log is dropped.
+     */
+    @Test
+    public void testTruncatedLastRecord() throws Exception {
+        String path = newPath();
+        RemediationHistory history = RemediationHistory.getRemediationHistory(path);
+        history.add(attackPath("host1"), remediation("rule1"));
+        long firstRecordEnd = new File(path).length();
+        history.add(attackPath("host2"), remediation("rule2"));
+
+        String truncatedPath = newPath();
+        Files.copy(new File(path).toPath(), new File(truncatedPath).toPath());
+        RandomAccessFile truncatedFile = new RandomAccessFile(truncatedPath, "rw");
+        try {
+            truncatedFile.setLength(new File(path).length() - 5);
+        } finally {
+            truncatedFile.close();
+        }
+
+        RemediationHistory truncatedHistory = RemediationHistory.getRemediationHistory(truncatedPath);
+        Assert.assertEquals(1, truncatedHistory.size());
+        Assert.assertEquals(firstRecordEnd, new File(truncatedPath).length());
+        truncatedHistory.add(attackPath("host3"), remediation("rule3"));
+        RemediationHistory reloaded = reload(truncatedPath);
+        Assert.assertEquals(2, reloaded.size());
+        Assert.assertEquals(0, reloaded.getHabitIndex(attackPath("host2"), remediation("rule2")));
+        Assert.assertEquals(1, reloaded.getHabitIndex(attackPath("host3"), remediation("rule3")));
+    }
+
+    /**
+     * Test that a history file that can not be read is not overwritten by the addition of a remediation.
+     */
+    @Test
+    public void testUnreadableHistoryIsNotOverwritten() throws Exception {
+        String path = newPath();
+        writeLegacyHistory(path);
+        byte[] content = Files.readAllBytes(new File(path).toPath());
+        byte[] damagedContent = Arrays.copyOf(content, content.length / 2);
+        Files.write(new File(path).toPath(), damagedContent);
+
+        RemediationHistory history = RemediationHistory.getRemediationHistory(path);
+        Assert.assertEquals(0, history.size());
+        try {
+            history.add(attackPath("host1"), remediation("rule1"));
+            fail("A remediation has been added to a history that can not be loaded");
+        } catch (Exception e) {
+            //Expected: the history file is kept as it is
+        }
+        Assert.assertArrayEquals(damagedContent, Files.readAllBytes(new File(path).toPath()));
+    }
+
+    /**
+     * @return the path of a new history file
+     */
+    private String newPath() throws Exception {
+        File file = folder.newFile();
+        Assert.assertTrue(file.delete());
+        return file.getPath();
+    }
+
+    /**
+     * Copy a history file and load the copy, so that the history is read again from the disk
+     *
+     * @param path the path of the history file
+     * @return the history loaded from the copy
+     */
+    private RemediationHistory reload(String path) throws Exception {
+        String copyPath = newPath();
+        Files.copy(new File(path).toPath(), new File(copyPath).toPath());
+        return RemediationHistory.getRemediationHistory(copyPath);
+    }
+
+    /**
+     * Write a history file with the previous format: a serialized list of entries
+     *
+     * @param path the path of the history file
+     */
+    private void writeLegacyHistory(String path) throws Exception {
+        List<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>> entries =
+                new ArrayList<AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>>();
+        entries.add(new AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>(attackPath("host1", "host2"), remediation("rule1")));
+        entries.add(new AbstractMap.SimpleEntry<SerializableAttackPath, SerializableDeployableRemediation>(attackPath("host1"), remediation("rule1", "rule2")));
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(path));
+        try {
+            oos.writeObject(entries);
+        } finally {
+            oos.close();
+        }
+    }
+
+    /**
+     * @param path the path of a file
+     * @return the first int of the file
+     */
+    private static int readMagicNumber(String path) throws Exception {
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(path));
+        try {
+            return inputStream.readInt();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Create a serializable attack path going through machines
+     *
+     * @param machines the names of the machines
+     * @return the attack path
+     */
+    private static SerializableAttackPath attackPath(String... machines) throws Exception {
+        AttackPath emptyPath = new AttackPath() {
+            @Override
+            public Vertex getGoal() {
+                return new Vertex(0);
+            }
+        };
+        SerializableAttackPath result = new SerializableAttackPath(emptyPath, new InformationSystem());
+        for (int i = 0; i < machines.length; i++) {
+            InformationSystemGraphVertex vertex = new InformationSystemGraphVertex();
+            vertex.setType(InformationSystemGraphVertex.TopologyVertexType.Machine);
+            vertex.setMachine(new InformationSystemHost(machines[i], null));
+            result.vertices.put(i, new SerializableVertex(vertex));
+        }
+        return result;
+    }
+
+    /**
+     * Create a serializable remediation deploying firewall rules
+     *
+     * @param rules the firewall rules
+     * @return the remediation
+     */
+    private SerializableDeployableRemediation remediation(String... rules) throws Exception {
+        DeployableRemediation deployableRemediation = new DeployableRemediation(null, null);
+        List<DeployableRemediationAction> actions = new ArrayList<DeployableRemediationAction>();
+        for (String rule : rules) {
+            RemediationAction remediationAction = new RemediationAction(RemediationAction.ActionType.DEPLOY_FIREWALL_RULE, folder.getRoot().getPath());
+            remediationAction.setRemediationParameters(Collections.<Object>singletonList(rule));
+            DeployableRemediationAction action = new DeployableRemediationAction();
+            action.setRemediationAction(remediationAction);
+            actions.add(action);
+        }
+        deployableRemediation.setActions(actions);
+        return new SerializableDeployableRemediation(deployableRemediation);
+    }
+}
@@ -0,0 +1,221 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.remediation;
+
+import org.fiware.cybercaptor.server.informationsystem.InformationSystemHost;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class to test the planning of the remediations of all the attack paths.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class RemediationPlannerTest {
+
+    /**
+     * The folder of the (default) operational cost parameters
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test an instance on which the greedy cover is not optimal, and the branch and bound finds the optimum.
+     */
+    @Test
+    public void testGreedyAndExact() throws Exception {
+        RemediationAction s = action(1);
+        RemediationAction t1 = action(0.7);
+        RemediationAction t2 = action(0.7);
+        RemediationAction u = action(1);
+        List<List<List<RemediationAction>>> paths = new ArrayList<List<List<RemediationAction>>>();
+        paths.add(remediations(Arrays.asList(s), Arrays.asList(t1)));
+        paths.add(remediations(Arrays.asList(s), Arrays.asList(t2)));
+        paths.add(remediations(Arrays.asList(s), Arrays.asList(t2)));
+        paths.add(remediations(Arrays.asList(t1), Arrays.asList(u)));
+
+        RemediationPlan greedyPlan = new RemediationPlanner(paths).plan(RemediationPlanner.Mode.GREEDY, RemediationPlanner.DEFAULT_TIME_BUDGET);
+        Assert.assertEquals(RemediationPlanner.Mode.GREEDY, greedyPlan.getMode());
+        Assert.assertFalse(greedyPlan.isOptimal());
+        Assert.assertEquals(1.7, greedyPlan.getCost(), 0.001);
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), greedyPlan.getCoveredAttackPaths());
+
+        RemediationPlan exactPlan = new RemediationPlanner(paths).plan(RemediationPlanner.Mode.AUTO, RemediationPlanner.DEFAULT_TIME_BUDGET);
+        Assert.assertEquals(RemediationPlanner.Mode.EXACT, exactPlan.getMode());
+        Assert.assertTrue(exactPlan.isOptimal());
+        Assert.assertFalse(exactPlan.isTimeBudgetExceeded());
+        Assert.assertEquals(1.4, exactPlan.getCost(), 0.001);
+        Assert.assertEquals(2, exactPlan.getActions().size());
+        Assert.assertTrue(exactPlan.getActions().contains(t1));
+        Assert.assertTrue(exactPlan.getActions().contains(t2));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), exactPlan.getCoveredAttackPaths());
+        Assert.assertTrue(exactPlan.getUncoveredAttackPaths().isEmpty());
+    }
+
+    /**
+     * Test that the attack paths without deployable remediation are reported as uncovered.
+     */
+    @Test
+    public void testUncoverableAttackPaths() throws Exception {
+        RemediationAction a = action(1);
+        RemediationAction notDeployable = action(1);
+        notDeployable.getPossibleMachines().clear();
+        List<List<List<RemediationAction>>> paths = new ArrayList<List<List<RemediationAction>>>();
+        paths.add(remediations(Arrays.asList(notDeployable)));
+        paths.add(remediations(Arrays.asList(a)));
+        paths.add(new ArrayList<List<RemediationAction>>());
+
+        for (RemediationPlanner.Mode mode : RemediationPlanner.Mode.values()) {
+            RemediationPlan plan = new RemediationPlanner(paths).plan(mode, RemediationPlanner.DEFAULT_TIME_BUDGET);
+            Assert.assertEquals(Collections.singletonList(a), plan.getActions());
+            Assert.assertEquals(Collections.singletonList(1), plan.getCoveredAttackPaths());
+            Assert.assertEquals(Arrays.asList(0, 2), plan.getUncoveredAttackPaths());
+        }
+    }
+
+    /**
+     * Test that the exact mode finds the optimal plan of random instances, and that the greedy plans cover all the attack paths.
+     */
+    @Test
+    public void testExactIsOptimal() throws Exception {
+        Random random = new Random(5);
+        for (int instance = 0; instance < 50; instance++) {
+            int numberOfActions = 2 + random.nextInt(7);
+            RemediationAction[] actions = new RemediationAction[numberOfActions];
+            for (int i = 0; i < numberOfActions; i++) {
+                actions[i] = action(1 + random.nextInt(100) / 10.);
+            }
+            List<List<List<RemediationAction>>> paths = new ArrayList<List<List<RemediationAction>>>();
+            int numberOfPaths = 1 + random.nextInt(8);
+            for (int path = 0; path < numberOfPaths; path++) {
+                List<List<RemediationAction>> remediations = new ArrayList<List<RemediationAction>>();
+                int numberOfRemediations = 1 + random.nextInt(3);
+                for (int i = 0; i < numberOfRemediations; i++) {
+                    List<RemediationAction> remediation = new ArrayList<RemediationAction>();
+                    for (RemediationAction action : actions) {
+                        if (random.nextInt(3) == 0)
+                            remediation.add(action);
+                    }
+                    if (remediation.isEmpty())
+                        remediation.add(actions[random.nextInt(numberOfActions)]);
+                    remediations.add(remediation);
+                }
+                paths.add(remediations);
+            }
+
+            //Brute force on all the subsets of actions
+            double optimalCost = Double.MAX_VALUE;
+            for (int subset = 0; subset < (1 << numberOfActions); subset++) {
+                List<RemediationAction> chosenActions = new ArrayList<RemediationAction>();
+                double cost = 0;
+                for (int i = 0; i < numberOfActions; i++) {
+                    if ((subset & (1 << i)) != 0) {
+                        chosenActions.add(actions[i]);
+                        cost += actions[i].getOperationalCostLowerBound();
+                    }
+                }
+                if (cost < optimalCost && coversAllPaths(paths, chosenActions))
+                    optimalCost = cost;
+            }
+
+            RemediationPlan exactPlan = new RemediationPlanner(paths).plan(RemediationPlanner.Mode.EXACT, RemediationPlanner.DEFAULT_TIME_BUDGET);
+            Assert.assertTrue(exactPlan.isOptimal());
+            Assert.assertEquals(optimalCost, exactPlan.getCost(), 0.01);
+            Assert.assertTrue(coversAllPaths(paths, exactPlan.getActions()));
+            Assert.assertEquals(numberOfPaths, exactPlan.getCoveredAttackPaths().size());
+
+            RemediationPlan greedyPlan = new RemediationPlanner(paths).plan(RemediationPlanner.Mode.GREEDY, RemediationPlanner.DEFAULT_TIME_BUDGET);
+            Assert.assertTrue(coversAllPaths(paths, greedyPlan.getActions()));
+            Assert.assertTrue(greedyPlan.getCost() >= exactPlan.getCost());
+        }
+    }
+
+    /**
+     * Test that the planning stops when the time budget is exceeded.
+     */
+    @Test
+    public void testTimeBudgetExceeded() throws Exception {
+        List<List<List<RemediationAction>>> paths = new ArrayList<List<List<RemediationAction>>>();
+        for (int i = 0; i < 20; i++) {
+            paths.add(remediations(Arrays.asList(action(1)), Arrays.asList(action(2))));
+        }
+        for (RemediationPlanner.Mode mode : RemediationPlanner.Mode.values()) {
+            RemediationPlan plan = new RemediationPlanner(paths).plan(mode, -1);
+            Assert.assertTrue(plan.isTimeBudgetExceeded());
+            Assert.assertFalse(plan.isOptimal());
+            Assert.assertTrue(plan.getActions().isEmpty());
+            Assert.assertEquals(20, plan.getUncoveredAttackPaths().size());
+        }
+    }
+
+    /**
+     * @param paths         the remediations of the attack paths
+     * @param chosenActions the chosen actions
+     * @return true if each attack path has a remediation contained in the chosen actions
+     */
+    private static boolean coversAllPaths(List<List<List<RemediationAction>>> paths, List<RemediationAction> chosenActions) {
+        for (List<List<RemediationAction>> remediations : paths) {
+            boolean covered = false;
+            for (List<RemediationAction> remediation : remediations) {
+                if (chosenActions.containsAll(remediation)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param remediations the remediations of an attack path
+     * @return the list of the remediations
+     */
+    @SafeVarargs
+    private static List<List<RemediationAction>> remediations(List<RemediationAction>... remediations) {
+        return new ArrayList<List<RemediationAction>>(Arrays.asList(remediations));
+    }
+
+    /**
+     * @param cost the operational cost of the action
+     * @return a deployable remediation action of this cost
+     */
+    private RemediationAction action(final double cost) throws Exception {
+        RemediationAction action = new RemediationAction(RemediationAction.ActionType.DEPLOY_FIREWALL_RULE, folder.getRoot().getPath()) {
+            @Override
+            public double getOperationalCostLowerBound() {
+                return cost;
+            }
+        };
+        action.getPossibleMachines().add(new InformationSystemHost("host", null));
+        return action;
+    }
+}
@@ -28,6 +28,8 @@ import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.fail;
@@ -128,6 +130,92 @@ public class FilteringTest {
         }
     }
 
+    /**
+     * Test that the reachability matrix gives the same results as the simulation of the packets,
+     * and that it is out of date after a change of the firewall rules.
+     */
+    @Test
+    public void testReachabilityMatrix() {
+        createFilteringRules();
+        try {
+            Topology topology = topologyTest.getTopology();
+            ReachabilityMatrix matrix = new ReachabilityMatrix(topology, new ArrayList<PortRange>());
+            int[] ports = {0, 21, 22, 23, 79, 80, 81, 443, 2222, 3306, 8080, 65535};
+            FirewallRule.Protocol[] protocols = {FirewallRule.Protocol.TCP, FirewallRule.Protocol.UDP};
+            for (Host from : topology.getHosts()) {
+                for (Host to : topology.getHosts()) {
+                    for (FirewallRule.Protocol protocol : protocols) {
+                        for (int port : ports) {
+                            boolean expected = from == to || from.sendPacketSucceed(from.getFirstIPAddress(), ReachabilityMatrix.SOURCE_PORT, to.getFirstIPAddress(), port, protocol);
+                            Assert.assertEquals(from.getName() + " -> " + to.getName() + " " + protocol + "/" + port, expected, matrix.canReach(from, to, protocol, port));
+                        }
+                    }
+                }
+            }
+            Assert.assertTrue(matrix.canReach(topologyTest.getHost2(), topologyTest.getHost1(), FirewallRule.Protocol.ANY, 80));
+            Assert.assertTrue(matrix.isUpToDate(topology));
+
+            topologyTest.getHost1().getInputFirewallRulesTable().addFirewallRule(FirewallRule.Action.ACCEPT, FirewallRule.Protocol.TCP, IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), PortRange.fromString("ANY"), topologyTest.getHost1().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), PortRange.fromString("22"));
+            Assert.assertFalse(matrix.isUpToDate(topology));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Problem with filtering : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Test that the batch simulation of packets gives the same results as the simulation of the packets one by one.
+     */
+    @Test
+    public void testPacketSimulation() {
+        createFilteringRules();
+        try {
+            Topology topology = topologyTest.getTopology();
+            int[] ports = {22, 80, 443, 2222, 3306, 8080, 8081};
+            FirewallRule.Protocol[] protocols = {FirewallRule.Protocol.TCP, FirewallRule.Protocol.UDP};
+            List<PacketSimulation.Packet> packets = new ArrayList<PacketSimulation.Packet>();
+            for (Host from : topology.getHosts()) {
+                for (Host to : topology.getHosts()) {
+                    for (FirewallRule.Protocol protocol : protocols) {
+                        for (int port : ports) {
+                            packets.add(new PacketSimulation.Packet(from.getFirstIPAddress(), to.getFirstIPAddress(), protocol, port));
+                            if (from == topology.getHosts().get(0))
+                                packets.add(new PacketSimulation.Packet(null, to.getFirstIPAddress(), protocol, port));
+                        }
+                    }
+                }
+            }
+            List<PacketSimulation.Verdict> verdicts = new PacketSimulation(topology).simulate(packets, true);
+            Assert.assertEquals(packets.size(), verdicts.size());
+            for (int i = 0; i < packets.size(); i++) {
+                PacketSimulation.Packet packet = packets.get(i);
+                boolean expected = false;
+                if (packet.isFromInternet()) {
+                    for (List<Host> route : topology.existingHostByIPAddress(packet.getDestination()).getRoutesFromInternet()) {
+                        expected |= topology.sendAPacketOnARouteFromInternet(route, packet.getDestination(), packet.getDestinationPort(), packet.getProtocol());
+                    }
+                } else {
+                    try {
+                        expected = topology.sendAPacketFromAHostToAnotherSucceed(packet.getSource(), packet.getSourcePort(), packet.getDestination(), packet.getDestinationPort(), packet.getProtocol());
+                    } catch (Exception e) {
+                        Assert.assertNotNull(packet.toString(), verdicts.get(i).getRoutingError());
+                    }
+                }
+                Assert.assertEquals(packet.toString(), expected, verdicts.get(i).isDelivered());
+            }
+
+            PacketSimulation.Packet blocked = new PacketSimulation.Packet(topologyTest.getHost2().getFirstIPAddress(), topologyTest.getHost1().getFirstIPAddress(), FirewallRule.Protocol.TCP, 22);
+            PacketSimulation.Verdict verdict = new PacketSimulation(topology).simulate(Collections.singletonList(blocked), true).get(0);
+            Assert.assertFalse(verdict.isDelivered());
+            Assert.assertEquals(topologyTest.getHost1(), verdict.getBlockingHost());
+            Assert.assertEquals(FirewallRule.Table.INPUT, verdict.getBlockingTable());
+            Assert.assertEquals(2, verdict.getHops().size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Problem with filtering : " + e.getMessage());
+        }
+    }
+
     /**
      * Test hosts that prevent to send a packet.
      */
@@ -326,4 +414,31 @@ public class FilteringTest {
         }
     }
 
+    /**
+     * Test send a packet on a route, with firewall rules added in an overlay of the topology.
+     */
+    @Test
+    public void testSendAPacketOnARouteThroughOverlay() {
+        createFilteringRules();
+        try {
+            TopologyOverlay overlay = new TopologyOverlay(topologyTest.getTopology());
+            FirewallRule rule = new FirewallRule(FirewallRule.Action.DROP, FirewallRule.Protocol.TCP, topologyTest.getHost2().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), PortRange.fromString("ANY"), topologyTest.getHost1().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), PortRange.fromString("80"), FirewallRule.Table.INPUT);
+            overlay.addFirewallRule(topologyTest.getHost1(), rule);
+
+            List<Host> route = overlay.routeBetweenHosts(topologyTest.getHost2(), topologyTest.getHost1());
+            //The rule of the overlay is applied before the rules of the table
+            Assert.assertFalse(overlay.sendAPacketOnARoute(route, topologyTest.getHost2().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 1025, topologyTest.getHost1().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 80, FirewallRule.Protocol.TCP));
+            Assert.assertTrue(overlay.sendAPacketOnARoute(route, topologyTest.getHost2().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 1025, topologyTest.getHost1().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 443, FirewallRule.Protocol.TCP));
+
+            //The base topology is not modified
+            Assert.assertTrue(topologyTest.getTopology().sendAPacketOnARoute(route, topologyTest.getHost2().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 1025, topologyTest.getHost1().getFirstIPAddress(), IPAddress.getIPv4NetMask(32), 80, FirewallRule.Protocol.TCP));
+            Assert.assertEquals(2, topologyTest.getHost1().getInputFirewallRulesTable().getRuleList().size());
+            Assert.assertSame(topologyTest.getHost2().getInputFirewallRulesTable(), overlay.getInputFirewallRulesTable(topologyTest.getHost2()));
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail("Problem with filtering : " + e.getMessage());
+        }
+    }
+
 }
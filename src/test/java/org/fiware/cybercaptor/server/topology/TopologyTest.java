@@ -21,13 +21,21 @@
 
 package org.fiware.cybercaptor.server.topology;
 
+import org.fiware.cybercaptor.server.flowmatrix.FlowMatrix;
+import org.fiware.cybercaptor.server.flowmatrix.FlowMatrixLine;
 import org.fiware.cybercaptor.server.topology.asset.Host;
 import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.Network;
 import org.fiware.cybercaptor.server.topology.asset.VLAN;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule;
 import org.fiware.cybercaptor.server.topology.asset.component.Interface;
+import org.fiware.cybercaptor.server.topology.asset.component.PortRange;
+import org.jdom2.Element;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.fail;
@@ -156,6 +164,164 @@ public class TopologyTest {
         Assert.assertNull(getTopology().existingHostByName("host7"));
     }
 
+    /**
+     * Test that the lookups of hosts by IP address and by name follow the changes of the topology.
+     */
+    @Test
+    public void testHostIndexes() {
+        createTestTopology();
+        try {
+            Assert.assertEquals(getHost1(), getTopology().existingHostByIPAddress(new IPAddress("10.0.0.2")));
+            Assert.assertEquals(getHost1().getInterfaces().get("eth0"), getTopology().getInterfaceByIpAddress(new IPAddress("10.0.0.2")));
+
+            getHost1().addInterface("eth1", "10.9.9.9");
+            Assert.assertEquals(getHost1(), getTopology().existingHostByIPAddress(new IPAddress("10.9.9.9")));
+
+            getHost1().setName("renamed");
+            Assert.assertNull(getTopology().existingHostByName("host1"));
+            Assert.assertEquals(getHost1(), getTopology().existingHostByName("renamed"));
+
+            Host added = new Host("added", getTopology());
+            added.addInterface("eth5", "10.8.8.8");
+            getTopology().getHosts().add(added);
+            Assert.assertEquals(added, getTopology().existingHostByIPAddress(new IPAddress("10.8.8.8")));
+            Assert.assertEquals(added, getTopology().existingHostByName("added"));
+
+            Host merged = getTopology().mergeTwoHosts(getHost1(), added);
+            Assert.assertEquals(merged, getTopology().existingHostByIPAddress(new IPAddress("10.8.8.8")));
+            Assert.assertEquals(merged, getTopology().existingHostByIPAddress(new IPAddress("10.0.0.2")));
+            Assert.assertNull(getTopology().existingHostByName("renamed"));
+
+            Assert.assertTrue(getTopology().removeHost(merged));
+            Assert.assertNull(getTopology().existingHostByIPAddress(new IPAddress("10.0.0.2")));
+            Assert.assertNull(getTopology().getInterfaceByIpAddress(new IPAddress("10.0.0.2")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test that the removal and the merge of hosts change the modification count of the topology,
+     * so that the indexes built on it are rebuilt.
+     */
+    @Test
+    public void testRemoveAndMergeHosts() {
+        createTestTopology();
+        try {
+            for (Host host : getTopology().getHosts()) {
+                for (Interface intface : host.getInterfaces().values()) {
+                    intface.setNetwork(new Network(intface.getAddress(), IPAddress.getIPv4NetMask(24)));
+                }
+            }
+            Network network1 = new Network("10.0.0.0/24");
+            Network network2 = new Network("10.0.1.0/24");
+            Assert.assertEquals(Arrays.asList(getHost1(), getHost2(), getRouter1()), getTopology().getHostsInNetwork(network1));
+
+            int modificationCount = getTopology().getModificationCount();
+            Assert.assertTrue(getTopology().removeHost(getHost2()));
+            Assert.assertNotEquals(modificationCount, getTopology().getModificationCount());
+            Assert.assertEquals(Arrays.asList(getHost1(), getRouter1()), getTopology().getHostsInNetwork(network1));
+
+            Assert.assertEquals(Arrays.asList(getHost3(), getHost4(), getRouter1(), getRouter2()), getTopology().getHostsInNetwork(network2));
+            modificationCount = getTopology().getModificationCount();
+            Host merged = getTopology().mergeTwoHosts(getHost3(), getHost4());
+            Assert.assertNotEquals(modificationCount, getTopology().getModificationCount());
+            Assert.assertEquals(Arrays.asList(getRouter1(), getRouter2(), merged), getTopology().getHostsInNetwork(network2));
+
+            modificationCount = getTopology().getModificationCount();
+            getTopology().getHosts().remove(merged);
+            Assert.assertNotEquals(modificationCount, getTopology().getModificationCount());
+            Assert.assertEquals(Arrays.asList(getRouter1(), getRouter2()), getTopology().getHostsInNetwork(network2));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test that the indexed access checks of a flow matrix give the same results as its lines.
+     */
+    @Test
+    public void testFlowMatrixAccesses() {
+        createTestTopology();
+        try {
+            getTopology().getVlan("200").setNetworkAddress(new IPAddress("10.0.1.0"));
+            getTopology().getVlan("200").setNetworkMask(24);
+            Element flowMatrixElement = new Element("flow-matrix");
+            flowMatrixElement.addContent(createFlowMatrixLine("IP", "10.0.0.2", "VLAN", "200", "80", "TCP"));
+            flowMatrixElement.addContent(createFlowMatrixLine("IP", "10.0.0.2", "IP", "10.0.1.3", "20-25", "TCP"));
+            flowMatrixElement.addContent(createFlowMatrixLine("VLAN", "200", "IP", "10.0.0.3", "ANY", "ANY"));
+            flowMatrixElement.addContent(createFlowMatrixLine("INTERNET", "", "IP", "10.0.1.2", "8080-8090", "TCP"));
+            flowMatrixElement.addContent(createFlowMatrixLine("INTERNET", "", "VLAN", "200", "53", "ANY"));
+            FlowMatrix flowMatrix = new FlowMatrix(flowMatrixElement, getTopology());
+
+            int[] ports = {0, 19, 20, 22, 25, 26, 53, 80, 8079, 8080, 8090, 8091, 65535};
+            FirewallRule.Protocol[] protocols = FirewallRule.Protocol.values();
+            for (Host from : getTopology().getHosts()) {
+                for (Interface ni1 : from.getInterfaces().values()) {
+                    for (Host to : getTopology().getHosts()) {
+                        for (Interface ni2 : to.getInterfaces().values()) {
+                            for (FirewallRule.Protocol protocol : protocols) {
+                                for (int port : ports) {
+                                    boolean expected = ni1.getVlan().equals(ni2.getVlan());
+                                    for (FlowMatrixLine line : flowMatrix.getFlowMatrixLines()) {
+                                        expected |= line.getSource().contains(ni1) && line.getDestination().contains(ni2) && line.getDestination_port().inRange(port)
+                                                && (line.getProtocol() == FirewallRule.Protocol.ANY || line.getProtocol() == protocol || protocol == FirewallRule.Protocol.ANY);
+                                    }
+                                    Assert.assertEquals(ni1.getAddress() + " -> " + ni2.getAddress() + " " + protocol + "/" + port, expected, flowMatrix.accessAuthorized(ni1, ni2, port, protocol));
+                                }
+                            }
+                        }
+                    }
+                    for (FirewallRule.Protocol protocol : protocols) {
+                        for (int port : ports) {
+                            boolean expected = false;
+                            for (FlowMatrixLine line : flowMatrix.getFlowMatrixLines()) {
+                                expected |= line.getSource().isInternet() && line.getDestination().contains(ni1) && line.getDestination_port().inRange(port)
+                                        && (line.getProtocol() == FirewallRule.Protocol.ANY || line.getProtocol() == protocol);
+                            }
+                            Assert.assertEquals("internet -> " + ni1.getAddress() + " " + protocol + "/" + port, expected, flowMatrix.accessAuthorizedFromInternet(ni1, port, protocol));
+                        }
+                    }
+                }
+            }
+
+            Interface eth0host1 = getHost1().getInterfaces().get("eth0");
+            Interface eth0host3 = getHost3().getInterfaces().get("eth0");
+            Assert.assertTrue(flowMatrix.accessAuthorized(eth0host1, eth0host3, 80, FirewallRule.Protocol.TCP));
+            Assert.assertFalse(flowMatrix.accessAuthorized(eth0host1, eth0host3, 80, FirewallRule.Protocol.UDP));
+            Assert.assertTrue(flowMatrix.accessAuthorizedFromInternet(eth0host3, 8085, FirewallRule.Protocol.TCP));
+
+            flowMatrix.getFlowMatrixLines().add(new FlowMatrixLine(createFlowMatrixLine("IP", "10.0.0.2", "IP", "10.0.1.2", "443", "TCP"), getTopology()));
+            Assert.assertTrue(flowMatrix.accessAuthorized(eth0host1, eth0host3, 443, FirewallRule.Protocol.TCP));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Create the XML DOM element of a flow matrix line
+     *
+     * @param sourceType      the type of the source element
+     * @param source          the resource of the source element
+     * @param destinationType the type of the destination element
+     * @param destination     the resource of the destination element
+     * @param destinationPort the destination port range
+     * @param protocol        the protocol
+     * @return the XML DOM element of the line
+     */
+    private static Element createFlowMatrixLine(String sourceType, String source, String destinationType, String destination, String destinationPort, String protocol) {
+        Element line = new Element("flow-matrix-line");
+        line.addContent(new Element("source").setAttribute("type", sourceType).setAttribute("resource", source));
+        line.addContent(new Element("destination").setAttribute("type", destinationType).setAttribute("resource", destination));
+        line.addContent(new Element("source_port").setText("ANY"));
+        line.addContent(new Element("destination_port").setText(destinationPort));
+        line.addContent(new Element("protocol").setText(protocol));
+        return line;
+    }
+
     /**
      * Test vlans size.
      */
@@ -165,6 +331,79 @@ public class TopologyTest {
         Assert.assertEquals(2, getTopology().getVlans().size());
     }
 
+    /**
+     * Test the adjacency index : the neighbours and the hosts in a network are the ones found by scanning
+     * the vlans and the interfaces, and the changes of the interfaces are taken into account.
+     */
+    @Test
+    public void testAdjacencyIndex() {
+        createTestTopology();
+        try {
+            Assert.assertEquals(Arrays.asList(getRouter1(), getHost1(), getHost2()), getHost1().getDirectlyAccessibleHosts());
+            Assert.assertEquals(getHost4(), getHost3().hostInVlan(new IPAddress("10.0.1.3")));
+            Assert.assertNull(getHost3().hostInVlan(new IPAddress("10.0.0.2")));
+            Assert.assertEquals(3, getRouter2().getInterfaces().get("eth0").getDirectlyAccessibleInterface().size());
+
+            for (Host host : getTopology().getHosts()) {
+                for (Interface intface : host.getInterfaces().values()) {
+                    intface.setNetwork(new Network(intface.getAddress(), IPAddress.getIPv4NetMask(24)));
+                }
+            }
+            String[][] networks = {{"10.0.0.0", "255.255.255.0"}, {"10.0.0.0", "255.255.254.0"}, {"10.0.0.0", "255.0.0.0"},
+                    {"0.0.0.0", "0.0.0.0"}, {"10.0.1.2", "255.255.255.255"}, {"0.0.0.2", "0.0.0.255"}, {"200.0.0.0", "255.0.0.0"}};
+            for (String[] networkString : networks) {
+                Network network = new Network(new IPAddress(networkString[0]), new IPAddress(networkString[1]));
+                List<Host> expected = new ArrayList<Host>();
+                for (Host host : getTopology().getHosts()) {
+                    for (Interface intface : host.getInterfaces().values()) {
+                        if (new Network(intface.getAddress()).isIncludedIn(network) && !expected.contains(host))
+                            expected.add(host);
+                    }
+                }
+                Assert.assertEquals(network.toString(), expected, getTopology().getHostsInNetwork(network));
+            }
+
+            Host host7 = new Host("host7", getTopology());
+            getTopology().addHost(host7);
+            host7.addInterface("eth0", "10.0.0.4", getTopology().getVlan("100"));
+            Assert.assertEquals(host7, getHost1().hostInVlan(new IPAddress("10.0.0.4")));
+            Assert.assertEquals(3, getHost2().getInterfaces().get("eth0").getDirectlyAccessibleInterface().size());
+            Assert.assertEquals(Arrays.asList(getHost1(), getHost2(), getRouter1()), getTopology().getHostsInNetwork(new Network("10.0.0.0/24")));
+            host7.getInterfaces().get("eth0").setNetwork(new Network("10.0.0.0/24"));
+            Assert.assertEquals(Arrays.asList(getHost1(), getHost2(), getRouter1(), host7), getTopology().getHostsInNetwork(new Network("10.0.0.0/24")));
+
+            Assert.assertNull(getHost1().hostInVlan(new IPAddress("10.10.10.2")));
+            getHost5().getInterfaces().get("eth0").setVlan(getTopology().getVlan("100"));
+            Assert.assertEquals(getHost5(), getHost1().hostInVlan(new IPAddress("10.10.10.2")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Test the next hop lookup : the most specific route wins, whatever the order of the routes.
+     */
+    @Test
+    public void testNextHopLongestPrefixMatch() {
+        createTestTopology();
+        try {
+            Host host = getHost1();
+            Interface eth0 = host.getInterfaces().get("eth0");
+            host.getRoutingTable().addRoute(new IPAddress("192.168.0.0"), IPAddress.getIPv4NetMask(16), new IPAddress("10.0.0.16"), eth0);
+            host.getRoutingTable().addRoute(new IPAddress("192.168.1.0"), IPAddress.getIPv4NetMask(24), new IPAddress("10.0.0.24"), eth0);
+            host.getRoutingTable().addRoute(new IPAddress("192.168.1.7"), IPAddress.getIPv4NetMask(32), new IPAddress("10.0.0.32"), eth0);
+
+            Assert.assertEquals(new IPAddress("10.0.0.32"), host.getRoutingTable().getNextHop(new IPAddress("192.168.1.7")));
+            Assert.assertEquals(new IPAddress("10.0.0.24"), host.getRoutingTable().getNextHop(new IPAddress("192.168.1.8")));
+            Assert.assertEquals(new IPAddress("10.0.0.16"), host.getRoutingTable().getNextHop(new IPAddress("192.168.2.1")));
+            Assert.assertEquals(new IPAddress("10.0.0.1"), host.getRoutingTable().getNextHop(new IPAddress("8.8.8.8")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Test routing between hosts.
      */
@@ -231,6 +470,29 @@ public class TopologyTest {
         }
     }
 
+    /**
+     * Test that the routes are cached, and recomputed after a change of a routing table.
+     */
+    @Test
+    public void testRouteCache() {
+        createTestTopology();
+        try {
+            RouteCache routeCache = getTopology().getRouteCache();
+            List<Host> route = getTopology().routeBetweenHosts(getHost1(), getHost2());
+            long misses = routeCache.getMisses();
+            Assert.assertEquals(route, getTopology().routeBetweenHosts(getHost1(), getHost2()));
+            Assert.assertEquals(misses, routeCache.getMisses());
+            Assert.assertTrue(routeCache.getHits() > 0);
+
+            getHost1().getRoutingTable().addRoute(new IPAddress("192.168.7.0"), IPAddress.getIPv4NetMask(24), new IPAddress("10.0.0.1"), getHost1().getInterfaces().get("eth0"));
+            Assert.assertEquals(route, getTopology().routeBetweenHosts(getHost1(), getHost2()));
+            Assert.assertEquals(misses + 1, routeCache.getMisses());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Test cloning.
      */
@@ -245,6 +507,19 @@ public class TopologyTest {
             Assert.assertEquals(cloneTopology.existingHostByName("host1").getFirstIPAddress(), getTopology().existingHostByName("host1").getFirstIPAddress());
 
             Assert.assertNotSame(cloneTopology.existingHostByName("router1"), getTopology().existingHostByName("router1"));
+
+            //The clone routes through its own hosts, and its modifications do not change the original topology
+            Host host1Clone = cloneTopology.existingHostByName("host1");
+            for (Host host : cloneTopology.routeBetweenHosts(host1Clone, cloneTopology.existingHostByName("host2"))) {
+                Assert.assertSame(host, cloneTopology.existingHostByName(host.getName()));
+            }
+            int vlanSize = getHost1().getInterfaces().get("eth0").getVlan().getInterfaces().size();
+            Assert.assertNotSame(getHost1().getInterfaces().get("eth0").getVlan(), host1Clone.getInterfaces().get("eth0").getVlan());
+            Assert.assertEquals(vlanSize, host1Clone.getInterfaces().get("eth0").getVlan().getInterfaces().size());
+            host1Clone.getInputFirewallRulesTable().addFirewallRule(FirewallRule.Action.DROP, FirewallRule.Protocol.ANY, IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), new PortRange(true), IPAddress.getIPv4NetMask(0), IPAddress.getIPv4NetMask(0), new PortRange(true));
+            Assert.assertEquals(1, host1Clone.getInputFirewallRulesTable().getRules().size());
+            Assert.assertEquals(0, getHost1().getInputFirewallRulesTable().getRules().size());
+            Assert.assertEquals(vlanSize, getHost1().getInterfaces().get("eth0").getVlan().getInterfaces().size());
         } catch (Exception e) {
             e.printStackTrace();
             fail("Problem while cloning the topology: " + e.getMessage());
@@ -0,0 +1,170 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.topology.asset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Class to test the parsing of the IP addresses and the conversions between masks and prefix lengths.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class IPAddressTest {
+
+    /**
+     * Strings accepted or rejected by the parser, whatever the notation
+     */
+    private static final String[] ADDRESSES = {"10.0.0.1", "0.0.0.0", "255.255.255.255", "192.168.001.010", "010.0.0.1",
+            "10x0x0x1", "10 0 0 1", "10-0-0-1", "", "10.0.0", "10.0.0.1.2", "256.0.0.1", "1.2.3.300", "0010.0.0.1",
+            "1.2.3.-4", "a.b.c.d", "1..2.3", "10.0.0.1 ", " 10.0.0.1", "10.0.0.", ".10.0.0", "1.2.3.4/24", "1121314"};
+
+    /**
+     * Test that the parser accepts exactly the strings accepted by the IPv4 pattern.
+     */
+    @Test
+    public void testAcceptedAddresses() {
+        for (String address : ADDRESSES) {
+            boolean expected = IPAddress.pattern.matcher(address).matches();
+            Assert.assertEquals(address, expected, IPAddress.isAnIPAddress(address));
+            try {
+                new IPAddress(address);
+                Assert.assertTrue(address + " should be rejected", expected);
+            } catch (Exception e) {
+                Assert.assertFalse(address + " should be accepted", expected);
+            }
+        }
+        try {
+            new IPAddress((String) null);
+            fail("null should be rejected");
+        } catch (Exception e) {
+            //Expected
+        }
+    }
+
+    /**
+     * Test the value of the parsed addresses, and the equality of the notations of the same address.
+     */
+    @Test
+    public void testParsedValues() throws Exception {
+        Assert.assertEquals(0x0A000001, new IPAddress("10.0.0.1").toInt());
+        Assert.assertEquals(0, new IPAddress("0.0.0.0").toInt());
+        Assert.assertEquals(-1, new IPAddress("255.255.255.255").toInt());
+        Assert.assertEquals(0xC0A8010A, new IPAddress("192.168.001.010").toInt());
+
+        IPAddress address = new IPAddress("10.0.0.1");
+        for (String notation : new String[]{"010.0.0.1", "10.000.0.001", "10x0x0x1", "10 0 0 1", "10-0-0-1"}) {
+            IPAddress other = new IPAddress(notation);
+            Assert.assertEquals(notation, address, other);
+            Assert.assertEquals(notation, address.hashCode(), other.hashCode());
+            Assert.assertEquals(notation, other.getAddress());
+        }
+        Assert.assertNotEquals(address, new IPAddress("10.0.0.2"));
+        Assert.assertEquals("10.0.0.1", new IPAddress(0x0A000001).getAddress());
+        Assert.assertEquals("255.255.255.255", new IPAddress(-1).getAddress());
+
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt();
+            IPAddress fromInt = new IPAddress(value);
+            IPAddress parsed = new IPAddress(fromInt.getAddress());
+            Assert.assertEquals(value, parsed.toInt());
+            Assert.assertEquals(fromInt, parsed);
+            Assert.assertEquals(oldToInt(fromInt.getAddress()), parsed.toInt());
+        }
+    }
+
+    /**
+     * Test the conversions between the prefix lengths and the masks, from /0 to /32, against the previous loops.
+     */
+    @Test
+    public void testMasks() throws Exception {
+        Assert.assertEquals("0.0.0.0", IPAddress.getIPv4NetMask(0).getAddress());
+        Assert.assertEquals(0, IPAddress.getIPv4NetMask(0).getMaskFromIPv4Address());
+        Assert.assertEquals("255.255.255.255", IPAddress.getIPv4NetMask(32).getAddress());
+        Assert.assertEquals(32, IPAddress.getIPv4NetMask(32).getMaskFromIPv4Address());
+        Assert.assertEquals(new IPAddress("255.255.255.0"), IPAddress.getIPv4NetMask(24));
+        Assert.assertTrue(IPAddress.networkInOtherNetwork(new IPAddress("10.1.2.3"), IPAddress.getIPv4NetMask(32), new IPAddress("0.0.0.0"), IPAddress.getIPv4NetMask(0)));
+        Assert.assertFalse(IPAddress.networkInOtherNetwork(new IPAddress("10.1.2.3"), IPAddress.getIPv4NetMask(32), new IPAddress("10.1.2.4"), IPAddress.getIPv4NetMask(32)));
+
+        for (int prefix = -2; prefix <= 34; prefix++) {
+            Assert.assertEquals("/" + prefix, oldNetMask(prefix), IPAddress.getIPv4NetMaskInt(prefix));
+            Assert.assertEquals("/" + prefix, oldNetMask(prefix), IPAddress.getIPv4NetMask(prefix).toInt());
+            if (prefix >= 0 && prefix <= 32)
+                Assert.assertEquals("/" + prefix, prefix, IPAddress.getIPv4NetMask(prefix).getMaskFromIPv4Address());
+        }
+
+        Random random = new Random(4);
+        for (int i = 0; i < 10000; i++) {
+            int value = i < 64 ? 1 << (i % 32) : random.nextInt() >> random.nextInt(32);
+            Assert.assertEquals(oldMaskFromIPv4Address(value), new IPAddress(value).getMaskFromIPv4Address());
+        }
+    }
+
+    /**
+     * The previous conversion of a dotted decimal string to an int
+     *
+     * @param address the string of the address
+     * @return the 32 bits int of the address
+     */
+    private static int oldToInt(String address) {
+        String[] ip_string = address.split("\\.");
+        return ((Integer.parseInt(ip_string[0]) & 0xFF) << 24) |
+                ((Integer.parseInt(ip_string[1]) & 0xFF) << 16) |
+                ((Integer.parseInt(ip_string[2]) & 0xFF) << 8) |
+                ((Integer.parseInt(ip_string[3]) & 0xFF));
+    }
+
+    /**
+     * The previous computation of a mask from its prefix length
+     *
+     * @param netPrefix the prefix length
+     * @return the 32 bits int of the mask
+     */
+    private static int oldNetMask(int netPrefix) {
+        if (netPrefix == 0)
+            return 0;
+        int shiftby = (1 << 31);
+        for (int i = netPrefix - 1; i > 0; i--) {
+            shiftby = (shiftby >> 1);
+        }
+        return shiftby;
+    }
+
+    /**
+     * The previous computation of a prefix length from a mask
+     *
+     * @param ip_int the 32 bits int of the mask
+     * @return the prefix length
+     */
+    private static int oldMaskFromIPv4Address(int ip_int) {
+        int i = 31;
+        while (i >= 0 && (ip_int << i) == 0) {
+            i--;
+        }
+        return i + 1;
+    }
+}
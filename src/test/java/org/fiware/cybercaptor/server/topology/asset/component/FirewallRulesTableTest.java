@@ -0,0 +1,250 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.topology.asset.component;
+
+import org.fiware.cybercaptor.server.topology.asset.IPAddress;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Action;
+import org.fiware.cybercaptor.server.topology.asset.component.FirewallRule.Protocol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Class to test the compiled firewall rules against the linear scan of the rules.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class FirewallRulesTableTest {
+
+    private static final Action[] ACTIONS = {Action.ACCEPT, Action.DROP, Action.LOG};
+
+    private static final int[] PORTS = {0, 22, 53, 80, 443, 1024, 3306, 8080, 65535};
+
+    /**
+     * Test that the compiled rules give the same decision as the linear scan, on random tables and packets.
+     */
+    @Test
+    public void testCompiledRulesMatchLinearScan() {
+        Random random = new Random(42);
+        for (int t = 0; t < 50; t++) {
+            FirewallRulesTable table = randomTable(random, FirewallRulesTable.CLASSIFIER_THRESHOLD + random.nextInt(500));
+            for (int p = 0; p < 2000; p++) {
+                assertSameDecision(table, random);
+            }
+        }
+    }
+
+    /**
+     * Test that the compiled rules are rebuilt when rules are added or removed.
+     */
+    @Test
+    public void testCompiledRulesInvalidation() {
+        Random random = new Random(7);
+        FirewallRulesTable table = randomTable(random, 100);
+        IPAddress source = new IPAddress(0x0A000001);
+        IPAddress destination = new IPAddress(0x0A000002);
+        table.packetCanPass(Protocol.TCP, source, IPAddress.getIPv4NetMask(32), 1234, destination, IPAddress.getIPv4NetMask(32), 4242);
+
+        FirewallRule rule = table.addFirewallRule(Action.DROP, Protocol.TCP, source, IPAddress.getIPv4NetMask(32), new PortRange(true), destination, IPAddress.getIPv4NetMask(32), new PortRange(4242, 4242));
+        table.getRuleList().remove(rule);
+        table.getRuleList().add(0, rule);
+        table.invalidate();
+        Assert.assertFalse(table.packetCanPass(Protocol.TCP, source, IPAddress.getIPv4NetMask(32), 1234, destination, IPAddress.getIPv4NetMask(32), 4242));
+
+        Assert.assertTrue(table.removeFirewallRule(rule));
+        Assert.assertEquals(table.packetCanPassLinear(Protocol.TCP, source, IPAddress.getIPv4NetMask(32), new PortRange(1234, 1234), destination, IPAddress.getIPv4NetMask(32), new PortRange(4242, 4242)),
+                table.packetCanPass(Protocol.TCP, source, IPAddress.getIPv4NetMask(32), 1234, destination, IPAddress.getIPv4NetMask(32), 4242));
+    }
+
+    /**
+     * Test that the indexed conflict search and anomaly analysis give the same results as the comparison
+     * with all the rules, on random tables.
+     */
+    @Test
+    public void testIndexedConflictsMatchLinearScan() {
+        Random random = new Random(2015);
+        for (int t = 0; t < 30; t++) {
+            FirewallRulesTable table = randomTable(random, FirewallRulesTable.CLASSIFIER_THRESHOLD + random.nextInt(300));
+            List<FirewallRule> rules = table.getRules();
+            for (int r = 0; r < 200; r++) {
+                FirewallRule rule = random.nextBoolean() ? rules.get(random.nextInt(rules.size())) : randomTable(random, 1).getRules().get(0);
+                List<FirewallRule> expected = new ArrayList<FirewallRule>();
+                for (FirewallRule ruleToTest : rules) {
+                    if (rule.includedIntoRule(ruleToTest) && rule.getAction() != ruleToTest.getAction())
+                        expected.add(ruleToTest);
+                    if (ruleToTest.includedIntoRule(rule) && rule.getAction() != ruleToTest.getAction())
+                        expected.add(ruleToTest);
+                }
+                Assert.assertEquals(rule.toString(), expected, table.getConflictsFirewallRulesWith(rule));
+            }
+
+            List<String> expectedAnomalies = new ArrayList<String>();
+            for (int position = 0; position < rules.size(); position++) {
+                FirewallRule rule = rules.get(position);
+                for (int covering = 0; covering < position && rule.getAction() != Action.LOG; covering++) {
+                    FirewallRule coveringRule = rules.get(covering);
+                    if (coveringRule.getAction() != Action.LOG && coveringRule.getProtocol().contained(rule.getProtocol()) && rule.includedIntoRule(coveringRule)) {
+                        expectedAnomalies.add((coveringRule.getAction() == rule.getAction() ? "REDUNDANT" : "SHADOWED") + " " + position + " " + covering);
+                        break;
+                    }
+                }
+            }
+            List<String> anomalies = new ArrayList<String>();
+            for (FirewallRuleAnomaly anomaly : table.getRuleAnomalies()) {
+                anomalies.add(anomaly.getType() + " " + anomaly.getRulePosition() + " " + anomaly.getCoveringRulePosition());
+            }
+            Assert.assertEquals(expectedAnomalies, anomalies);
+        }
+    }
+
+    /**
+     * Test that a clone is independent from its original table, and that the original table keeps its rules.
+     */
+    @Test
+    public void testClone() throws Exception {
+        Random random = new Random(46);
+        FirewallRulesTable table = randomTable(random, 50);
+        List<FirewallRule> originalRules = new ArrayList<FirewallRule>(table.getRules());
+        FirewallRulesTable clone = table.clone();
+        FirewallRule rule = originalRules.get(10);
+        Assert.assertEquals(originalRules, clone.getRules());
+
+        //The original table is modified with the references to its rules
+        Assert.assertTrue(table.removeFirewallRule(rule));
+        Assert.assertEquals(Action.DROP, table.addFirewallRule(Action.DROP, Protocol.TCP, new IPAddress(0x0A000001), IPAddress.getIPv4NetMask(32), new PortRange(true),
+                new IPAddress(0x0A000002), IPAddress.getIPv4NetMask(32), new PortRange(22, 22)).getAction());
+        for (FirewallRule originalRule : originalRules) {
+            if (originalRule != rule)
+                Assert.assertTrue(table.getRules().contains(originalRule));
+        }
+        Assert.assertEquals(originalRules, clone.getRules());
+        for (int i = 0; i < originalRules.size(); i++) {
+            for (FirewallRule conflict : table.getConflictsFirewallRulesWith(originalRules.get(i))) {
+                Assert.assertTrue(originalRules.contains(conflict) || table.getRules().indexOf(conflict) == table.getRules().size() - 1);
+            }
+        }
+
+        //The modification of the clone copies its rules, without changing the original table
+        List<FirewallRule> tableRules = new ArrayList<FirewallRule>(table.getRules());
+        clone.getRuleList().remove(0);
+        clone.invalidate();
+        Assert.assertEquals(49, clone.getRules().size());
+        Assert.assertNotSame(originalRules.get(1), clone.getRules().get(0));
+        Assert.assertEquals(originalRules.get(1).toString(), clone.getRules().get(0).toString());
+        Assert.assertEquals(tableRules, table.getRules());
+        for (int i = 0; i < tableRules.size(); i++) {
+            Assert.assertSame(tableRules.get(i), table.getRules().get(i));
+        }
+        Assert.assertFalse(clone.removeFirewallRule(originalRules.get(2)));
+    }
+
+    /**
+     * Check the decision of the compiled rules for a random packet
+     *
+     * @param table  the firewall rule table
+     * @param random the random generator
+     */
+    private static void assertSameDecision(FirewallRulesTable table, Random random) {
+        Protocol protocol = Protocol.values()[random.nextInt(Protocol.values().length)];
+        IPAddress source = randomAddress(random, table);
+        IPAddress destination = randomAddress(random, table);
+        IPAddress sourceMask = randomPacketMask(random);
+        IPAddress destinationMask = randomPacketMask(random);
+        PortRange sourcePortRange = randomPortRange(random);
+        PortRange destinationPortRange = randomPortRange(random);
+        boolean expected = table.packetCanPassLinear(protocol, source, sourceMask, sourcePortRange, destination, destinationMask, destinationPortRange);
+        boolean compiled = table.packetCanPass(protocol, source, sourceMask, sourcePortRange, destination, destinationMask, destinationPortRange);
+        if (!(source.equals(destination) && sourceMask.getMaskFromIPv4Address() == 32 && destinationMask.getMaskFromIPv4Address() == 32))
+            Assert.assertEquals(protocol + " " + source + "/" + sourceMask + ":" + sourcePortRange + " -> " + destination + "/" + destinationMask + ":" + destinationPortRange, expected, compiled);
+    }
+
+    /**
+     * @param random        the random generator
+     * @param numberOfRules the number of rules
+     * @return a random firewall rule table
+     */
+    private static FirewallRulesTable randomTable(Random random, int numberOfRules) {
+        FirewallRulesTable table = new FirewallRulesTable(random.nextBoolean());
+        table.setDefaultAction(random.nextBoolean() ? Action.ACCEPT : Action.DROP);
+        for (int i = 0; i < numberOfRules; i++) {
+            IPAddress source = new IPAddress(0x0A000000 | random.nextInt(1 << 16));
+            IPAddress destination = new IPAddress(0x0A000000 | random.nextInt(1 << 16));
+            table.getRuleList().add(new FirewallRule(ACTIONS[random.nextInt(ACTIONS.length)], Protocol.values()[random.nextInt(Protocol.values().length)],
+                    source, randomRuleMask(random), randomPortRange(random), destination, randomRuleMask(random), randomPortRange(random), FirewallRule.Table.INPUT));
+        }
+        table.invalidate();
+        return table;
+    }
+
+    /**
+     * @param random the random generator
+     * @param table  the firewall rule table
+     * @return a random address, often close to an address of a rule
+     */
+    private static IPAddress randomAddress(Random random, FirewallRulesTable table) {
+        if (random.nextInt(4) == 0)
+            return new IPAddress(random.nextInt());
+        FirewallRule rule = table.getRuleList().get(random.nextInt(table.getRuleList().size()));
+        int address = random.nextBoolean() ? rule.getSource().toInt() : rule.getDestination().toInt();
+        return new IPAddress(address ^ (random.nextInt(4) == 0 ? random.nextInt(1 << 10) : 0));
+    }
+
+    /**
+     * @param random the random generator
+     * @return a random mask of a rule : mostly prefixes, sometimes non contiguous
+     */
+    private static IPAddress randomRuleMask(Random random) {
+        if (random.nextInt(30) == 0)
+            return new IPAddress(random.nextInt());
+        return IPAddress.getIPv4NetMask(new int[]{0, 8, 16, 20, 24, 28, 30, 32}[random.nextInt(8)]);
+    }
+
+    /**
+     * @param random the random generator
+     * @return a random mask of a packet : mostly hosts
+     */
+    private static IPAddress randomPacketMask(Random random) {
+        int choice = random.nextInt(10);
+        if (choice == 0)
+            return IPAddress.getIPv4NetMask(0);
+        else if (choice == 1)
+            return IPAddress.getIPv4NetMask(random.nextInt(33));
+        return IPAddress.getIPv4NetMask(32);
+    }
+
+    /**
+     * @param random the random generator
+     * @return a random port range
+     */
+    private static PortRange randomPortRange(Random random) {
+        int choice = random.nextInt(6);
+        if (choice == 0)
+            return new PortRange(true);
+        int min = random.nextBoolean() ? PORTS[random.nextInt(PORTS.length)] : random.nextInt(65536);
+        if (choice == 1)
+            return new PortRange(min, min + random.nextInt(2000) - 100);
+        return new PortRange(min, min);
+    }
+}
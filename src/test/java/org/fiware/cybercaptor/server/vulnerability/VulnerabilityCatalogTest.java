@@ -0,0 +1,262 @@
+/****************************************************************************************
+ * This file is part of FIWARE CyberCAPTOR,                                             *
+ * instance of FIWARE Cyber Security Generic Enabler                                    *
+ * Copyright (C) 2012-2015  Thales Services S.A.S.,                                     *
+ * 20-22 rue Grande Dame Rose 78140 VELIZY-VILACOUBLAY FRANCE                           *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is free software; you can redistribute                            *
+ * it and/or modify it under the terms of the GNU General Public License                *
+ * as published by the Free Software Foundation; either version 3 of the License,       *
+ * or (at your option) any later version.                                               *
+ *                                                                                      *
+ * FIWARE CyberCAPTOR is distributed in the hope                                        *
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the implied           *
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the            *
+ * GNU General Public License for more details.                                         *
+ *                                                                                      *
+ * You should have received a copy of the GNU General Public License                    *
+ * along with FIWARE CyberCAPTOR.                                                       *
+ * If not, see <http://www.gnu.org/licenses/>.                                          *
+ ****************************************************************************************/
+
+package org.fiware.cybercaptor.server.vulnerability;
+
+import org.fiware.cybercaptor.server.database.Database;
+import org.fiware.cybercaptor.server.database.PooledConnection;
+import org.fiware.cybercaptor.server.remediation.Patch;
+import org.fiware.cybercaptor.server.remediation.Rule;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class to test that the in-memory vulnerability catalog gives the same results as the lookup queries of the database,
+ * and that it is reloaded when the database is modified.
+ *
+ * @author François-Xavier Aguessy
+ */
+public class VulnerabilityCatalogTest {
+
+    /**
+     * The CVEs looked up, in various cases. CVE-2016-0001 is stored in two cases, CVE-1999-9999 is unknown.
+     */
+    private static final String[] CVES = {"CVE-2014-0160", "cve-2014-0160", "CVE-2015-0001", "cve-2015-0001",
+            "CVE-2016-0001", "cve-2016-0001", "Cve-2016-0001", "CVE-1999-9999"};
+
+    /**
+     * The patch links looked up
+     */
+    private static final String[] PATCH_LINKS = {"http://example.com/Patch-A", "http://example.com/patch-a",
+            "HTTP://EXAMPLE.COM/PATCH-B", "http://example.com/patch-c"};
+
+    /**
+     * The snort rules looked up
+     */
+    private static final String[] RULES = {"alert tcp any any -> any 443 (msg:\"Heartbleed\"; sid:1;)",
+            "ALERT TCP ANY ANY -> ANY 443 (MSG:\"HEARTBLEED\"; SID:1;)", "alert udp any any -> any 53 (sid:2;)", "alert icmp any any -> any any"};
+
+    /**
+     * The CPEs looked up
+     */
+    private static final String[] CPES = {"cpe:/a:openssl:openssl:1.0.1", "CPE:/A:OPENSSL:OPENSSL:1.0.1",
+            "cpe:/a:vendor:product", "cpe:/a:unknown:product"};
+
+    /**
+     * The folder of the database file
+     */
+    @org.junit.Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The database
+     */
+    private Database db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new Database(new File(folder.getRoot(), "vulnerability.db").getPath());
+        db.createDB();
+        db.executeQuery("INSERT INTO cvss VALUES (1, 5.0, 'NETWORK', 'LOW', 'NONE', 'PARTIAL', 'NONE', 'NONE')");
+        db.executeQuery("INSERT INTO cvss VALUES (2, 9.3, 'NETWORK', 'MEDIUM', 'NONE', 'COMPLETE', 'COMPLETE', 'COMPLETE')");
+        db.executeQuery("INSERT INTO vulnerability (id, cve, description, cvss_id) VALUES (1, 'CVE-2014-0160', 'Heartbleed', 2)");
+        db.executeQuery("INSERT INTO vulnerability (id, cve, description, cvss_id) VALUES (2, 'cve-2015-0001', 'Stored in lower case', 1)");
+        db.executeQuery("INSERT INTO vulnerability (id, cve, description, cvss_id) VALUES (3, 'cve-2016-0001', 'First case', 0)");
+        db.executeQuery("INSERT INTO vulnerability (id, cve, description, cvss_id) VALUES (4, 'CVE-2016-0001', 'Second case', 1)");
+        db.executeQuery("INSERT INTO patchs (id, link, description) VALUES (1, 'http://example.com/Patch-A', 'Patch A')");
+        db.executeQuery("INSERT INTO patchs (id, link, description) VALUES (2, 'http://example.com/patch-b', 'Patch B')");
+        db.executeQuery("INSERT INTO patchs (id, link, description) VALUES (3, 'HTTP://EXAMPLE.COM/PATCH-A', 'Patch A again')");
+        db.executeQuery("INSERT INTO rules (id, rule, description, sid, gid) VALUES (1, 'alert tcp any any -> any 443 (msg:\"Heartbleed\"; sid:1;)', 'Rule 1', 1, 1)");
+        db.executeQuery("INSERT INTO rules (id, rule, description, sid, gid) VALUES (2, 'alert udp any any -> any 53 (sid:2;)', 'Rule 2', 2, 1)");
+        db.executeQuery("INSERT INTO cpe (id, cpe_id) VALUES (1, 'cpe:/a:openssl:openssl:1.0.1')");
+        db.executeQuery("INSERT INTO cpe (id, cpe_id) VALUES (2, 'cpe:/a:Vendor:Product')");
+        //The relations are not inserted in the order of their ids
+        int[][] patchRelations = {{2, 1}, {1, 4}, {1, 1}, {3, 3}, {1, 2}, {2, 4}};
+        for (int[] relation : patchRelations) {
+            db.executeQuery("INSERT INTO patchs_vulnerability (id_patch, id_vulnerability) VALUES (" + relation[0] + ", " + relation[1] + ")");
+        }
+        int[][] ruleRelations = {{2, 1}, {1, 3}, {1, 1}, {2, 3}};
+        for (int[] relation : ruleRelations) {
+            db.executeQuery("INSERT INTO rules_vulnerability (id_rule, id_vulnerability) VALUES (" + relation[0] + ", " + relation[1] + ")");
+        }
+        int[][] cpeRelations = {{1, 4}, {1, 1}, {2, 2}, {1, 3}};
+        for (int[] relation : cpeRelations) {
+            db.executeQuery("INSERT INTO cpe_vulnerability (id_cpe, id_vulnerability) VALUES (" + relation[0] + ", " + relation[1] + ")");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.getConnectionPool().close();
+    }
+
+    /**
+     * Test that the lookups of the catalog return the same objects, in the same order, as the lookup queries.
+     */
+    @Test
+    public void testLookupsMatchQueries() throws Exception {
+        VulnerabilityCatalog catalog = db.getVulnerabilityCatalog();
+        Assert.assertEquals(4, catalog.getNumberOfVulnerabilities());
+        PooledConnection connection = db.acquireReadConnection();
+        try {
+            Connection conn = connection.getConnection();
+            for (String cve : CVES) {
+                Vulnerability fromDatabase = new Vulnerability(0, cve, "");
+                fromDatabase.loadParametersFromDatabase(conn);
+                Vulnerability fromCatalog = new Vulnerability(0, cve, "");
+                fromCatalog.loadParametersFromCatalog(catalog);
+                Assert.assertEquals(cve, describe(fromDatabase), describe(fromCatalog));
+                Assert.assertEquals(cve, Vulnerability.getIdVulnerabilityFromCVE(cve, conn), fromCatalog.id);
+
+                Assert.assertEquals(cve, describePatches(new Vulnerability(0, cve, "").getPatchs(conn)), describePatches(catalog.getPatches(cve)));
+                Assert.assertEquals(cve, describeRules(new Vulnerability(0, cve, "").getRules(conn)), describeRules(catalog.getRules(cve)));
+            }
+            //The first of the CVEs equal but for the case, and the patches sorted as with the lookup index
+            Assert.assertEquals(3, catalog.getVulnerability("CVE-2016-0001").id);
+            Assert.assertEquals(1, catalog.getPatches("cve-2014-0160").get(0).getId());
+
+            for (int id = 0; id <= 5; id++) {
+                Vulnerability fromDatabase = new Vulnerability(0, "", "");
+                boolean found = fromDatabase.loadFromDatabase(id, conn);
+                Vulnerability fromCatalog = catalog.getVulnerability(id);
+                Assert.assertEquals(found, fromCatalog != null);
+                if (found)
+                    Assert.assertEquals(describe(fromDatabase), describe(fromCatalog));
+            }
+
+            for (String link : PATCH_LINKS) {
+                Assert.assertEquals(link, describeVulnerabilities(new Patch(link, "").getCorectedVulnerabilities(conn)),
+                        describeVulnerabilities(new Patch(link, "").getCorectedVulnerabilities(catalog)));
+            }
+            for (String text : RULES) {
+                Assert.assertEquals(text, describeVulnerabilities(new Rule(text, new HashMap<String, List<String>>()).getCorectedVulnerabilities(conn)),
+                        describeVulnerabilities(new Rule(text, new HashMap<String, List<String>>()).getCorectedVulnerabilities(catalog)));
+            }
+            for (String cpe : CPES) {
+                Assert.assertEquals(cpe, describeVulnerabilities(new CPE(cpe).getVulnerabilities(conn)),
+                        describeVulnerabilities(new CPE(cpe).getVulnerabilities(catalog)));
+            }
+            Assert.assertEquals(3, catalog.getVulnerabilitiesOfCPE("cpe:/a:openssl:openssl:1.0.1").size());
+        } finally {
+            connection.release();
+        }
+    }
+
+    /**
+     * Test that the catalog is reloaded, with a new version, after a write through the database,
+     * a write on its connection and an import of CPEs.
+     */
+    @Test
+    public void testReloadAfterWrite() throws Exception {
+        VulnerabilityCatalog catalog = db.getVulnerabilityCatalog();
+        Assert.assertSame(catalog, db.getVulnerabilityCatalog());
+        Assert.assertSame(catalog, db.getLoadedVulnerabilityCatalog());
+
+        db.executeQuery("INSERT INTO vulnerability (id, cve, description, cvss_id) VALUES (5, 'CVE-2017-0001', 'New', 1)");
+        Assert.assertNull(db.getLoadedVulnerabilityCatalog());
+        VulnerabilityCatalog reloadedCatalog = db.getVulnerabilityCatalog();
+        Assert.assertNotSame(catalog, reloadedCatalog);
+        Assert.assertTrue(reloadedCatalog.getVersion() > catalog.getVersion());
+        Assert.assertEquals("New", reloadedCatalog.getVulnerability("cve-2017-0001").description);
+        Assert.assertNull(catalog.getVulnerability("CVE-2017-0001"));
+
+        //A write that does not go through the Database object is detected with the state of the database files
+        catalog = reloadedCatalog;
+        Statement stmt = db.getConn().createStatement();
+        stmt.executeUpdate("UPDATE vulnerability SET description = 'Updated' WHERE id = 5");
+        stmt.close();
+        reloadedCatalog = db.getVulnerabilityCatalog();
+        Assert.assertTrue(reloadedCatalog.getVersion() > catalog.getVersion());
+        Assert.assertEquals("Updated", reloadedCatalog.getVulnerability("CVE-2017-0001").description);
+
+        //Import of CPEs, as in CPE.main
+        catalog = reloadedCatalog;
+        Assert.assertTrue(catalog.getVulnerabilitiesOfCPE("cpe:/a:new:product").isEmpty());
+        File feedFolder = folder.newFolder("feeds");
+        FileWriter writer = new FileWriter(new File(feedFolder, "nvdcve-2.0-2017.csv"));
+        writer.write("CVE-2017-0001:5.0:cpe:/a:new:product\nCVE-2014-0160:5.0:cpe:/a:new:product\n");
+        writer.close();
+        new CPECVEImporter(db.getConn()).importFolder(feedFolder.getPath(), CPECVEImporter.Mode.INCREMENTAL);
+        db.getConnectionPool().invalidateVulnerabilityCatalog();
+        reloadedCatalog = db.getVulnerabilityCatalog();
+        Assert.assertTrue(reloadedCatalog.getVersion() > catalog.getVersion());
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Vulnerability vulnerability : reloadedCatalog.getVulnerabilitiesOfCPE("CPE:/A:NEW:PRODUCT")) {
+            ids.add(vulnerability.id);
+        }
+        Assert.assertEquals("[1, 5]", ids.toString());
+    }
+
+    /**
+     * @param vulnerability a vulnerability
+     * @return the string of the fields of the vulnerability that are loaded from the database
+     */
+    private static String describe(Vulnerability vulnerability) {
+        return vulnerability.id + "|" + vulnerability.cve + "|" + vulnerability.description + "|" + vulnerability.cvss.getId() + "|" + vulnerability.cvss.getScore();
+    }
+
+    /**
+     * @param vulnerabilities vulnerabilities
+     * @return the strings of the vulnerabilities, in their order
+     */
+    private static List<String> describeVulnerabilities(List<Vulnerability> vulnerabilities) {
+        List<String> result = new ArrayList<String>();
+        for (Vulnerability vulnerability : vulnerabilities) {
+            result.add(describe(vulnerability));
+        }
+        return result;
+    }
+
+    /**
+     * @param patches patches
+     * @return the strings of the patches, in their order
+     */
+    private static List<String> describePatches(List<Patch> patches) {
+        List<String> result = new ArrayList<String>();
+        for (Patch patch : patches) {
+            result.add(patch.getId() + "|" + patch.getLink() + "|" + patch.getDescription());
+        }
+        return result;
+    }
+
+    /**
+     * @param rules snort rules
+     * @return the strings of the rules, in their order
+     */
+    private static List<String> describeRules(List<Rule> rules) {
+        List<String> result = new ArrayList<String>();
+        for (Rule rule : rules) {
+            result.add(rule.getId() + "|" + rule.getRule() + "|" + rule.getDescription() + "|" + rule.getSid() + "|" + rule.getGid());
+        }
+        return result;
+    }
+}